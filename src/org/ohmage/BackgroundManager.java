@@ -25,6 +25,7 @@ import android.os.SystemClock;
 import org.ohmage.db.DbHelper;
 import org.ohmage.db.Models.Campaign;
 import org.ohmage.logprobe.Log;
+import org.ohmage.service.CompactionService;
 import org.ohmage.triggers.base.TriggerInit;
 
 public class BackgroundManager {
@@ -40,5 +41,8 @@ public class BackgroundManager {
         for (Campaign c : dbHelper.getReadyCampaigns()) {
             TriggerInit.initTriggers(context, c.mUrn);
         }
+
+        // keep the database from growing forever
+        CompactionService.schedule(context);
     }
 }
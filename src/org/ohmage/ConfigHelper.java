@@ -35,6 +35,9 @@ public class ConfigHelper {
     private static final String KEY_ADMIN_MODE = "key_admin_mode";
     private static final String KEY_LOG_LEVEL = "key_log_level";
     private static final String KEY_LOG_ANALYTICS = "keg_log_analytics";
+    private static final String KEY_RETENTION_DAYS = "key_retention_days";
+    private static final String KEY_RETENTION_MAX_DB_SIZE = "key_retention_max_db_size";
+    private static final String KEY_LAST_COMPACTION = "last_compaction";
 
     private static String serverUrl;
     private final SharedPreferences mPreferences;
@@ -118,6 +121,40 @@ public class ConfigHelper {
         mPreferences.edit().putBoolean(KEY_LOG_ANALYTICS, value).commit();
     }
 
+    /**
+     * @return days uploaded responses are kept on the phone, or 0 to keep them until the
+     *         database reaches its size cap
+     */
+    public int getRetentionDays() {
+        return mPreferences.getInt(KEY_RETENTION_DAYS,
+                mContext.getResources().getInteger(R.integer.retention_days));
+    }
+
+    public void setRetentionDays(int days) {
+        mPreferences.edit().putInt(KEY_RETENTION_DAYS, days).commit();
+    }
+
+    /**
+     * @return bytes the database may hold before the oldest uploaded responses are removed, or 0
+     *         for no cap
+     */
+    public long getRetentionMaxDbSize() {
+        return mPreferences.getLong(KEY_RETENTION_MAX_DB_SIZE,
+                mContext.getResources().getInteger(R.integer.retention_max_db_size_kb) * 1024L);
+    }
+
+    public void setRetentionMaxDbSize(long bytes) {
+        mPreferences.edit().putLong(KEY_RETENTION_MAX_DB_SIZE, bytes).commit();
+    }
+
+    public long getLastCompaction() {
+        return mPreferences.getLong(KEY_LAST_COMPACTION, 0);
+    }
+
+    public void setLastCompaction(long time) {
+        mPreferences.edit().putLong(KEY_LAST_COMPACTION, time).commit();
+    }
+
     /**
      * Clears all settings specific to deployments
      */
@@ -41,6 +41,7 @@ import org.json.JSONException;
 import org.json.JSONObject;
 import org.ohmage.Utilities.CountingInputStream;
 import org.ohmage.conditionevaluator.DataPoint.PromptType;
+import org.ohmage.db.Models.Campaign;
 import org.ohmage.logprobe.Analytics;
 import org.ohmage.logprobe.Log;
 
@@ -49,6 +50,8 @@ import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.zip.GZIPOutputStream;
 
@@ -225,32 +228,40 @@ public class OhmageApi {
 		}
 	}
 
-	public static class CampaignReadResponse extends Response {
-		protected JSONObject mData;
-		protected JSONObject mMetadata;
-
-		public JSONObject getData() {
-			return mData;
-		}
+	/**
+	 * The metadata campaign/read returns for a single campaign, holding only the fields we store
+	 */
+	public static class CampaignInfo {
+		public String mUrn;
+		public String mName;
+		public String mDescription;
+		public String mCreationTimestamp;
+		public String mPrivacy = Campaign.PRIVACY_UNKNOWN;
+		public String mIcon;
+		public boolean mRunning;
+		public boolean mParticipant;
+	}
 
-		public JSONObject getMetadata() {
-			return mMetadata;
-		}
+	public static class CampaignReadResponse extends Response {
+		protected final LinkedHashMap<String, CampaignInfo> mCampaigns = new LinkedHashMap<String, CampaignInfo>();
 
-		public void setData(JSONObject data) {
-			this.mData = data;
+		/**
+		 * @return the campaigns returned by the server in the order they were read
+		 */
+		public Collection<CampaignInfo> getCampaigns() {
+			return mCampaigns.values();
 		}
 
-		public void setMetadata(JSONObject metadata) {
-			this.mMetadata = metadata;
+		/**
+		 * @param campaignUrn
+		 * @return the campaign with the given urn, or null if the server didn't return it
+		 */
+		public CampaignInfo getCampaign(String campaignUrn) {
+			return mCampaigns.get(campaignUrn);
 		}
 
-		@Override
-		public void populateFromJSON(JSONObject rootJson) throws JSONException {
-			if (rootJson.has("data"))
-				mData = rootJson.getJSONObject("data");
-			if (rootJson.has("metadata"))
-				mMetadata = rootJson.getJSONObject("metadata");
+		public void addCampaign(CampaignInfo campaign) {
+			mCampaigns.put(campaign.mUrn, campaign);
 		}
 
 		@Override
@@ -534,7 +545,7 @@ public class OhmageApi {
 			}
 			UrlEncodedFormEntity formEntity = new UrlEncodedFormEntity(nameValuePairs);
 
-			return (CampaignReadResponse)parseReadResponse(url, doHttpPost(url, formEntity, GZIP), CampaignReadResponse.class);
+			return parseCampaignReadResponse(url, doHttpPost(url, formEntity, GZIP));
 		} catch (IOException e) {
 			Log.e(TAG, "IOException while creating http entity", e);
 			CampaignReadResponse candidate = new CampaignReadResponse();
@@ -567,6 +578,146 @@ public class OhmageApi {
 		}
 	}
 
+	/**
+	 * Parses the campaign/read response in a single pass with the jackson streaming parser. Only the
+	 * fields in {@link CampaignInfo} are kept for each campaign, everything else is skipped.
+	 * @param url
+	 * @param response
+	 * @return the campaigns which were read
+	 */
+	private CampaignReadResponse parseCampaignReadResponse(String url, HttpResponse response) {
+		Result result = Result.HTTP_ERROR;
+		String[] errorCodes = null;
+
+		CampaignReadResponse candidate = new CampaignReadResponse();
+		CountingInputStream inputstream = null;
+
+		if (response != null) {
+			Log.v(TAG, response.getStatusLine().toString());
+			if (response.getStatusLine().getStatusCode() == 200) {
+				HttpEntity responseEntity = response.getEntity();
+				if (responseEntity != null) {
+					try {
+						JsonFactory f = new MappingJsonFactory();
+						inputstream = new CountingInputStream(responseEntity.getContent());
+						JsonParser jp = f.createJsonParser(inputstream);
+
+						// expecting: {result: "<status>", metadata: {...}, data: {<urn>: {...}, <urn>: {...}...}}
+
+						JsonToken cur = jp.nextToken();
+						if (cur != JsonToken.START_OBJECT)
+							throw new JSONException("Top-level entity expected to be an object, found " + cur);
+
+						while (jp.nextToken() != JsonToken.END_OBJECT) {
+							String fieldName = jp.getCurrentName();
+							cur = jp.nextToken();
+
+							if (fieldName.equalsIgnoreCase("result")) {
+								result = "success".equalsIgnoreCase(jp.getText()) ? Result.SUCCESS : Result.FAILURE;
+							}
+							else if (fieldName.equalsIgnoreCase("data")) {
+								if (cur != JsonToken.START_OBJECT)
+									throw new JSONException("Data section expected to be an object, found " + cur);
+
+								// each campaign is keyed by its urn
+								while (jp.nextToken() != JsonToken.END_OBJECT) {
+									CampaignInfo campaign = new CampaignInfo();
+									campaign.mUrn = jp.getCurrentName();
+									jp.nextToken();
+									readCampaignInfo(jp, campaign);
+									candidate.addCampaign(campaign);
+								}
+							}
+							else if (fieldName.equalsIgnoreCase("errors")) {
+								if (cur != JsonToken.START_ARRAY)
+									throw new JSONException("Errors section expected to be an array, found " + cur);
+
+								List<String> errorList = new ArrayList<String>();
+								while(jp.nextToken() != JsonToken.END_ARRAY) {
+									JsonNode error = jp.readValueAsTree();
+									errorList.add(error.get("code").getTextValue());
+								}
+								errorCodes = errorList.toArray(new String[errorList.size()]);
+							}
+							else {
+								// the metadata only repeats the urns which are in the data section
+								jp.skipChildren();
+							}
+						}
+					} catch (JSONException e) {
+						Log.e(TAG, "Problem parsing response json", e);
+						result = Result.INTERNAL_ERROR;
+					} catch (IOException e) {
+						Log.e(TAG, "Problem reading response body", e);
+						result = Result.INTERNAL_ERROR;
+					}
+				} else {
+					Log.e(TAG, "No response entity in response");
+					result = Result.HTTP_ERROR;
+				}
+
+			} else {
+				Log.e(TAG, "Returned status code: " + String.valueOf(response.getStatusLine().getStatusCode()));
+				result = Result.HTTP_ERROR;
+			}
+
+		} else {
+			Log.e(TAG, "Response is null");
+			result = Result.HTTP_ERROR;
+		}
+
+		if(inputstream != null && result == Result.SUCCESS)
+			Analytics.network(mContext, url, inputstream.amountRead());
+
+		candidate.setResponseStatus(result, errorCodes);
+
+		return candidate;
+	}
+
+	/**
+	 * Reads the fields we need from a single campaign object, the parser should be positioned
+	 * on the start of the object and will be left on its end
+	 * @param jp
+	 * @param campaign
+	 * @throws IOException
+	 */
+	private static void readCampaignInfo(JsonParser jp, CampaignInfo campaign) throws IOException {
+		if (jp.getCurrentToken() != JsonToken.START_OBJECT) {
+			jp.skipChildren();
+			return;
+		}
+
+		while (jp.nextToken() != JsonToken.END_OBJECT) {
+			String fieldName = jp.getCurrentName();
+			JsonToken cur = jp.nextToken();
+
+			if ("name".equals(fieldName))
+				campaign.mName = readText(jp);
+			else if ("description".equals(fieldName))
+				campaign.mDescription = readText(jp);
+			else if ("creation_timestamp".equals(fieldName))
+				campaign.mCreationTimestamp = readText(jp);
+			else if ("running_state".equals(fieldName))
+				campaign.mRunning = "running".equalsIgnoreCase(readText(jp));
+			else if ("privacy_state".equals(fieldName))
+				campaign.mPrivacy = readText(jp);
+			else if ("icon_url".equals(fieldName))
+				campaign.mIcon = readText(jp);
+			else if ("user_roles".equals(fieldName) && cur == JsonToken.START_ARRAY) {
+				while (jp.nextToken() != JsonToken.END_ARRAY) {
+					if ("participant".equals(readText(jp)))
+						campaign.mParticipant = true;
+				}
+			}
+			else
+				jp.skipChildren();
+		}
+	}
+
+	private static String readText(JsonParser jp) throws IOException {
+		return (jp.getCurrentToken() == JsonToken.VALUE_NULL) ? null : jp.getText();
+	}
+
 	private CampaignXmlResponse parseXmlResponse(String url, HttpResponse response) {
 		Result result = Result.HTTP_ERROR;
 		String[] errorCodes = null;
@@ -48,6 +48,7 @@ import org.ohmage.logprobe.LogProbe.Status;
 import org.ohmage.prompt.multichoicecustom.MultiChoiceCustomDbAdapter;
 import org.ohmage.prompt.singlechoicecustom.SingleChoiceCustomDbAdapter;
 import org.ohmage.responsesync.ResponseSyncService;
+import org.ohmage.service.ResponseWriterService;
 import org.ohmage.service.SurveyGeotagService;
 import org.ohmage.service.UploadService;
 import org.ohmage.triggers.glue.TriggerFramework;
@@ -132,6 +133,9 @@ public class OhmageApplication extends Application {
 
         verifyState();
 
+        // write any responses which were submitted but not stored before the process died
+        ResponseWriterService.recover(this);
+
         // If they can't set a custom server, verify the server that is set is
         // the first in the list of servers
         if (!getResources().getBoolean(R.bool.allow_custom_server)) {
@@ -211,6 +215,9 @@ public class OhmageApplication extends Application {
         // clear db
         new DbHelper(this).clearAll();
 
+        // and the responses which were submitted but not written to it yet
+        ResponseWriterService.clear(this);
+
         // clear custom type dbs
         SingleChoiceCustomDbAdapter singleChoiceDbAdapter = new SingleChoiceCustomDbAdapter(this);
         if (singleChoiceDbAdapter.open()) {
@@ -282,6 +289,12 @@ public class OhmageApplication extends Application {
         super.onTerminate();
     }
 
+    @Override
+    public void onLowMemory() {
+        super.onLowMemory();
+        SurveyElementCache.trimMemory();
+    }
+
     @Override
     public Object getSystemService(String name) {
         if (ImageLoader.IMAGE_LOADER_SERVICE.equals(name)) {
@@ -31,6 +31,8 @@ import org.xmlpull.v1.XmlPullParser;
 import org.xmlpull.v1.XmlPullParserException;
 
 import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
@@ -77,13 +79,49 @@ public class PromptXmlParser {
     private static final String INSTRUCTIONS = "instructions";
 
 	public static List<SurveyElement> parseSurveyElements(InputStream promptXmlStream, String surveyId) throws XmlPullParserException, IOException {
+		return buildSurveyElements(parseSurvey(promptXmlStream, surveyId));
+	}
+
+	/**
+	 * Creates new survey elements from a parsed survey. The elements hold the answers of a
+	 * survey so each time a survey is taken it needs its own.
+	 * 
+	 * @param survey
+	 * @return the survey elements, or null if survey is null
+	 */
+	public static List<SurveyElement> buildSurveyElements(List<ParsedElement> survey) {
+		if (survey == null)
+			return null;
+
+		List<SurveyElement> surveyElements = new ArrayList<SurveyElement>(survey.size());
+		for (ParsedElement element : survey) {
+			try {
+				surveyElements.add(element.build());
+			} catch (Exception e) {
+				Log.e(TAG, "Error building prompt", e);
+			}
+		}
+		return surveyElements;
+	}
+
+	/**
+	 * Parses a survey into a form which can be kept and turned into survey elements with
+	 * {@link #buildSurveyElements(List)} without parsing the xml again
+	 * 
+	 * @param promptXmlStream
+	 * @param surveyId
+	 * @return the parsed survey or null if it wasn't found
+	 * @throws XmlPullParserException
+	 * @throws IOException
+	 */
+	public static List<ParsedElement> parseSurvey(InputStream promptXmlStream, String surveyId) throws XmlPullParserException, IOException {
 		if(promptXmlStream == null)
 			return null;
 
 		XmlPullParser parser = Xml.newPullParser();
 		parser.setInput(new BufferedReader(new InputStreamReader(promptXmlStream, "UTF-8")));
 		
-		List<SurveyElement> surveyElements = null;
+		List<ParsedElement> surveyElements = null;
 		boolean promptInProgress = false;
 		boolean repeatableSetInProgress = false;
 		boolean messageInProgress = false;
@@ -115,7 +153,7 @@ public class PromptXmlParser {
 		String terminationSkipEnabled = null;
 		String terminationSkipLabel = null;
 		String repeatableSetCondition = null;
-		List<Prompt> repeatableSetPrompts = null;
+		List<ParsedElement> repeatableSetPrompts = null;
 		
 		String messageText = null;
 		String messageCondition = null;
@@ -139,7 +177,7 @@ public class PromptXmlParser {
 					if (tagName.equalsIgnoreCase(SURVEY_ID) && !promptInProgress && !repeatableSetInProgress && !messageInProgress) {
 						if (parser.nextText().trim().equals(surveyId)) {
 							surveyFound = true;
-							surveyElements = new ArrayList<SurveyElement>();
+							surveyElements = new ArrayList<ParsedElement>();
 						}
 					} else if (surveyFound) {
 						if (tagName.equalsIgnoreCase(REPEATABLE_SET)) {
@@ -153,7 +191,7 @@ public class PromptXmlParser {
 							terminationSkipEnabled = null;
 							repeatableSetCondition = null;
 							
-							repeatableSetPrompts = new ArrayList<Prompt>();
+							repeatableSetPrompts = new ArrayList<ParsedElement>();
 							
 						} else if (tagName.equalsIgnoreCase(PROMPT)) {
 							promptInProgress = true;
@@ -250,9 +288,9 @@ public class PromptXmlParser {
 				} else if (surveyFound) {
 					if (tagName.equalsIgnoreCase(PROMPT)) {
 						try {
-							Prompt prompt = PromptFactory.createPrompt(promptType);
-							PromptBuilder builder = PromptBuilderFactory.createPromptBuilder(promptType);
-							builder.build(prompt, id, displayType, displayLabel, promptText, abbreviatedText, explanationText, defaultValue, condition, skippable, skipLabel, properties);
+							ParsedElement prompt = ParsedElement.prompt(promptType, id, displayType, displayLabel, promptText, abbreviatedText, explanationText, defaultValue, condition, skippable, skipLabel, properties);
+							// prompts which can't be built are left out
+							prompt.build();
 							if (repeatableSetInProgress) {
 								repeatableSetPrompts.add(prompt);
 							} else {
@@ -268,12 +306,12 @@ public class PromptXmlParser {
 							properties.add(new KVLTriplet(key, value, label));
 						}
 					} else if (tagName.equalsIgnoreCase(REPEATABLE_SET)) {
-						surveyElements.add(new RepeatableSetHeader(repeatableSetId, repeatableSetCondition, repeatableSetPrompts.size()));
+						surveyElements.add(ParsedElement.repeatableSetHeader(repeatableSetId, repeatableSetCondition, repeatableSetPrompts.size()));
 						surveyElements.addAll(repeatableSetPrompts);
-						surveyElements.add(new RepeatableSetTerminator(repeatableSetId, repeatableSetCondition, terminationQuestion, terminationTrueLabel, terminationFalseLabel, terminationSkipLabel, terminationSkipEnabled, repeatableSetPrompts.size()));
+						surveyElements.add(ParsedElement.repeatableSetTerminator(repeatableSetId, repeatableSetCondition, terminationQuestion, terminationTrueLabel, terminationFalseLabel, terminationSkipLabel, terminationSkipEnabled, repeatableSetPrompts.size()));
 						repeatableSetInProgress = false;
 					} else if (tagName.equalsIgnoreCase(MESSAGE)) {
-						surveyElements.add(new Message(messageText, messageCondition));
+						surveyElements.add(ParsedElement.message(messageText, messageCondition));
 						messageInProgress = false;
 					}
 				}
@@ -312,4 +350,147 @@ public class PromptXmlParser {
 
         return null;
     }
+
+	/**
+	 * The values of a survey element as they were read from the xml. These never change so they
+	 * can be cached and shared, and {@link #build()} creates a new element from them each time.
+	 */
+	public static final class ParsedElement {
+
+		private static final int PROMPT = 0;
+		private static final int REPEATABLE_SET_HEADER = 1;
+		private static final int REPEATABLE_SET_TERMINATOR = 2;
+		private static final int MESSAGE = 3;
+
+		private final int mKind;
+		private final String[] mValues;
+		private final int mPromptCount;
+		private final List<KVLTriplet> mProperties;
+
+		private ParsedElement(int kind, String[] values, int promptCount, List<KVLTriplet> properties) {
+			mKind = kind;
+			mValues = values;
+			mPromptCount = promptCount;
+			mProperties = properties;
+		}
+
+		static ParsedElement prompt(String promptType, String id, String displayType, String displayLabel, String promptText,
+				String abbreviatedText, String explanationText, String defaultValue, String condition, String skippable,
+				String skipLabel, List<KVLTriplet> properties) {
+			return new ParsedElement(PROMPT, new String[] { promptType, id, displayType, displayLabel, promptText,
+					abbreviatedText, explanationText, defaultValue, condition, skippable, skipLabel }, 0, properties);
+		}
+
+		static ParsedElement repeatableSetHeader(String id, String condition, int promptCount) {
+			return new ParsedElement(REPEATABLE_SET_HEADER, new String[] { id, condition }, promptCount, null);
+		}
+
+		static ParsedElement repeatableSetTerminator(String id, String condition, String terminationQuestion,
+				String terminationTrueLabel, String terminationFalseLabel, String terminationSkipLabel,
+				String terminationSkipEnabled, int promptCount) {
+			return new ParsedElement(REPEATABLE_SET_TERMINATOR, new String[] { id, condition, terminationQuestion,
+					terminationTrueLabel, terminationFalseLabel, terminationSkipLabel, terminationSkipEnabled }, promptCount, null);
+		}
+
+		static ParsedElement message(String messageText, String condition) {
+			return new ParsedElement(MESSAGE, new String[] { messageText, condition }, 0, null);
+		}
+
+		/**
+		 * @return the condition which decides if the element is shown, or null if it has none
+		 */
+		public String getCondition() {
+			return mValues[mKind == PROMPT ? 8 : 1];
+		}
+
+		/**
+		 * @return a new survey element
+		 */
+		public SurveyElement build() {
+			String[] v = mValues;
+			switch (mKind) {
+				case PROMPT:
+					Prompt prompt = PromptFactory.createPrompt(v[0]);
+					PromptBuilder builder = PromptBuilderFactory.createPromptBuilder(v[0]);
+					builder.build(prompt, v[1], v[2], v[3], v[4], v[5], v[6], v[7], v[8], v[9], v[10], copyProperties());
+					return prompt;
+				case REPEATABLE_SET_HEADER:
+					return new RepeatableSetHeader(v[0], v[1], mPromptCount);
+				case REPEATABLE_SET_TERMINATOR:
+					return new RepeatableSetTerminator(v[0], v[1], v[2], v[3], v[4], v[5], v[6], mPromptCount);
+				case MESSAGE:
+					return new Message(v[0], v[1]);
+				default:
+					throw new IllegalStateException("Unknown survey element " + mKind);
+			}
+		}
+
+		/**
+		 * The builders keep the properties they are given, so each prompt gets its own
+		 */
+		private ArrayList<KVLTriplet> copyProperties() {
+			if (mProperties == null)
+				return null;
+			ArrayList<KVLTriplet> properties = new ArrayList<KVLTriplet>(mProperties.size());
+			for (KVLTriplet property : mProperties)
+				properties.add(new KVLTriplet(property.key, property.value, property.label));
+			return properties;
+		}
+
+		public void writeTo(DataOutputStream out) throws IOException {
+			out.writeInt(mKind);
+			out.writeInt(mPromptCount);
+			out.writeInt(mValues.length);
+			for (String value : mValues)
+				writeString(out, value);
+
+			if (mProperties == null) {
+				out.writeInt(-1);
+			} else {
+				out.writeInt(mProperties.size());
+				for (KVLTriplet property : mProperties) {
+					writeString(out, property.key);
+					writeString(out, property.value);
+					writeString(out, property.label);
+				}
+			}
+		}
+
+		public static ParsedElement readFrom(DataInputStream in) throws IOException {
+			int kind = in.readInt();
+			int promptCount = in.readInt();
+			String[] values = new String[in.readInt()];
+			for (int i = 0; i < values.length; i++)
+				values[i] = readString(in);
+
+			ArrayList<KVLTriplet> properties = null;
+			int count = in.readInt();
+			if (count >= 0) {
+				properties = new ArrayList<KVLTriplet>(count);
+				for (int i = 0; i < count; i++)
+					properties.add(new KVLTriplet(readString(in), readString(in), readString(in)));
+			}
+			return new ParsedElement(kind, values, promptCount, properties);
+		}
+
+		// writeUTF is limited to 64k, which prompt text could reach
+		static void writeString(DataOutputStream out, String value) throws IOException {
+			if (value == null) {
+				out.writeInt(-1);
+				return;
+			}
+			byte[] bytes = value.getBytes("UTF-8");
+			out.writeInt(bytes.length);
+			out.write(bytes);
+		}
+
+		static String readString(DataInputStream in) throws IOException {
+			int length = in.readInt();
+			if (length < 0)
+				return null;
+			byte[] bytes = new byte[length];
+			in.readFully(bytes);
+			return new String(bytes, "UTF-8");
+		}
+	}
 }
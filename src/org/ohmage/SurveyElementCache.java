@@ -0,0 +1,350 @@
+package org.ohmage;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.database.Cursor;
+import android.net.Uri;
+import android.util.Log;
+
+import org.ohmage.PromptXmlParser.ParsedElement;
+import org.ohmage.conditionevaluator.ConditionGraph;
+import org.ohmage.db.DbContract.Campaigns;
+import org.ohmage.db.DbContract.Surveys;
+import org.ohmage.db.Models.Campaign;
+import org.ohmage.prompt.SurveyElement;
+import org.xmlpull.v1.XmlPullParserException;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Keeps the parsed surveys of each campaign so a survey can be started without reading and parsing
+ * the campaign xml again. Surveys are kept in memory for the most recently started surveys and on
+ * disk in the cache directory, keyed by the campaign urn and creation time so an updated campaign
+ * is never answered from an old entry.
+ * <p>
+ * Survey elements hold the answers of a survey, so only the values read from the xml are cached
+ * and each call to {@link Survey#buildElements()} returns new elements.
+ */
+public class SurveyElementCache {
+
+	private static final String TAG = "SurveyElementCache";
+
+	/** Incremented whenever the format of the files on disk changes */
+	private static final int FORMAT_VERSION = 1;
+
+	/** Number of surveys kept in memory */
+	private static final int MAX_ENTRIES = 20;
+
+	private static final String CACHE_DIR = "surveys";
+
+	/**
+	 * A parsed survey and the instructions of its campaign. Its conditions are compiled and linked
+	 * to the prompts they read when it is created, so moving through the survey doesn't parse them.
+	 */
+	public static class Survey {
+		public final String instructions;
+		private final List<ParsedElement> mElements;
+		private final ConditionGraph mConditionGraph;
+
+		Survey(String instructions, List<ParsedElement> elements) {
+			this.instructions = instructions;
+			// the parser gives null if the survey isn't in the xml
+			mElements = (elements == null) ? Collections.<ParsedElement> emptyList() : Collections.unmodifiableList(elements);
+
+			ArrayList<String> conditions = new ArrayList<String>();
+			for (ParsedElement element : mElements)
+				conditions.add(element.getCondition());
+			mConditionGraph = ConditionGraph.build(conditions);
+		}
+
+		/**
+		 * @return the graph of which conditions read which prompts
+		 */
+		public ConditionGraph getConditionGraph() {
+			return mConditionGraph;
+		}
+
+		/**
+		 * @return new elements for the survey
+		 */
+		public List<SurveyElement> buildElements() {
+			return PromptXmlParser.buildSurveyElements(mElements);
+		}
+
+		public boolean isEmpty() {
+			return mElements.isEmpty();
+		}
+	}
+
+	/** Surveys keyed by campaign urn, creation time and survey id, least recently used first */
+	private static final LinkedHashMap<String, Survey> sCache = new LinkedHashMap<String, Survey>(MAX_ENTRIES, 0.75f, true) {
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, Survey> eldest) {
+			return size() > MAX_ENTRIES;
+		}
+	};
+
+	/**
+	 * Incremented on every invalidation so surveys which were parsed while the campaign was being
+	 * replaced aren't cached
+	 */
+	private static int sGeneration;
+
+	private static int sLookups;
+	private static int sHits;
+
+	/**
+	 * Returns a survey, reading it from the disk cache or parsing the campaign xml if it isn't in
+	 * memory. Nothing is held locked while the survey is read so this can be called from any
+	 * thread.
+	 *
+	 * @param context
+	 * @param campaignUrn
+	 * @param surveyId
+	 * @return the survey, or null if the campaign doesn't exist
+	 * @throws XmlPullParserException
+	 * @throws IOException
+	 */
+	public static Survey get(Context context, String campaignUrn, String surveyId) throws XmlPullParserException, IOException {
+		String created = getCampaignCreated(context, campaignUrn);
+		if (created == null)
+			return null;
+
+		String key = campaignUrn + "\n" + created + "\n" + surveyId;
+		int generation;
+		synchronized (sCache) {
+			sLookups++;
+			Survey survey = sCache.get(key);
+			if (survey != null) {
+				sHits++;
+				return survey;
+			}
+			generation = sGeneration;
+		}
+
+		File file = getFile(context, campaignUrn, created, surveyId);
+		Survey survey = read(file);
+		if (survey == null) {
+			survey = parse(context, campaignUrn, surveyId);
+			if (survey == null)
+				return null;
+			write(file, survey);
+		}
+
+		synchronized (sCache) {
+			if (generation == sGeneration)
+				sCache.put(key, survey);
+		}
+		return survey;
+	}
+
+	/**
+	 * Drops the surveys of a campaign. Must be called after the campaign changes or is removed.
+	 *
+	 * @param context
+	 * @param campaignUrn
+	 */
+	public static void invalidate(Context context, String campaignUrn) {
+		synchronized (sCache) {
+			sGeneration++;
+			String prefix = campaignUrn + "\n";
+			for (Iterator<String> i = sCache.keySet().iterator(); i.hasNext();) {
+				if (i.next().startsWith(prefix))
+					i.remove();
+			}
+		}
+		delete(new File(getCacheDir(context), Uri.encode(campaignUrn)));
+	}
+
+	/**
+	 * Drops the surveys of every campaign
+	 *
+	 * @param context
+	 */
+	public static void clear(Context context) {
+		synchronized (sCache) {
+			sGeneration++;
+			sCache.clear();
+		}
+		delete(getCacheDir(context));
+	}
+
+	/**
+	 * Drops the surveys kept in memory. They are read back from disk the next time they are needed.
+	 */
+	public static void trimMemory() {
+		synchronized (sCache) {
+			sCache.clear();
+		}
+	}
+
+	/**
+	 * @return the number of lookups made since the process started
+	 */
+	public static int getLookups() {
+		synchronized (sCache) {
+			return sLookups;
+		}
+	}
+
+	/**
+	 * @return the number of lookups answered from memory since the process started
+	 */
+	public static int getHits() {
+		synchronized (sCache) {
+			return sHits;
+		}
+	}
+
+	private static String getCampaignCreated(Context context, String campaignUrn) {
+		ContentResolver cr = context.getContentResolver();
+		Cursor c = cr.query(Campaigns.buildCampaignUri(campaignUrn), new String[] { Campaigns.CAMPAIGN_CREATED }, null, null, null);
+		try {
+			if (c == null || !c.moveToFirst())
+				return null;
+			// campaigns which haven't been downloaded yet have no creation time
+			return c.isNull(0) ? "" : c.getString(0);
+		} finally {
+			if (c != null)
+				c.close();
+		}
+	}
+
+	/**
+	 * Parses the survey from its part of the campaign xml, which the database cuts out using the
+	 * index built when the campaign was stored. If the campaign couldn't be indexed the whole xml
+	 * is read once and both the survey and the instructions are parsed from it.
+	 */
+	private static Survey parse(Context context, String campaignUrn, String surveyId) throws XmlPullParserException, IOException {
+		ContentResolver cr = context.getContentResolver();
+		Cursor c = cr.query(Campaigns.buildSurveyXmlUri(campaignUrn, surveyId), new String[] { Surveys.SURVEY_XML,
+				Surveys.INSTRUCTIONS_XML }, null, null, null);
+		try {
+			if (c != null && c.moveToFirst() && !c.isNull(0)) {
+				try {
+					return new Survey(PromptXmlParser.parseCampaignInstructions(toStream(c.getString(1))),
+							PromptXmlParser.parseSurvey(toStream(c.getString(0)), surveyId));
+				} catch (XmlPullParserException e) {
+					// the survey may use something declared elsewhere in the xml
+					Log.w(TAG, "Error parsing the indexed xml of " + surveyId + ", parsing the whole campaign", e);
+				}
+			}
+		} finally {
+			if (c != null)
+				c.close();
+		}
+
+		InputStream xml = Campaign.loadCampaignXml(context, campaignUrn);
+		if (xml == null)
+			return null;
+
+		String instructions = PromptXmlParser.parseCampaignInstructions(xml);
+		xml.reset();
+		return new Survey(instructions, PromptXmlParser.parseSurvey(xml, surveyId));
+	}
+
+	private static InputStream toStream(String xml) throws IOException {
+		return xml == null ? null : new ByteArrayInputStream(xml.getBytes("UTF-8"));
+	}
+
+	private static File getCacheDir(Context context) {
+		return new File(context.getCacheDir(), CACHE_DIR);
+	}
+
+	private static File getFile(Context context, String campaignUrn, String created, String surveyId) {
+		File dir = new File(new File(getCacheDir(context), Uri.encode(campaignUrn)), created.length() == 0 ? "-" : Uri.encode(created));
+		return new File(dir, Uri.encode(surveyId));
+	}
+
+	/**
+	 * @return the survey in the file or null if it couldn't be read
+	 */
+	private static Survey read(File file) {
+		if (!file.exists())
+			return null;
+
+		DataInputStream in = null;
+		try {
+			in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+			if (in.readInt() != FORMAT_VERSION)
+				return null;
+
+			String instructions = ParsedElement.readString(in);
+			int count = in.readInt();
+			ArrayList<ParsedElement> elements = new ArrayList<ParsedElement>(count);
+			for (int i = 0; i < count; i++)
+				elements.add(ParsedElement.readFrom(in));
+			return new Survey(instructions, elements);
+		} catch (IOException e) {
+			Log.w(TAG, "Error reading " + file, e);
+			file.delete();
+			return null;
+		} finally {
+			close(in);
+		}
+	}
+
+	/**
+	 * Writes the survey to a temporary file which is renamed into place so a reader never sees a
+	 * partly written survey
+	 */
+	private static void write(File file, Survey survey) {
+		File dir = file.getParentFile();
+		if (!dir.isDirectory() && !dir.mkdirs())
+			return;
+
+		File tmp = new File(dir, file.getName() + ".tmp");
+		DataOutputStream out = null;
+		try {
+			out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+			out.writeInt(FORMAT_VERSION);
+			ParsedElement.writeString(out, survey.instructions);
+			out.writeInt(survey.mElements.size());
+			for (ParsedElement element : survey.mElements)
+				element.writeTo(out);
+			out.close();
+			out = null;
+
+			if (!tmp.renameTo(file))
+				tmp.delete();
+		} catch (IOException e) {
+			Log.w(TAG, "Error writing " + file, e);
+			close(out);
+			tmp.delete();
+		}
+	}
+
+	private static void delete(File file) {
+		try {
+			Utilities.delete(file);
+		} catch (IOException e) {
+			Log.w(TAG, "Error deleting " + file, e);
+		}
+	}
+
+	private static void close(Closeable closeable) {
+		if (closeable == null)
+			return;
+		try {
+			closeable.close();
+		} catch (IOException e) {
+			// nothing more can be done
+		}
+	}
+}
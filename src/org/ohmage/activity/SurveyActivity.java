@@ -19,15 +19,12 @@ package org.ohmage.activity;
 import android.app.Activity;
 import android.app.AlertDialog;
 import android.app.Dialog;
-import android.content.ContentResolver;
 import android.content.Context;
 import android.content.DialogInterface;
 import android.content.Intent;
-import android.content.res.Resources.NotFoundException;
 import android.location.Location;
 import android.location.LocationListener;
 import android.location.LocationManager;
-import android.net.Uri;
 import android.os.Bundle;
 import android.os.Handler;
 import android.text.format.DateUtils;
@@ -51,15 +48,14 @@ import org.ohmage.AccountHelper;
 import org.ohmage.CampaignPreferencesHelper;
 import org.ohmage.ConfigHelper;
 import org.ohmage.OhmageApplication;
-import org.ohmage.PromptXmlParser;
 import org.ohmage.R;
+import org.ohmage.SurveyElementCache;
 import org.ohmage.UserPreferencesHelper;
+import org.ohmage.conditionevaluator.ConditionGraph;
 import org.ohmage.conditionevaluator.DataPoint;
 import org.ohmage.conditionevaluator.DataPoint.PromptType;
-import org.ohmage.conditionevaluator.DataPointConditionEvaluator;
-import org.ohmage.db.DbContract.Responses;
+import org.ohmage.conditionevaluator.DataPointIndex;
 import org.ohmage.db.Models.Campaign;
-import org.ohmage.db.Models.Response;
 import org.ohmage.logprobe.Analytics;
 import org.ohmage.logprobe.Log;
 import org.ohmage.logprobe.LogProbe.Status;
@@ -81,9 +77,8 @@ import org.ohmage.prompt.singlechoice.SingleChoicePrompt;
 import org.ohmage.prompt.singlechoicecustom.SingleChoiceCustomPrompt;
 import org.ohmage.prompt.text.TextPrompt;
 import org.ohmage.prompt.timestamp.TimestampPrompt;
+import org.ohmage.service.ResponseWriterService;
 import org.ohmage.service.SurveyGeotagService;
-import org.ohmage.service.WakefulService;
-import org.ohmage.triggers.glue.TriggerFramework;
 import org.xmlpull.v1.XmlPullParserException;
 
 import java.io.IOException;
@@ -93,6 +88,9 @@ import java.util.Calendar;
 import java.util.List;
 import java.util.TimeZone;
 import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 public class SurveyActivity extends Activity implements LocationListener {
 
@@ -103,6 +101,12 @@ public class SurveyActivity extends Activity implements LocationListener {
 
 	protected static final int PROMPT_RESULT = 0;
 
+	/** Number of prompts after the current one to prepare, see {@link #prepareAhead(int)} */
+	private static final int PREPARE_AHEAD = 2;
+
+	/** Prepares prompts off the main thread, one at a time */
+	private static final ExecutorService sPreparer = Executors.newSingleThreadExecutor();
+
 	private TextView mSurveyTitleText;
 	private ProgressBar mProgressBar;
 	private TextView mPromptText;
@@ -124,10 +128,21 @@ public class SurveyActivity extends Activity implements LocationListener {
 
 	private String mLastSeenRepeatableSetId;
 
+	/** Responses to the prompts before the current position, see {@link #getPreviousResponses()} */
+	private final DataPointIndex mPreviousResponses = new DataPointIndex();
+
+	private ConditionGraph mConditionGraph;
+
+	/** Results of the conditions, dropped when a response they read changes */
+	private ConditionGraph.Evaluator mConditions;
+
 	private LocationManager mLocManager;
 
 	private final Handler mHandler = new Handler();
 
+	/** Prompts being prepared in the background */
+	private Future<?> mPreparing;
+
     private String mInstructions;
 
     private CampaignPreferencesHelper mCampaignPref;
@@ -183,31 +198,25 @@ public class SurveyActivity extends Activity implements LocationListener {
 			} else {
 
                 mInstructions = null;
-
-                try {
-                    mInstructions = PromptXmlParser.parseCampaignInstructions(Campaign
-                            .loadCampaignXml(this, mCampaignUrn));
-                } catch (XmlPullParserException e) {
-                    Log.e(TAG, "Error parsing campaign instructions from xml", e);
-                } catch (IOException e) {
-                    Log.e(TAG, "Error parsing campaign instructions from xml", e);
-                }
-
-                if (mInstructions != null && mCampaignPref.showInstructions())
-                    showDialog(DIALOG_INSTRUCTIONS_ID);
-
                 mSurveyElements = null;
 
 				try {
-					mSurveyElements = PromptXmlParser.parseSurveyElements(Campaign.loadCampaignXml(this, mCampaignUrn), mSurveyId);
-				} catch (NotFoundException e) {
-					Log.e(TAG, "Error parsing prompts from xml", e);
+					// the survey is parsed once per version of the campaign and kept by the cache
+					SurveyElementCache.Survey survey = SurveyElementCache.get(this, mCampaignUrn, mSurveyId);
+					if (survey != null) {
+						mInstructions = survey.instructions;
+						mSurveyElements = survey.buildElements();
+						mConditionGraph = survey.getConditionGraph();
+					}
 				} catch (XmlPullParserException e) {
 					Log.e(TAG, "Error parsing prompts from xml", e);
 				} catch (IOException e) {
 					Log.e(TAG, "Error parsing prompts from xml", e);
 				}
 
+                if (mInstructions != null && mCampaignPref.showInstructions())
+                    showDialog(DIALOG_INSTRUCTIONS_ID);
+
 				if(mSurveyElements == null || mSurveyElements.isEmpty()) {
 					// If there are no survey elements, something is wrong
 					finish();
@@ -228,8 +237,12 @@ public class SurveyActivity extends Activity implements LocationListener {
 			mLastElement = instance.lastElement;
 			mSurveyFinished = instance.surveyFinished;
 			mInstructions = instance.instructions;
+			mConditionGraph = instance.conditionGraph;
 		}
 
+		mConditions = new ConditionGraph.Evaluator(mConditionGraph);
+		mPreviousResponses.setOnChangeListener(mConditions);
+
 		setContentView(R.layout.survey_activity);
 
 		mSurveyTitleText = (TextView) findViewById(R.id.survey_title_text);
@@ -279,6 +292,9 @@ public class SurveyActivity extends Activity implements LocationListener {
 	public void onDestroy() {
 		super.onDestroy();
 
+		if(mPreparing != null)
+			mPreparing.cancel(false);
+
 		if(mSurveyElements != null && mCurrentPosition < mSurveyElements.size() && mSurveyElements.get(mCurrentPosition) instanceof PhotoPrompt)
 			PhotoPrompt.clearView(mPromptFrame);
 	}
@@ -308,7 +324,7 @@ public class SurveyActivity extends Activity implements LocationListener {
 
 	@Override
 	public Object onRetainNonConfigurationInstance() {
-		return new NonConfigurationInstance(mSurveyElements, mCurrentPosition, mLaunchTime, mReachedEnd, mLastSeenRepeatableSetId, mLastElement, mSurveyFinished, mInstructions);
+		return new NonConfigurationInstance(mSurveyElements, mCurrentPosition, mLaunchTime, mReachedEnd, mLastSeenRepeatableSetId, mLastElement, mSurveyFinished, mInstructions, mConditionGraph);
 	}
 
 	private class NonConfigurationInstance {
@@ -320,8 +336,9 @@ public class SurveyActivity extends Activity implements LocationListener {
 		SurveyElement lastElement;
 		boolean surveyFinished;
 		String instructions;
+		ConditionGraph conditionGraph;
 
-		public NonConfigurationInstance(List<SurveyElement> surveyElements, int index, long launchTime, boolean reachedEnd, String lastSeenRepeatableSetId, SurveyElement element, boolean surveyFinished, String instructions) {
+		public NonConfigurationInstance(List<SurveyElement> surveyElements, int index, long launchTime, boolean reachedEnd, String lastSeenRepeatableSetId, SurveyElement element, boolean surveyFinished, String instructions, ConditionGraph conditionGraph) {
 			this.surveyElements = surveyElements;
 			this.index = index;
 			this.launchTime = launchTime;
@@ -330,6 +347,7 @@ public class SurveyActivity extends Activity implements LocationListener {
 			this.lastElement = element;
 			this.surveyFinished = surveyFinished;
 			this.instructions = instructions;
+			this.conditionGraph = conditionGraph;
 		}
 	}
 
@@ -337,6 +355,9 @@ public class SurveyActivity extends Activity implements LocationListener {
 
 		@Override
 		public void onClick(View v) {
+			// the current prompt may have been answered, so its response has to be read again
+			mPreviousResponses.truncate(mCurrentPosition);
+
 			if (mCurrentPosition < mSurveyElements.size() && mSurveyElements.get(mCurrentPosition) instanceof AbstractPrompt) {
 				// Tell the current prompt that it is being hidden
 				((AbstractPrompt)mSurveyElements.get(mCurrentPosition)).onHidden();
@@ -349,7 +370,6 @@ public class SurveyActivity extends Activity implements LocationListener {
 							mSurveyFinished = true;
 							String uuid = storeResponse();
 							Analytics.widget(v, null, uuid);
-							TriggerFramework.notifySurveyTaken(SurveyActivity.this, mCampaignUrn, mSurveyTitle);
 							UserPreferencesHelper prefs = new UserPreferencesHelper(SurveyActivity.this);
 							prefs.putLastSurveyTimestamp(mSurveyId, System.currentTimeMillis());
 							finish();
@@ -373,7 +393,7 @@ public class SurveyActivity extends Activity implements LocationListener {
 											String condition = ((AbstractPrompt)mSurveyElements.get(mCurrentPosition)).getCondition();
 											if (condition == null)
 												condition = "";
-											if (DataPointConditionEvaluator.evaluateCondition(condition, getPreviousResponses())) {
+											if (evaluateCondition(condition)) {
 												//if true, show new prompt
 												showPrompt(mCurrentPosition);
 												break;
@@ -386,7 +406,7 @@ public class SurveyActivity extends Activity implements LocationListener {
 											String condition = ((RepeatableSetHeader)mSurveyElements.get(mCurrentPosition)).getCondition();
 											if (condition == null)
 												condition = "";
-											if (DataPointConditionEvaluator.evaluateCondition(condition, getPreviousResponses())) {
+											if (evaluateCondition(condition)) {
 												//if true, increment position, show prompt
 												((RepeatableSetHeader)mSurveyElements.get(mCurrentPosition)).setDisplayed(true);
 												continue;
@@ -407,7 +427,7 @@ public class SurveyActivity extends Activity implements LocationListener {
 											String condition = ((Message)mSurveyElements.get(mCurrentPosition)).getCondition();
 											if (condition == null)
 												condition = "";
-											if (DataPointConditionEvaluator.evaluateCondition(condition, getPreviousResponses())) {
+											if (evaluateCondition(condition)) {
 												//if true, show message
 												showMessage(mCurrentPosition);
 												break;
@@ -451,7 +471,7 @@ public class SurveyActivity extends Activity implements LocationListener {
 										String condition = ((AbstractPrompt)mSurveyElements.get(mCurrentPosition)).getCondition();
 										if (condition == null)
 											condition = "";
-										if (DataPointConditionEvaluator.evaluateCondition(condition, getPreviousResponses())) {
+										if (evaluateCondition(condition)) {
 											//if true, show new prompt
 											showPrompt(mCurrentPosition);
 											break;
@@ -464,7 +484,7 @@ public class SurveyActivity extends Activity implements LocationListener {
 										String condition = ((RepeatableSetHeader)mSurveyElements.get(mCurrentPosition)).getCondition();
 										if (condition == null)
 											condition = "";
-										if (DataPointConditionEvaluator.evaluateCondition(condition, getPreviousResponses())) {
+										if (evaluateCondition(condition)) {
 											//if true, increment position, show prompt
 											((RepeatableSetHeader)mSurveyElements.get(mCurrentPosition)).setDisplayed(true);
 											continue;
@@ -486,7 +506,7 @@ public class SurveyActivity extends Activity implements LocationListener {
 										String condition = ((Message)mSurveyElements.get(mCurrentPosition)).getCondition();
 										if (condition == null)
 											condition = "";
-										if (DataPointConditionEvaluator.evaluateCondition(condition, getPreviousResponses())) {
+										if (evaluateCondition(condition)) {
 											//if true, show message
 											showMessage(mCurrentPosition);
 											break;
@@ -520,7 +540,7 @@ public class SurveyActivity extends Activity implements LocationListener {
 									String condition = ((AbstractPrompt)mSurveyElements.get(mCurrentPosition)).getCondition();
 									if (condition == null)
 										condition = "";
-									if (DataPointConditionEvaluator.evaluateCondition(condition, getPreviousResponses())) {
+									if (evaluateCondition(condition)) {
 										//if true, show new prompt
 										showPrompt(mCurrentPosition);
 										break;
@@ -533,7 +553,7 @@ public class SurveyActivity extends Activity implements LocationListener {
 									String condition = ((RepeatableSetHeader)mSurveyElements.get(mCurrentPosition)).getCondition();
 									if (condition == null)
 										condition = "";
-									if (DataPointConditionEvaluator.evaluateCondition(condition, getPreviousResponses())) {
+									if (evaluateCondition(condition)) {
 										//if true, increment position, show prompt
 										((RepeatableSetHeader)mSurveyElements.get(mCurrentPosition)).setDisplayed(true);
 										continue;
@@ -554,7 +574,7 @@ public class SurveyActivity extends Activity implements LocationListener {
 									String condition = ((Message)mSurveyElements.get(mCurrentPosition)).getCondition();
 									if (condition == null)
 										condition = "";
-									if (DataPointConditionEvaluator.evaluateCondition(condition, getPreviousResponses())) {
+									if (evaluateCondition(condition)) {
 										//if true, show message
 										showMessage(mCurrentPosition);
 										break;
@@ -581,7 +601,7 @@ public class SurveyActivity extends Activity implements LocationListener {
 								String condition = ((AbstractPrompt)mSurveyElements.get(mCurrentPosition)).getCondition();
 								if (condition == null)
 									condition = "";
-								if (DataPointConditionEvaluator.evaluateCondition(condition, getPreviousResponses())) {
+								if (evaluateCondition(condition)) {
 									//if true, show prompt
 									showPrompt(mCurrentPosition);
 									break;
@@ -597,7 +617,7 @@ public class SurveyActivity extends Activity implements LocationListener {
 								String condition = ((RepeatableSetTerminator)mSurveyElements.get(mCurrentPosition)).getCondition();
 								if (condition == null)
 									condition = "";
-								if (DataPointConditionEvaluator.evaluateCondition(condition, getPreviousResponses())) {
+								if (evaluateCondition(condition)) {
 									//if true, decrement position, show prompt
 									continue;
 								} else {
@@ -610,7 +630,7 @@ public class SurveyActivity extends Activity implements LocationListener {
 								String condition = ((Message)mSurveyElements.get(mCurrentPosition)).getCondition();
 								if (condition == null)
 									condition = "";
-								if (DataPointConditionEvaluator.evaluateCondition(condition, getPreviousResponses())) {
+								if (evaluateCondition(condition)) {
 									//if true, show message
 									showMessage(mCurrentPosition);
 									break;
@@ -634,7 +654,7 @@ public class SurveyActivity extends Activity implements LocationListener {
 								String condition = ((AbstractPrompt)mSurveyElements.get(mCurrentPosition)).getCondition();
 								if (condition == null)
 									condition = "";
-								if (DataPointConditionEvaluator.evaluateCondition(condition, getPreviousResponses())) {
+								if (evaluateCondition(condition)) {
 									//if true, show new prompt
 									showPrompt(mCurrentPosition);
 									break;
@@ -650,7 +670,7 @@ public class SurveyActivity extends Activity implements LocationListener {
 								String condition = ((Message)mSurveyElements.get(mCurrentPosition)).getCondition();
 								if (condition == null)
 									condition = "";
-								if (DataPointConditionEvaluator.evaluateCondition(condition, getPreviousResponses())) {
+								if (evaluateCondition(condition)) {
 									//if true, show message
 									showMessage(mCurrentPosition);
 									break;
@@ -679,7 +699,7 @@ public class SurveyActivity extends Activity implements LocationListener {
 								String condition = ((AbstractPrompt)mSurveyElements.get(mCurrentPosition)).getCondition();
 								if (condition == null)
 									condition = "";
-								if (DataPointConditionEvaluator.evaluateCondition(condition, getPreviousResponses())) {
+								if (evaluateCondition(condition)) {
 									//if true, show new prompt
 									showPrompt(mCurrentPosition);
 									break;
@@ -695,7 +715,7 @@ public class SurveyActivity extends Activity implements LocationListener {
 								String condition = ((Message)mSurveyElements.get(mCurrentPosition)).getCondition();
 								if (condition == null)
 									condition = "";
-								if (DataPointConditionEvaluator.evaluateCondition(condition, getPreviousResponses())) {
+								if (evaluateCondition(condition)) {
 									//if true, show message
 									showMessage(mCurrentPosition);
 									break;
@@ -828,11 +848,61 @@ public class SurveyActivity extends Activity implements LocationListener {
 			mPromptFrame.removeAllViews();
 			prompt.inflateView(this, mPromptFrame);
 			//mPromptFrame.invalidate();
+
+			prepareAhead(index);
 		} else {
 			Log.e(TAG, "trying to showPrompt for element that is not a prompt!");
 		}
 	}
 
+	/**
+	 * Prepares the next few prompts after the index in the background, so moving to them doesn't
+	 * read the db or parse their choices on the main thread. Their conditions may read the answer
+	 * to the prompt at the index, so they are prepared whether or not they will be shown.
+	 *
+	 * @param index
+	 */
+	private void prepareAhead(int index) {
+		if(mPreparing != null)
+			mPreparing.cancel(false);
+		mPreparing = null;
+
+		// collect the prompts now since the elements change as repeatable sets are added
+		final ArrayList<AbstractPrompt> prompts = new ArrayList<AbstractPrompt>();
+		for (int i = index + 1; i < mSurveyElements.size() && prompts.size() < PREPARE_AHEAD; i++) {
+			if (mSurveyElements.get(i) instanceof AbstractPrompt)
+				prompts.add((AbstractPrompt) mSurveyElements.get(i));
+		}
+		if (prompts.isEmpty())
+			return;
+
+		mPreparing = sPreparer.submit(new PrepareTask(getApplicationContext(), mCampaignUrn, mSurveyId, prompts));
+	}
+
+	/**
+	 * Prepares a few prompts. It doesn't reference the activity, since a prompt which is already
+	 * being prepared keeps running after the survey is closed.
+	 */
+	private static class PrepareTask implements Runnable {
+		private final Context mContext;
+		private final String mCampaignUrn;
+		private final String mSurveyId;
+		private final List<AbstractPrompt> mPrompts;
+
+		PrepareTask(Context context, String campaignUrn, String surveyId, List<AbstractPrompt> prompts) {
+			mContext = context;
+			mCampaignUrn = campaignUrn;
+			mSurveyId = surveyId;
+			mPrompts = prompts;
+		}
+
+		@Override
+		public void run() {
+			for (AbstractPrompt prompt : mPrompts)
+				prompt.prepare(mContext, mCampaignUrn, mSurveyId);
+		}
+	}
+
 	private SurveyElement mLastElement;
 
 	private void handlePromptChangeLogging(SurveyElement element) {
@@ -904,99 +974,113 @@ public class SurveyActivity extends Activity implements LocationListener {
 		mResponses.set(index, new PromptResponse(id, value));
 	}*/
 
+	/**
+	 * Checks a condition against the responses before the current position. Conditions which
+	 * don't read a response that changed since they were last checked aren't evaluated again.
+	 */
+	private boolean evaluateCondition(String condition) {
+		return mConditions.evaluate(condition, getPreviousResponses());
+	}
+
+	/**
+	 * Returns the responses to the prompts before the current position. Only prompts the
+	 * position moved past since the last call are read, since a prompt can only change while it
+	 * is the current one.
+	 */
 	private List<DataPoint> getPreviousResponses() {
-		ArrayList<DataPoint> previousResponses = new ArrayList<DataPoint>();
-		for (int i = 0; i < mCurrentPosition; i++) {
+		mPreviousResponses.truncate(mCurrentPosition);
+		for (int i = mPreviousResponses.getPosition(); i < mCurrentPosition; i++) {
 			if (mSurveyElements.get(i) instanceof AbstractPrompt) {
-				AbstractPrompt prompt = ((AbstractPrompt)mSurveyElements.get(i));
-
-				DataPoint dataPoint = new DataPoint(prompt.getId());
-				dataPoint.setDisplayType(prompt.getDisplayType());
-
-				if (prompt instanceof SingleChoicePrompt) {
-					dataPoint.setPromptType("single_choice");
-				} else if (prompt instanceof MultiChoicePrompt) {
-					dataPoint.setPromptType("multi_choice");
-				} else if (prompt instanceof MultiChoiceCustomPrompt) {
-					dataPoint.setPromptType("multi_choice_custom");
-				} else if (prompt instanceof SingleChoiceCustomPrompt) {
-					dataPoint.setPromptType("single_choice_custom");
-				} else if (prompt instanceof NumberPrompt) {
-					dataPoint.setPromptType("number");
-				} else if (prompt instanceof HoursBeforeNowPrompt) {
-					dataPoint.setPromptType("hours_before_now");
-				} else if (prompt instanceof TextPrompt) {
-					dataPoint.setPromptType("text");
-				} else if (prompt instanceof PhotoPrompt) {
-					dataPoint.setPromptType("photo");
-				} else if (prompt instanceof VideoPrompt) {
-					dataPoint.setPromptType("video");
-				} else if (prompt instanceof TimestampPrompt) {
-                    dataPoint.setPromptType("timestamp");
-                }
-
-				if (prompt.isSkipped()) {
-					dataPoint.setSkipped();
-				} else if (!prompt.isDisplayed()) { 
-					dataPoint.setNotDisplayed();
-				} else {
-					if (PromptType.single_choice.equals(dataPoint.getPromptType())) {
-						dataPoint.setValue(prompt.getResponseObject());
-					} else if (PromptType.single_choice_custom.equals(dataPoint.getPromptType())) {
-						dataPoint.setValue(prompt.getResponseObject());
-						
-						// The condition evaluator needs to know the index of hardcoded options
-						if(prompt instanceof SingleChoiceCustomPrompt) {
-						    int idx = ((SingleChoiceCustomPrompt) prompt).getSelectedIndex();
-						    if(idx != -1)
-						        dataPoint.setIndex(idx);
-						}
-					} else if (PromptType.multi_choice.equals(dataPoint.getPromptType())) {
-						JSONArray jsonArray;
-						ArrayList<Integer> dataPointValue = new ArrayList<Integer>();
-						try {
-							jsonArray = (JSONArray)prompt.getResponseObject();
-							for (int j = 0; j < jsonArray.length(); j++) {
-								dataPointValue.add((Integer)jsonArray.get(j));
-							}
-						} catch (JSONException e) {
-							// TODO Auto-generated catch block
-							e.printStackTrace();
-						}
-						dataPoint.setValue(dataPointValue);
-					} else if (PromptType.multi_choice_custom.equals(dataPoint.getPromptType())) {
-						JSONArray jsonArray;
-						ArrayList<String> dataPointValue = new ArrayList<String>();
-						try {
-							jsonArray = (JSONArray)prompt.getResponseObject();
-							for (int j = 0; j < jsonArray.length(); j++) {
-								dataPointValue.add((String)jsonArray.get(j));
-							}
-						} catch (JSONException e) {
-							// TODO Auto-generated catch block
-							e.printStackTrace();
-						}
-						dataPoint.setValue(dataPointValue);
-						
-	                      // The condition evaluator needs to know the index of hardcoded options
-                        if(prompt instanceof MultiChoiceCustomPrompt) {
-                            dataPoint.setIndexes(((MultiChoiceCustomPrompt) prompt).getSelectedIndexes());
-                        }
-					} else if (PromptType.number.equals(dataPoint.getPromptType())) {
-						dataPoint.setValue(prompt.getResponseObject());
-					} else if (PromptType.hours_before_now.equals(dataPoint.getPromptType())) {
-						dataPoint.setValue(prompt.getResponseObject());
-					} else if (PromptType.text.equals(dataPoint.getPromptType())) {
-						dataPoint.setValue(prompt.getResponseObject());
-					} else if (PromptType.photo.equals(dataPoint.getPromptType())) {
-						dataPoint.setValue(prompt.getResponseObject());
+				mPreviousResponses.append(i, createDataPoint((AbstractPrompt)mSurveyElements.get(i)));
+			}
+		}
+		mPreviousResponses.setPosition(mCurrentPosition);
+		return mPreviousResponses;
+	}
+
+	private static DataPoint createDataPoint(AbstractPrompt prompt) {
+		DataPoint dataPoint = new DataPoint(prompt.getId());
+		dataPoint.setDisplayType(prompt.getDisplayType());
+
+		if (prompt instanceof SingleChoicePrompt) {
+			dataPoint.setPromptType("single_choice");
+		} else if (prompt instanceof MultiChoicePrompt) {
+			dataPoint.setPromptType("multi_choice");
+		} else if (prompt instanceof MultiChoiceCustomPrompt) {
+			dataPoint.setPromptType("multi_choice_custom");
+		} else if (prompt instanceof SingleChoiceCustomPrompt) {
+			dataPoint.setPromptType("single_choice_custom");
+		} else if (prompt instanceof NumberPrompt) {
+			dataPoint.setPromptType("number");
+		} else if (prompt instanceof HoursBeforeNowPrompt) {
+			dataPoint.setPromptType("hours_before_now");
+		} else if (prompt instanceof TextPrompt) {
+			dataPoint.setPromptType("text");
+		} else if (prompt instanceof PhotoPrompt) {
+			dataPoint.setPromptType("photo");
+		} else if (prompt instanceof VideoPrompt) {
+			dataPoint.setPromptType("video");
+		} else if (prompt instanceof TimestampPrompt) {
+			dataPoint.setPromptType("timestamp");
+		}
+
+		if (prompt.isSkipped()) {
+			dataPoint.setSkipped();
+		} else if (!prompt.isDisplayed()) { 
+			dataPoint.setNotDisplayed();
+		} else {
+			if (PromptType.single_choice.equals(dataPoint.getPromptType())) {
+				dataPoint.setValue(prompt.getResponseObject());
+			} else if (PromptType.single_choice_custom.equals(dataPoint.getPromptType())) {
+				dataPoint.setValue(prompt.getResponseObject());
+				
+				// The condition evaluator needs to know the index of hardcoded options
+				if(prompt instanceof SingleChoiceCustomPrompt) {
+				    int idx = ((SingleChoiceCustomPrompt) prompt).getSelectedIndex();
+				    if(idx != -1)
+				        dataPoint.setIndex(idx);
+				}
+			} else if (PromptType.multi_choice.equals(dataPoint.getPromptType())) {
+				JSONArray jsonArray;
+				ArrayList<Integer> dataPointValue = new ArrayList<Integer>();
+				try {
+					jsonArray = (JSONArray)prompt.getResponseObject();
+					for (int j = 0; j < jsonArray.length(); j++) {
+						dataPointValue.add((Integer)jsonArray.get(j));
 					}
+				} catch (JSONException e) {
+					Log.e(TAG, "JSONException when trying to read the response of " + prompt.getId(), e);
 				}
-
-				previousResponses.add(dataPoint);
+				dataPoint.setValue(dataPointValue);
+			} else if (PromptType.multi_choice_custom.equals(dataPoint.getPromptType())) {
+				JSONArray jsonArray;
+				ArrayList<String> dataPointValue = new ArrayList<String>();
+				try {
+					jsonArray = (JSONArray)prompt.getResponseObject();
+					for (int j = 0; j < jsonArray.length(); j++) {
+						dataPointValue.add((String)jsonArray.get(j));
+					}
+				} catch (JSONException e) {
+					Log.e(TAG, "JSONException when trying to read the response of " + prompt.getId(), e);
+				}
+				dataPoint.setValue(dataPointValue);
+				
+				// The condition evaluator needs to know the index of hardcoded options
+				if(prompt instanceof MultiChoiceCustomPrompt) {
+					dataPoint.setIndexes(((MultiChoiceCustomPrompt) prompt).getSelectedIndexes());
+				}
+			} else if (PromptType.number.equals(dataPoint.getPromptType())) {
+				dataPoint.setValue(prompt.getResponseObject());
+			} else if (PromptType.hours_before_now.equals(dataPoint.getPromptType())) {
+				dataPoint.setValue(prompt.getResponseObject());
+			} else if (PromptType.text.equals(dataPoint.getPromptType())) {
+				dataPoint.setValue(prompt.getResponseObject());
+			} else if (PromptType.photo.equals(dataPoint.getPromptType())) {
+				dataPoint.setValue(prompt.getResponseObject());
 			}
 		}
-		return previousResponses;
+
+		return dataPoint;
 	}
 
 	private String storeResponse() {
@@ -1013,18 +1097,6 @@ public class SurveyActivity extends Activity implements LocationListener {
 		long time = now.getTimeInMillis();
 		String timezone = TimeZone.getDefault().getID();
 
-		//get launch context from trigger glue
-		JSONObject surveyLaunchContextJson = new JSONObject();
-		try {
-			surveyLaunchContextJson.put("launch_time", launchTime);
-			surveyLaunchContextJson.put("launch_timezone", timezone);
-			surveyLaunchContextJson.put("active_triggers", TriggerFramework.getActiveTriggerInfo(context, campaignUrn, surveyTitle));
-		} catch (JSONException e) {
-			Log.e(TAG, "JSONException when trying to generate survey launch context json", e);
-			throw new RuntimeException(e);
-		}
-		String surveyLaunchContext = surveyLaunchContextJson.toString();
-
 		JSONArray responseJson = new JSONArray();
 		JSONArray repeatableSetResponseJson = new JSONArray();
 		JSONArray iterationResponseJson = new JSONArray();
@@ -1101,50 +1173,13 @@ public class SurveyActivity extends Activity implements LocationListener {
 		}
 		String response = responseJson.toString();
 
-		// insert the response, which indirectly populates the prompt response tables, etc.
-		Response candidate = new Response();
-
-		candidate.uuid = UUID.randomUUID().toString();
-		candidate.campaignUrn = campaignUrn;
-		candidate.username = username;
-		candidate.date = date;
-		candidate.time = time;
-		candidate.timezone = timezone;
-		candidate.surveyId = surveyId;
-		candidate.surveyLaunchContext = surveyLaunchContext;
-		candidate.response = response;
-		candidate.locationStatus = SurveyGeotagService.LOCATION_UNAVAILABLE;
-		candidate.locationLatitude = -1;
-		candidate.locationLongitude = -1;
-		candidate.locationProvider = null;
-		candidate.locationAccuracy = -1;
-		candidate.locationTime = -1;
-		candidate.status = Response.STATUS_WAITING_FOR_LOCATION;
-
-		ContentResolver cr = context.getContentResolver();
-		Uri responseUri = cr.insert(Responses.CONTENT_URI, candidate.toCV());
-
-		Intent intent = new Intent(context, SurveyGeotagService.class);
-		intent.setData(responseUri);
-		WakefulService.sendWakefulWork(context, intent);
-
-		// create an intent and broadcast it to any interested receivers
-		Intent i = new Intent("org.ohmage.SURVEY_COMPLETE");
-
-		i.putExtra(Responses.CAMPAIGN_URN, campaignUrn);
-		i.putExtra(Responses.RESPONSE_USERNAME, username);
-		i.putExtra(Responses.RESPONSE_DATE, date);
-		i.putExtra(Responses.RESPONSE_TIME, time);
-		i.putExtra(Responses.RESPONSE_TIMEZONE, timezone);
-		i.putExtra(Responses.RESPONSE_LOCATION_STATUS, SurveyGeotagService.LOCATION_UNAVAILABLE);
-		i.putExtra(Responses.RESPONSE_STATUS, Response.STATUS_WAITING_FOR_LOCATION);
-		i.putExtra(Responses.SURVEY_ID, surveyId);
-		i.putExtra(Responses.RESPONSE_SURVEY_LAUNCH_CONTEXT, surveyLaunchContext);
-		i.putExtra(Responses.RESPONSE_JSON, response);
-
-		context.sendBroadcast(i);
-
-		return candidate.uuid;
+		// the service takes the launch context, marks the survey as taken, and journals and
+		// inserts the response in the background
+		String uuid = UUID.randomUUID().toString();
+		ResponseWriterService.submitSurvey(context, new ResponseWriterService.Snapshot(uuid, campaignUrn, username, date,
+				time, timezone, surveyId, null, response), surveyTitle, launchTime);
+
+		return uuid;
 	}
 
 	@Override
@@ -24,6 +24,7 @@ import org.ohmage.db.Models.Campaign;
 import org.ohmage.db.Models.Response;
 import org.ohmage.fragments.ResponseListFragment;
 import org.ohmage.fragments.ResponseListFragment.OnResponseActionListener;
+import org.ohmage.loader.ResponsePageLoader;
 import org.ohmage.service.UploadService;
 import org.ohmage.logprobe.Analytics;
 import org.ohmage.ui.CampaignFilterActivity;
@@ -97,7 +98,7 @@ public class UploadQueueActivity extends CampaignFilterActivity implements OnRes
 
 		@Override
 		public Loader<Cursor> onCreateLoader(int id, Bundle args) {
-			CursorLoader loader = (CursorLoader) super.onCreateLoader(id, args);
+			ResponsePageLoader loader = (ResponsePageLoader) super.onCreateLoader(id, args);
 
 			StringBuilder selection = new StringBuilder(loader.getSelection());
 			if(selection.length() != 0)
@@ -11,13 +11,11 @@ import android.os.RemoteException;
 import android.support.v4.content.Loader;
 import android.text.TextUtils;
 
-import org.json.JSONArray;
-import org.json.JSONException;
-import org.json.JSONObject;
 import org.ohmage.AccountHelper;
 import org.ohmage.ConfigHelper;
 import org.ohmage.NotificationHelper;
 import org.ohmage.OhmageApi;
+import org.ohmage.OhmageApi.CampaignInfo;
 import org.ohmage.OhmageApi.CampaignReadResponse;
 import org.ohmage.OhmageApi.Response;
 import org.ohmage.OhmageApi.Result;
@@ -31,7 +29,6 @@ import org.ohmage.logprobe.Log;
 
 import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.HashSet;
 
 /**
  * A custom Loader that loads all of the installed applications.
@@ -66,22 +63,29 @@ public class CampaignReadTask extends AuthenticatedTaskLoader<CampaignReadRespon
 			ContentResolver cr = getContext().getContentResolver();
 
 			//build list of urns of all campaigns
-			Cursor cursor = cr.query(Campaigns.CONTENT_URI, new String [] {Campaigns.CAMPAIGN_URN, Campaigns.CAMPAIGN_CREATED, Campaigns.CAMPAIGN_STATUS}, null, null, null);
+			Cursor cursor = cr.query(Campaigns.CONTENT_URI, new String [] {Campaigns.CAMPAIGN_URN, Campaigns.CAMPAIGN_CREATED, Campaigns.CAMPAIGN_STATUS,
+					Campaigns.CAMPAIGN_NAME, Campaigns.CAMPAIGN_DESCRIPTION, Campaigns.CAMPAIGN_PRIVACY, Campaigns.CAMPAIGN_ICON}, null, null, null);
 			cursor.moveToFirst();
 
 			HashMap<String, Campaign> localCampaignUrns = new HashMap<String, Campaign>();
-			HashSet<String> toDelete = new HashSet<String>();
+			HashMap<String, Campaign> toDelete = new HashMap<String, Campaign>();
 
 			for (int i = 0; i < cursor.getCount(); i++) {
-				if(cursor.getInt(2) != Campaign.STATUS_REMOTE) {
+				Campaign c = new Campaign();
+				c.mUrn = cursor.getString(0);
+				c.mCreationTimestamp = cursor.getString(1);
+				c.mStatus = cursor.getInt(2);
+				c.mName = cursor.getString(3);
+				c.mDescription = cursor.getString(4);
+				c.mPrivacy = cursor.getString(5);
+				c.mIcon = cursor.getString(6);
+
+				if(c.mStatus != Campaign.STATUS_REMOTE) {
 					// Here we store a list of campaigns we have downloaded
-					Campaign c = new Campaign();
-					c.mUrn = cursor.getString(cursor.getColumnIndex(Campaigns.CAMPAIGN_URN));
-					c.mCreationTimestamp = cursor.getString(cursor.getColumnIndex(Campaigns.CAMPAIGN_CREATED));
 					localCampaignUrns.put(c.mUrn, c);
 				} else {
 					// Here we store a list of campaigns we may have to delete if the server doesn't return them
-					toDelete.add(cursor.getString(0));
+					toDelete.put(c.mUrn, c);
 				}
 				cursor.moveToNext();
 			}
@@ -94,69 +98,61 @@ public class CampaignReadTask extends AuthenticatedTaskLoader<CampaignReadRespon
 
 			ArrayList<ContentProviderOperation> operations = new ArrayList<ContentProviderOperation>();
 
-			try { // parse response
-				JSONArray jsonItems = response.getMetadata().getJSONArray("items");
-
-				for(int i = 0; i < jsonItems.length(); i++) {
-					Campaign c = new Campaign();
-					JSONObject data = response.getData();
-					try {
-						c.mUrn = jsonItems.getString(i); 
-						c.mName = data.getJSONObject(c.mUrn).getString("name");
-						c.mDescription = data.getJSONObject(c.mUrn).getString("description");
-						c.mCreationTimestamp = data.getJSONObject(c.mUrn).getString("creation_timestamp");
-						c.mDownloadTimestamp = null;
-						c.mXml = null;
-						c.mStatus = Campaign.STATUS_REMOTE;
-						c.mPrivacy = data.getJSONObject(c.mUrn).optString("privacy_state", Campaign.PRIVACY_UNKNOWN);
-						c.mIcon = data.getJSONObject(c.mUrn).optString("icon_url", null);
-						c.updated = startTime;
-						boolean running = data.getJSONObject(c.mUrn).getString("running_state").equalsIgnoreCase("running");
-						boolean participant = false;
-						JSONArray roles = data.getJSONObject(c.mUrn).getJSONArray("user_roles");
-						for(int j=0;j<roles.length();j++) {
-							if("participant".equals(roles.getString(j))) {
-								participant = true;
-								break;
-							}
-						}
+			// diff what the server returned against what we have, only touching campaigns which changed
+			for (CampaignInfo info : response.getCampaigns()) {
+				if (info.mCreationTimestamp == null) {
+					Log.e(TAG, "Error parsing json data for " + info.mUrn);
+					continue;
+				}
 
-						if (localCampaignUrns.containsKey(c.mUrn)) { //campaign has already been downloaded
+				if (localCampaignUrns.containsKey(info.mUrn)) { //campaign has already been downloaded
 
-							Campaign old = localCampaignUrns.get(c.mUrn);
-							localCampaignUrns.remove(c.mUrn);
+					Campaign old = localCampaignUrns.remove(info.mUrn);
 
-							ContentValues values = new ContentValues();
-							// FAISAL: include things here that may change at any time on the server
-							values.put(Campaigns.CAMPAIGN_PRIVACY, c.mPrivacy);
-							values.put(Campaigns.CAMPAIGN_UPDATED, c.updated);
+					int status;
+					if(!info.mCreationTimestamp.equals(old.mCreationTimestamp))
+						status = Campaign.STATUS_OUT_OF_DATE;
+					else if(info.mRunning && !info.mParticipant)
+						status = Campaign.STATUS_INVALID_USER_ROLE;
+					else
+						status = (info.mRunning) ? Campaign.STATUS_READY : Campaign.STATUS_STOPPED;
 
-							if(!c.mCreationTimestamp.equals(old.mCreationTimestamp))
-								values.put(Campaigns.CAMPAIGN_STATUS, Campaign.STATUS_OUT_OF_DATE);
-							else if(running && !participant)
-								values.put(Campaigns.CAMPAIGN_STATUS, Campaign.STATUS_INVALID_USER_ROLE);
-							else
-								values.put(Campaigns.CAMPAIGN_STATUS, (running) ? Campaign.STATUS_READY : Campaign.STATUS_STOPPED);
+					if (status != old.mStatus || !unchanged(old.mPrivacy, info.mPrivacy)) {
+						ContentValues values = new ContentValues();
+						// FAISAL: include things here that may change at any time on the server
+						values.put(Campaigns.CAMPAIGN_PRIVACY, info.mPrivacy);
+						values.put(Campaigns.CAMPAIGN_UPDATED, startTime);
+						values.put(Campaigns.CAMPAIGN_STATUS, status);
 
-							operations.add(ContentProviderOperation.newUpdate(Campaigns.buildCampaignUri(c.mUrn)).withValues(values).build());
+						operations.add(ContentProviderOperation.newUpdate(Campaigns.buildCampaignUri(info.mUrn)).withValues(values).build());
+					}
 
-						} else { //campaign has not been downloaded
+				} else if (info.mRunning && info.mParticipant) { //campaign is running and we are a participant
 
-							if (running && participant) { //campaign is running and we are a participant
-								// We don't need to delete it
-								toDelete.remove(c.mUrn);
-								operations.add(ContentProviderOperation.newInsert(Campaigns.CONTENT_URI).withValues(c.toCV()).build());
-							}
-						}
-					} catch (JSONException e) {
-						Log.e(TAG, "Error parsing json data for " + jsonItems.getString(i), e);
+					// We don't need to delete it
+					Campaign old = toDelete.remove(info.mUrn);
+
+					// and only need to insert it if it is new or the server has changed it
+					if (old == null || !unchanged(old.mName, info.mName) || !unchanged(old.mDescription, info.mDescription)
+							|| !unchanged(old.mCreationTimestamp, info.mCreationTimestamp) || !unchanged(old.mPrivacy, info.mPrivacy)
+							|| !unchanged(old.mIcon, info.mIcon)) {
+						Campaign c = new Campaign();
+						c.mUrn = info.mUrn;
+						c.mName = info.mName;
+						c.mDescription = info.mDescription;
+						c.mCreationTimestamp = info.mCreationTimestamp;
+						c.mDownloadTimestamp = null;
+						c.mXml = null;
+						c.mStatus = Campaign.STATUS_REMOTE;
+						c.mPrivacy = info.mPrivacy;
+						c.mIcon = info.mIcon;
+						c.updated = startTime;
+						operations.add(ContentProviderOperation.newInsert(Campaigns.CONTENT_URI).withValues(c.toCV()).build());
 					}
 				}
-			} catch (JSONException e) {
-				Log.e(TAG, "Error parsing response json: 'items' key doesn't exist or is not a JSONArray", e);
 			}
 
-			for(String urn : toDelete) {
+			for(String urn : toDelete.keySet()) {
 				operations.add(ContentProviderOperation.newDelete(Campaigns.buildCampaignUri(urn)).build());
 			}
 
@@ -173,14 +169,16 @@ public class CampaignReadTask extends AuthenticatedTaskLoader<CampaignReadRespon
 				return response;
 			}
 
-			try {
-				cr.applyBatch(DbContract.CONTENT_AUTHORITY, operations);
-			} catch (RemoteException e) {
-				// TODO Auto-generated catch block
-				e.printStackTrace();
-			} catch (OperationApplicationException e) {
-				// TODO Auto-generated catch block
-				e.printStackTrace();
+			if (!operations.isEmpty()) {
+				try {
+					cr.applyBatch(DbContract.CONTENT_AUTHORITY, operations);
+				} catch (RemoteException e) {
+					// TODO Auto-generated catch block
+					e.printStackTrace();
+				} catch (OperationApplicationException e) {
+					// TODO Auto-generated catch block
+					e.printStackTrace();
+				}
 			}
 
 			// If we are in single campaign mode, we should automatically download the xml for the best campaign
@@ -223,6 +221,13 @@ public class CampaignReadTask extends AuthenticatedTaskLoader<CampaignReadRespon
 		return response;
 	}
 
+	/**
+	 * Compares a local value with the value from the server, treating null and empty as the same
+	 */
+	private static boolean unchanged(String local, String remote) {
+		return TextUtils.isEmpty(local) ? TextUtils.isEmpty(remote) : local.equals(remote);
+	}
+
 	public void setOhmageApi(OhmageApi api) {
 		mApi = api;
 	}
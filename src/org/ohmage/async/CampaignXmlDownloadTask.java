@@ -4,15 +4,14 @@ import android.content.ContentResolver;
 import android.content.ContentValues;
 import android.content.Context;
 import android.content.Intent;
+import android.database.Cursor;
 
 import com.commonsware.cwac.wakeful.WakefulIntentService;
 
-import org.json.JSONArray;
-import org.json.JSONException;
-import org.json.JSONObject;
 import org.ohmage.AccountHelper;
 import org.ohmage.ConfigHelper;
 import org.ohmage.OhmageApi;
+import org.ohmage.OhmageApi.CampaignInfo;
 import org.ohmage.OhmageApi.CampaignReadResponse;
 import org.ohmage.OhmageApi.CampaignXmlResponse;
 import org.ohmage.OhmageApi.Response;
@@ -51,6 +50,17 @@ public class CampaignXmlDownloadTask extends AuthenticatedTaskLoader<Response> {
 
 		ContentResolver cr = getContext().getContentResolver();
 
+		// remember which version of the xml we already have so we don't download it again if it hasn't changed
+		String localCreationTimestamp = null;
+		boolean hasXml = false;
+		Cursor local = cr.query(Campaigns.buildCampaignUri(mCampaignUrn), new String[] { Campaigns.CAMPAIGN_CREATED, Campaigns.CAMPAIGN_XML_HASH }, null, null, null);
+		if (local.moveToFirst()) {
+			localCreationTimestamp = local.getString(0);
+			hasXml = !local.isNull(1);
+		}
+		local.close();
+		boolean xmlUnchanged = false;
+
 		CampaignReadResponse campaignResponse = mApi.campaignRead(ConfigHelper.serverUrl(), getUsername(), getHashedPassword(), OhmageApi.CLIENT_NAME, "short", mCampaignUrn);
 
 		if(!AccountHelper.accountExists()) {
@@ -61,30 +71,39 @@ public class CampaignXmlDownloadTask extends AuthenticatedTaskLoader<Response> {
 		if(campaignResponse.getResult() == Result.SUCCESS) {
 			ContentValues values = new ContentValues();
 			// Update campaign created timestamp when we download xml
-			try {
-				JSONObject campaignJson = campaignResponse.getData().getJSONObject(mCampaignUrn);
-				values.put(Campaigns.CAMPAIGN_CREATED, campaignJson.getString("creation_timestamp"));
+			CampaignInfo campaignInfo = campaignResponse.getCampaign(mCampaignUrn);
+			if (campaignInfo != null && campaignInfo.mCreationTimestamp != null) {
+				xmlUnchanged = hasXml && campaignInfo.mCreationTimestamp.equals(localCreationTimestamp);
+				values.put(Campaigns.CAMPAIGN_CREATED, campaignInfo.mCreationTimestamp);
 				values.put(Campaigns.CAMPAIGN_UPDATED, startTime);
-				if("stopped".equals(campaignJson.getString("running_state")))
+				if(!campaignInfo.mRunning)
 				    values.put(Campaigns.CAMPAIGN_STATUS, Campaign.STATUS_STOPPED);
 				cr.update(Campaigns.buildCampaignUri(mCampaignUrn), values, null, null);
 
-				// We iterate through the list of user roles, if participant is included, then the status of this
+				// If participant is included in the list of user roles, then the status of this
 				// campaign can be set to ready.
-				JSONArray roles = campaignJson.getJSONArray("user_roles");
-				for(int i=0;i<roles.length();i++) {
-					if("participant".equals(roles.getString(i))) {
-						status = Campaign.STATUS_READY;
-						break;
-					}
-				}
-			} catch (JSONException e) {
-				Log.e(TAG, "Error parsing json data for " + mCampaignUrn, e);
+				if(campaignInfo.mParticipant)
+					status = Campaign.STATUS_READY;
+			} else {
+				Log.e(TAG, "Error parsing json data for " + mCampaignUrn);
 			}
 		} else {
 			return campaignResponse;
 		}
 
+		// The campaign hasn't been recreated on the server since we downloaded it, so the xml we have is current
+		if (xmlUnchanged) {
+			Log.v(TAG, "Campaign xml for " + mCampaignUrn + " is unchanged, skipping download");
+
+			ContentValues values = new ContentValues();
+			values.put(Campaigns.CAMPAIGN_STATUS, status);
+			values.put(Campaigns.CAMPAIGN_UPDATED, startTime);
+			cr.update(Campaigns.buildCampaignUri(mCampaignUrn), values, null, null);
+
+			startResponseSync();
+			return new Response(Result.SUCCESS, null);
+		}
+
 		CampaignXmlResponse response =  mApi.campaignXmlRead(ConfigHelper.serverUrl(), getUsername(), getHashedPassword(), OhmageApi.CLIENT_NAME, mCampaignUrn);
 
 		if(!AccountHelper.accountExists()) {
@@ -112,13 +131,7 @@ public class CampaignXmlDownloadTask extends AuthenticatedTaskLoader<Response> {
 				//update occurred successfully
 			}
 			
-			// create an intent to fire off the feedback service
-			Intent fbIntent = new Intent(getContext(), ResponseSyncService.class);
-			// annotate the request with the current campaign's URN
-			fbIntent.putExtra(ResponseSyncService.EXTRA_CAMPAIGN_URN, mCampaignUrn);
-			fbIntent.putExtra(ResponseSyncService.EXTRA_FORCE_ALL, true);
-			// and go!
-			WakefulIntentService.sendWakefulWork(getContext(), fbIntent);
+			startResponseSync();
 		} else { 
 			ContentValues values = new ContentValues();
 			values.put(Campaigns.CAMPAIGN_STATUS, Campaign.STATUS_REMOTE);
@@ -129,6 +142,16 @@ public class CampaignXmlDownloadTask extends AuthenticatedTaskLoader<Response> {
 		return response;
     }
 
+    private void startResponseSync() {
+		// create an intent to fire off the feedback service
+		Intent fbIntent = new Intent(getContext(), ResponseSyncService.class);
+		// annotate the request with the current campaign's URN
+		fbIntent.putExtra(ResponseSyncService.EXTRA_CAMPAIGN_URN, mCampaignUrn);
+		fbIntent.putExtra(ResponseSyncService.EXTRA_FORCE_ALL, true);
+		// and go!
+		WakefulIntentService.sendWakefulWork(getContext(), fbIntent);
+    }
+
     @Override
     public void deliverResult(Response response) {
 		if(!AccountHelper.accountExists()) {
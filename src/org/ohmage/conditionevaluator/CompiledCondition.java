@@ -0,0 +1,197 @@
+package org.ohmage.conditionevaluator;
+
+import org.andwellness.config.grammar.parser.ConditionParser;
+import org.andwellness.config.grammar.parser.ParseException;
+import org.andwellness.config.grammar.syntaxtree.NodeSequence;
+import org.andwellness.config.grammar.syntaxtree.NodeToken;
+import org.andwellness.config.grammar.syntaxtree.conjunction;
+import org.andwellness.config.grammar.syntaxtree.expr;
+import org.andwellness.config.grammar.syntaxtree.sentence;
+import org.andwellness.config.grammar.syntaxtree.sentence_prime;
+import org.andwellness.config.grammar.syntaxtree.start;
+import org.ohmage.conditionevaluator.comparator.DataPointComparatorFactory;
+
+import java.io.StringReader;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * A condition which has been parsed into a tree of expressions joined by 'and' and 'or'. The tree
+ * is never changed once it is built, so a compiled condition can be kept and evaluated any number
+ * of times from any thread. It evaluates exactly as {@link ConditionDepthFirst} does, including
+ * which expressions are skipped by short circuiting.
+ */
+public abstract class CompiledCondition {
+
+    /** Guarded by the parser class, since the generated parser keeps its state in static fields */
+    private static boolean sParserInitialized = false;
+
+    /**
+     * Checks the condition against the previous responses
+     *
+     * @param previousResponses
+     * @return whether the condition is true
+     */
+    public abstract boolean evaluate(List<DataPoint> previousResponses);
+
+    /**
+     * Adds the ids of the responses the condition reads
+     *
+     * @param ids
+     */
+    public abstract void collectIds(Set<String> ids);
+
+    /**
+     * Parses a condition
+     *
+     * @param condition
+     * @return the compiled condition
+     * @throws ParseException if the condition isn't valid
+     */
+    public static CompiledCondition compile(String condition) throws ParseException {
+        start s;
+        synchronized (ConditionParser.class) {
+            // The API is odd, we have to instantiate an object just to use its static methods
+            if (!sParserInitialized) {
+                new ConditionParser(new StringReader(condition));
+                sParserInitialized = true;
+            } else {
+                ConditionParser.ReInit(new StringReader(condition));
+            }
+            s = ConditionParser.start();
+        }
+        return compile(s.f0);
+    }
+
+    /**
+     * f0 -> expr() sentence_prime()
+     *       | "(" sentence() ")" sentence_prime()
+     */
+    private static CompiledCondition compile(sentence n) {
+        NodeSequence nodeSequence = (NodeSequence) n.f0.choice;
+        if (n.f0.which == 0) {
+            return compile(compile((expr) nodeSequence.elementAt(0)), (sentence_prime) nodeSequence.elementAt(1));
+        } else {
+            return compile(compile((sentence) nodeSequence.elementAt(1)), (sentence_prime) nodeSequence.elementAt(3));
+        }
+    }
+
+    /**
+     * f0 -> ( conjunction() sentence() sentence_prime() )?
+     *
+     * The left side of each conjunction is everything before it, so the chain of sentence_primes
+     * is folded from the left.
+     */
+    private static CompiledCondition compile(CompiledCondition left, sentence_prime n) {
+        while (n.f0.present()) {
+            NodeSequence nodeSequence = (NodeSequence) n.f0.node;
+            String conjValue = ((NodeToken) ((conjunction) nodeSequence.elementAt(0)).f0.choice).toString();
+            CompiledCondition right = compile((sentence) nodeSequence.elementAt(1));
+
+            if ("and".equals(conjValue))
+                left = new And(left, right);
+            else if ("or".equals(conjValue))
+                left = new Or(left, right);
+            else
+                throw new IllegalArgumentException("Conjunction neither and nor or.");
+
+            n = (sentence_prime) nodeSequence.elementAt(2);
+        }
+        return left;
+    }
+
+    /**
+     * f0 -> id() f1 -> condition() f2 -> value()
+     */
+    private static CompiledCondition compile(expr n) {
+        return new Expression(n.f0.f0.toString(), ((NodeToken) n.f1.f0.choice).toString(), n.f2.f0.toString());
+    }
+
+    /**
+     * An id compared to a value. If the id isn't in the responses the expression is false,
+     * otherwise the comparator for the type of its prompt decides.
+     */
+    static final class Expression extends CompiledCondition {
+        final String id;
+        final String condition;
+        final String value;
+
+        Expression(String id, String condition, String value) {
+            this.id = id;
+            this.condition = condition;
+            this.value = value;
+        }
+
+        @Override
+        public boolean evaluate(List<DataPoint> previousResponses) {
+            DataPoint dataPoint = DataPointIndex.find(previousResponses, id);
+            if (dataPoint == null)
+                return false;
+
+            return DataPointComparatorFactory.createDataPointComparator(dataPoint.getPromptType())
+                    .compare(dataPoint, value, condition);
+        }
+
+        @Override
+        public void collectIds(Set<String> ids) {
+            ids.add(id);
+        }
+
+        @Override
+        public String toString() {
+            return id + " " + condition + " " + value;
+        }
+    }
+
+    static final class And extends CompiledCondition {
+        final CompiledCondition left;
+        final CompiledCondition right;
+
+        And(CompiledCondition left, CompiledCondition right) {
+            this.left = left;
+            this.right = right;
+        }
+
+        @Override
+        public boolean evaluate(List<DataPoint> previousResponses) {
+            return left.evaluate(previousResponses) && right.evaluate(previousResponses);
+        }
+
+        @Override
+        public void collectIds(Set<String> ids) {
+            left.collectIds(ids);
+            right.collectIds(ids);
+        }
+
+        @Override
+        public String toString() {
+            return "(" + left + " and " + right + ")";
+        }
+    }
+
+    static final class Or extends CompiledCondition {
+        final CompiledCondition left;
+        final CompiledCondition right;
+
+        Or(CompiledCondition left, CompiledCondition right) {
+            this.left = left;
+            this.right = right;
+        }
+
+        @Override
+        public boolean evaluate(List<DataPoint> previousResponses) {
+            return left.evaluate(previousResponses) || right.evaluate(previousResponses);
+        }
+
+        @Override
+        public void collectIds(Set<String> ids) {
+            left.collectIds(ids);
+            right.collectIds(ids);
+        }
+
+        @Override
+        public String toString() {
+            return "(" + left + " or " + right + ")";
+        }
+    }
+}
@@ -253,12 +253,11 @@ public class ConditionDepthFirst<R, A> extends GJDepthFirst<R, A> {
        String nodeCondition = (String) n.f1.accept(this, argu);
        String nodeValue = (String) n.f2.accept(this, argu);
 
-       // Lookup the nodeID in the List of IDs with responses.
-       DataPoint dataPointForComparison = new DataPoint(nodeId);
-       int nodeIdLocation = _currentIdList.indexOf(dataPointForComparison);
+       // Lookup the nodeID in the List of IDs with responses, by hash if they are indexed.
+       DataPoint dataPoint = DataPointIndex.find(_currentIdList, nodeId);
        
        // If we can't find the nodeId, assume this expression is false
-       if (nodeIdLocation == -1) {
+       if (dataPoint == null) {
            _ret = (R) new Boolean(false);
            
            /*if (ConditionDepthFirst._logger.isDebugEnabled()) {
@@ -268,7 +267,6 @@ public class ConditionDepthFirst<R, A> extends GJDepthFirst<R, A> {
        // If we find the ID, evaluation the expression
        else {
            boolean result;
-           DataPoint dataPoint = _currentIdList.get(nodeIdLocation);
            
            // Grab a DataPointComparator to compare the DataPoint to the value
            DataPointComparator dataPointComparator = 
@@ -0,0 +1,186 @@
+package org.ohmage.conditionevaluator;
+
+import org.ohmage.logprobe.Log;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Links the ids of a survey's prompts to the conditions which read them. The graph is built once
+ * when the survey is parsed and never changes, so it can be shared by every time the survey is
+ * taken.
+ * <p>
+ * Each time the survey is taken gets an {@link Evaluator} which keeps the result of every
+ * condition it evaluates. When the response to a prompt changes only the conditions which read it
+ * are checked again, so moving forward after going back and changing an answer doesn't evaluate
+ * every later condition.
+ */
+public class ConditionGraph {
+
+    private static final String TAG = "ConditionGraph";
+
+    /** Conditions which read each id */
+    private final HashMap<String, Set<String>> mDependents = new HashMap<String, Set<String>>();
+
+    /** Ids read by each condition */
+    private final HashMap<String, Set<String>> mIds = new HashMap<String, Set<String>>();
+
+    private ConditionGraph() {
+    }
+
+    /**
+     * Compiles the conditions and links them to the ids they read. Invalid conditions are left
+     * out of the graph and are evaluated each time they are checked.
+     *
+     * @param conditions
+     * @return the graph
+     */
+    public static ConditionGraph build(Collection<String> conditions) {
+        ConditionGraph graph = new ConditionGraph();
+        for (String condition : conditions) {
+            if (condition == null || condition.length() == 0 || graph.mIds.containsKey(condition))
+                continue;
+
+            CompiledCondition compiled;
+            try {
+                compiled = DataPointConditionEvaluator.compile(condition);
+            } catch (IllegalArgumentException e) {
+                Log.w(TAG, "Invalid condition " + condition);
+                continue;
+            }
+
+            HashSet<String> ids = new HashSet<String>();
+            compiled.collectIds(ids);
+            graph.mIds.put(condition, Collections.unmodifiableSet(ids));
+            for (String id : ids) {
+                Set<String> dependents = graph.mDependents.get(id);
+                if (dependents == null) {
+                    dependents = new HashSet<String>();
+                    graph.mDependents.put(id, dependents);
+                }
+                dependents.add(condition);
+            }
+        }
+        return graph;
+    }
+
+    /**
+     * @param id
+     * @return the conditions which read the response with the id
+     */
+    public Set<String> getDependents(String id) {
+        Set<String> dependents = mDependents.get(id);
+        return dependents == null ? Collections.<String> emptySet() : Collections.unmodifiableSet(dependents);
+    }
+
+    /**
+     * @param condition
+     * @return the ids the condition reads, or null if the condition isn't in the graph
+     */
+    public Set<String> getIds(String condition) {
+        return mIds.get(condition);
+    }
+
+    /**
+     * Keeps the results of the conditions of one response to the survey. It must be the listener
+     * of the {@link DataPointIndex} the conditions are evaluated against so it knows which results
+     * may have changed.
+     */
+    public static class Evaluator implements DataPointIndex.OnChangeListener {
+
+        private final ConditionGraph mGraph;
+
+        /** The last result of each condition in the graph */
+        private final HashMap<String, Result> mResults = new HashMap<String, Result>();
+
+        /** Conditions which read a response which was added or dropped since their result */
+        private final HashSet<String> mStale = new HashSet<String>();
+
+        private int mEvaluations;
+
+        public Evaluator(ConditionGraph graph) {
+            mGraph = graph;
+        }
+
+        /**
+         * Checks the condition. It is only evaluated again if a response it reads is different
+         * from when it was last evaluated, so moving back and forward over answers which weren't
+         * changed keeps the results.
+         *
+         * @param condition
+         * @param previousResponses
+         * @return whether the condition is true
+         */
+        public boolean evaluate(String condition, List<DataPoint> previousResponses) {
+            // Blank conditions are always valid
+            if (condition.length() == 0)
+                return true;
+
+            Set<String> ids = mGraph.getIds(condition);
+            if (ids == null) {
+                // a condition outside the graph can't be told apart from its changes
+                mEvaluations++;
+                return DataPointConditionEvaluator.evaluateCondition(condition, previousResponses);
+            }
+
+            Result result = mResults.get(condition);
+            if (result == null || (mStale.contains(condition) && !result.isCurrent(previousResponses))) {
+                mEvaluations++;
+                result = new Result(DataPointConditionEvaluator.evaluateCondition(condition, previousResponses), ids,
+                        previousResponses);
+                mResults.put(condition, result);
+            }
+            mStale.remove(condition);
+            return result.value;
+        }
+
+        @Override
+        public void onResponseChanged(String id) {
+            for (String condition : mGraph.getDependents(id)) {
+                if (mResults.containsKey(condition))
+                    mStale.add(condition);
+            }
+        }
+
+        /**
+         * @return the number of conditions which had to be evaluated
+         */
+        public int getEvaluations() {
+            return mEvaluations;
+        }
+    }
+
+    /**
+     * The result of a condition and the responses it read
+     */
+    private static class Result {
+        final boolean value;
+        final String[] ids;
+        final DataPoint[] read;
+
+        Result(boolean value, Set<String> ids, List<DataPoint> previousResponses) {
+            this.value = value;
+            this.ids = ids.toArray(new String[ids.size()]);
+            read = new DataPoint[this.ids.length];
+            for (int i = 0; i < read.length; i++)
+                read[i] = DataPointIndex.find(previousResponses, this.ids[i]);
+        }
+
+        /**
+         * @return true if the responses the condition read are the same in the previous
+         *         responses
+         */
+        boolean isCurrent(List<DataPoint> previousResponses) {
+            for (int i = 0; i < ids.length; i++) {
+                DataPoint dataPoint = DataPointIndex.find(previousResponses, ids[i]);
+                if (dataPoint == null ? read[i] != null : !dataPoint.hasSameResponse(read[i]))
+                    return false;
+            }
+            return true;
+        }
+    }
+}
@@ -233,6 +233,23 @@ public class DataPoint {
         return false;
     }
 
+    /**
+     * Checks whether another data point holds the same response, so a condition which read one
+     * would read the same thing from the other.
+     * 
+     * @param other The DataPoint to compare to, may be null.
+     * @return true if both have the same type, state, value and metadata
+     */
+    public boolean hasSameResponse(DataPoint other) {
+        if (other == null)
+            return false;
+        
+        return promptType == other.promptType && displayType == other.displayType
+                && isSkipped == other.isSkipped && isNotDisplayed == other.isNotDisplayed
+                && (value == null ? other.value == null : value.equals(other.value))
+                && metadata.equals(other.metadata);
+    }
+
     public String toString() {
         return "type " + promptType.toString() + " id " + id + " value " + value;
     }
@@ -15,21 +15,20 @@
  ******************************************************************************/
 package org.ohmage.conditionevaluator;
 
-import org.andwellness.config.grammar.parser.ConditionParser;
 import org.andwellness.config.grammar.parser.ParseException;
-import org.andwellness.config.grammar.syntaxtree.start;
 import org.ohmage.logprobe.Log;
 
-import java.io.StringReader;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 /**
  * Basic utility class to evaluate a string condition against a list of data points.
  * 
  * Each condition is a number of expressions 'and'ed and 'or'ed together. Each expression is
- * an 'id' conditioned against a 'value'. This class will create a new conditionParser to parse
- * the condition, then use the ConditionDepthFirst visitor class to recursively evaluate the condition
- * and produce an overall response.
+ * an 'id' conditioned against a 'value'. Each condition is parsed once into a
+ * {@link CompiledCondition} which is kept so moving between prompts doesn't parse the same
+ * conditions again. Conditions can be evaluated from any thread.
  * 
  * @author jhicks
  *
@@ -37,10 +36,44 @@ import java.util.List;
 public class DataPointConditionEvaluator {
 	
 	private static final String TAG = "DataPointConditionEvaluator";
-	
-    private static boolean conditionParserInitialized = false;  // Track whether the condition parse is initialized
-    //private static Logger _logger = Logger.getLogger(DataPointConditionEvaluator.class);
-    
+
+    /** Number of compiled conditions kept, which is more than any survey has */
+    private static final int MAX_COMPILED_CONDITIONS = 512;
+
+    /** Compiled conditions keyed by their text, least recently used first */
+    private static final LinkedHashMap<String, CompiledCondition> sCompiled = new LinkedHashMap<String, CompiledCondition>(
+            MAX_COMPILED_CONDITIONS, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, CompiledCondition> eldest) {
+            return size() > MAX_COMPILED_CONDITIONS;
+        }
+    };
+
+    /**
+     * Returns the compiled condition, parsing it if it hasn't been seen before. Conditions are
+     * parsed without holding the cache lock, so two threads may both parse a new condition.
+     * 
+     * @param condition The condition to compile.
+     * @return The compiled condition.
+     */
+    public static CompiledCondition compile(String condition) {
+        synchronized (sCompiled) {
+            CompiledCondition compiled = sCompiled.get(condition);
+            if (compiled != null)
+                return compiled;
+        }
+
+        try {
+            CompiledCondition compiled = CompiledCondition.compile(condition);
+            synchronized (sCompiled) {
+                sCompiled.put(condition, compiled);
+            }
+            return compiled;
+        } catch (ParseException pe) {
+            throw new IllegalArgumentException("Condition failed to parse, should have been checked in the XML validator: " + condition);
+        }
+    }
+
     /**
      * Checks if the passed condition is true based on the passed list of node responses.  If the id does
      * not exist in the responses, assume the response is NULL.
@@ -52,37 +85,9 @@ public class DataPointConditionEvaluator {
     public static boolean evaluateCondition(String condition, List<DataPoint> previousResponses) {
         // Blank conditions are always valid
         if(! "".equals(condition)) {
-            start s = null;
-            
-            try {
-                // The API is odd, we have to instantiate an object just to use its static methods below,
-                // we do not actually need to keep the object around for any reason
-                if (!conditionParserInitialized) {
-                    new ConditionParser(new StringReader(condition));
-                    conditionParserInitialized = true;
-                }
-                else {
-                    ConditionParser.ReInit(new StringReader(condition));
-                }
-                // Call start statically even though we have to instantiate the object above
-                s = ConditionParser.start();
-                
-                ConditionDepthFirst<Boolean, Boolean> visitor 
-                    = new ConditionDepthFirst<Boolean, Boolean>(previousResponses);
-                // Check the condition against the previous responses
-                Boolean conditionValue = visitor.visit(s, null);
-                
-                /*if (DataPointConditionEvaluator._logger.isDebugEnabled()) {
-                    DataPointConditionEvaluator._logger.debug("Condition [" + condition + "] evaluated as " + conditionValue.toString());
-                }*/
-                Log.v(TAG, "Condition [" + condition + "] evaluated as " + conditionValue.toString());
-                
-                return conditionValue.booleanValue();
-                
-            } catch (ParseException pe) {
-
-                throw new IllegalArgumentException("Condition failed to parse, should have been checked in the XML validator: " + condition);
-            }
+            boolean conditionValue = compile(condition).evaluate(previousResponses);
+            Log.v(TAG, "Condition [" + condition + "] evaluated as " + conditionValue);
+            return conditionValue;
         }
         
         return true;
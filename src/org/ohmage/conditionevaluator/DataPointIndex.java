@@ -0,0 +1,171 @@
+package org.ohmage.conditionevaluator;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * The responses to the elements before a position in a survey, kept up to date as the position
+ * moves instead of being rebuilt for every condition. Each response remembers the position of the
+ * element it came from so moving back only drops the responses which are no longer before the
+ * position, and moving forward only adds the new ones.
+ * <p>
+ * Ids are looked up in a map, so evaluating an expression doesn't scan the responses. A repeated
+ * id resolves to its first response, the same one {@link List#indexOf(Object)} would find.
+ * <p>
+ * A listener can be told which ids resolve to a different response, so results which only depend
+ * on other ids can be kept.
+ */
+public class DataPointIndex extends AbstractList<DataPoint> {
+
+    /**
+     * Told about ids whose response changed
+     */
+    public interface OnChangeListener {
+        /**
+         * Called when the first response with the id is added or dropped
+         *
+         * @param id
+         */
+        void onResponseChanged(String id);
+    }
+
+    private final ArrayList<DataPoint> mDataPoints = new ArrayList<DataPoint>();
+
+    /** Position of the element each data point came from */
+    private final ArrayList<Integer> mPositions = new ArrayList<Integer>();
+
+    /** Index of the first data point with each id */
+    private final HashMap<String, Integer> mIds = new HashMap<String, Integer>();
+
+    /** Number of leading elements the index has read */
+    private int mPosition;
+
+    private OnChangeListener mListener;
+
+    /**
+     * Sets the listener, which should be set before any responses are added so it is told about
+     * all of them
+     *
+     * @param listener
+     */
+    public void setOnChangeListener(OnChangeListener listener) {
+        mListener = listener;
+    }
+
+    /**
+     * @return the number of leading elements which have been read into the index
+     */
+    public int getPosition() {
+        return mPosition;
+    }
+
+    /**
+     * Marks the elements up to the position as read. Elements which aren't prompts have no data
+     * point so they are only counted.
+     *
+     * @param position
+     */
+    public void setPosition(int position) {
+        if (position < mPosition)
+            truncate(position);
+        mPosition = position;
+    }
+
+    /**
+     * Adds the response to the element at the position, which must come after every element
+     * already read
+     *
+     * @param position
+     * @param dataPoint
+     */
+    public void append(int position, DataPoint dataPoint) {
+        if (position < mPosition)
+            throw new IllegalArgumentException("Position " + position + " has already been read");
+
+        if (!mIds.containsKey(dataPoint.getId())) {
+            mIds.put(dataPoint.getId(), mDataPoints.size());
+            notifyChanged(dataPoint.getId());
+        }
+        mDataPoints.add(dataPoint);
+        mPositions.add(position);
+        mPosition = position + 1;
+    }
+
+    /**
+     * Forgets the responses to the elements at or after the position so they are read again
+     *
+     * @param position
+     */
+    public void truncate(int position) {
+        for (int i = mDataPoints.size() - 1; i >= 0 && mPositions.get(i) >= position; i--) {
+            String id = mDataPoints.get(i).getId();
+            if (mIds.get(id) == i) {
+                mIds.remove(id);
+                notifyChanged(id);
+            }
+            mDataPoints.remove(i);
+            mPositions.remove(i);
+        }
+        mPosition = Math.min(mPosition, position);
+    }
+
+    /**
+     * @param id
+     * @return the first response with the id, or null if there isn't one
+     */
+    public DataPoint get(String id) {
+        Integer index = mIds.get(id);
+        return index == null ? null : mDataPoints.get(index);
+    }
+
+    @Override
+    public DataPoint get(int location) {
+        return mDataPoints.get(location);
+    }
+
+    @Override
+    public int size() {
+        return mDataPoints.size();
+    }
+
+    @Override
+    public int indexOf(Object object) {
+        if (!(object instanceof DataPoint))
+            return -1;
+        Integer index = mIds.get(((DataPoint) object).getId());
+        return index == null ? -1 : index;
+    }
+
+    @Override
+    public boolean contains(Object object) {
+        return indexOf(object) != -1;
+    }
+
+    @Override
+    public void clear() {
+        truncate(0);
+    }
+
+    private void notifyChanged(String id) {
+        if (mListener != null)
+            mListener.onResponseChanged(id);
+    }
+
+    /**
+     * Finds the first response with the id, by its id if the responses are indexed and by
+     * scanning them otherwise
+     *
+     * @param previousResponses
+     * @param id
+     * @return the response, or null if there isn't one
+     */
+    public static DataPoint find(List<DataPoint> previousResponses, String id) {
+        if (previousResponses instanceof DataPointIndex)
+            return ((DataPointIndex) previousResponses).get(id);
+
+        int location = previousResponses.indexOf(new DataPoint(id));
+        return location == -1 ? null : previousResponses.get(location);
+    }
+}
@@ -0,0 +1,188 @@
+package org.ohmage.db;
+
+import java.util.ArrayList;
+
+/**
+ * Finds where each survey and the campaign instructions are in the xml of a campaign so one
+ * survey can be read and parsed without walking the whole campaign. The xml is only scanned for
+ * tags, so building the index is much cheaper than parsing it.
+ * <p>
+ * Offsets and lengths are counted in characters as sqlite's substr() counts them, so a survey can
+ * be cut out of the stored xml by the database. Each region is a complete element which can be
+ * parsed on its own.
+ */
+public class CampaignXmlIndex {
+
+	private static final String SURVEY = "survey";
+	private static final String INSTRUCTIONS = "instructions";
+
+	/**
+	 * The region of an element in the xml
+	 */
+	public static class Region {
+		public final int offset;
+		public final int length;
+
+		Region(int offset, int length) {
+			this.offset = offset;
+			this.length = length;
+		}
+	}
+
+	/** Regions of the surveys in the order they are in the xml */
+	public final ArrayList<Region> surveys = new ArrayList<Region>();
+
+	/** Region of the first instructions element, or null if there isn't one */
+	public Region instructions;
+
+	private final String mXml;
+
+	/** Last index converted to a character offset, and its offset */
+	private int mLastIndex;
+	private int mLastOffset;
+
+	private CampaignXmlIndex(String xml) {
+		mXml = xml;
+	}
+
+	/**
+	 * Scans the xml for its surveys and instructions
+	 *
+	 * @param xml
+	 * @return the index, or null if the xml isn't well enough formed to be indexed
+	 */
+	public static CampaignXmlIndex build(String xml) {
+		if (xml == null)
+			return null;
+
+		CampaignXmlIndex index = new CampaignXmlIndex(xml);
+		return index.scan() ? index : null;
+	}
+
+	private boolean scan() {
+		int surveyStart = -1;
+		int instructionsStart = -1;
+
+		int i = mXml.indexOf('<');
+		while (i != -1) {
+			int end;
+			if (mXml.startsWith("<!--", i)) {
+				end = indexAfter("-->", i + 4);
+			} else if (mXml.startsWith("<![CDATA[", i)) {
+				end = indexAfter("]]>", i + 9);
+			} else if (mXml.startsWith("<?", i)) {
+				end = indexAfter("?>", i + 2);
+			} else if (mXml.startsWith("<!", i)) {
+				// a doctype with an internal subset ends with ]>
+				int close = mXml.indexOf('>', i);
+				int subset = mXml.indexOf('[', i);
+				end = (subset != -1 && subset < close) ? indexAfter("]>", subset) : indexAfter(">", i);
+			} else {
+				end = tagEnd(i);
+				if (end == -1)
+					return false;
+
+				boolean closing = mXml.charAt(i + 1) == '/';
+				boolean empty = mXml.charAt(end - 2) == '/';
+				int name = closing ? i + 2 : i + 1;
+
+				if (isNamed(name, SURVEY)) {
+					if (!closing) {
+						// surveys can't be nested
+						if (surveyStart != -1)
+							return false;
+						surveyStart = i;
+					}
+					if (closing || empty) {
+						if (surveyStart == -1)
+							return false;
+						surveys.add(region(surveyStart, end));
+						surveyStart = -1;
+					}
+				} else if (instructions == null && isNamed(name, INSTRUCTIONS)) {
+					if (!closing)
+						instructionsStart = i;
+					if ((closing || empty) && instructionsStart != -1)
+						instructions = region(instructionsStart, end);
+				}
+			}
+
+			if (end == -1)
+				return false;
+			i = mXml.indexOf('<', end);
+		}
+
+		return surveyStart == -1;
+	}
+
+	/**
+	 * @return the index after the first occurrence of the string from start, or -1 if there is
+	 *         none
+	 */
+	private int indexAfter(String s, int start) {
+		int index = mXml.indexOf(s, start);
+		return index == -1 ? -1 : index + s.length();
+	}
+
+	/**
+	 * @return the index after the > which closes the tag starting at start, skipping quoted
+	 *         attribute values
+	 */
+	private int tagEnd(int start) {
+		char quote = 0;
+		for (int i = start + 1; i < mXml.length(); i++) {
+			char c = mXml.charAt(i);
+			if (quote != 0) {
+				if (c == quote)
+					quote = 0;
+			} else if (c == '"' || c == '\'') {
+				quote = c;
+			} else if (c == '>') {
+				return i + 1;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * @return true if the tag name starting at start is the given name, ignoring case like the
+	 *         parsers do
+	 */
+	private boolean isNamed(int start, String name) {
+		int end = start + name.length();
+		if (!mXml.regionMatches(true, start, name, 0, name.length()) || end >= mXml.length())
+			return false;
+		char c = mXml.charAt(end);
+		return Character.isWhitespace(c) || c == '>' || c == '/';
+	}
+
+	/**
+	 * Makes a region from string indexes. Regions are found in about the order they are in the
+	 * xml, so the characters are counted from the last index rather than from the start each time.
+	 */
+	private Region region(int start, int end) {
+		int offset = offset(start);
+		return new Region(offset, offset(end) - offset);
+	}
+
+	private int offset(int index) {
+		if (index >= mLastIndex)
+			mLastOffset += mXml.codePointCount(mLastIndex, index);
+		else
+			mLastOffset -= mXml.codePointCount(index, mLastIndex);
+		mLastIndex = index;
+		return mLastOffset;
+	}
+
+	/**
+	 * Cuts a region out of the xml it was found in
+	 *
+	 * @param xml
+	 * @param region
+	 * @return the xml of the region
+	 */
+	public static String substring(String xml, Region region) {
+		int start = xml.offsetByCodePoints(0, region.offset);
+		return xml.substring(start, xml.offsetByCodePoints(start, region.length));
+	}
+}
@@ -0,0 +1,96 @@
+package org.ohmage.db;
+
+import android.content.ContentResolver;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+
+/**
+ * Coalesces the change notifications sent by the {@link DbProvider}. Changes made while a batch is
+ * open on the current thread are held until the batch ends so each uri is only notified once per
+ * batch. Notifications are also debounced so a uri which changes many times within the debounce
+ * window only causes its observers to requery once.
+ */
+public class ChangeNotifier {
+
+	/** Default time in milliseconds changes to the same uri are coalesced for */
+	public static final long DEBOUNCE_MS = 250;
+
+	private final ContentResolver mResolver;
+	private final Handler mHandler;
+	private final long mDebounce;
+
+	private final ThreadLocal<LinkedHashSet<Uri>> mBatch = new ThreadLocal<LinkedHashSet<Uri>>();
+
+	/** Uris which have a notification waiting to be sent */
+	private final HashSet<Uri> mScheduled = new HashSet<Uri>();
+
+	public ChangeNotifier(ContentResolver resolver, Looper looper, long debounce) {
+		mResolver = resolver;
+		mHandler = new Handler(looper);
+		mDebounce = debounce;
+	}
+
+	/**
+	 * Starts holding notifications made on this thread
+	 *
+	 * @return true if a batch was started, false if one was already open on this thread
+	 */
+	public boolean beginBatch() {
+		if (mBatch.get() != null)
+			return false;
+		mBatch.set(new LinkedHashSet<Uri>());
+		return true;
+	}
+
+	/**
+	 * Ends the batch open on this thread
+	 *
+	 * @param changed true if the changes made during the batch were committed and should be sent
+	 */
+	public void endBatch(boolean changed) {
+		LinkedHashSet<Uri> uris = mBatch.get();
+		mBatch.remove();
+
+		if (changed && uris != null) {
+			for (Uri uri : uris)
+				schedule(uri);
+		}
+	}
+
+	/**
+	 * Notifies observers of the uri that it changed, once the current batch ends and the debounce
+	 * window has passed
+	 *
+	 * @param uri
+	 */
+	public void notifyChange(Uri uri) {
+		LinkedHashSet<Uri> batch = mBatch.get();
+		if (batch != null)
+			batch.add(uri);
+		else
+			schedule(uri);
+	}
+
+	private void schedule(final Uri uri) {
+		synchronized (mScheduled) {
+			if (!mScheduled.add(uri))
+				return;
+		}
+
+		mHandler.postDelayed(new Runnable() {
+
+			@Override
+			public void run() {
+				// remove it first so a change made while observers are notified is sent again
+				synchronized (mScheduled) {
+					mScheduled.remove(uri);
+				}
+				mResolver.notifyChange(uri, null, false);
+			}
+		}, mDebounce);
+	}
+}
@@ -0,0 +1,193 @@
+package org.ohmage.db;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteException;
+import android.os.SystemClock;
+import android.text.format.DateUtils;
+import android.util.Log;
+
+import org.ohmage.db.DbContract.Responses;
+import org.ohmage.db.DbHelper.Tables;
+import org.ohmage.db.Models.Response;
+
+/**
+ * Removes responses which are safely on the server once they are older than the retention period
+ * or the database is larger than its size cap, and gives the space back to the file system. The
+ * work is done in small steps and stops as soon as its {@link Window} closes, so it can be run
+ * while the phone is idle and charging and pick up where it left off the next time.
+ * <p>
+ * Responses are removed through the provider so their prompt responses, search index rows and
+ * media are removed with them. Responses which haven't been uploaded are never removed, and neither
+ * is the newest downloaded response of each campaign.
+ */
+public class DbCompactor {
+
+	private static final String TAG = "DbCompactor";
+
+	/** Responses removed in each step */
+	private static final int EVICT_BATCH_SIZE = 200;
+
+	/** Pages given back to the file system in each step */
+	private static final int VACUUM_STEP_PAGES = 256;
+
+	/**
+	 * The newest downloaded response of each campaign. Its time is where the next download starts,
+	 * see {@link org.ohmage.db.Models.Campaign#getLastDownloadedResponseTime(Context)}, so it is
+	 * never removed or the whole history would be downloaded again.
+	 */
+	private static final String NEWEST_DOWNLOADED = Responses.RESPONSE_STATUS + "=" + Response.STATUS_DOWNLOADED
+			+ " AND " + Responses.RESPONSE_TIME + "=(SELECT MAX(newest." + Responses.RESPONSE_TIME + ") FROM "
+			+ Tables.RESPONSES + " newest WHERE newest." + Responses.CAMPAIGN_URN + "=" + Tables.RESPONSES + "."
+			+ Responses.CAMPAIGN_URN + " AND newest." + Responses.RESPONSE_STATUS + "=" + Response.STATUS_DOWNLOADED + ")";
+
+	/** Responses which are on the server and may be removed */
+	private static final String EVICTABLE = Responses.RESPONSE_STATUS + " IN (" + Response.STATUS_UPLOADED + ","
+			+ Response.STATUS_DOWNLOADED + ") AND NOT (" + NEWEST_DOWNLOADED + ")";
+
+	/**
+	 * Decides if the compactor may keep working
+	 */
+	public interface Window {
+		boolean isOpen();
+	}
+
+	/**
+	 * What a run of the compactor did
+	 */
+	public static class Result {
+		/** Number of responses removed */
+		public int evicted;
+		/** Bytes the database file shrank by */
+		public long reclaimedBytes;
+		/** Milliseconds the run took */
+		public long elapsed;
+		/** True if the run finished before its window closed */
+		public boolean finished;
+
+		@Override
+		public String toString() {
+			return "evicted " + evicted + " responses, reclaimed " + reclaimedBytes + " bytes in " + elapsed + "ms"
+					+ (finished ? "" : " (interrupted)");
+		}
+	}
+
+	private final Context mContext;
+	private final int mRetentionDays;
+	private final long mMaxSize;
+
+	/**
+	 * @param context
+	 * @param retentionDays days uploaded responses are kept for, or 0 to keep them until the size
+	 *            cap is reached
+	 * @param maxSize bytes the data in the database may take up before the oldest uploaded
+	 *            responses are removed, or 0 for no cap
+	 */
+	public DbCompactor(Context context, int retentionDays, long maxSize) {
+		mContext = context;
+		mRetentionDays = retentionDays;
+		mMaxSize = maxSize;
+	}
+
+	/**
+	 * Removes the responses which are past the retention policy and vacuums the database
+	 *
+	 * @param window checked between each step
+	 * @return what was done
+	 */
+	public Result compact(Window window) {
+		Result result = new Result();
+		long start = SystemClock.elapsedRealtime();
+
+		DbHelper dbHelper = new DbHelper(mContext);
+		try {
+			SQLiteDatabase db = dbHelper.getWritableDatabase();
+			long size = DbHelper.getSize(db);
+
+			result.finished = evictExpired(window, result) && evictOversize(db, window, result)
+					&& vacuum(db, window);
+
+			DbHelper.checkpoint(db);
+			result.reclaimedBytes = size - DbHelper.getSize(db);
+		} catch (SQLiteException e) {
+			// most likely the database is busy with a sync, the next window will continue
+			Log.e(TAG, "compaction stopped, will try again in the next window", e);
+			result.finished = false;
+		} finally {
+			dbHelper.close();
+		}
+
+		result.elapsed = SystemClock.elapsedRealtime() - start;
+		Log.i(TAG, result.toString());
+		return result;
+	}
+
+	/**
+	 * Removes the uploaded responses which are older than the retention period
+	 *
+	 * @return false if the window closed before all of them were removed
+	 */
+	private boolean evictExpired(Window window, Result result) {
+		if (mRetentionDays <= 0)
+			return true;
+
+		String cutoff = String.valueOf(System.currentTimeMillis() - mRetentionDays * DateUtils.DAY_IN_MILLIS);
+		while (window.isOpen()) {
+			int count = evictOldest(Responses.RESPONSE_TIME + "<?", new String[] { cutoff });
+			result.evicted += count;
+			if (count < EVICT_BATCH_SIZE)
+				return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Removes the oldest uploaded responses until the data fits under the size cap
+	 *
+	 * @return false if the window closed before the data fit
+	 */
+	private boolean evictOversize(SQLiteDatabase db, Window window, Result result) {
+		if (mMaxSize <= 0)
+			return true;
+
+		while (DbHelper.getUsedSize(db) > mMaxSize) {
+			if (!window.isOpen())
+				return false;
+			int count = evictOldest(null, null);
+			result.evicted += count;
+			if (count == 0) {
+				Log.w(TAG, "database is over its size cap but nothing else can be removed");
+				return true;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Removes a batch of the oldest uploaded responses which match the selection
+	 *
+	 * @return the number of responses removed
+	 */
+	private int evictOldest(String selection, String[] selectionArgs) {
+		ContentResolver cr = mContext.getContentResolver();
+		return cr.delete(Responses.CONTENT_URI, Responses._ID + " IN (SELECT " + Responses._ID + " FROM "
+				+ Tables.RESPONSES + " WHERE " + EVICTABLE + (selection != null ? " AND " + selection : "")
+				+ " ORDER BY " + Responses.RESPONSE_TIME + " LIMIT " + EVICT_BATCH_SIZE + ")", selectionArgs);
+	}
+
+	/**
+	 * Gives the free pages back to the file system a few at a time
+	 *
+	 * @return false if the window closed before all of them were given back
+	 */
+	private boolean vacuum(SQLiteDatabase db, Window window) {
+		while (DbHelper.getFreeSize(db) > 0) {
+			if (!window.isOpen())
+				return false;
+			if (DbHelper.incrementalVacuum(db, VACUUM_STEP_PAGES) == 0)
+				break;
+		}
+		return true;
+	}
+}
@@ -29,8 +29,13 @@ public class DbContract {
 		String CAMPAIGN_CREATED = "campaign_created";
 		/** Time when this campaign was downloaded */
 		String CAMPAIGN_DOWNLOADED = "campaign_downloaded";
-		/** Configuration xml for this campaign */
+		/**
+		 * Configuration xml for this campaign. It is stored out of the campaign row so it is only
+		 * returned when it is asked for by name or read from {@link Campaigns#buildCampaignXmlUri(String)}
+		 */
 		String CAMPAIGN_CONFIGURATION_XML = "campaign_configuration_xml";
+		/** SHA1 hash of the configuration xml, used to skip reparsing xml which hasn't changed */
+		String CAMPAIGN_XML_HASH = "campaign_xml_hash";
 		/** Status of this campaign */
 		String CAMPAIGN_STATUS = "campaign_status";
 		/** Icon for this campaign */
@@ -99,12 +104,35 @@ public class DbContract {
 		String PROMPT_RESPONSE_VALUE = "prompt_response_value";
 		/** extra data associated with the response that might be needed */
 		String PROMPT_RESPONSE_EXTRA_VALUE = "prompt_response_extra_value";
+		/** the value as a number if it is numeric, null otherwise; aggregates should be computed over this column */
+		String PROMPT_RESPONSE_NUMERIC_VALUE = "prompt_response_numeric_value";
+		/** type of the prompt the response is for, kept so the media of a response can be found after its survey is gone */
+		String PROMPT_RESPONSE_TYPE = "prompt_response_type";
+    }
+    
+    interface DailyAggregateColumns {
+    	/** local date the aggregated responses were taken on, in the form yyyy-MM-dd */
+    	String AGGREGATE_DAY = "aggregate_day";
+    	/** number of responses for the day, or the number of numeric values for a prompt */
+    	String AGGREGATE_COUNT = "aggregate_count";
+    	/** sum of the numeric values of a prompt for the day */
+    	String AGGREGATE_SUM = "aggregate_sum";
+    	/** smallest numeric value of a prompt for the day */
+    	String AGGREGATE_MIN = "aggregate_min";
+    	/** largest numeric value of a prompt for the day */
+    	String AGGREGATE_MAX = "aggregate_max";
     }
     
     private static final String PATH_CAMPAIGNS = "campaigns";
     private static final String PATH_SURVEYS = "surveys";
     private static final String PATH_PROMPTS = "prompts";
     private static final String PATH_RESPONSES = "responses";
+    private static final String PATH_RECONCILE = "reconcile";
+    private static final String PATH_DAILY = "daily";
+    private static final String PATH_REBUILD = "rebuild";
+    private static final String PATH_XML = "xml";
+    private static final String PATH_SEARCH = "search";
+    private static final String PATH_PAGE = "page";
     
 	/**
 	 * Represents a campaign.
@@ -117,6 +145,8 @@ public class DbContract {
     			"vnd.android.cursor.dir/vnd.ohmage.campaign";
     	public static final String CONTENT_ITEM_TYPE =
     			"vnd.android.cursor.item/vnd.ohmage.campaign";
+    	public static final String CONTENT_XML_TYPE =
+    			"vnd.android.cursor.item/vnd.ohmage.campaign.xml";
 
         /** Default "ORDER BY" clause. */
         public static final String DEFAULT_SORT = CampaignColumns.CAMPAIGN_NAME;
@@ -126,6 +156,14 @@ public class DbContract {
             return CONTENT_URI.buildUpon().appendPath(campaignUrn).build();
         }
 
+        /**
+         * Build {@link Uri} that references the {@link #CAMPAIGN_CONFIGURATION_XML}
+         * of the requested {@link #CAMPAIGN_URN}
+         */
+        public static Uri buildCampaignXmlUri(String campaignUrn) {
+            return CONTENT_URI.buildUpon().appendPath(campaignUrn).appendPath(PATH_XML).build();
+        }
+
         /**
          * Build {@link Uri} that references any {@link Surveys} associated
          * with the requested {@link #CAMPAIGN_URN}.
@@ -142,6 +180,14 @@ public class DbContract {
             return buildSurveysUri(campaignUrn).buildUpon().appendPath(surveyId).build();
         }
         
+        /**
+         * Build {@link Uri} that references the xml of the {@link Surveys} with the
+         * requested {@link #CAMPAIGN_URN} and {@link Surveys#SURVEY_ID}
+         */
+        public static Uri buildSurveyXmlUri(String campaignUrn, String surveyId) {
+            return buildSurveysUri(campaignUrn, surveyId).buildUpon().appendPath(PATH_XML).build();
+        }
+
         /**
          * Build {@link Uri} that references any {@link SurveyPrompts} associated
          * with the requested {@link #CAMPAIGN_URN} and {@link Surveys#SURVEY_ID}
@@ -188,6 +234,22 @@ public class DbContract {
     	public static final String CAMPAIGN_URN = "campaign_urn";
 	public static final String CAMPAIGN_NAME = "campaign_name";
 
+    	public static final String CONTENT_XML_TYPE =
+    			"vnd.android.cursor.item/vnd.ohmage.survey.xml";
+
+    	/**
+    	 * The survey element cut out of the campaign xml. Only available from
+    	 * {@link Campaigns#buildSurveyXmlUri(String, String)}, and null if the campaign xml
+    	 * couldn't be indexed.
+    	 */
+    	public static final String SURVEY_XML = "survey_xml";
+
+    	/**
+    	 * The instructions element cut out of the campaign xml, or null if there isn't one. Only
+    	 * available from {@link Campaigns#buildSurveyXmlUri(String, String)}.
+    	 */
+    	public static final String INSTRUCTIONS_XML = "instructions_xml";
+
     	/** Default "ORDER BY" clause. */
     	public static final String DEFAULT_SORT = SurveyColumns.SURVEY_TITLE;
 
@@ -247,6 +309,13 @@ public class DbContract {
 
 		public static final String CAMPAIGN_URN = "campaign_urn";
 		public static final String SURVEY_ID = "survey_id";
+
+		/** how well a response matched a search, only available from {@link #buildSearchUri(String)} */
+		public static final String SEARCH_RANK = "search_rank";
+
+		private static final String QUERY_PAGE_SIZE = "limit";
+		private static final String QUERY_PAGE_AFTER_TIME = "after_time";
+		private static final String QUERY_PAGE_AFTER_ID = "after_id";
 		
         /** Build {@link Uri} for requested {@link Responses#_ID}  */
         public static Uri buildResponseUri(long responseId) {
@@ -260,6 +329,67 @@ public class DbContract {
 			return buildResponseUri(responseId).buildUpon().appendPath(PATH_PROMPTS).build();
 		}
 
+        /**
+         * Build {@link Uri} used to reconcile the downloaded and uploaded {@link Responses}
+         * for the requested campaign against the list of uuids the server has. Bulk inserting
+         * {@link Responses#RESPONSE_UUID} values to this uri removes every synced response
+         * which is not in the list.
+         */
+        public static Uri buildReconcileUri(String campaignUrn) {
+        	return Campaigns.buildResponsesUri(campaignUrn).buildUpon().appendPath(PATH_RECONCILE).build();
+        }
+
+        /**
+         * Build {@link Uri} which searches the text answers, survey titles and campaign names of
+         * {@link Responses}. Each word of the query matches words which start with it. Unless
+         * another sort order is given the best matches are returned first.
+         */
+        public static Uri buildSearchUri(String query) {
+        	return CONTENT_URI.buildUpon().appendPath(PATH_SEARCH).appendPath(query).build();
+        }
+
+        /**
+         * Build {@link Uri} for the first page of {@link Responses}. Pages are sorted by
+         * {@link Responses#RESPONSE_TIME} and then {@link Responses#_ID}, newest first, and any
+         * sort order given to the query is ignored.
+         */
+        public static Uri buildPageUri(int pageSize) {
+        	return CONTENT_URI.buildUpon().appendPath(PATH_PAGE)
+        			.appendQueryParameter(QUERY_PAGE_SIZE, String.valueOf(pageSize)).build();
+        }
+
+        /**
+         * Build {@link Uri} for the page of {@link Responses} which follows the response with the
+         * given {@link Responses#RESPONSE_TIME} and {@link Responses#_ID}. Since the page starts
+         * after a row rather than at an offset, responses added or removed while paging don't
+         * shift the pages.
+         */
+        public static Uri buildPageUri(int pageSize, long afterTime, long afterId) {
+        	return buildPageUri(pageSize).buildUpon()
+        			.appendQueryParameter(QUERY_PAGE_AFTER_TIME, String.valueOf(afterTime))
+        			.appendQueryParameter(QUERY_PAGE_AFTER_ID, String.valueOf(afterId)).build();
+        }
+
+        /** Read the page size from a {@link Responses} page {@link Uri}. */
+        public static String getPageSize(Uri uri) {
+        	return uri.getQueryParameter(QUERY_PAGE_SIZE);
+        }
+
+        /** Read the time of the response the page follows, or null for the first page. */
+        public static String getPageAfterTime(Uri uri) {
+        	return uri.getQueryParameter(QUERY_PAGE_AFTER_TIME);
+        }
+
+        /** Read the id of the response the page follows, or null for the first page. */
+        public static String getPageAfterId(Uri uri) {
+        	return uri.getQueryParameter(QUERY_PAGE_AFTER_ID);
+        }
+
+        /** Read the search query from a {@link Responses} search {@link Uri}. */
+        public static String getSearchQuery(Uri uri) {
+        	return uri.getPathSegments().get(2);
+        }
+
         /** Read ResponseId from {@link Responses} {@link Uri}. */
 		public static String getResponseId(Uri uri) {
 			return uri.getPathSegments().get(1);
@@ -304,6 +434,9 @@ public class DbContract {
 		public static final String RESPONSE_ID = "response_id";
 		public static final String COMPOSITE_ID = "composite_id";
 		public static final String PROMPT_ID = "prompt_id";
+
+		/** the column holding the result of an aggregate query */
+		public static final String AGGREGATE = "aggregate";
 		
 	/** Read Prompt id from {@link PromptResponses} {@link Uri}. which has a survey */
 		public static String getSurveyPromptId(Uri uri) {
@@ -327,6 +460,22 @@ public class DbContract {
 					.build();
 		}
 
+		/**
+		 * Returns the uri which computes the given aggregate over the numeric values of a prompt.
+		 * The result is in the {@link PromptResponses#AGGREGATE} column.
+		 *
+		 * @param campaignUrn
+		 * @param surveyID
+		 * @param promptID
+		 * @param aggregate
+		 * @return
+		 */
+		public static Uri getPromptAggregateByCampaignAndSurvey(String campaignUrn, String surveyID, String promptID, PromptResponses.AggregateTypes aggregate) {
+			return getPromptsByCampaignAndSurvey(campaignUrn, surveyID, promptID).buildUpon()
+					.appendPath(aggregate.name().toLowerCase())
+					.build();
+		}
+
 		/**
 		 * Returns the prompts for a specific promptID
 		 *
@@ -346,4 +495,40 @@ public class DbContract {
 					.build();
 		}
 	}
+
+	// ===================================
+	// === daily aggregates schema
+	// ===================================
+
+	/**
+	 * Represents the responses of a survey, or the numeric values of one of its prompts, rolled up
+	 * per day. The rows are kept up to date by the database as responses are added and removed so
+	 * feedback can be shown without reading every response. Rows with a {@link #PROMPT_ID} of
+	 * {@link #RESPONSES_PROMPT_ID} count the responses of the survey.
+	 */
+	public static final class DailyAggregates implements DailyAggregateColumns {
+
+		public static final Uri CONTENT_URI =
+				Responses.CONTENT_URI.buildUpon().appendPath(PATH_DAILY).build();
+		public static final String CONTENT_TYPE =
+				"vnd.android.cursor.dir/vnd.ohmage.dailyaggregate";
+
+		public static final String CAMPAIGN_URN = "campaign_urn";
+		public static final String SURVEY_ID = "survey_id";
+		public static final String PROMPT_ID = "prompt_id";
+
+		/** the {@link #PROMPT_ID} of rows which count responses rather than prompt values */
+		public static final String RESPONSES_PROMPT_ID = "";
+
+		/** Format of {@link #AGGREGATE_DAY} for use with {@link java.text.SimpleDateFormat} */
+		public static final String DAY_FORMAT = "yyyy-MM-dd";
+
+		/**
+		 * Build {@link Uri} which rebuilds all {@link DailyAggregates} from the responses when it
+		 * is updated
+		 */
+		public static Uri buildRebuildUri() {
+			return CONTENT_URI.buildUpon().appendPath(PATH_REBUILD).build();
+		}
+	}
 }
@@ -18,7 +18,9 @@ package org.ohmage.db;
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
+import org.ohmage.SurveyElementCache;
 import org.ohmage.db.DbContract.Campaigns;
+import org.ohmage.db.DbContract.DailyAggregates;
 import org.ohmage.db.DbContract.PromptResponses;
 import org.ohmage.db.DbContract.Responses;
 import org.ohmage.db.DbContract.SurveyPrompts;
@@ -28,6 +30,9 @@ import org.ohmage.db.Models.PromptResponse;
 import org.ohmage.db.Models.Response;
 import org.ohmage.db.Models.Survey;
 import org.ohmage.db.Models.SurveyPrompt;
+import org.ohmage.db.SurveyPromptCache.PromptMetadata;
+import org.ohmage.prompt.AbstractPrompt;
+import org.ohmage.prompt.PromptFactory;
 import org.xmlpull.v1.XmlPullParser;
 import org.xmlpull.v1.XmlPullParserException;
 
@@ -35,11 +40,15 @@ import android.content.ContentResolver;
 import android.content.ContentValues;
 import android.content.Context;
 import android.database.Cursor;
+import android.database.DatabaseUtils;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
+import android.os.Build;
 import android.provider.BaseColumns;
 import android.support.v4.widget.CursorAdapter;
 import android.text.TextUtils;
+import android.util.Log;
 import android.util.Xml;
 
 import java.io.ByteArrayInputStream;
@@ -47,6 +56,7 @@ import java.io.IOException;
 import java.io.UnsupportedEncodingException;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
 import java.util.Formatter;
 import java.util.HashMap;
 import java.util.List;
@@ -58,16 +68,38 @@ public class DbHelper extends SQLiteOpenHelper {
 	private static final String TAG = "DbHelper";
 
 	private static final String DB_NAME = "ohmage.db";
-	private static final int DB_VERSION = 33;
+	private static final int DB_VERSION = 44;
+
+	/**
+	 * Pages the write ahead log can grow to before it is checkpointed. This is large enough that
+	 * a sync is not interrupted by checkpoints, {@link #checkpoint(SQLiteDatabase)} is called once
+	 * the sync has written its data instead.
+	 */
+	private static final int WAL_AUTOCHECKPOINT_PAGES = 4000;
+
+	/** Size in bytes the write ahead log is truncated to after it is checkpointed */
+	private static final long WAL_SIZE_LIMIT = 512 * 1024;
+
+	/** Value of the auto_vacuum pragma which keeps free pages until they are vacuumed */
+	private static final int AUTO_VACUUM_INCREMENTAL = 2;
 	
 	private final Context mContext;
 
+	/** Set by {@link #onUpgrade} if the database has to be rebuilt once it is opened */
+	private boolean mRebuildForIncrementalVacuum;
+
 	public interface Tables {
 		static final String RESPONSES = "responses";
 		static final String CAMPAIGNS = "campaigns";
 		static final String PROMPT_RESPONSES = "prompt_responses";
 		static final String SURVEYS = "surveys";
 		static final String SURVEY_PROMPTS = "survey_prompts";
+		static final String DAILY_AGGREGATES = "daily_aggregates";
+		static final String CAMPAIGN_XML = "campaign_xml";
+		static final String RESPONSE_SEARCH = "response_search";
+
+		// connection-local table used to reconcile responses with the server
+		static final String TEMP_SYNC_UUIDS = "sync_uuids";
 
 		// joins declared here
 		String RESPONSES_JOIN_CAMPAIGNS_SURVEYS =
@@ -99,6 +131,23 @@ public class DbHelper extends SQLiteOpenHelper {
 
 	}
 
+	// columns of the full text index of responses, which are named so they can't be confused with
+	// the columns of the tables it is joined to
+	interface ResponseSearch {
+		String ANSWERS = "search_answers";
+		String SURVEY_TITLE = "search_survey_title";
+		String CAMPAIGN_NAME = "search_campaign_name";
+	}
+
+	// columns of the surveys table which locate each survey and the campaign instructions in the
+	// campaign xml, as built by CampaignXmlIndex. They are null if the xml couldn't be indexed.
+	interface SurveyXmlIndex {
+		String SURVEY_OFFSET = "survey_xml_offset";
+		String SURVEY_LENGTH = "survey_xml_length";
+		String INSTRUCTIONS_OFFSET = "instructions_xml_offset";
+		String INSTRUCTIONS_LENGTH = "instructions_xml_length";
+	}
+
 	interface Subqueries {
 		// nested queries declared here
 		// this may only be used on a PromptResponse query, since it references
@@ -107,6 +156,37 @@ public class DbHelper extends SQLiteOpenHelper {
 				"(select * from %1$s where %1$s.%2$s=%3$s)",
 				Tables.SURVEY_PROMPTS, SurveyPrompts.COMPOSITE_ID,
 				PromptResponses.COMPOSITE_ID);
+
+		// the xml of a campaign, which is stored out of the campaign row
+		// this may only be used on a Campaign query
+		String CAMPAIGN_XML = String.format(
+				"(select %1$s.%2$s from %1$s where %1$s.%3$s=%4$s.%3$s)",
+				Tables.CAMPAIGN_XML, Campaigns.CAMPAIGN_CONFIGURATION_XML,
+				Campaigns.CAMPAIGN_URN, Tables.CAMPAIGNS);
+
+		// the part of the campaign xml which holds a survey, or the campaign instructions, cut
+		// out by the database so the rest of the xml is never read
+		// these may only be used on a Survey query
+		String SURVEY_XML = String.format(
+				"(select substr(%1$s.%2$s,%4$s.%5$s+1,%4$s.%6$s) from %1$s where %1$s.%3$s=%4$s.%3$s)",
+				Tables.CAMPAIGN_XML, Campaigns.CAMPAIGN_CONFIGURATION_XML,
+				Campaigns.CAMPAIGN_URN, Tables.SURVEYS,
+				SurveyXmlIndex.SURVEY_OFFSET, SurveyXmlIndex.SURVEY_LENGTH);
+
+		String INSTRUCTIONS_XML = String.format(
+				"(select substr(%1$s.%2$s,%4$s.%5$s+1,%4$s.%6$s) from %1$s where %1$s.%3$s=%4$s.%3$s)",
+				Tables.CAMPAIGN_XML, Campaigns.CAMPAIGN_CONFIGURATION_XML,
+				Campaigns.CAMPAIGN_URN, Tables.SURVEYS,
+				SurveyXmlIndex.INSTRUCTIONS_OFFSET, SurveyXmlIndex.INSTRUCTIONS_LENGTH);
+
+		// the number of search terms found in a response, as a stand in for a relevance score
+		// since the fts3 available on every version has no ranking function. offsets() lists
+		// four numbers separated by spaces for each term that was found, so the numbers are counted
+		// by their separators.
+		// this may only be used on a query which matches against the search table
+		String SEARCH_RANK = String.format(
+				"((length(offsets(%1$s))-length(replace(offsets(%1$s),' ',''))+1)/4)",
+				Tables.RESPONSE_SEARCH);
 	}
 
 	public DbHelper(Context context) {
@@ -117,6 +197,9 @@ public class DbHelper extends SQLiteOpenHelper {
 	@Override
 	public void onCreate(SQLiteDatabase db) {
 
+		// only takes effect before the first table is created, so new databases never have to be rebuilt
+		pragma(db, "auto_vacuum=" + AUTO_VACUUM_INCREMENTAL);
+
 		db.execSQL("CREATE TABLE IF NOT EXISTS " + Tables.CAMPAIGNS + " ("
 				+ Campaigns._ID + " INTEGER PRIMARY KEY AUTOINCREMENT, "
 				+ Campaigns.CAMPAIGN_URN + " TEXT, "
@@ -124,11 +207,11 @@ public class DbHelper extends SQLiteOpenHelper {
 				+ Campaigns.CAMPAIGN_DESCRIPTION + " TEXT, "
 				+ Campaigns.CAMPAIGN_CREATED + " TEXT, "
 				+ Campaigns.CAMPAIGN_DOWNLOADED + " TEXT, "
-				+ Campaigns.CAMPAIGN_CONFIGURATION_XML + " TEXT, "
 				+ Campaigns.CAMPAIGN_STATUS + " INTEGER, "
 				+ Campaigns.CAMPAIGN_ICON + " TEXT, "
 				+ Campaigns.CAMPAIGN_PRIVACY + " TEXT, "
-				+ Campaigns.CAMPAIGN_UPDATED + " INTEGER NOT NULL DEFAULT 0 " +
+				+ Campaigns.CAMPAIGN_UPDATED + " INTEGER NOT NULL DEFAULT 0, "
+				+ Campaigns.CAMPAIGN_XML_HASH + " TEXT" +
 				");");
 
 		db.execSQL("CREATE TABLE IF NOT EXISTS " + Tables.SURVEYS + " ("
@@ -143,7 +226,11 @@ public class DbHelper extends SQLiteOpenHelper {
 				+ Surveys.SURVEY_SUMMARY_TEXT + " TEXT, "
 				+ Surveys.SURVEY_INTRO_TEXT + " TEXT, "
 				+ Surveys.SURVEY_ANYTIME + " INTEGER DEFAULT 1, "
-				+ Surveys.SURVEY_STATUS + " INTEGER DEFAULT 0"
+				+ Surveys.SURVEY_STATUS + " INTEGER DEFAULT 0, "
+				+ SurveyXmlIndex.SURVEY_OFFSET + " INTEGER, "
+				+ SurveyXmlIndex.SURVEY_LENGTH + " INTEGER, "
+				+ SurveyXmlIndex.INSTRUCTIONS_OFFSET + " INTEGER, "
+				+ SurveyXmlIndex.INSTRUCTIONS_LENGTH + " INTEGER"
 				+ ");");
 
 		db.execSQL("CREATE TABLE IF NOT EXISTS " + Tables.SURVEY_PROMPTS + " ("
@@ -192,7 +279,9 @@ public class DbHelper extends SQLiteOpenHelper {
 				+ PromptResponses.COMPOSITE_ID + " TEXT, "
 				+ PromptResponses.PROMPT_ID + " TEXT, "
 				+ PromptResponses.PROMPT_RESPONSE_VALUE + " TEXT, "
-				+ PromptResponses.PROMPT_RESPONSE_EXTRA_VALUE + " TEXT"
+				+ PromptResponses.PROMPT_RESPONSE_EXTRA_VALUE + " TEXT, "
+				+ PromptResponses.PROMPT_RESPONSE_NUMERIC_VALUE + " REAL, "
+				+ PromptResponses.PROMPT_RESPONSE_TYPE + " TEXT"
 				+ ");");
 
 		// for responses, index the campaign and survey ID columns, as we'll be
@@ -220,6 +309,9 @@ public class DbHelper extends SQLiteOpenHelper {
 				+ "_idx ON " + Tables.PROMPT_RESPONSES + " ("
 				+ PromptResponses.RESPONSE_ID + ");");
 
+		createPromptResponseNumericIndex(db);
+		createSurveyCampaignIndex(db);
+
 		// --------
 		// --- set up the triggers to implement cascading deletes, too
 		// --------
@@ -246,6 +338,116 @@ public class DbHelper extends SQLiteOpenHelper {
 				+ " BEGIN " + "DELETE from " + Tables.PROMPT_RESPONSES
 				+ " WHERE " + PromptResponses.RESPONSE_ID + "=old."
 				+ Responses._ID + "; " + "END;");
+
+		createDailyAggregates(db);
+		createCampaignXml(db);
+		createResponseSearch(db);
+	}
+
+	@Override
+	public void onOpen(SQLiteDatabase db) {
+		super.onOpen(db);
+
+		// the upgrade runs in a transaction which a vacuum can't, so the rebuild waits until now
+		if (mRebuildForIncrementalVacuum && !db.isReadOnly()) {
+			mRebuildForIncrementalVacuum = false;
+			if (enableIncrementalVacuum(db))
+				Log.i(TAG, "rebuilt the database to enable incremental vacuum");
+		}
+
+		// With write ahead logging the database keeps one connection for writing and a pool of
+		// connections for reading so lists can be read while a sync transaction is open
+		if (!db.isReadOnly() && Build.VERSION.SDK_INT >= 11 && db.enableWriteAheadLogging()) {
+			pragma(db, "wal_autocheckpoint=" + WAL_AUTOCHECKPOINT_PAGES);
+			pragma(db, "journal_size_limit=" + WAL_SIZE_LIMIT);
+		}
+	}
+
+	/**
+	 * Copies the changes in the write ahead log back into the database without waiting for
+	 * readers. Should be called after a burst of writes such as a sync so the log doesn't keep
+	 * growing and slowing down reads. Does nothing if a transaction is open or the database isn't
+	 * using write ahead logging.
+	 * 
+	 * @param db
+	 */
+	public static void checkpoint(SQLiteDatabase db) {
+		if (db.inTransaction() || Build.VERSION.SDK_INT < 11)
+			return;
+		pragma(db, "wal_checkpoint(PASSIVE)");
+	}
+
+	private static void pragma(SQLiteDatabase db, String pragma) {
+		// pragmas which return a row have to be run as a query
+		Cursor c = db.rawQuery("PRAGMA " + pragma, null);
+		try {
+			c.moveToFirst();
+		} finally {
+			c.close();
+		}
+	}
+
+	private static long pragmaLong(SQLiteDatabase db, String pragma) {
+		Cursor c = db.rawQuery("PRAGMA " + pragma, null);
+		try {
+			return c.moveToFirst() ? c.getLong(0) : 0;
+		} finally {
+			c.close();
+		}
+	}
+
+	/**
+	 * Makes sure pages freed by deletes can be given back to the file system a few at a time with
+	 * {@link #incrementalVacuum(SQLiteDatabase, int)}. Databases created before this was used have
+	 * to be rebuilt once with a full vacuum, which can take a while on a large database, so it is
+	 * only done once by the upgrade to version 44. It can't be run in a transaction.
+	 * 
+	 * @param db
+	 * @return true if the database had to be rebuilt
+	 */
+	private static boolean enableIncrementalVacuum(SQLiteDatabase db) {
+		if (pragmaLong(db, "auto_vacuum") == AUTO_VACUUM_INCREMENTAL)
+			return false;
+		pragma(db, "auto_vacuum=" + AUTO_VACUUM_INCREMENTAL);
+		db.execSQL("VACUUM");
+		return true;
+	}
+
+	/**
+	 * Gives up to the given number of free pages back to the file system
+	 * 
+	 * @param db
+	 * @param pages
+	 * @return the number of pages which were freed
+	 */
+	public static long incrementalVacuum(SQLiteDatabase db, int pages) {
+		long before = pragmaLong(db, "freelist_count");
+		pragma(db, "incremental_vacuum(" + pages + ")");
+		return before - pragmaLong(db, "freelist_count");
+	}
+
+	/**
+	 * @param db
+	 * @return the bytes of the database which hold data, not counting free pages
+	 */
+	public static long getUsedSize(SQLiteDatabase db) {
+		return (pragmaLong(db, "page_count") - pragmaLong(db, "freelist_count")) * db.getPageSize();
+	}
+
+	/**
+	 * @param db
+	 * @return the bytes of the database in free pages which could be given back
+	 */
+	public static long getFreeSize(SQLiteDatabase db) {
+		return pragmaLong(db, "freelist_count") * db.getPageSize();
+	}
+
+	/**
+	 * @param db
+	 * @return the size in bytes of the database, free pages included
+	 */
+	public static long getSize(SQLiteDatabase db) {
+		return pragmaLong(db, "page_count") * db.getPageSize();
 	}
 
 	@Override
@@ -253,6 +455,465 @@ public class DbHelper extends SQLiteOpenHelper {
 		if(oldVersion < 33) {
 			db.execSQL("ALTER TABLE " + Tables.CAMPAIGNS + " ADD COLUMN " +  Campaigns.CAMPAIGN_UPDATED + " INTEGER NOT NULL DEFAULT 0");
 		}
+		if(oldVersion < 34) {
+			// existing campaigns have no hash so they will be reparsed the next time their xml is set
+			db.execSQL("ALTER TABLE " + Tables.CAMPAIGNS + " ADD COLUMN " +  Campaigns.CAMPAIGN_XML_HASH + " TEXT");
+		}
+		if(oldVersion < 35) {
+			db.execSQL("ALTER TABLE " + Tables.PROMPT_RESPONSES + " ADD COLUMN " +  PromptResponses.PROMPT_RESPONSE_NUMERIC_VALUE + " REAL");
+			populatePromptResponseNumericValues(db);
+			createPromptResponseNumericIndex(db);
+		}
+		if(oldVersion < 36) {
+			createDailyAggregates(db);
+			rebuildDailyAggregates(db);
+		}
+		if(oldVersion < 37) {
+			// move the xml out of the campaign rows, the old column is left empty
+			createCampaignXml(db);
+			db.execSQL("INSERT INTO " + Tables.CAMPAIGN_XML + " (" + Campaigns.CAMPAIGN_URN + "," + Campaigns.CAMPAIGN_CONFIGURATION_XML + ")"
+					+ " SELECT " + Campaigns.CAMPAIGN_URN + "," + Campaigns.CAMPAIGN_CONFIGURATION_XML + " FROM " + Tables.CAMPAIGNS
+					+ " WHERE " + Campaigns.CAMPAIGN_CONFIGURATION_XML + "!=''");
+			db.execSQL("UPDATE " + Tables.CAMPAIGNS + " SET " + Campaigns.CAMPAIGN_CONFIGURATION_XML + "=NULL");
+		}
+		if(oldVersion < 38) {
+			createResponseSearch(db);
+			populateResponseSearch(db);
+		}
+		if(oldVersion < 39) {
+			createSurveyCampaignIndex(db);
+		}
+		if(oldVersion < 40) {
+			db.execSQL("ALTER TABLE " + Tables.SURVEYS + " ADD COLUMN " + SurveyXmlIndex.SURVEY_OFFSET + " INTEGER");
+			db.execSQL("ALTER TABLE " + Tables.SURVEYS + " ADD COLUMN " + SurveyXmlIndex.SURVEY_LENGTH + " INTEGER");
+			db.execSQL("ALTER TABLE " + Tables.SURVEYS + " ADD COLUMN " + SurveyXmlIndex.INSTRUCTIONS_OFFSET + " INTEGER");
+			db.execSQL("ALTER TABLE " + Tables.SURVEYS + " ADD COLUMN " + SurveyXmlIndex.INSTRUCTIONS_LENGTH + " INTEGER");
+			populateSurveyXmlIndex(db);
+		}
+		if(oldVersion < 41) {
+			// campaigns renamed since the search index was added have the old name in it
+			createCampaignSearchTriggers(db);
+			refreshResponseSearchCampaignNames(db);
+		}
+		if(oldVersion < 42) {
+			// the media of a response has to be found after the surveys of its campaign are removed
+			db.execSQL("ALTER TABLE " + Tables.PROMPT_RESPONSES + " ADD COLUMN " + PromptResponses.PROMPT_RESPONSE_TYPE + " TEXT");
+			db.execSQL("UPDATE " + Tables.PROMPT_RESPONSES + " SET " + PromptResponses.PROMPT_RESPONSE_TYPE + "=("
+					+ "SELECT " + SurveyPrompts.SURVEY_PROMPT_TYPE + " FROM " + Tables.SURVEY_PROMPTS + " WHERE "
+					+ Tables.SURVEY_PROMPTS + "." + SurveyPrompts.COMPOSITE_ID + "=" + Tables.PROMPT_RESPONSES + "." + PromptResponses.COMPOSITE_ID + " AND "
+					+ Tables.SURVEY_PROMPTS + "." + SurveyPrompts.PROMPT_ID + "=" + Tables.PROMPT_RESPONSES + "." + PromptResponses.PROMPT_ID + ")");
+		}
+		if(oldVersion < 43) {
+			// the old trigger rebuilt every prompt of the day for each deleted response
+			db.execSQL("DROP TRIGGER IF EXISTS " + Tables.RESPONSES + "_daily_del");
+			createDailyAggregatesDeleteTrigger(db);
+		}
+		if(oldVersion < 44) {
+			// the compactor only vacuums a few pages at a time, which needs the database rebuilt once
+			mRebuildForIncrementalVacuum = true;
+		}
+	}
+
+	/**
+	 * Creates the table which holds the xml of each campaign. The xml is kept out of the campaign
+	 * rows so listing campaigns doesn't read megabytes of xml into the cursor window.
+	 */
+	private static void createCampaignXml(SQLiteDatabase db) {
+		db.execSQL("CREATE TABLE IF NOT EXISTS " + Tables.CAMPAIGN_XML + " ("
+				+ Campaigns.CAMPAIGN_URN + " TEXT PRIMARY KEY, "
+				+ Campaigns.CAMPAIGN_CONFIGURATION_XML + " TEXT"
+				+ ");");
+
+		db.execSQL("CREATE TRIGGER IF NOT EXISTS " + Tables.CAMPAIGN_XML
+				+ "_del AFTER DELETE ON " + Tables.CAMPAIGNS
+				+ " BEGIN "
+				+ "DELETE from " + Tables.CAMPAIGN_XML + " WHERE "
+				+ Campaigns.CAMPAIGN_URN + "=old." + Campaigns.CAMPAIGN_URN + "; "
+				+ "END;");
+	}
+
+	/**
+	 * Stores the xml of a campaign
+	 * 
+	 * @param db
+	 * @param campaignUrn
+	 * @param xml the xml, or null or empty to remove it
+	 */
+	public static void setCampaignXml(SQLiteDatabase db, String campaignUrn, String xml) {
+		if (TextUtils.isEmpty(xml)) {
+			db.delete(Tables.CAMPAIGN_XML, Campaigns.CAMPAIGN_URN + "=?", new String[] { campaignUrn });
+		} else {
+			ContentValues values = new ContentValues();
+			values.put(Campaigns.CAMPAIGN_URN, campaignUrn);
+			values.put(Campaigns.CAMPAIGN_CONFIGURATION_XML, xml);
+			db.insertWithOnConflict(Tables.CAMPAIGN_XML, null, values, SQLiteDatabase.CONFLICT_REPLACE);
+		}
+	}
+
+	/**
+	 * SQL which is true if the prompt response is a typed answer which should be searchable. Only
+	 * text and choice prompts are indexed, since the values of other prompts are numbers, times or
+	 * the uuids of media. The prompt response table is given by its alias.
+	 */
+	private static String isSearchableAnswer(String p) {
+		return p + "." + PromptResponses.PROMPT_RESPONSE_VALUE + " NOT IN ('" + AbstractPrompt.SKIPPED_VALUE + "','" + AbstractPrompt.NOT_DISPLAYED_VALUE + "')"
+				+ " AND EXISTS (SELECT 1 FROM " + Tables.SURVEY_PROMPTS + " s WHERE s." + SurveyPrompts.COMPOSITE_ID + "=" + p + "." + PromptResponses.COMPOSITE_ID
+				+ " AND s." + SurveyPrompts.PROMPT_ID + "=" + p + "." + PromptResponses.PROMPT_ID
+				+ " AND s." + SurveyPrompts.SURVEY_PROMPT_TYPE + " IN ('" + PromptFactory.TEXT + "','" + PromptFactory.SINGLE_CHOICE + "','"
+				+ PromptFactory.SINGLE_CHOICE_CUSTOM + "','" + PromptFactory.MULTI_CHOICE + "','" + PromptFactory.MULTI_CHOICE_CUSTOM + "'))";
+	}
+
+	/**
+	 * Creates the full text index of responses and the triggers which keep it up to date. Each
+	 * response has one row with the same docid as its {@link Responses#_ID} which holds its text
+	 * answers, the title of its survey and the name of its campaign. A row is added when the
+	 * response is inserted and its answers are appended as the prompt responses are inserted, so
+	 * the index never has to be rebuilt.
+	 */
+	private static void createResponseSearch(SQLiteDatabase db) {
+		// fts3 is used since fts4 isn't available before honeycomb. IF NOT EXISTS isn't supported
+		// for virtual tables on older versions, this is only called when the table doesn't exist.
+		db.execSQL("CREATE VIRTUAL TABLE " + Tables.RESPONSE_SEARCH + " USING fts3("
+				+ ResponseSearch.ANSWERS + ", "
+				+ ResponseSearch.SURVEY_TITLE + ", "
+				+ ResponseSearch.CAMPAIGN_NAME
+				+ ");");
+
+		// the prompt type of each prompt response is looked up as it is inserted
+		db.execSQL("CREATE INDEX IF NOT EXISTS " + Tables.SURVEY_PROMPTS + "_" + SurveyPrompts.COMPOSITE_ID
+				+ "_idx ON " + Tables.SURVEY_PROMPTS + " (" + SurveyPrompts.COMPOSITE_ID + ", " + SurveyPrompts.PROMPT_ID + ");");
+
+		db.execSQL("CREATE TRIGGER IF NOT EXISTS " + Tables.RESPONSES
+				+ "_search_ins AFTER INSERT ON " + Tables.RESPONSES
+				+ " BEGIN "
+				+ "INSERT INTO " + Tables.RESPONSE_SEARCH + " (docid, " + ResponseSearch.ANSWERS + ", " + ResponseSearch.SURVEY_TITLE + ", " + ResponseSearch.CAMPAIGN_NAME
+				+ ") VALUES (new." + Responses._ID + ", '', "
+				+ "(SELECT " + Surveys.SURVEY_TITLE + " FROM " + Tables.SURVEYS + " WHERE " + Surveys.CAMPAIGN_URN + "=new." + Responses.CAMPAIGN_URN
+				+ " AND " + Surveys.SURVEY_ID + "=new." + Responses.SURVEY_ID + "), "
+				+ "(SELECT " + Campaigns.CAMPAIGN_NAME + " FROM " + Tables.CAMPAIGNS + " WHERE " + Campaigns.CAMPAIGN_URN + "=new." + Responses.CAMPAIGN_URN + ")); "
+				+ "END;");
+
+		db.execSQL("CREATE TRIGGER IF NOT EXISTS " + Tables.PROMPT_RESPONSES
+				+ "_search_ins AFTER INSERT ON " + Tables.PROMPT_RESPONSES
+				+ " WHEN " + isSearchableAnswer("new")
+				+ " BEGIN "
+				+ "UPDATE " + Tables.RESPONSE_SEARCH + " SET " + ResponseSearch.ANSWERS + "=" + ResponseSearch.ANSWERS + "||' '||new." + PromptResponses.PROMPT_RESPONSE_VALUE
+				+ " WHERE docid=new." + PromptResponses.RESPONSE_ID + "; "
+				+ "END;");
+
+		db.execSQL("CREATE TRIGGER IF NOT EXISTS " + Tables.RESPONSES
+				+ "_search_del AFTER DELETE ON " + Tables.RESPONSES
+				+ " BEGIN "
+				+ "DELETE FROM " + Tables.RESPONSE_SEARCH + " WHERE docid=old." + Responses._ID + "; "
+				+ "END;");
+
+		// keep the names up to date when a campaign is renamed or its surveys are replaced
+		createCampaignSearchTriggers(db);
+
+		db.execSQL("CREATE TRIGGER IF NOT EXISTS " + Tables.SURVEYS
+				+ "_search_ins AFTER INSERT ON " + Tables.SURVEYS
+				+ " BEGIN "
+				+ "UPDATE " + Tables.RESPONSE_SEARCH + " SET " + ResponseSearch.SURVEY_TITLE + "=new." + Surveys.SURVEY_TITLE
+				+ " WHERE docid IN (SELECT " + Responses._ID + " FROM " + Tables.RESPONSES + " WHERE " + Responses.CAMPAIGN_URN + "=new." + Surveys.CAMPAIGN_URN
+				+ " AND " + Responses.SURVEY_ID + "=new." + Surveys.SURVEY_ID + ")"
+				+ " AND " + ResponseSearch.SURVEY_TITLE + " IS NOT new." + Surveys.SURVEY_TITLE + "; "
+				+ "END;");
+	}
+
+	/**
+	 * Keeps the campaign names in the search index up to date. Campaigns are usually renamed by
+	 * storing them again with {@link #addCampaign(SQLiteDatabase, ContentValues)}, which replaces
+	 * the row. A replace doesn't fire update triggers, or the delete triggers without
+	 * recursive_triggers, so the name is also refreshed when a campaign is inserted.
+	 */
+	private static void createCampaignSearchTriggers(SQLiteDatabase db) {
+		String refresh = "UPDATE " + Tables.RESPONSE_SEARCH + " SET " + ResponseSearch.CAMPAIGN_NAME + "=new." + Campaigns.CAMPAIGN_NAME
+				+ " WHERE docid IN (SELECT " + Responses._ID + " FROM " + Tables.RESPONSES + " WHERE " + Responses.CAMPAIGN_URN + "=new." + Campaigns.CAMPAIGN_URN + ")"
+				+ " AND " + ResponseSearch.CAMPAIGN_NAME + " IS NOT new." + Campaigns.CAMPAIGN_NAME + "; ";
+
+		db.execSQL("CREATE TRIGGER IF NOT EXISTS " + Tables.CAMPAIGNS
+				+ "_search_upd AFTER UPDATE OF " + Campaigns.CAMPAIGN_NAME + " ON " + Tables.CAMPAIGNS
+				+ " BEGIN " + refresh + "END;");
+
+		db.execSQL("CREATE TRIGGER IF NOT EXISTS " + Tables.CAMPAIGNS
+				+ "_search_ins AFTER INSERT ON " + Tables.CAMPAIGNS
+				+ " BEGIN " + refresh + "END;");
+	}
+
+	/**
+	 * Sets the campaign name of every response in the search index from its campaign
+	 */
+	private static void refreshResponseSearchCampaignNames(SQLiteDatabase db) {
+		db.execSQL("UPDATE " + Tables.RESPONSE_SEARCH + " SET " + ResponseSearch.CAMPAIGN_NAME + "="
+				+ "(SELECT c." + Campaigns.CAMPAIGN_NAME + " FROM " + Tables.CAMPAIGNS + " c, " + Tables.RESPONSES + " r"
+				+ " WHERE r." + Responses._ID + "=" + Tables.RESPONSE_SEARCH + ".docid"
+				+ " AND c." + Campaigns.CAMPAIGN_URN + "=r." + Responses.CAMPAIGN_URN + ")");
+	}
+
+	/**
+	 * Adds the responses which were stored before the search index existed to it
+	 */
+	private static void populateResponseSearch(SQLiteDatabase db) {
+		db.execSQL("INSERT INTO " + Tables.RESPONSE_SEARCH + " (docid, " + ResponseSearch.ANSWERS + ", " + ResponseSearch.SURVEY_TITLE + ", " + ResponseSearch.CAMPAIGN_NAME + ")"
+				+ " SELECT r." + Responses._ID + ", "
+				+ "ifnull((SELECT group_concat(p." + PromptResponses.PROMPT_RESPONSE_VALUE + ",' ') FROM " + Tables.PROMPT_RESPONSES + " p"
+				+ " WHERE p." + PromptResponses.RESPONSE_ID + "=r." + Responses._ID + " AND " + isSearchableAnswer("p") + "),''), "
+				+ "(SELECT " + Surveys.SURVEY_TITLE + " FROM " + Tables.SURVEYS + " WHERE " + Surveys.CAMPAIGN_URN + "=r." + Responses.CAMPAIGN_URN
+				+ " AND " + Surveys.SURVEY_ID + "=r." + Responses.SURVEY_ID + "), "
+				+ "(SELECT " + Campaigns.CAMPAIGN_NAME + " FROM " + Tables.CAMPAIGNS + " WHERE " + Campaigns.CAMPAIGN_URN + "=r." + Responses.CAMPAIGN_URN + ")"
+				+ " FROM " + Tables.RESPONSES + " r");
+	}
+
+	/**
+	 * SQL for the local day of a response time, which is the key of the daily aggregates. The
+	 * aggregates are rebuilt by the {@link org.ohmage.service.DailyAggregatesService} when the
+	 * timezone changes.
+	 */
+	private static String localDay(String time) {
+		return "date(" + time + "/1000,'unixepoch','localtime')";
+	}
+
+	/**
+	 * Creates the daily aggregates table and the triggers which keep it up to date. Response counts
+	 * and prompt sums are updated in place as rows are inserted and deleted.
+	 */
+	private static void createDailyAggregates(SQLiteDatabase db) {
+		db.execSQL("CREATE TABLE IF NOT EXISTS " + Tables.DAILY_AGGREGATES + " ("
+				+ DailyAggregates.CAMPAIGN_URN + " TEXT NOT NULL, "
+				+ DailyAggregates.SURVEY_ID + " TEXT NOT NULL, "
+				+ DailyAggregates.PROMPT_ID + " TEXT NOT NULL, "
+				+ DailyAggregates.AGGREGATE_DAY + " TEXT NOT NULL, "
+				+ DailyAggregates.AGGREGATE_COUNT + " INTEGER NOT NULL DEFAULT 0, "
+				+ DailyAggregates.AGGREGATE_SUM + " REAL, "
+				+ DailyAggregates.AGGREGATE_MIN + " REAL, "
+				+ DailyAggregates.AGGREGATE_MAX + " REAL, "
+				+ "PRIMARY KEY (" + DailyAggregates.CAMPAIGN_URN + ", " + DailyAggregates.SURVEY_ID + ", "
+				+ DailyAggregates.PROMPT_ID + ", " + DailyAggregates.AGGREGATE_DAY + ")"
+				+ ");");
+
+		String responseKey = DailyAggregates.CAMPAIGN_URN + "=new." + Responses.CAMPAIGN_URN
+				+ " AND " + DailyAggregates.SURVEY_ID + "=new." + Responses.SURVEY_ID
+				+ " AND " + DailyAggregates.PROMPT_ID + "='" + DailyAggregates.RESPONSES_PROMPT_ID + "'"
+				+ " AND " + DailyAggregates.AGGREGATE_DAY + "=" + localDay("new." + Responses.RESPONSE_TIME);
+
+		db.execSQL("CREATE TRIGGER IF NOT EXISTS " + Tables.RESPONSES
+				+ "_daily_ins AFTER INSERT ON " + Tables.RESPONSES
+				+ " BEGIN "
+				+ "INSERT OR IGNORE INTO " + Tables.DAILY_AGGREGATES + " ("
+				+ DailyAggregates.CAMPAIGN_URN + ", " + DailyAggregates.SURVEY_ID + ", " + DailyAggregates.PROMPT_ID + ", " + DailyAggregates.AGGREGATE_DAY
+				+ ") VALUES (new." + Responses.CAMPAIGN_URN + ", new." + Responses.SURVEY_ID + ", '" + DailyAggregates.RESPONSES_PROMPT_ID + "', "
+				+ localDay("new." + Responses.RESPONSE_TIME) + "); "
+				+ "UPDATE " + Tables.DAILY_AGGREGATES + " SET " + DailyAggregates.AGGREGATE_COUNT + "=" + DailyAggregates.AGGREGATE_COUNT + "+1"
+				+ " WHERE " + responseKey + "; "
+				+ "END;");
+
+		String value = "new." + PromptResponses.PROMPT_RESPONSE_NUMERIC_VALUE;
+
+		db.execSQL("CREATE TRIGGER IF NOT EXISTS " + Tables.PROMPT_RESPONSES
+				+ "_daily_ins AFTER INSERT ON " + Tables.PROMPT_RESPONSES
+				+ " WHEN " + value + " IS NOT NULL"
+				+ " BEGIN "
+				+ "INSERT OR IGNORE INTO " + Tables.DAILY_AGGREGATES + " ("
+				+ DailyAggregates.CAMPAIGN_URN + ", " + DailyAggregates.SURVEY_ID + ", " + DailyAggregates.PROMPT_ID + ", " + DailyAggregates.AGGREGATE_DAY + ", "
+				+ DailyAggregates.AGGREGATE_SUM + ", " + DailyAggregates.AGGREGATE_MIN + ", " + DailyAggregates.AGGREGATE_MAX
+				+ ") SELECT " + Responses.CAMPAIGN_URN + ", " + Responses.SURVEY_ID + ", new." + PromptResponses.PROMPT_ID + ", "
+				+ localDay(Responses.RESPONSE_TIME) + ", 0, " + value + ", " + value
+				+ " FROM " + Tables.RESPONSES + " WHERE " + Responses._ID + "=new." + PromptResponses.RESPONSE_ID + "; "
+				+ "UPDATE " + Tables.DAILY_AGGREGATES + " SET "
+				+ DailyAggregates.AGGREGATE_COUNT + "=" + DailyAggregates.AGGREGATE_COUNT + "+1, "
+				+ DailyAggregates.AGGREGATE_SUM + "=" + DailyAggregates.AGGREGATE_SUM + "+" + value + ", "
+				+ DailyAggregates.AGGREGATE_MIN + "=min(" + DailyAggregates.AGGREGATE_MIN + "," + value + "), "
+				+ DailyAggregates.AGGREGATE_MAX + "=max(" + DailyAggregates.AGGREGATE_MAX + "," + value + ")"
+				+ " WHERE rowid=(SELECT a.rowid FROM " + Tables.DAILY_AGGREGATES + " a, " + Tables.RESPONSES + " r"
+				+ " WHERE r." + Responses._ID + "=new." + PromptResponses.RESPONSE_ID
+				+ " AND a." + DailyAggregates.CAMPAIGN_URN + "=r." + Responses.CAMPAIGN_URN
+				+ " AND a." + DailyAggregates.SURVEY_ID + "=r." + Responses.SURVEY_ID
+				+ " AND a." + DailyAggregates.PROMPT_ID + "=new." + PromptResponses.PROMPT_ID
+				+ " AND a." + DailyAggregates.AGGREGATE_DAY + "=" + localDay("r." + Responses.RESPONSE_TIME) + "); "
+				+ "END;");
+
+		createDailyAggregatesDeleteTrigger(db);
+	}
+
+	/**
+	 * Creates the trigger which takes a deleted response out of the daily aggregates. It runs
+	 * before the delete so the prompt responses are still there. Their counts and sums are
+	 * subtracted in place, and the min or max of a prompt is only recomputed from the other
+	 * responses of the day if the deleted value was the min or max.
+	 */
+	private static void createDailyAggregatesDeleteTrigger(SQLiteDatabase db) {
+		String day = localDay("old." + Responses.RESPONSE_TIME);
+		String oldKey = DailyAggregates.CAMPAIGN_URN + "=old." + Responses.CAMPAIGN_URN
+				+ " AND " + DailyAggregates.SURVEY_ID + "=old." + Responses.SURVEY_ID
+				+ " AND " + DailyAggregates.AGGREGATE_DAY + "=" + day;
+
+		String value = "p." + PromptResponses.PROMPT_RESPONSE_NUMERIC_VALUE;
+		String deleted = " FROM " + Tables.PROMPT_RESPONSES + " p WHERE p." + PromptResponses.RESPONSE_ID + "=old." + Responses._ID
+				+ " AND p." + PromptResponses.PROMPT_ID + "=" + Tables.DAILY_AGGREGATES + "." + DailyAggregates.PROMPT_ID;
+		String deletedPrompts = "SELECT " + PromptResponses.PROMPT_ID + " FROM " + Tables.PROMPT_RESPONSES
+				+ " WHERE " + PromptResponses.RESPONSE_ID + "=old." + Responses._ID;
+		String rest = " FROM " + Tables.PROMPT_RESPONSES + " p JOIN " + Tables.RESPONSES + " r ON r." + Responses._ID + "=p." + PromptResponses.RESPONSE_ID
+				+ " WHERE p." + PromptResponses.PROMPT_ID + "=" + Tables.DAILY_AGGREGATES + "." + DailyAggregates.PROMPT_ID
+				+ " AND p." + PromptResponses.COMPOSITE_ID + "=old." + Responses.CAMPAIGN_URN + "||':'||old." + Responses.SURVEY_ID
+				+ " AND r." + Responses._ID + "!=old." + Responses._ID
+				+ " AND r." + Responses.RESPONSE_TIME + " BETWEEN old." + Responses.RESPONSE_TIME + "-86400000 AND old." + Responses.RESPONSE_TIME + "+86400000"
+				+ " AND " + localDay("r." + Responses.RESPONSE_TIME) + "=" + day;
+
+		db.execSQL("CREATE TRIGGER IF NOT EXISTS " + Tables.RESPONSES
+				+ "_daily_del BEFORE DELETE ON " + Tables.RESPONSES
+				+ " BEGIN "
+				+ "UPDATE " + Tables.DAILY_AGGREGATES + " SET " + DailyAggregates.AGGREGATE_COUNT + "=" + DailyAggregates.AGGREGATE_COUNT + "-1"
+				+ " WHERE " + oldKey + " AND " + DailyAggregates.PROMPT_ID + "='" + DailyAggregates.RESPONSES_PROMPT_ID + "'; "
+				+ "UPDATE " + Tables.DAILY_AGGREGATES + " SET "
+				+ DailyAggregates.AGGREGATE_COUNT + "=" + DailyAggregates.AGGREGATE_COUNT + "-(SELECT count(" + value + ")" + deleted + "), "
+				+ DailyAggregates.AGGREGATE_SUM + "=" + DailyAggregates.AGGREGATE_SUM + "-(SELECT total(" + value + ")" + deleted + ")"
+				+ " WHERE " + oldKey + " AND " + DailyAggregates.PROMPT_ID + " IN (" + deletedPrompts
+				+ " AND " + PromptResponses.PROMPT_RESPONSE_NUMERIC_VALUE + " IS NOT NULL); "
+				+ "UPDATE " + Tables.DAILY_AGGREGATES + " SET " + DailyAggregates.AGGREGATE_MIN + "=(SELECT min(" + value + ")" + rest + ")"
+				+ " WHERE " + oldKey + " AND " + DailyAggregates.AGGREGATE_COUNT + ">0 AND " + DailyAggregates.PROMPT_ID + " IN (" + deletedPrompts
+				+ " AND " + PromptResponses.PROMPT_RESPONSE_NUMERIC_VALUE + "=" + Tables.DAILY_AGGREGATES + "." + DailyAggregates.AGGREGATE_MIN + "); "
+				+ "UPDATE " + Tables.DAILY_AGGREGATES + " SET " + DailyAggregates.AGGREGATE_MAX + "=(SELECT max(" + value + ")" + rest + ")"
+				+ " WHERE " + oldKey + " AND " + DailyAggregates.AGGREGATE_COUNT + ">0 AND " + DailyAggregates.PROMPT_ID + " IN (" + deletedPrompts
+				+ " AND " + PromptResponses.PROMPT_RESPONSE_NUMERIC_VALUE + "=" + Tables.DAILY_AGGREGATES + "." + DailyAggregates.AGGREGATE_MAX + "); "
+				+ "DELETE FROM " + Tables.DAILY_AGGREGATES + " WHERE " + oldKey + " AND " + DailyAggregates.AGGREGATE_COUNT + "<=0; "
+				+ "END;");
+	}
+
+	/**
+	 * Returns a select which computes the prompt rows of the daily aggregates for the responses
+	 * matched by the given where clause. The responses table is aliased as r.
+	 */
+	private static String selectPromptAggregates(String where) {
+		String value = "p." + PromptResponses.PROMPT_RESPONSE_NUMERIC_VALUE;
+		return "SELECT r." + Responses.CAMPAIGN_URN + ", r." + Responses.SURVEY_ID + ", p." + PromptResponses.PROMPT_ID + ", "
+				+ localDay("r." + Responses.RESPONSE_TIME) + ", count(" + value + "), total(" + value + "), min(" + value + "), max(" + value + ")"
+				+ " FROM " + Tables.RESPONSES + " r JOIN " + Tables.PROMPT_RESPONSES + " p ON p." + PromptResponses.RESPONSE_ID + "=r." + Responses._ID
+				+ " WHERE " + value + " IS NOT NULL" + ((where != null) ? " AND " + where : "")
+				+ " GROUP BY 1, 2, 3, 4";
+	}
+
+	/**
+	 * Recomputes all of the daily aggregates from the responses. This should be done if the
+	 * aggregates could be out of date, for example after the timezone changes, which the
+	 * {@link org.ohmage.service.DailyAggregatesService} does.
+	 * 
+	 * @return the number of rows in the rebuilt table
+	 */
+	public int rebuildDailyAggregates(SQLiteDatabase db) {
+		boolean madeTransaction = !db.inTransaction();
+
+		try {
+			if(madeTransaction) db.beginTransaction();
+
+			db.delete(Tables.DAILY_AGGREGATES, null, null);
+			db.execSQL("INSERT INTO " + Tables.DAILY_AGGREGATES + " ("
+					+ DailyAggregates.CAMPAIGN_URN + ", " + DailyAggregates.SURVEY_ID + ", " + DailyAggregates.PROMPT_ID + ", "
+					+ DailyAggregates.AGGREGATE_DAY + ", " + DailyAggregates.AGGREGATE_COUNT
+					+ ") SELECT " + Responses.CAMPAIGN_URN + ", " + Responses.SURVEY_ID + ", '" + DailyAggregates.RESPONSES_PROMPT_ID + "', "
+					+ localDay(Responses.RESPONSE_TIME) + ", count(*) FROM " + Tables.RESPONSES
+					+ " GROUP BY 1, 2, 3, 4");
+			db.execSQL("INSERT INTO " + Tables.DAILY_AGGREGATES + " " + selectPromptAggregates(null));
+
+			if(madeTransaction) db.setTransactionSuccessful();
+		} finally {
+			if(madeTransaction) db.endTransaction();
+		}
+
+		return (int) DatabaseUtils.queryNumEntries(db, Tables.DAILY_AGGREGATES);
+	}
+
+	/**
+	 * Creates a covering index for aggregates over the numeric value of a prompt. It also covers the
+	 * join to the responses table so charts can be drawn without touching the prompt responses table.
+	 */
+	private static void createPromptResponseNumericIndex(SQLiteDatabase db) {
+		db.execSQL("CREATE INDEX IF NOT EXISTS " + PromptResponses.PROMPT_ID
+				+ "_numeric_idx ON " + Tables.PROMPT_RESPONSES + " ("
+				+ PromptResponses.PROMPT_ID + ", "
+				+ PromptResponses.COMPOSITE_ID + ", "
+				+ PromptResponses.RESPONSE_ID + ", "
+				+ PromptResponses.PROMPT_RESPONSE_NUMERIC_VALUE + ");");
+	}
+
+	/**
+	 * Indexes the xml of every campaign which is already stored
+	 */
+	private static void populateSurveyXmlIndex(SQLiteDatabase db) {
+		Cursor c = db.query(Tables.CAMPAIGN_XML, new String[] { Campaigns.CAMPAIGN_URN, Campaigns.CAMPAIGN_CONFIGURATION_XML },
+				null, null, null, null, null);
+		while (c.moveToNext())
+			indexSurveyXml(db, c.getString(0), c.getString(1));
+		c.close();
+	}
+
+	/**
+	 * Stores where each survey of a campaign and its instructions are in the campaign xml. The
+	 * surveys are matched to the regions of the xml in order, since they were inserted in the order
+	 * they are in the xml. If the index doesn't agree with the surveys nothing is stored and the
+	 * whole xml will be parsed to find them.
+	 * 
+	 * @param db
+	 * @param campaignUrn
+	 * @param campaignXml
+	 */
+	private static void indexSurveyXml(SQLiteDatabase db, String campaignUrn, String campaignXml) {
+		CampaignXmlIndex index = CampaignXmlIndex.build(campaignXml);
+
+		Cursor c = db.query(Tables.SURVEYS, new String[] { Surveys._ID }, Surveys.CAMPAIGN_URN + "=?",
+				new String[] { campaignUrn }, null, null, Surveys._ID);
+		try {
+			if (index == null || index.surveys.size() != c.getCount()) {
+				Log.w(TAG, "the xml of " + campaignUrn + " couldn't be indexed");
+				return;
+			}
+
+			ContentValues values = new ContentValues();
+			if (index.instructions != null) {
+				values.put(SurveyXmlIndex.INSTRUCTIONS_OFFSET, index.instructions.offset);
+				values.put(SurveyXmlIndex.INSTRUCTIONS_LENGTH, index.instructions.length);
+			}
+			for (CampaignXmlIndex.Region survey : index.surveys) {
+				c.moveToNext();
+				values.put(SurveyXmlIndex.SURVEY_OFFSET, survey.offset);
+				values.put(SurveyXmlIndex.SURVEY_LENGTH, survey.length);
+				db.update(Tables.SURVEYS, values, Surveys._ID + "=" + c.getLong(0), null);
+			}
+		} finally {
+			c.close();
+		}
+	}
+
+	/**
+	 * Indexes surveys by campaign and id, which is how responses are joined to their survey
+	 */
+	private static void createSurveyCampaignIndex(SQLiteDatabase db) {
+		db.execSQL("CREATE INDEX IF NOT EXISTS " + Tables.SURVEYS + "_" + Surveys.CAMPAIGN_URN
+				+ "_idx ON " + Tables.SURVEYS + " ("
+				+ Surveys.CAMPAIGN_URN + ", "
+				+ Surveys.SURVEY_ID + ");");
+	}
+
+	/**
+	 * Fills in the numeric value for prompt responses which were stored before it existed
+	 */
+	private static void populatePromptResponseNumericValues(SQLiteDatabase db) {
+		Cursor c = db.query(Tables.PROMPT_RESPONSES, new String[] { PromptResponses._ID, PromptResponses.PROMPT_RESPONSE_VALUE },
+				null, null, null, null, null);
+		SQLiteStatement update = db.compileStatement("UPDATE " + Tables.PROMPT_RESPONSES + " SET "
+				+ PromptResponses.PROMPT_RESPONSE_NUMERIC_VALUE + "=? WHERE " + PromptResponses._ID + "=?");
+		try {
+			while (c.moveToNext()) {
+				Double value = PromptResponse.parseNumericValue(c.getString(1));
+				if (value == null)
+					continue;
+				update.bindDouble(1, value);
+				update.bindLong(2, c.getLong(0));
+				update.execute();
+			}
+		} finally {
+			c.close();
+			update.close();
+		}
 	}
 
 	public void clearAll(SQLiteDatabase db) {
@@ -261,7 +922,12 @@ public class DbHelper extends SQLiteOpenHelper {
 		db.execSQL("DROP TABLE IF EXISTS " + Tables.SURVEY_PROMPTS);
 		db.execSQL("DROP TABLE IF EXISTS " + Tables.RESPONSES);
 		db.execSQL("DROP TABLE IF EXISTS " + Tables.PROMPT_RESPONSES);
+		db.execSQL("DROP TABLE IF EXISTS " + Tables.DAILY_AGGREGATES);
+		db.execSQL("DROP TABLE IF EXISTS " + Tables.CAMPAIGN_XML);
+		db.execSQL("DROP TABLE IF EXISTS " + Tables.RESPONSE_SEARCH);
 		onCreate(db);
+		SurveyPromptCache.clear();
+		SurveyElementCache.clear(mContext);
 	}
 
 	public void clearAll() {
@@ -289,6 +955,43 @@ public class DbHelper extends SQLiteOpenHelper {
 		return formatter.toString();
 	}
 
+	/**
+	 * Calculates the hash stored in {@link Campaigns#CAMPAIGN_XML_HASH} for the given xml
+	 * @param campaignXml
+	 * @return the hash, or null if there is no xml or it couldn't be hashed
+	 */
+	public static String getCampaignXmlHash(String campaignXml) {
+		if (TextUtils.isEmpty(campaignXml))
+			return null;
+
+		try {
+			return getSHA1Hash(campaignXml);
+		} catch (NoSuchAlgorithmException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Checks if the given xml hash is different from the hash stored for the campaign.
+	 * 
+	 * @param db
+	 * @param campaignUrn
+	 * @param xmlHash the hash as returned by {@link #getCampaignXmlHash(String)}
+	 * @return true if the surveys for this campaign need to be repopulated
+	 */
+	public boolean campaignXmlChanged(SQLiteDatabase db, String campaignUrn, String xmlHash) {
+		if (xmlHash == null)
+			return true;
+
+		Cursor c = db.query(Tables.CAMPAIGNS, new String[] { Campaigns.CAMPAIGN_XML_HASH },
+				Campaigns.CAMPAIGN_URN + "=?", new String[] { campaignUrn }, null, null, null);
+		try {
+			return !(c.moveToFirst() && xmlHash.equals(c.getString(0)));
+		} finally {
+			c.close();
+		}
+	}
+
 	/**
 	 * Adds a response to the feedback database.
 	 * 
@@ -302,6 +1005,7 @@ public class DbHelper extends SQLiteOpenHelper {
 		String response = values.getAsString(Responses.RESPONSE_JSON);
 		String campaignUrn = values.getAsString(Responses.CAMPAIGN_URN);
 		String surveyId = values.getAsString(Responses.SURVEY_ID);
+		values = PayloadCompressor.compress(values, Responses.RESPONSE_JSON);
 
 		boolean madeTransaction = !db.inTransaction();
 
@@ -341,6 +1045,39 @@ public class DbHelper extends SQLiteOpenHelper {
 		return rowId;
 	}
 
+	/**
+	 * Finds the media files referenced by the responses matching the selection without loading
+	 * the responses themselves. Must be called before the responses are deleted. The prompt types
+	 * are read from the prompt responses since the surveys of a campaign are removed before its
+	 * responses when it is made remote.
+	 * 
+	 * @param db
+	 * @param selection a selection on the responses table
+	 * @param selectionArgs
+	 * @return the uuids of the photos and videos of the responses
+	 */
+	public static ArrayList<String> getResponseMediaIds(SQLiteDatabase db, String selection, String[] selectionArgs) {
+		String[] args = new String[] { PromptFactory.PHOTO, PromptFactory.VIDEO, AbstractPrompt.SKIPPED_VALUE, AbstractPrompt.NOT_DISPLAYED_VALUE };
+		if (selectionArgs != null) {
+			String[] all = new String[args.length + selectionArgs.length];
+			System.arraycopy(args, 0, all, 0, args.length);
+			System.arraycopy(selectionArgs, 0, all, args.length, selectionArgs.length);
+			args = all;
+		}
+
+		Cursor c = db.rawQuery("SELECT " + PromptResponses.PROMPT_RESPONSE_VALUE + " FROM " + Tables.PROMPT_RESPONSES
+				+ " WHERE " + PromptResponses.PROMPT_RESPONSE_TYPE + " IN (?,?)"
+				+ " AND " + PromptResponses.PROMPT_RESPONSE_VALUE + " NOT IN (?,?)"
+				+ " AND " + PromptResponses.RESPONSE_ID + " IN (SELECT " + Responses._ID + " FROM " + Tables.RESPONSES
+				+ (TextUtils.isEmpty(selection) ? "" : " WHERE " + selection) + ")", args);
+
+		ArrayList<String> ids = new ArrayList<String>(c.getCount());
+		while (c.moveToNext())
+			ids.add(c.getString(0));
+		c.close();
+		return ids;
+	}
+
 	/**
 	 * Flags a response as having been uploaded. This is used exclusively by the
 	 * upload service.
@@ -381,6 +1118,66 @@ public class DbHelper extends SQLiteOpenHelper {
 		return cr.delete(Responses.CONTENT_URI, whereClause, null);
 	}
 
+	/**
+	 * Removes the downloaded and uploaded responses for the given campaign which
+	 * are not in the given list of server uuids. The uuids are bulk loaded into a
+	 * temporary table and the stale responses are removed with a single anti-join
+	 * delete, so the work stays in sqlite no matter how many responses there are.
+	 * Don't use this directly; use {@link Responses#buildReconcileUri(String)} so
+	 * observers are notified.
+	 * 
+	 * @param db
+	 *            a handle to an existing writable db
+	 * @param campaignUrn
+	 *            the campaign for which to reconcile responses
+	 * @param uuids
+	 *            values containing the {@link Responses#RESPONSE_UUID} of each
+	 *            response the server has
+	 * @return the number of responses which were removed
+	 */
+	public int reconcileResponses(SQLiteDatabase db, String campaignUrn, ContentValues[] uuids) {
+		int count = 0;
+
+		boolean madeTransaction = !db.inTransaction();
+
+		try {
+			if(madeTransaction) db.beginTransaction();
+
+			// temp tables only live as long as this connection, so make sure it exists and is empty
+			db.execSQL("CREATE TEMP TABLE IF NOT EXISTS " + Tables.TEMP_SYNC_UUIDS + " ("
+					+ Responses.RESPONSE_UUID + " TEXT PRIMARY KEY);");
+			db.delete(Tables.TEMP_SYNC_UUIDS, null, null);
+
+			SQLiteStatement insert = db.compileStatement("INSERT OR IGNORE INTO "
+					+ Tables.TEMP_SYNC_UUIDS + " (" + Responses.RESPONSE_UUID + ") VALUES (?)");
+			try {
+				for (ContentValues value : uuids) {
+					String uuid = value.getAsString(Responses.RESPONSE_UUID);
+					if (uuid == null)
+						continue;
+					insert.bindString(1, uuid);
+					insert.execute();
+				}
+			} finally {
+				insert.close();
+			}
+
+			count = db.delete(Tables.RESPONSES, "(" + Responses.RESPONSE_STATUS + "=" + Response.STATUS_DOWNLOADED
+					+ " OR " + Responses.RESPONSE_STATUS + "=" + Response.STATUS_UPLOADED + ")"
+					+ " AND " + Responses.CAMPAIGN_URN + "=?"
+					+ " AND " + Responses.RESPONSE_UUID + " NOT IN (SELECT " + Responses.RESPONSE_UUID
+					+ " FROM " + Tables.TEMP_SYNC_UUIDS + ")", new String[] { campaignUrn });
+
+			db.delete(Tables.TEMP_SYNC_UUIDS, null, null);
+
+			if(madeTransaction) db.setTransactionSuccessful();
+		} finally {
+			if(madeTransaction) db.endTransaction();
+		}
+
+		return count;
+	}
+
 	/**
 	 * Returns survey responses for the given campaign that were stored before
 	 * the given cutoff value. Note: this only returns *local* survey responses
@@ -431,10 +1228,18 @@ public class DbHelper extends SQLiteOpenHelper {
 					.getAsString(Campaigns.CAMPAIGN_CONFIGURATION_XML);
 			String campaignUrn = values.getAsString(Campaigns.CAMPAIGN_URN);
 
+			// if the xml hasn't changed the surveys and prompts are already up to date
+			String xmlHash = getCampaignXmlHash(configurationXml);
+			boolean xmlChanged = campaignXmlChanged(db, campaignUrn, xmlHash);
+			values.put(Campaigns.CAMPAIGN_XML_HASH, xmlHash);
+			// the xml is stored in its own table
+			values.remove(Campaigns.CAMPAIGN_CONFIGURATION_XML);
+
 			// actually insert the campaign
 			rowId = db.insertWithOnConflict(Tables.CAMPAIGNS, null, values,SQLiteDatabase.CONFLICT_REPLACE);
+			setCampaignXml(db, campaignUrn, configurationXml);
 
-			if (configurationXml != null) {
+			if (configurationXml != null && xmlChanged) {
 				// xml parsing below, inserts into Surveys and SurveyPrompts
 				if (populateSurveysFromCampaignXML(db, campaignUrn,
 						configurationXml)) {
@@ -670,152 +1475,177 @@ public class DbHelper extends SQLiteOpenHelper {
 
 				eventType = xpp.next();
 			}
+
+			indexSurveyXml(db, campaignUrn, campaignXML);
 		}
 		catch (UnsupportedEncodingException e) {
-			// TODO Auto-generated catch block
-			e.printStackTrace();
+			Log.e(TAG, "the xml of " + campaignUrn + " couldn't be parsed", e);
 			return false;
 		}
 		catch (XmlPullParserException e) {
-			// TODO Auto-generated catch block
-			e.printStackTrace();
+			Log.e(TAG, "the xml of " + campaignUrn + " couldn't be parsed", e);
 			return false;
 		}
 		catch (IOException e) {
-			// TODO Auto-generated catch block
-			e.printStackTrace();
+			Log.e(TAG, "the xml of " + campaignUrn + " couldn't be parsed", e);
 			return false;
 		}
 		catch (JSONException e) {
-			// TODO Auto-generated catch block
-			e.printStackTrace();
+			Log.e(TAG, "the xml of " + campaignUrn + " couldn't be parsed", e);
 			return false;
 		}
+		finally {
+			// the cached prompts no longer match the surveys
+			SurveyPromptCache.invalidate(campaignUrn);
+			SurveyElementCache.invalidate(mContext, campaignUrn);
+		}
 
 		return true;
 	}
 
 	public boolean populatePromptsFromResponseJSON(SQLiteDatabase db, long responseRowID, String response, String campaignUrn, String surveyId) {
 		try {
-			// create a list of metadata for this survey from the surveyprompts table
-			// this will help in remapping values for single and multichoice prompts, etc.
-			List<SurveyPrompt> promptsList = SurveyPrompt.fromCursor(
-						db.query(Tables.SURVEY_PROMPTS, null, SurveyPrompts.COMPOSITE_ID + "='" + campaignUrn + ":" + surveyId + "'", null, null, null, null)
-					);
+			List<PromptResponse> prompts = parsePromptResponses(SurveyPromptCache.get(db, campaignUrn, surveyId),
+					responseRowID, response, campaignUrn, surveyId);
 
-			JSONArray responseData = new JSONArray(response);
+			// and insert these into prompts
+			for (PromptResponse p : prompts)
+				db.insert(Tables.PROMPT_RESPONSES, null, p.toCV());
+		}
+		catch (JSONException e) {
+			Log.e(TAG, "the response of " + surveyId + " in " + campaignUrn + " couldn't be parsed", e);
+			return false;
+		}
 
-			HashMap<String, JSONObject> promptsMap = new HashMap<String, JSONObject>();
-			
-			for (int i = 0; i < responseData.length(); ++i) {
-				// nab the jsonobject, which contains "prompt_id" and "value"
-				JSONObject item = responseData.getJSONObject(i);
-				
-				// if the entry we're looking at doesn't include prompt_id or value, continue
-				if (!item.has("prompt_id") || !item.has("value"))
-					continue;
-				
-				promptsMap.put(item.getString("prompt_id"), item);
-			}
+		return true;
+	}
 
-			for (SurveyPrompt promptData : promptsList) {
+	/**
+	 * Creates a list of metadata for this survey from the surveyprompts table.
+	 * This will help in remapping values for single and multichoice prompts, etc.
+	 * Use {@link SurveyPromptCache} instead to avoid reading them for every response.
+	 * 
+	 * @param db
+	 * @param campaignUrn
+	 * @param surveyId
+	 * @return the prompts of the survey
+	 */
+	public static List<SurveyPrompt> getSurveyPrompts(SQLiteDatabase db, String campaignUrn, String surveyId) {
+		return SurveyPrompt.fromCursor(
+				db.query(Tables.SURVEY_PROMPTS, null, SurveyPrompts.COMPOSITE_ID + "='" + campaignUrn + ":" + surveyId + "'", null, null, null, null)
+			);
+	}
+
+	/**
+	 * Builds the prompt response rows for a response from its json
+	 * 
+	 * @param promptsList the prompts of the survey from the {@link SurveyPromptCache}
+	 * @param responseRowID the id of the response row the prompt responses belong to
+	 * @param response the json of the response
+	 * @param campaignUrn
+	 * @param surveyId
+	 * @return the prompt responses which should be inserted
+	 * @throws JSONException
+	 */
+	public static List<PromptResponse> parsePromptResponses(List<PromptMetadata> promptsList, long responseRowID, String response, String campaignUrn, String surveyId) throws JSONException {
+		ArrayList<PromptResponse> prompts = new ArrayList<PromptResponse>(promptsList.size());
 
-				// nab the jsonobject, which contains "prompt_id" and "value"
-				JSONObject item = promptsMap.get(promptData.mPromptID);
+		JSONArray responseData = new JSONArray(response);
 
-				// construct a new PromptResponse object to populate
-				PromptResponse p = new PromptResponse();
+		HashMap<String, JSONObject> promptsMap = new HashMap<String, JSONObject>();
+		
+		for (int i = 0; i < responseData.length(); ++i) {
+			// nab the jsonobject, which contains "prompt_id" and "value"
+			JSONObject item = responseData.getJSONObject(i);
+			
+			// if the entry we're looking at doesn't include prompt_id or value, continue
+			if (!item.has("prompt_id") || !item.has("value"))
+				continue;
+			
+			promptsMap.put(item.getString("prompt_id"), item);
+		}
 
-				p.mCompositeID = campaignUrn + ":" + surveyId;
-				p.mResponseID = responseRowID;
-				p.mPromptID = item.getString("prompt_id");
+		for (PromptMetadata promptData : promptsList) {
 
-				if (item.has("custom_choices")) {
-					// build a hashmap of ID->label so we can do the remapping
-					JSONArray choicesArray = item.getJSONArray("custom_choices");
-					HashMap<String,String> glossary = new HashMap<String, String>();
+			// nab the jsonobject, which contains "prompt_id" and "value"
+			JSONObject item = promptsMap.get(promptData.prompt.mPromptID);
 
-					for (int iv = 0; iv < choicesArray.length(); ++iv) {
-						JSONObject choiceObject = choicesArray.getJSONObject(iv);
-						glossary.put(choiceObject.getString("choice_id"), choiceObject.getString("choice_value"));
-					}
+			// construct a new PromptResponse object to populate
+			PromptResponse p = new PromptResponse();
 
-					// determine if the value is singular or an array
-					// if it's an array, we need to remap each element
-					try {
-						JSONArray remapper = item.getJSONArray("value");
+			p.mCompositeID = campaignUrn + ":" + surveyId;
+			p.mResponseID = responseRowID;
+			p.mPromptID = item.getString("prompt_id");
+			p.mType = promptData.prompt.mPromptType;
 
-						for (int ir = 0; ir < remapper.length(); ++ir)
-							remapper.put(ir, glossary.get(remapper.getString(ir)));
+			if (item.has("custom_choices")) {
+				// build a hashmap of ID->label so we can do the remapping
+				JSONArray choicesArray = item.getJSONArray("custom_choices");
+				HashMap<String,String> glossary = new HashMap<String, String>();
 
-						p.mValue = remapper.toString();
-					}
-					catch (JSONException e) {
-						// it wasn't a json array, so just remap the single value
-						p.mValue = glossary.get(item.getString("value"));
-					}
+				for (int iv = 0; iv < choicesArray.length(); ++iv) {
+					JSONObject choiceObject = choicesArray.getJSONObject(iv);
+					glossary.put(choiceObject.getString("choice_id"), choiceObject.getString("choice_value"));
 				}
-				else if (promptData.mPromptType.equalsIgnoreCase("single_choice")) {
-					// unload the json properties
-					JSONArray values = new JSONArray(promptData.mProperties);
-					// set the explicit value as the default; if we don't find a match, it'll end up as this
-					p.mValue = item.getString("value");
 
-					// search for a key that matches the given value
-					for (int ir = 0; ir < values.length(); ++ir) {
-						JSONObject entry = values.getJSONObject(ir);
-						if (entry.getString("key").equals(p.mValue)) {
-							p.mValue = entry.getString("label");
-							p.mExtraValue = item.getString("value");
-							break;
-						}
-					}
+				// determine if the value is singular or an array
+				// if it's an array, we need to remap each element
+				try {
+					JSONArray remapper = item.getJSONArray("value");
+
+					for (int ir = 0; ir < remapper.length(); ++ir)
+						remapper.put(ir, glossary.get(remapper.getString(ir)));
+
+					p.mValue = remapper.toString();
 				}
-				else if (promptData.mPromptType.equalsIgnoreCase("multi_choice")) {
-					// same procedure as above, except that we need to remap every value
-
-					try {
-						// unload the json properties
-						JSONArray values = new JSONArray(promptData.mProperties);
-						// set the explicit value as the default; if we don't find a match, it'll end up as this
-						JSONArray newValues = new JSONArray(item.getString("value"));
-
-						// for each entry in newValues...
-						for (int io = 0; io < newValues.length(); ++io) {
-							// search for a key that matches the given value
-							for (int ir = 0; ir < values.length(); ++ir) {
-								JSONObject entry = values.getJSONObject(ir);
-								if (entry.getString("key").equals(newValues.getString(io))) {
-									// assign the remapped value to this index
-									newValues.put(io, entry.getString("label"));
-									break;
-								}
-							}
-						}
+				catch (JSONException e) {
+					// it wasn't a json array, so just remap the single value
+					p.mValue = glossary.get(item.getString("value"));
+				}
+			}
+			else if (promptData.isSingleChoice()) {
+				// set the explicit value as the default; if we don't find a match, it'll end up as this
+				p.mValue = item.getString("value");
+
+				// look up the label of the key that matches the given value
+				String label = promptData.getChoiceLabel(p.mValue);
+				if (label != null) {
+					p.mValue = label;
+					p.mExtraValue = item.getString("value");
+				}
+			}
+			else if (promptData.isMultiChoice()) {
+				// same procedure as above, except that we need to remap every value
 
-						// and reassign mValue here
-						p.mValue = newValues.toString();
-						p.mExtraValue = item.getString("value");
-					}
-					catch (JSONException e) {
-						// it wasn't a json array, so just remap the value
-						p.mValue = item.getString("value");
+				try {
+					// set the explicit value as the default; if we don't find a match, it'll end up as this
+					JSONArray newValues = new JSONArray(item.getString("value"));
+
+					// for each entry in newValues...
+					for (int io = 0; io < newValues.length(); ++io) {
+						// assign the remapped value to this index
+						String label = promptData.getChoiceLabel(newValues.getString(io));
+						if (label != null)
+							newValues.put(io, label);
 					}
+
+					// and reassign mValue here
+					p.mValue = newValues.toString();
+					p.mExtraValue = item.getString("value");
 				}
-				else {
+				catch (JSONException e) {
+					// it wasn't a json array, so just remap the value
 					p.mValue = item.getString("value");
 				}
-
-				// and insert this into prompts				
-				db.insert(Tables.PROMPT_RESPONSES, null, p.toCV());
 			}
+			else {
+				p.mValue = item.getString("value");
+			}
+
+			prompts.add(p);
 		}
-		catch (JSONException e) {
-			e.printStackTrace();
-			return false;
-		}
-		
-		return true;
+
+		return prompts;
 	}
 	
 	/**
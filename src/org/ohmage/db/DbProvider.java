@@ -3,16 +3,18 @@ package org.ohmage.db;
 import android.content.ContentProvider;
 import android.content.ContentProviderOperation;
 import android.content.ContentProviderResult;
-import android.content.ContentResolver;
 import android.content.ContentValues;
 import android.content.OperationApplicationException;
 import android.content.UriMatcher;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.net.Uri;
+import android.os.Looper;
 import android.util.Log;
 
+import org.ohmage.SurveyElementCache;
 import org.ohmage.db.DbContract.Campaigns;
+import org.ohmage.db.DbContract.DailyAggregates;
 import org.ohmage.db.DbContract.PromptResponses;
 import org.ohmage.db.DbContract.Responses;
 import org.ohmage.db.DbContract.SurveyPrompts;
@@ -21,7 +23,6 @@ import org.ohmage.db.DbHelper.Subqueries;
 import org.ohmage.db.DbHelper.Tables;
 import org.ohmage.db.Models.Campaign;
 import org.ohmage.db.Models.DbModel;
-import org.ohmage.db.Models.Response;
 import org.ohmage.db.utils.SelectionBuilder;
 import org.ohmage.triggers.glue.TriggerFramework;
 
@@ -82,6 +83,9 @@ import java.util.List;
  * campaigns/{urn}/surveys/{sid}/responses
  * -- query: returns all responses for the survey specified by {sid} within the campaign specified by {urn}
  * 
+ * campaigns/{urn}/responses/reconcile
+ * -- bulk insert: removes downloaded and uploaded responses for the campaign specified by {urn} whose uuids are not in the given values
+ *
  * campaigns/{urn}/responses/prompts/{pid}
  * -- query: returns all prompts of the given {pid} within the campaign specified by {urn}
  *
@@ -92,14 +96,25 @@ import java.util.List;
  * -- query: returns an aggregate function {agg} (one of "avg", "count", "max", "min, "total") for
  * -- the prompts of the given {pid} for the survey specified by {sid} within the campaign specified by {urn}
  * 
+ * responses/daily
+ * -- query: returns the per day response counts and prompt aggregates
+ * 
+ * responses/daily/rebuild
+ * -- update: recomputes the per day aggregates from the responses
+ * 
  * @author faisal
  *
  */
 public class DbProvider extends ContentProvider {		
 	private static final String TAG = "DbProvider";
 
+	/** Batches at least this large are followed by a checkpoint of the write ahead log */
+	private static final int CHECKPOINT_BATCH_SIZE = 100;
+
 	private static UriMatcher sUriMatcher = buildUriMatcher();
 	private DbHelper dbHelper;
+	private ChangeNotifier mNotifier;
+	private ResponseMediaCleaner mMediaCleaner;
 	
 	// enum of the URIs we can match using sUriMatcher
 	private interface MatcherTypes {
@@ -120,11 +135,20 @@ public class DbProvider extends ContentProvider {
 		int SURVEY_SURVEYPROMPTS = 15;
 		int SURVEYPROMPTS = 16;
 		int CAMPAIGN_RESPONSES_PROMPTS_BY_ID = 17;
+		int CAMPAIGN_RESPONSES_RECONCILE = 18;
+		int DAILY_AGGREGATES = 19;
+		int DAILY_AGGREGATES_REBUILD = 20;
+		int CAMPAIGN_XML = 21;
+		int RESPONSES_SEARCH = 22;
+		int RESPONSES_PAGE = 23;
+		int SURVEY_XML = 24;
 	}
 
 	@Override
 	public boolean onCreate() {
 		dbHelper = new DbHelper(getContext());
+		mNotifier = new ChangeNotifier(getContext().getContentResolver(), Looper.getMainLooper(), ChangeNotifier.DEBOUNCE_MS);
+		mMediaCleaner = new ResponseMediaCleaner();
 		return true;
 	}
 
@@ -137,6 +161,8 @@ public class DbProvider extends ContentProvider {
         		return Campaigns.CONTENT_TYPE;
         	case MatcherTypes.CAMPAIGN_BY_URN:
         		return Campaigns.CONTENT_ITEM_TYPE;
+        	case MatcherTypes.CAMPAIGN_XML:
+        		return Campaigns.CONTENT_XML_TYPE;
         		
         	// SURVEYS
         	case MatcherTypes.SURVEYS:
@@ -144,6 +170,8 @@ public class DbProvider extends ContentProvider {
         		return Surveys.CONTENT_TYPE;
         	case MatcherTypes.SURVEY_BY_ID:
         		return Surveys.CONTENT_ITEM_TYPE;
+        	case MatcherTypes.SURVEY_XML:
+        		return Surveys.CONTENT_XML_TYPE;
         		
         	// SURVEY PROMPTS
         	case MatcherTypes.SURVEY_SURVEYPROMPTS:
@@ -153,6 +181,9 @@ public class DbProvider extends ContentProvider {
             case MatcherTypes.RESPONSES:
             case MatcherTypes.CAMPAIGN_RESPONSES:
             case MatcherTypes.CAMPAIGN_SURVEY_RESPONSES:
+            case MatcherTypes.CAMPAIGN_RESPONSES_RECONCILE:
+            case MatcherTypes.RESPONSES_SEARCH:
+            case MatcherTypes.RESPONSES_PAGE:
             	return Responses.CONTENT_TYPE;
             case MatcherTypes.RESPONSE_BY_PID:
             	return Responses.CONTENT_ITEM_TYPE;
@@ -166,6 +197,11 @@ public class DbProvider extends ContentProvider {
             	return PromptResponses.CONTENT_TYPE;
             case MatcherTypes.PROMPT_BY_PID:
             	return PromptResponses.CONTENT_ITEM_TYPE;
+
+            // DAILY AGGREGATES
+            case MatcherTypes.DAILY_AGGREGATES:
+            case MatcherTypes.DAILY_AGGREGATES_REBUILD:
+            	return DailyAggregates.CONTENT_TYPE;
             	
             default:
                 throw new UnsupportedOperationException("getType(): Unknown URI: " + uri);
@@ -174,6 +210,22 @@ public class DbProvider extends ContentProvider {
 
 	@Override
 	public Cursor query(Uri uri, String[] projection, String selection, String[] selectionArgs, String sortOrder) {
+		Cursor result = query(uri, projection, selection, selectionArgs, sortOrder, false);
+		result.setNotificationUri(getContext().getContentResolver(), uri);
+		
+		return result;
+	}
+
+	/**
+	 * Returns the plan sqlite would use for the query a call to
+	 * {@link #query(Uri, String[], String, String[], String)} with the same arguments would run.
+	 * Each row is a step of the plan, with its description in the detail column.
+	 */
+	public Cursor explainQueryPlan(Uri uri, String[] projection, String selection, String[] selectionArgs, String sortOrder) {
+		return query(uri, projection, selection, selectionArgs, sortOrder, true);
+	}
+
+	private Cursor query(Uri uri, String[] projection, String selection, String[] selectionArgs, String sortOrder, boolean explain) {
 		// get a handle to our db
 		SQLiteDatabase db = dbHelper.getReadableDatabase();
 
@@ -182,11 +234,25 @@ public class DbProvider extends ContentProvider {
 		SelectionBuilder builder = buildSelection(uri, false);
 
 		builder.where(selection, selectionArgs);
-		
-		Cursor result = builder.query(db, projection, sortOrder);
-		result.setNotificationUri(getContext().getContentResolver(), uri);
-		
-		return result;
+
+		String limit = null;
+		switch (sUriMatcher.match(uri)) {
+			case MatcherTypes.RESPONSES_SEARCH:
+				// search results are returned best match first
+				if (sortOrder == null)
+					sortOrder = Subqueries.SEARCH_RANK + " DESC, " + Responses.RESPONSE_TIME + " DESC";
+				break;
+			case MatcherTypes.RESPONSES_PAGE:
+				// pages are always in the order of their keys, which the time index already has
+				// since it ends with the rowid
+				sortOrder = Responses.RESPONSE_TIME + " DESC, " + Qualified.RESPONSES_ID + " DESC";
+				limit = Responses.getPageSize(uri);
+				break;
+		}
+
+		if (explain)
+			return builder.explainQueryPlan(db, projection, null, null, sortOrder, limit);
+		return builder.query(db, projection, null, null, sortOrder, limit);
 	}
 	
 	@Override
@@ -196,8 +262,6 @@ public class DbProvider extends ContentProvider {
 		Uri resultingUri = null;
 		String campaignUrn, surveyID;
 		
-		ContentResolver cr = getContext().getContentResolver();
-		
 		switch (sUriMatcher.match(uri)) {
 			case MatcherTypes.RESPONSES:
 				insertID = dbHelper.addResponseRow(db, values);
@@ -208,9 +272,9 @@ public class DbProvider extends ContentProvider {
 					resultingUri = Responses.buildResponseUri(insertID);
 
 					// notify on the related entity URIs
-					cr.notifyChange(Responses.CONTENT_URI, null, false);
-					cr.notifyChange(PromptResponses.CONTENT_URI, null, false);
-					cr.notifyChange(Campaigns.buildCampaignUri(campaignUrn), null, false);
+					mNotifier.notifyChange(Responses.CONTENT_URI);
+					mNotifier.notifyChange(PromptResponses.CONTENT_URI);
+					mNotifier.notifyChange(Campaigns.buildCampaignUri(campaignUrn));
 				}
 
 				break;
@@ -220,9 +284,9 @@ public class DbProvider extends ContentProvider {
 				resultingUri = Campaigns.buildCampaignUri(campaignUrn);
 
 				// notify on the related entity URIs
-				cr.notifyChange(Campaigns.CONTENT_URI, null, false);
-				cr.notifyChange(Surveys.CONTENT_URI, null, false);
-				cr.notifyChange(SurveyPrompts.CONTENT_URI, null, false);
+				mNotifier.notifyChange(Campaigns.CONTENT_URI);
+				mNotifier.notifyChange(Surveys.CONTENT_URI);
+				mNotifier.notifyChange(SurveyPrompts.CONTENT_URI);
 				
 				break;
 			default:
@@ -238,6 +302,12 @@ public class DbProvider extends ContentProvider {
 		// get a handle to our db
 		SQLiteDatabase db = dbHelper.getWritableDatabase();
 		int count = 0;
+
+		if (sUriMatcher.match(uri) == MatcherTypes.DAILY_AGGREGATES_REBUILD) {
+			count = dbHelper.rebuildDailyAggregates(db);
+			mNotifier.notifyChange(DailyAggregates.CONTENT_URI);
+			return count;
+		}
 		
 		// TODO: should we reject entities that shouldn't be updated?
 		
@@ -258,49 +328,67 @@ public class DbProvider extends ContentProvider {
 		builder.where(selection, selectionArgs);
 		
 		// If we are looking at campaigns we need to see what has changed to do some state management
+		int campaignCount = 0;
 		if(sUriMatcher.match(uri) == MatcherTypes.CAMPAIGN_BY_URN || sUriMatcher.match(uri) == MatcherTypes.CAMPAIGNS) {
-			Cursor oldCampaigns = builder.query(db, new String[] {Campaigns.CAMPAIGN_URN, Campaigns.CAMPAIGN_STATUS}, null);
+			Cursor oldCampaigns = builder.query(db, new String[] {Campaigns.CAMPAIGN_URN, Campaigns.CAMPAIGN_STATUS, Campaigns.CAMPAIGN_XML_HASH}, null);
+
+			// the xml is stored in its own table
+			boolean hasXml = values.containsKey(Campaigns.CAMPAIGN_CONFIGURATION_XML);
+			String xml = values.getAsString(Campaigns.CAMPAIGN_CONFIGURATION_XML);
+			values.remove(Campaigns.CAMPAIGN_CONFIGURATION_XML);
+
+			String xmlHash = null;
+			if (hasXml) {
+				xmlHash = DbHelper.getCampaignXmlHash(xml);
+				values.put(Campaigns.CAMPAIGN_XML_HASH, xmlHash);
+			}
 
 			while (oldCampaigns != null && oldCampaigns.moveToNext()) {
+				campaignCount++;
 				// remove triggers for campaigns that have changed from ready to something else
 				if (oldCampaigns.getInt(1) == Campaign.STATUS_READY && values.containsKey(Campaigns.CAMPAIGN_STATUS) && values.getAsInteger(Campaigns.CAMPAIGN_STATUS) != Campaign.STATUS_READY)
 					TriggerFramework.resetTriggerSettings(getContext(), oldCampaigns.getString(0));
 				// update xml-related entities (surveys, surveyprompts) if the xml for these items is changed
-				if (values.containsKey(Campaigns.CAMPAIGN_CONFIGURATION_XML))
-					dbHelper.populateSurveysFromCampaignXML(db, oldCampaigns.getString(0), values.getAsString(Campaigns.CAMPAIGN_CONFIGURATION_XML));
+				if (hasXml && (xmlHash == null || !xmlHash.equals(oldCampaigns.getString(2)))) {
+					DbHelper.setCampaignXml(db, oldCampaigns.getString(0), xml);
+					dbHelper.populateSurveysFromCampaignXML(db, oldCampaigns.getString(0), xml);
+				}
 			}
 			oldCampaigns.close();
 		}
 
+		values = PayloadCompressor.compress(values, Responses.RESPONSE_JSON);
+
 		// we assume we've matched it correctly, so proceed with the update
-		count = builder.update(db, values);
+		if (values.size() > 0)
+			count = builder.update(db, values);
+		else
+			count = campaignCount;
 		
 		if (count > 0) {
-			ContentResolver cr = getContext().getContentResolver();
-			
 			// depending on the type of the thing deleted, we have to notify potentially many URIs
 			switch (sUriMatcher.match(uri)) {
 				case MatcherTypes.RESPONSE_BY_PID:
 				case MatcherTypes.RESPONSES:
 					// notify on the related entity URIs
-					cr.notifyChange(Responses.CONTENT_URI, null, false);
-					cr.notifyChange(PromptResponses.CONTENT_URI, null, false);
-					cr.notifyChange(Campaigns.CONTENT_URI, null, false);
+					mNotifier.notifyChange(Responses.CONTENT_URI);
+					mNotifier.notifyChange(PromptResponses.CONTENT_URI);
+					mNotifier.notifyChange(Campaigns.CONTENT_URI);
 					break;
 					
 				case MatcherTypes.CAMPAIGN_BY_URN:
 				case MatcherTypes.CAMPAIGNS:
 					// notify on the related entity URIs
-					cr.notifyChange(Campaigns.CONTENT_URI, null, false);
-					cr.notifyChange(Surveys.CONTENT_URI, null, false);
-					cr.notifyChange(SurveyPrompts.CONTENT_URI, null, false);
-					cr.notifyChange(Responses.CONTENT_URI, null, false);
-					cr.notifyChange(PromptResponses.CONTENT_URI, null, false);
+					mNotifier.notifyChange(Campaigns.CONTENT_URI);
+					mNotifier.notifyChange(Surveys.CONTENT_URI);
+					mNotifier.notifyChange(SurveyPrompts.CONTENT_URI);
+					mNotifier.notifyChange(Responses.CONTENT_URI);
+					mNotifier.notifyChange(PromptResponses.CONTENT_URI);
 					break;
 			}
 			
 			// we should always notify on our own uri regardless
-			cr.notifyChange(uri, null, false);
+			mNotifier.notifyChange(uri);
 		}
 		
 		return count;
@@ -323,10 +411,13 @@ public class DbProvider extends ContentProvider {
 		
 		// Depending on the type of the thing deleted, we may have to do some clean up
 		ArrayList<Models.DbModel> models = new ArrayList<Models.DbModel>();
+		// only the media of responses has to be cleaned up so the responses aren't loaded
+		ArrayList<String> media = null;
 		switch (sUriMatcher.match(uri)) {
 			case MatcherTypes.RESPONSE_BY_PID:
 			case MatcherTypes.RESPONSES:
-				models.addAll(Response.fromCursor(builder.query(db, null, null)));
+			case MatcherTypes.CAMPAIGN_RESPONSES:
+				media = DbHelper.getResponseMediaIds(db, builder.getSelection(), builder.getSelectionArgs());
 				break;
 			case MatcherTypes.CAMPAIGN_BY_URN:
 			case MatcherTypes.CAMPAIGNS:
@@ -342,7 +433,7 @@ public class DbProvider extends ContentProvider {
 					if (campaign.mStatus != Campaign.STATUS_REMOTE)
 						responseQuery.where(Responses.CAMPAIGN_URN + "=?", SelectionBuilder.OR, campaign.mUrn);
 				}
-				models.addAll(Response.fromCursor(responseQuery.query(db, null, null)));
+				media = DbHelper.getResponseMediaIds(db, responseQuery.getSelection(), responseQuery.getSelectionArgs());
 				break;
 		}
 		
@@ -350,34 +441,40 @@ public class DbProvider extends ContentProvider {
 		count = builder.delete(db);
 		
 		if (count > 0) {
-			ContentResolver cr = getContext().getContentResolver();
-			
 			// depending on the type of the thing deleted, we have to notify potentially many URIs
 			switch (sUriMatcher.match(uri)) {
 				case MatcherTypes.RESPONSE_BY_PID:
 				case MatcherTypes.RESPONSES:
 					// notify on the related entity URIs
-					cr.notifyChange(Responses.CONTENT_URI, null, false);
-					cr.notifyChange(PromptResponses.CONTENT_URI, null, false);
+					mNotifier.notifyChange(Responses.CONTENT_URI);
+					mNotifier.notifyChange(PromptResponses.CONTENT_URI);
 					break;
 					
 				case MatcherTypes.CAMPAIGN_BY_URN:
 				case MatcherTypes.CAMPAIGNS:
 					// notify on the related entity URIs
-					cr.notifyChange(Campaigns.CONTENT_URI, null, false);
-					cr.notifyChange(Surveys.CONTENT_URI, null, false);
-					cr.notifyChange(SurveyPrompts.CONTENT_URI, null, false);
-					cr.notifyChange(Responses.CONTENT_URI, null, false);
-					cr.notifyChange(PromptResponses.CONTENT_URI, null, false);
+					mNotifier.notifyChange(Campaigns.CONTENT_URI);
+					mNotifier.notifyChange(Surveys.CONTENT_URI);
+					mNotifier.notifyChange(SurveyPrompts.CONTENT_URI);
+					mNotifier.notifyChange(Responses.CONTENT_URI);
+					mNotifier.notifyChange(PromptResponses.CONTENT_URI);
 					break;
 			}
 
 			// we should always notify on our own uri regardless
-			cr.notifyChange(uri, null, false);
+			mNotifier.notifyChange(uri);
+
+			// The media files are deleted in the background once the delete is committed
+			if (media != null && !media.isEmpty())
+				mMediaCleaner.delete(media);
 
 			// Clean up the data associated with each of the models we deleted
 			for(DbModel model : models) {
 				model.cleanUp(getContext());
+				if (model instanceof Campaign) {
+					SurveyPromptCache.invalidate(((Campaign) model).mUrn);
+					SurveyElementCache.invalidate(getContext(), ((Campaign) model).mUrn);
+				}
 			}
 		}
 
@@ -396,22 +493,42 @@ public class DbProvider extends ContentProvider {
 		int count = 0;
 
 		SQLiteDatabase db = dbHelper.getWritableDatabase();
+
+		// reconciling returns the number of responses removed rather than the number inserted
+		if (sUriMatcher.match(uri) == MatcherTypes.CAMPAIGN_RESPONSES_RECONCILE) {
+			count = dbHelper.reconcileResponses(db, Campaigns.getCampaignUrn(uri), values);
+
+			if (count > 0) {
+				mNotifier.notifyChange(Responses.CONTENT_URI);
+				mNotifier.notifyChange(PromptResponses.CONTENT_URI);
+			}
+
+			return count;
+		}
 		
-		ContentResolver cr = getContext().getContentResolver();
-		
+		boolean successful = false;
+		boolean madeBatch = mNotifier.beginBatch();
 		try {
 			db.beginTransaction();
 		
 			switch (sUriMatcher.match(uri)) {
 				case MatcherTypes.RESPONSES:
-					for (ContentValues value : values) {
-						if (dbHelper.addResponseRow(db, value) > 0)
-							count += 1;
+					// reuse the same compiled statements for every response
+					ResponseIngester ingester = new ResponseIngester(db);
+					try {
+						for (ContentValues value : values) {
+							if (ingester.insert(value) > 0) {
+								count += 1;
+								mNotifier.notifyChange(Campaigns.buildCampaignUri(value.getAsString(Responses.CAMPAIGN_URN)));
+							}
+						}
+					} finally {
+						ingester.close();
 					}
 					
 					// notify on the related entity URIs
-					cr.notifyChange(Responses.CONTENT_URI, null, false);
-					cr.notifyChange(PromptResponses.CONTENT_URI, null, false);
+					mNotifier.notifyChange(Responses.CONTENT_URI);
+					mNotifier.notifyChange(PromptResponses.CONTENT_URI);
 					
 					break;
 				case MatcherTypes.CAMPAIGNS:
@@ -421,9 +538,9 @@ public class DbProvider extends ContentProvider {
 					}
 
 					// notify on the related entity URIs
-					cr.notifyChange(Campaigns.CONTENT_URI, null, false);
-					cr.notifyChange(Surveys.CONTENT_URI, null, false);
-					cr.notifyChange(SurveyPrompts.CONTENT_URI, null, false);
+					mNotifier.notifyChange(Campaigns.CONTENT_URI);
+					mNotifier.notifyChange(Surveys.CONTENT_URI);
+					mNotifier.notifyChange(SurveyPrompts.CONTENT_URI);
 					
 					break;
 				default:
@@ -432,6 +549,7 @@ public class DbProvider extends ContentProvider {
 			
 			if (count == values.length) {
 				db.setTransactionSuccessful();
+				successful = true;
 			} else {
 				count = 0;
 			}
@@ -439,7 +557,14 @@ public class DbProvider extends ContentProvider {
 		finally {
 			// the transaction must be ended whether or not it was flagged successful
 			db.endTransaction();
+
+			// observers are only told about the changes once they have been committed
+			if (madeBatch)
+				mNotifier.endBatch(successful);
 		}
+
+		if (successful && values.length >= CHECKPOINT_BATCH_SIZE)
+			DbHelper.checkpoint(db);
 		
 		return count;
 	}
@@ -454,18 +579,25 @@ public class DbProvider extends ContentProvider {
 		matcher.addURI(DbContract.CONTENT_AUTHORITY, "campaigns", MatcherTypes.CAMPAIGNS);
 		matcher.addURI(DbContract.CONTENT_AUTHORITY, "campaigns/*", MatcherTypes.CAMPAIGN_BY_URN);
 		matcher.addURI(DbContract.CONTENT_AUTHORITY, "campaigns/*/responses", MatcherTypes.CAMPAIGN_RESPONSES);
+		matcher.addURI(DbContract.CONTENT_AUTHORITY, "campaigns/*/xml", MatcherTypes.CAMPAIGN_XML);
 		matcher.addURI(DbContract.CONTENT_AUTHORITY, "campaigns/*/surveys", MatcherTypes.CAMPAIGN_SURVEYS);
 		matcher.addURI(DbContract.CONTENT_AUTHORITY, "campaigns/*/surveys/*", MatcherTypes.SURVEY_BY_ID);
 		matcher.addURI(DbContract.CONTENT_AUTHORITY, "campaigns/*/surveys/*/prompts", MatcherTypes.SURVEY_SURVEYPROMPTS);
+		matcher.addURI(DbContract.CONTENT_AUTHORITY, "campaigns/*/surveys/*/xml", MatcherTypes.SURVEY_XML);
 		matcher.addURI(DbContract.CONTENT_AUTHORITY, "campaigns/*/surveys/*/responses", MatcherTypes.CAMPAIGN_SURVEY_RESPONSES);
 		matcher.addURI(DbContract.CONTENT_AUTHORITY, "campaigns/*/surveys/*/responses/prompts/*", MatcherTypes.CAMPAIGN_SURVEY_RESPONSES_PROMPTS_BY_ID);
 		matcher.addURI(DbContract.CONTENT_AUTHORITY, "campaigns/*/responses/prompts/*", MatcherTypes.CAMPAIGN_RESPONSES_PROMPTS_BY_ID);
-		// matcher.addURI(DbContract.CONTENT_AUTHORITY, "campaigns/*/surveys/*/responses/prompts/*/*", MatcherTypes.CAMPAIGN_SURVEY_RESPONSES_PROMPTS_BY_ID_AGGREGATE);
+		matcher.addURI(DbContract.CONTENT_AUTHORITY, "campaigns/*/responses/reconcile", MatcherTypes.CAMPAIGN_RESPONSES_RECONCILE);
+		matcher.addURI(DbContract.CONTENT_AUTHORITY, "campaigns/*/surveys/*/responses/prompts/*/*", MatcherTypes.CAMPAIGN_SURVEY_RESPONSES_PROMPTS_BY_ID_AGGREGATE);
 		matcher.addURI(DbContract.CONTENT_AUTHORITY, "surveys", MatcherTypes.SURVEYS);
 		matcher.addURI(DbContract.CONTENT_AUTHORITY, "surveys/prompts", MatcherTypes.SURVEYPROMPTS);
 		matcher.addURI(DbContract.CONTENT_AUTHORITY, "responses", MatcherTypes.RESPONSES);
 		matcher.addURI(DbContract.CONTENT_AUTHORITY, "responses/#", MatcherTypes.RESPONSE_BY_PID);
 		matcher.addURI(DbContract.CONTENT_AUTHORITY, "responses/#/prompts", MatcherTypes.RESPONSE_PROMPTS);
+		matcher.addURI(DbContract.CONTENT_AUTHORITY, "responses/daily", MatcherTypes.DAILY_AGGREGATES);
+		matcher.addURI(DbContract.CONTENT_AUTHORITY, "responses/daily/rebuild", MatcherTypes.DAILY_AGGREGATES_REBUILD);
+		matcher.addURI(DbContract.CONTENT_AUTHORITY, "responses/search/*", MatcherTypes.RESPONSES_SEARCH);
+		matcher.addURI(DbContract.CONTENT_AUTHORITY, "responses/page", MatcherTypes.RESPONSES_PAGE);
 		matcher.addURI(DbContract.CONTENT_AUTHORITY, "prompts", MatcherTypes.PROMPTS);
 		matcher.addURI(DbContract.CONTENT_AUTHORITY, "prompts/#", MatcherTypes.PROMPT_BY_PID);
 
@@ -479,14 +611,24 @@ public class DbProvider extends ContentProvider {
 
 		switch (match) {
 			case MatcherTypes.CAMPAIGNS: {
-				return builder.table(Tables.CAMPAIGNS);
+				return builder.table(Tables.CAMPAIGNS)
+						.map(Campaigns.CAMPAIGN_CONFIGURATION_XML, Subqueries.CAMPAIGN_XML);
 			}
 			case MatcherTypes.CAMPAIGN_BY_URN: {
 				final String campaignUrn = Campaigns.getCampaignUrn(uri);
 
 				return builder.table(Tables.CAMPAIGNS)
+						.map(Campaigns.CAMPAIGN_CONFIGURATION_XML, Subqueries.CAMPAIGN_XML)
 						.where(Campaigns.CAMPAIGN_URN + "=?", campaignUrn);
 			}
+			case MatcherTypes.CAMPAIGN_XML: {
+				// the xml is only changed through the campaign so the surveys stay in sync with it
+				if (nonQuery)
+					throw new UnsupportedOperationException("buildSelection(): Campaign xml is read only: " + uri);
+
+				return builder.table(Tables.CAMPAIGN_XML)
+						.where(Campaigns.CAMPAIGN_URN + "=?", Campaigns.getCampaignUrn(uri));
+			}
 			case MatcherTypes.CAMPAIGN_RESPONSES: {
 				final String campaignUrn = Campaigns.getCampaignUrn(uri);
 				
@@ -511,6 +653,17 @@ public class DbProvider extends ContentProvider {
 						.mapToTable(Surveys.CAMPAIGN_URN, Tables.SURVEYS)
 						.where(Qualified.SURVEYS_CAMPAIGN_URN + "=?", campaignUrn);
 			}
+			case MatcherTypes.SURVEY_XML: {
+				// the xml is only changed through the campaign so the surveys stay in sync with it
+				if (nonQuery)
+					throw new UnsupportedOperationException("buildSelection(): Survey xml is read only: " + uri);
+
+				return builder.table(Tables.SURVEYS)
+						.map(Surveys.SURVEY_XML, Subqueries.SURVEY_XML)
+						.map(Surveys.INSTRUCTIONS_XML, Subqueries.INSTRUCTIONS_XML)
+						.where(Surveys.CAMPAIGN_URN + "=?", Campaigns.getCampaignUrn(uri))
+						.where(Surveys.SURVEY_ID + "=?", Surveys.getSurveyId(uri));
+			}
 			case MatcherTypes.SURVEY_BY_ID: {
 				final String campaignUrn = Campaigns.getCampaignUrn(uri);
 				final String surveyId = Surveys.getSurveyId(uri);
@@ -581,7 +734,6 @@ public class DbProvider extends ContentProvider {
 						.where(PromptResponses.COMPOSITE_ID + " LIKE ?", campaignUrn + ":%")
 						.where(PromptResponses.PROMPT_ID + "=?", promptId);
 			}
-			/* // FAISAL: disabled until i can figure out how to do aggregates with a builder 
 			case MatcherTypes.CAMPAIGN_SURVEY_RESPONSES_PROMPTS_BY_ID_AGGREGATE: {
 				if (nonQuery)
 					throw new UnsupportedOperationException("buildSelection(): update/delete attempted on a URI which does not support it: " + uri.toString());
@@ -593,27 +745,22 @@ public class DbProvider extends ContentProvider {
 
 				String toClause;
 
-				switch (DbContract.PromptResponses.AggregateTypes.valueOf(aggregate)) {
-					case AVG: toClause = "avg(" + PromptResponses.PROMPT_RESPONSE_VALUE + ")"; break;
-					case COUNT: toClause = "count(" + PromptResponses.PROMPT_RESPONSE_VALUE + ")"; break;
-					case MAX: toClause = "max(" + PromptResponses.PROMPT_RESPONSE_VALUE + ")"; break;
-					case MIN: toClause = "min(" + PromptResponses.PROMPT_RESPONSE_VALUE + ")"; break;
-					case TOTAL: toClause = "total(" + PromptResponses.PROMPT_RESPONSE_VALUE + ")"; break;
+				// aggregates are computed over the typed numeric column so they are answered from its index
+				switch (DbContract.PromptResponses.AggregateTypes.valueOf(aggregate.toUpperCase())) {
+					case AVG: toClause = "avg(" + PromptResponses.PROMPT_RESPONSE_NUMERIC_VALUE + ")"; break;
+					case COUNT: toClause = "count(" + PromptResponses.PROMPT_RESPONSE_NUMERIC_VALUE + ")"; break;
+					case MAX: toClause = "max(" + PromptResponses.PROMPT_RESPONSE_NUMERIC_VALUE + ")"; break;
+					case MIN: toClause = "min(" + PromptResponses.PROMPT_RESPONSE_NUMERIC_VALUE + ")"; break;
+					case TOTAL: toClause = "total(" + PromptResponses.PROMPT_RESPONSE_NUMERIC_VALUE + ")"; break;
 					default:
 						throw new IllegalArgumentException("Specified aggregate was not one of AggregateTypes");
 				}
 
-				return builder.table(Tables.PROMPTS_JOIN_RESPONSES_SURVEYS_CAMPAIGNS + ", " + Subqueries.PROMPTS_GET_TYPES + " SQ")
-						.where("SQ." + SurveyPrompts.COMPOSITE_ID + "=" + Tables.PROMPT_RESPONSES + "." + PromptResponses.COMPOSITE_ID)
-						.mapToTable(PromptResponses._ID, Tables.PROMPT_RESPONSES)
-						.mapToTable(Responses.CAMPAIGN_URN, Tables.RESPONSES)
-						.mapToTable(Responses.SURVEY_ID, Tables.RESPONSES)
-						.map("aggregate", toClause)
-						.where(Qualified.RESPONSES_CAMPAIGN_URN + "=?", campaignUrn)
-						.where(Qualified.RESPONSES_SURVEY_ID + "=?", surveyId)
-						.where(PromptResponses.PROMPT_ID + "=?", promptId);
+				return builder.table(Tables.PROMPT_RESPONSES)
+						.map(PromptResponses.AGGREGATE, toClause)
+						.where(PromptResponses.PROMPT_ID + "=?", promptId)
+						.where(PromptResponses.COMPOSITE_ID + "=?", campaignUrn + ":" + surveyId);
 			}
-			*/
 			case MatcherTypes.SURVEYS: {
 				if(nonQuery)
 					return builder.table(Tables.SURVEYS);
@@ -646,6 +793,39 @@ public class DbProvider extends ContentProvider {
 						.mapToTable(Responses.SURVEY_ID, Tables.RESPONSES)
 						.where(Qualified.RESPONSES_ID + "=?", responseId);
 			}
+			case MatcherTypes.RESPONSES_PAGE: {
+				if (nonQuery)
+					throw new UnsupportedOperationException("buildSelection(): update/delete attempted on a URI which does not support it: " + uri.toString());
+
+				builder.table(Tables.RESPONSES_JOIN_CAMPAIGNS_SURVEYS)
+						.mapToTable(Responses._ID, Tables.RESPONSES)
+						.mapToTable(Responses.CAMPAIGN_URN, Tables.RESPONSES)
+						.mapToTable(Responses.SURVEY_ID, Tables.RESPONSES);
+
+				// rows after (time, id), written so the range on the time can use its index
+				final String afterTime = Responses.getPageAfterTime(uri);
+				final String afterId = Responses.getPageAfterId(uri);
+				if (afterTime != null && afterId != null)
+					builder.where(Responses.RESPONSE_TIME + "<=? AND NOT (" + Responses.RESPONSE_TIME + "=? AND " + Qualified.RESPONSES_ID + ">=?)",
+							afterTime, afterTime, afterId);
+				return builder;
+			}
+			case MatcherTypes.RESPONSES_SEARCH: {
+				if (nonQuery)
+					throw new UnsupportedOperationException("buildSelection(): update/delete attempted on a URI which does not support it: " + uri.toString());
+
+				builder.table(Tables.RESPONSES_JOIN_CAMPAIGNS_SURVEYS)
+						.join(Tables.RESPONSE_SEARCH, "%t.docid=" + Qualified.RESPONSES_ID)
+						.mapToTable(Responses._ID, Tables.RESPONSES)
+						.mapToTable(Responses.CAMPAIGN_URN, Tables.RESPONSES)
+						.mapToTable(Responses.SURVEY_ID, Tables.RESPONSES)
+						.map(Responses.SEARCH_RANK, Subqueries.SEARCH_RANK);
+
+				String match = buildSearchMatch(Responses.getSearchQuery(uri));
+				if (match == null)
+					return builder.where("0");
+				return builder.where(Tables.RESPONSE_SEARCH + " MATCH ?", match);
+			}
 			case MatcherTypes.RESPONSE_PROMPTS: {
 				final String responseId = Responses.getResponseId(uri);
 				
@@ -683,15 +863,47 @@ public class DbProvider extends ContentProvider {
 						.mapToTable(Responses.CAMPAIGN_URN, Tables.RESPONSES)
 						.mapToTable(Responses.SURVEY_ID, Tables.RESPONSES);
 			}
+			case MatcherTypes.DAILY_AGGREGATES: {
+				return builder.table(Tables.DAILY_AGGREGATES);
+			}
 			default:
 				throw new UnsupportedOperationException("buildSelection(): Unknown URI: " + uri);
 		}
 	}
 
+	/**
+	 * Turns what the user typed into a full text query which matches responses that contain words
+	 * starting with each of the words typed. Everything but letters and digits is dropped so the
+	 * query can't have syntax errors.
+	 * 
+	 * @param query
+	 * @return the match expression, or null if there was nothing to search for
+	 */
+	private static String buildSearchMatch(String query) {
+		StringBuilder match = new StringBuilder();
+		StringBuilder term = new StringBuilder();
+		for (int i = 0; i <= query.length(); i++) {
+			char c = (i < query.length()) ? query.charAt(i) : ' ';
+			if (Character.isLetterOrDigit(c)) {
+				term.append(Character.toLowerCase(c));
+			} else if (term.length() > 0) {
+				if (match.length() > 0)
+					match.append(' ');
+				match.append(term).append('*');
+				term.setLength(0);
+			}
+		}
+		return (match.length() > 0) ? match.toString() : null;
+	}
+
 	@Override
 	public ContentProviderResult[] applyBatch(ArrayList<ContentProviderOperation> operations) {
 		ContentProviderResult[] results = null;
 		SQLiteDatabase db = dbHelper.getWritableDatabase();
+		// hold notifications so each uri is only notified once for the whole batch, and hold
+		// media deletions until we know the responses are gone
+		boolean madeBatch = mNotifier.beginBatch();
+		boolean madeMediaBatch = mMediaCleaner.beginBatch();
 		db.beginTransaction();
 		try {
 			results  = super.applyBatch(operations);
@@ -700,7 +912,14 @@ public class DbProvider extends ContentProvider {
 			Log.e(TAG, "Error applying batch: " + e.getMessage());
 		} finally {
 			db.endTransaction();
+			if (madeBatch)
+				mNotifier.endBatch(results != null);
+			if (madeMediaBatch)
+				mMediaCleaner.endBatch(results != null);
 		}
+
+		if (results != null && operations.size() >= CHECKPOINT_BATCH_SIZE)
+			DbHelper.checkpoint(db);
 		return results;
 	}
 
@@ -91,7 +91,10 @@ public class Models {
 				c.mDescription = cursor.getString(cursor.getColumnIndex(Campaigns.CAMPAIGN_DESCRIPTION));
 				c.mCreationTimestamp = cursor.getString(cursor.getColumnIndex(Campaigns.CAMPAIGN_CREATED));
 				c.mDownloadTimestamp = cursor.getString(cursor.getColumnIndex(Campaigns.CAMPAIGN_DOWNLOADED));
-				c.mXml = cursor.getString(cursor.getColumnIndex(Campaigns.CAMPAIGN_CONFIGURATION_XML));
+				// the xml is only in the cursor if it was asked for
+				int xmlIndex = cursor.getColumnIndex(Campaigns.CAMPAIGN_CONFIGURATION_XML);
+				if (xmlIndex != -1)
+					c.mXml = cursor.getString(xmlIndex);
 				c.mStatus = cursor.getInt(cursor.getColumnIndex(Campaigns.CAMPAIGN_STATUS));
 				c.mIcon = cursor.getString(cursor.getColumnIndex(Campaigns.CAMPAIGN_ICON));
 				c.mPrivacy = cursor.getString(cursor.getColumnIndex(Campaigns.CAMPAIGN_PRIVACY));
@@ -261,10 +264,10 @@ public class Models {
 		 */
 		public static InputStream loadCampaignXml(Context context, String campaignUrn) throws IOException {
 			ContentResolver cr = context.getContentResolver();
-			Cursor cursor = cr.query(Campaigns.buildCampaignUri(campaignUrn), new String[] { Campaigns.CAMPAIGN_CONFIGURATION_XML }, null, null, null);
+			Cursor cursor = cr.query(Campaigns.buildCampaignXmlUri(campaignUrn), new String[] { Campaigns.CAMPAIGN_CONFIGURATION_XML }, null, null, null);
 
 			// ensure that only one record is returned
-			if (cursor.moveToFirst() && cursor.getCount() == 1) {
+			if (cursor.moveToFirst() && cursor.getCount() == 1 && !cursor.isNull(0)) {
 				String xml = cursor.getString(0);
 				cursor.close();
 				return new ByteArrayInputStream(xml.getBytes("UTF-8"));
@@ -545,7 +548,7 @@ public class Models {
 				}
 				r.surveyId = cursor.getString(cursor.getColumnIndex(Responses.SURVEY_ID));
 				r.surveyLaunchContext = cursor.getString(cursor.getColumnIndex(Responses.RESPONSE_SURVEY_LAUNCH_CONTEXT));
-				r.response = cursor.getString(cursor.getColumnIndex(Responses.RESPONSE_JSON));
+				r.response = PayloadCompressor.getString(cursor, cursor.getColumnIndex(Responses.RESPONSE_JSON));
 				r.status = cursor.getInt(cursor.getColumnIndex(Responses.RESPONSE_STATUS));
 				responses.add(r);
 
@@ -612,6 +615,7 @@ public class Models {
 		public String mPromptID;
 		public String mValue;
 		public String mExtraValue;
+		public String mType;
 		
         /**
          * Returns a list of PromptResponse objects from the given cursor.
@@ -652,8 +656,34 @@ public class Models {
         	values.put(PromptResponses.PROMPT_ID, mPromptID);
         	values.put(PromptResponses.PROMPT_RESPONSE_VALUE, mValue);
         	values.put(PromptResponses.PROMPT_RESPONSE_EXTRA_VALUE, mExtraValue);
+        	values.put(PromptResponses.PROMPT_RESPONSE_NUMERIC_VALUE, parseNumericValue(mValue));
+        	values.put(PromptResponses.PROMPT_RESPONSE_TYPE, mType);
         	
         	return values;
         }
+
+        /**
+         * Parses the value of a prompt response as a number so it can be stored in
+         * {@link PromptResponses#PROMPT_RESPONSE_NUMERIC_VALUE}
+         * 
+         * @param value
+         * @return the numeric value, or null if the value is not a finite number
+         */
+        public static Double parseNumericValue(String value) {
+        	if (value == null || value.length() == 0)
+        		return null;
+
+        	// Double.parseDouble also accepts things like "NaN" and "1d" which aren't numbers we want
+        	char last = value.charAt(value.length() - 1);
+        	if (!Character.isDigit(last) && last != '.')
+        		return null;
+
+        	try {
+        		double d = Double.parseDouble(value);
+        		return (Double.isNaN(d) || Double.isInfinite(d)) ? null : d;
+        	} catch (NumberFormatException e) {
+        		return null;
+        	}
+        }
 	}
 }
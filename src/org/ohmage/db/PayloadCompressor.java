@@ -0,0 +1,193 @@
+package org.ohmage.db;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+
+import java.io.UnsupportedEncodingException;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Compresses the json payloads of responses and probes before they are stored. Payloads are
+ * deflated with a preset dictionary of the keys and values which show up in survey responses and
+ * probe data, so even short payloads shrink. Compressed payloads are stored as blobs which start
+ * with a zero byte, which json can't start with, so payloads which were stored as text before
+ * compression existed or which were too small to compress are still read as they are.
+ * <p>
+ * Payloads are only decompressed when {@link #getString(Cursor, int)} is called for them, so
+ * queries which don't read the payload never pay for it.
+ */
+public class PayloadCompressor {
+
+	/** Payloads shorter than this are stored as text since they wouldn't shrink much */
+	private static final int MIN_LENGTH = 64;
+
+	private static final byte MAGIC = 0;
+
+	/** Identifies {@link #DICTIONARY} so it can be changed without breaking stored payloads */
+	private static final byte DICTIONARY_VERSION = 1;
+
+	/** Magic, dictionary version and the four byte length of the payload */
+	private static final int HEADER_LENGTH = 6;
+
+	/**
+	 * Strings which are common in survey response json and probe data. Deflate finds matches
+	 * near the end of the dictionary with the shortest distances, so the most common strings are
+	 * last.
+	 */
+	private static final byte[] DICTIONARY = utf8("\"location_status\":\"unavailable\",\"provider\":\"network\","
+			+ "\"accuracy\":\"latitude\":\"longitude\":\"timezone\":\"America/Los_Angeles\",\"mode\":\"still\","
+			+ "\"speed\":\"wifi_data\":\"ssid\":\"strength\":\"time\":\"metadata\":\"data\":\"stream_id\":"
+			+ "\"custom_choices\":[{\"choice_id\":\"choice_value\":\"repeatable_set_id\":\"skipped\":\"false\","
+			+ "\"not_displayed\":\"true\",\"responses\":[[\"NOT_DISPLAYED\"},\"SKIPPED\"},{\"prompt_id\":\""
+			+ "\",\"value\":\"},{\"prompt_id\":\"");
+
+	private static final ThreadLocal<Deflater> sDeflater = new ThreadLocal<Deflater>() {
+		@Override
+		protected Deflater initialValue() {
+			return new Deflater(Deflater.DEFAULT_COMPRESSION);
+		}
+	};
+
+	private static final ThreadLocal<Inflater> sInflater = new ThreadLocal<Inflater>() {
+		@Override
+		protected Inflater initialValue() {
+			return new Inflater();
+		}
+	};
+
+	/**
+	 * Replaces a json payload in the values with its compressed form. The values passed in are
+	 * not changed.
+	 *
+	 * @param values
+	 * @param key the column of the payload
+	 * @return values with the payload compressed, or the same values if there was nothing to
+	 *         compress
+	 */
+	public static ContentValues compress(ContentValues values, String key) {
+		if (values == null || !(values.get(key) instanceof String))
+			return values;
+
+		Object payload = compress(values.getAsString(key));
+		if (!(payload instanceof byte[]))
+			return values;
+
+		ContentValues compressed = new ContentValues(values);
+		compressed.put(key, (byte[]) payload);
+		return compressed;
+	}
+
+	/**
+	 * Compresses a json payload
+	 *
+	 * @param json
+	 * @return the compressed payload as a byte[], or the json if it doesn't get smaller
+	 */
+	public static Object compress(String json) {
+		if (json == null || json.length() < MIN_LENGTH)
+			return json;
+
+		byte[] input = utf8(json);
+		Deflater deflater = sDeflater.get();
+		deflater.reset();
+		deflater.setDictionary(DICTIONARY);
+		deflater.setInput(input);
+		deflater.finish();
+
+		byte[] output = new byte[HEADER_LENGTH + input.length];
+		int length = HEADER_LENGTH;
+		while (!deflater.finished() && length < output.length)
+			length += deflater.deflate(output, length, output.length - length);
+
+		// not worth it if it didn't get smaller
+		if (!deflater.finished())
+			return json;
+
+		output[0] = MAGIC;
+		output[1] = DICTIONARY_VERSION;
+		output[2] = (byte) (input.length >>> 24);
+		output[3] = (byte) (input.length >>> 16);
+		output[4] = (byte) (input.length >>> 8);
+		output[5] = (byte) input.length;
+
+		byte[] compressed = new byte[length];
+		System.arraycopy(output, 0, compressed, 0, length);
+		return compressed;
+	}
+
+	/**
+	 * Reads a payload which may have been compressed. This should be used instead of
+	 * {@link Cursor#getString(int)} for payload columns since compressed payloads are blobs.
+	 *
+	 * @param cursor
+	 * @param column
+	 * @return the json payload
+	 */
+	public static String getString(Cursor cursor, int column) {
+		// a text field is returned by getBlob as its utf-8 bytes, there is no getType before
+		// honeycomb to tell them apart
+		return decompress(cursor.getBlob(column));
+	}
+
+	/**
+	 * Decompresses a payload
+	 *
+	 * @param payload the stored payload, compressed or not
+	 * @return the json payload
+	 */
+	public static String decompress(byte[] payload) {
+		if (payload == null)
+			return null;
+
+		if (payload.length < HEADER_LENGTH || payload[0] != MAGIC) {
+			// text may be returned with its null terminator
+			int length = payload.length;
+			if (length > 0 && payload[length - 1] == 0)
+				length--;
+			return utf8(payload, 0, length);
+		}
+
+		if (payload[1] != DICTIONARY_VERSION)
+			throw new IllegalArgumentException("Unknown payload dictionary " + payload[1]);
+
+		int length = ((payload[2] & 0xff) << 24) | ((payload[3] & 0xff) << 16) | ((payload[4] & 0xff) << 8)
+				| (payload[5] & 0xff);
+		byte[] output = new byte[length];
+
+		Inflater inflater = sInflater.get();
+		inflater.reset();
+		inflater.setInput(payload, HEADER_LENGTH, payload.length - HEADER_LENGTH);
+		try {
+			int read = 0;
+			while (read < length && !inflater.finished()) {
+				int count = inflater.inflate(output, read, length - read);
+				if (count == 0 && inflater.needsDictionary())
+					inflater.setDictionary(DICTIONARY);
+				else if (count == 0 && inflater.needsInput())
+					throw new IllegalArgumentException("Payload is truncated");
+				read += count;
+			}
+		} catch (DataFormatException e) {
+			throw new IllegalArgumentException("Payload is corrupt: " + e.getMessage());
+		}
+		return utf8(output, 0, length);
+	}
+
+	private static byte[] utf8(String string) {
+		try {
+			return string.getBytes("UTF-8");
+		} catch (UnsupportedEncodingException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	private static String utf8(byte[] bytes, int offset, int length) {
+		try {
+			return new String(bytes, offset, length, "UTF-8");
+		} catch (UnsupportedEncodingException e) {
+			throw new RuntimeException(e);
+		}
+	}
+}
@@ -0,0 +1,196 @@
+package org.ohmage.db;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteConstraintException;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.os.SystemClock;
+import android.provider.BaseColumns;
+import android.util.Log;
+
+import org.json.JSONException;
+import org.ohmage.db.DbContract.PromptResponses;
+import org.ohmage.db.DbContract.Responses;
+import org.ohmage.db.DbHelper.Tables;
+import org.ohmage.db.Models.PromptResponse;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map.Entry;
+
+/**
+ * Inserts many responses and their prompt responses with the same compiled statements instead of
+ * preparing new sql for every row like {@link DbHelper#addResponseRow(SQLiteDatabase, ContentValues)}.
+ * The prompts of each survey come from the shared {@link SurveyPromptCache}. An ingester should be
+ * used for one transaction and then closed.
+ *
+ * <pre>
+ * ResponseIngester ingester = new ResponseIngester(db);
+ * db.beginTransaction();
+ * try {
+ *     for (ContentValues values : responses)
+ *         ingester.insert(values);
+ *     db.setTransactionSuccessful();
+ * } finally {
+ *     db.endTransaction();
+ *     ingester.close();
+ * }
+ * </pre>
+ */
+public class ResponseIngester {
+
+	private static final String TAG = "ResponseIngester";
+
+	private final SQLiteDatabase mDb;
+
+	/** Insert statements for responses keyed by the columns they set */
+	private final HashMap<String, SQLiteStatement> mResponseInserts = new HashMap<String, SQLiteStatement>();
+	private SQLiteStatement mPromptInsert;
+
+	private final long mStart;
+	private int mResponseRows;
+	private int mPromptRows;
+
+	public ResponseIngester(SQLiteDatabase db) {
+		mDb = db;
+		mStart = SystemClock.elapsedRealtime();
+	}
+
+	/**
+	 * Adds a response and its prompt responses. If a response with the same
+	 * {@link Responses#RESPONSE_UUID} exists it is updated instead.
+	 *
+	 * @param values the response
+	 * @return the ID of the inserted record, or -1 if unsuccessful
+	 */
+	public long insert(ContentValues values) {
+		String campaignUrn = values.getAsString(Responses.CAMPAIGN_URN);
+		String surveyId = values.getAsString(Responses.SURVEY_ID);
+		String json = values.getAsString(Responses.RESPONSE_JSON);
+		values = PayloadCompressor.compress(values, Responses.RESPONSE_JSON);
+
+		long rowId;
+		try {
+			rowId = getResponseInsert(values).executeInsert();
+		} catch (SQLiteConstraintException e) {
+			return updateExisting(values);
+		}
+
+		if (rowId == -1)
+			return -1;
+		mResponseRows++;
+
+		try {
+			List<PromptResponse> prompts = DbHelper.parsePromptResponses(SurveyPromptCache.get(mDb, campaignUrn, surveyId),
+					rowId, json, campaignUrn, surveyId);
+			for (PromptResponse p : prompts)
+				insertPrompt(p);
+		} catch (JSONException e) {
+			e.printStackTrace();
+		}
+
+		return rowId;
+	}
+
+	/**
+	 * Updates the response which has the same uuid as the values
+	 *
+	 * @param values
+	 * @return the id of the existing response or -1 if there isn't one
+	 */
+	private long updateExisting(ContentValues values) {
+		String uuid = values.getAsString(Responses.RESPONSE_UUID);
+		if (uuid == null)
+			return -1;
+
+		long rowId = -1;
+		Cursor c = mDb.query(Tables.RESPONSES, new String[] { BaseColumns._ID }, Responses.RESPONSE_UUID + "=?", new String[] { uuid }, null, null, null);
+		if (c.moveToFirst()) {
+			rowId = c.getLong(0);
+			mDb.update(Tables.RESPONSES, values, Responses.RESPONSE_UUID + "=?", new String[] { uuid });
+		}
+		c.close();
+		return rowId;
+	}
+
+	private SQLiteStatement getResponseInsert(ContentValues values) {
+		StringBuilder columns = new StringBuilder();
+		StringBuilder args = new StringBuilder();
+		for (Entry<String, Object> value : values.valueSet()) {
+			if (columns.length() > 0) {
+				columns.append(',');
+				args.append(',');
+			}
+			columns.append(value.getKey());
+			args.append('?');
+		}
+
+		String key = columns.toString();
+		SQLiteStatement insert = mResponseInserts.get(key);
+		if (insert == null) {
+			insert = mDb.compileStatement("INSERT INTO " + Tables.RESPONSES + " (" + key + ") VALUES (" + args + ")");
+			mResponseInserts.put(key, insert);
+		}
+
+		// the values are bound in the same order the columns were listed
+		insert.clearBindings();
+		int index = 1;
+		for (Entry<String, Object> value : values.valueSet())
+			DatabaseUtils.bindObjectToProgram(insert, index++, value.getValue());
+		return insert;
+	}
+
+	private void insertPrompt(PromptResponse p) {
+		if (mPromptInsert == null) {
+			mPromptInsert = mDb.compileStatement("INSERT INTO " + Tables.PROMPT_RESPONSES + " ("
+					+ PromptResponses.RESPONSE_ID + "," + PromptResponses.COMPOSITE_ID + "," + PromptResponses.PROMPT_ID + ","
+					+ PromptResponses.PROMPT_RESPONSE_VALUE + "," + PromptResponses.PROMPT_RESPONSE_EXTRA_VALUE + ","
+					+ PromptResponses.PROMPT_RESPONSE_NUMERIC_VALUE + "," + PromptResponses.PROMPT_RESPONSE_TYPE + ") VALUES (?,?,?,?,?,?,?)");
+		}
+
+		mPromptInsert.clearBindings();
+		mPromptInsert.bindLong(1, p.mResponseID);
+		DatabaseUtils.bindObjectToProgram(mPromptInsert, 2, p.mCompositeID);
+		DatabaseUtils.bindObjectToProgram(mPromptInsert, 3, p.mPromptID);
+		DatabaseUtils.bindObjectToProgram(mPromptInsert, 4, p.mValue);
+		DatabaseUtils.bindObjectToProgram(mPromptInsert, 5, p.mExtraValue);
+		DatabaseUtils.bindObjectToProgram(mPromptInsert, 6, PromptResponse.parseNumericValue(p.mValue));
+		DatabaseUtils.bindObjectToProgram(mPromptInsert, 7, p.mType);
+		if (mPromptInsert.executeInsert() != -1)
+			mPromptRows++;
+	}
+
+	/**
+	 * @return the number of response and prompt response rows inserted
+	 */
+	public int getRowCount() {
+		return mResponseRows + mPromptRows;
+	}
+
+	/**
+	 * @return the number of rows inserted per second since the ingester was created
+	 */
+	public float getRowsPerSecond() {
+		long elapsed = Math.max(1, SystemClock.elapsedRealtime() - mStart);
+		return getRowCount() * 1000f / elapsed;
+	}
+
+	/**
+	 * Releases the compiled statements and logs the ingestion rate
+	 */
+	public void close() {
+		for (SQLiteStatement insert : mResponseInserts.values())
+			insert.close();
+		mResponseInserts.clear();
+		if (mPromptInsert != null) {
+			mPromptInsert.close();
+			mPromptInsert = null;
+		}
+
+		if (mResponseRows > 0)
+			Log.v(TAG, "Inserted " + mResponseRows + " responses and " + mPromptRows + " prompt responses at "
+					+ getRowsPerSecond() + " rows/s");
+	}
+}
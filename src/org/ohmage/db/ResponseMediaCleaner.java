@@ -0,0 +1,104 @@
+package org.ohmage.db;
+
+import android.os.Process;
+import android.util.Log;
+
+import org.ohmage.db.Models.Response;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Deletes the media files of deleted responses on a background thread so deleting rows never
+ * waits on file io. Files are deleted in batches. Like the {@link ChangeNotifier}, media removed
+ * while a batch is open on the current thread is only deleted once the batch ends and its
+ * changes were committed.
+ */
+public class ResponseMediaCleaner {
+
+	private static final String TAG = "ResponseMediaCleaner";
+
+	/** Number of files deleted by each background task */
+	private static final int BATCH_SIZE = 50;
+
+	private static final ExecutorService sExecutor = Executors.newSingleThreadExecutor();
+
+	private final ThreadLocal<ArrayList<String>> mBatch = new ThreadLocal<ArrayList<String>>();
+
+	/**
+	 * Starts holding media deleted on this thread
+	 *
+	 * @return true if a batch was started, false if one was already open on this thread
+	 */
+	public boolean beginBatch() {
+		if (mBatch.get() != null)
+			return false;
+		mBatch.set(new ArrayList<String>());
+		return true;
+	}
+
+	/**
+	 * Ends the batch open on this thread
+	 *
+	 * @param deleted true if the responses were deleted and their media should be too
+	 */
+	public void endBatch(boolean deleted) {
+		ArrayList<String> mediaIds = mBatch.get();
+		mBatch.remove();
+
+		if (deleted && mediaIds != null)
+			schedule(mediaIds);
+	}
+
+	/**
+	 * Deletes the media once the current batch ends
+	 *
+	 * @param mediaIds the uuids of the media files of the deleted responses
+	 */
+	public void delete(Collection<String> mediaIds) {
+		ArrayList<String> batch = mBatch.get();
+		if (batch != null)
+			batch.addAll(mediaIds);
+		else
+			schedule(mediaIds);
+	}
+
+	private static void schedule(Collection<String> mediaIds) {
+		ArrayList<String> ids = new ArrayList<String>(mediaIds);
+		for (int start = 0; start < ids.size(); start += BATCH_SIZE) {
+			final List<String> batch = ids.subList(start, Math.min(ids.size(), start + BATCH_SIZE));
+			sExecutor.execute(new Runnable() {
+
+				@Override
+				public void run() {
+					Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+
+					int deleted = 0;
+					for (String id : batch) {
+						if (Response.getTemporaryResponsesMedia(id).delete())
+							deleted++;
+					}
+					Log.v(TAG, "Deleted " + deleted + " of " + batch.size() + " response media files");
+				}
+			});
+		}
+	}
+
+	/**
+	 * Blocks until all media scheduled so far has been deleted
+	 *
+	 * @throws InterruptedException
+	 * @throws ExecutionException
+	 */
+	public static void waitForPending() throws InterruptedException, ExecutionException {
+		sExecutor.submit(new Runnable() {
+			@Override
+			public void run() {
+			}
+		}).get();
+	}
+}
@@ -0,0 +1,165 @@
+package org.ohmage.db;
+
+import android.database.sqlite.SQLiteDatabase;
+import android.text.TextUtils;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.ohmage.db.Models.SurveyPrompt;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Keeps the prompts of each survey in memory with their choice properties already decoded so
+ * responses can be expanded without querying the survey prompts table and parsing the properties
+ * json for every response. The cache is shared by everything that inserts responses and a
+ * campaign's entries are dropped whenever its surveys are repopulated from new xml.
+ */
+public class SurveyPromptCache {
+
+	/**
+	 * A survey prompt with its choices decoded
+	 */
+	public static class PromptMetadata {
+		public final SurveyPrompt prompt;
+
+		/** Labels of the choices keyed by the choice key, empty if this isn't a choice prompt */
+		private final HashMap<String, String> mChoiceLabels = new HashMap<String, String>();
+
+		PromptMetadata(SurveyPrompt prompt) {
+			this.prompt = prompt;
+
+			if ((!isSingleChoice() && !isMultiChoice()) || TextUtils.isEmpty(prompt.mProperties))
+				return;
+
+			try {
+				JSONArray properties = new JSONArray(prompt.mProperties);
+				for (int i = 0; i < properties.length(); i++) {
+					JSONObject entry = properties.getJSONObject(i);
+					if (!entry.has("key") || !entry.has("label"))
+						continue;
+					// the first choice with a key wins
+					String key = entry.getString("key");
+					if (!mChoiceLabels.containsKey(key))
+						mChoiceLabels.put(key, entry.getString("label"));
+				}
+			} catch (JSONException e) {
+				e.printStackTrace();
+			}
+		}
+
+		public boolean isSingleChoice() {
+			return "single_choice".equalsIgnoreCase(prompt.mPromptType);
+		}
+
+		public boolean isMultiChoice() {
+			return "multi_choice".equalsIgnoreCase(prompt.mPromptType);
+		}
+
+		/**
+		 * @param key
+		 * @return the label of the choice with this key or null if there is no such choice
+		 */
+		public String getChoiceLabel(String key) {
+			return mChoiceLabels.get(key);
+		}
+	}
+
+	/** Prompts keyed by campaign urn and then by survey id */
+	private static final HashMap<String, HashMap<String, List<PromptMetadata>>> sCache = new HashMap<String, HashMap<String, List<PromptMetadata>>>();
+
+	/**
+	 * Incremented on every invalidation so prompts which were read while the surveys were being
+	 * replaced aren't cached
+	 */
+	private static int sGeneration;
+
+	private static int sLookups;
+	private static int sHits;
+
+	/**
+	 * Returns the prompts of a survey, reading them from the database the first time they are
+	 * needed. The database is read without holding the cache lock so a reader never waits on a
+	 * writer while other threads wait on it.
+	 *
+	 * @param db
+	 * @param campaignUrn
+	 * @param surveyId
+	 * @return the prompts of the survey
+	 */
+	public static List<PromptMetadata> get(SQLiteDatabase db, String campaignUrn, String surveyId) {
+		int generation;
+		synchronized (sCache) {
+			sLookups++;
+			HashMap<String, List<PromptMetadata>> surveys = sCache.get(campaignUrn);
+			List<PromptMetadata> prompts = (surveys == null) ? null : surveys.get(surveyId);
+			if (prompts != null) {
+				sHits++;
+				return prompts;
+			}
+			generation = sGeneration;
+		}
+
+		List<SurveyPrompt> surveyPrompts = DbHelper.getSurveyPrompts(db, campaignUrn, surveyId);
+		ArrayList<PromptMetadata> prompts = new ArrayList<PromptMetadata>(surveyPrompts.size());
+		for (SurveyPrompt prompt : surveyPrompts)
+			prompts.add(new PromptMetadata(prompt));
+		List<PromptMetadata> result = Collections.unmodifiableList(prompts);
+
+		synchronized (sCache) {
+			if (generation == sGeneration) {
+				HashMap<String, List<PromptMetadata>> surveys = sCache.get(campaignUrn);
+				if (surveys == null) {
+					surveys = new HashMap<String, List<PromptMetadata>>();
+					sCache.put(campaignUrn, surveys);
+				}
+				surveys.put(surveyId, result);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Drops the prompts of every survey of a campaign. Must be called after its surveys change.
+	 *
+	 * @param campaignUrn
+	 */
+	public static void invalidate(String campaignUrn) {
+		synchronized (sCache) {
+			sGeneration++;
+			sCache.remove(campaignUrn);
+		}
+	}
+
+	/**
+	 * Drops the prompts of every campaign
+	 */
+	public static void clear() {
+		synchronized (sCache) {
+			sGeneration++;
+			sCache.clear();
+		}
+	}
+
+	/**
+	 * @return the number of lookups made since the process started
+	 */
+	public static int getLookups() {
+		synchronized (sCache) {
+			return sLookups;
+		}
+	}
+
+	/**
+	 * @return the number of lookups answered from memory since the process started
+	 */
+	public static int getHits() {
+		synchronized (sCache) {
+			return sHits;
+		}
+	}
+}
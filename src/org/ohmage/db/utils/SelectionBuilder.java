@@ -29,6 +29,7 @@ package org.ohmage.db.utils;
 import android.content.ContentValues;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteQueryBuilder;
 import android.text.TextUtils;
 
 import org.ohmage.logprobe.Log;
@@ -208,16 +209,36 @@ public class SelectionBuilder {
 		assertTable();
 		if (columns != null) mapColumns(columns);
 
-		// if there are joins, this is the table + any joins added on
+		Log.v(TAG, "query(columns=" + Arrays.toString(columns) + ") " + this);
+		return db.query(getCompositeTable(), columns, getSelection(), getSelectionArgs(), groupBy, having,
+				orderBy, limit);
+	}
+
+	/**
+	 * Returns the plan sqlite would use to run {@link #query(SQLiteDatabase, String[], String, String, String, String)}
+	 * with the same arguments, one row for each step.
+	 */
+	public Cursor explainQueryPlan(SQLiteDatabase db, String[] columns, String groupBy,
+			String having, String orderBy, String limit) {
+		assertTable();
+		if (columns != null) mapColumns(columns);
+
+		String sql = SQLiteQueryBuilder.buildQueryString(false, getCompositeTable(), columns, getSelection(),
+				groupBy, having, orderBy, limit);
+		return db.rawQuery("EXPLAIN QUERY PLAN " + sql, getSelectionArgs());
+	}
+
+	/**
+	 * @return the table with any joins added on
+	 */
+	private String getCompositeTable() {
 		String compositeTable = mTable;
 
 		// add on all the joins!
 		for (String join : mJoins)
 			compositeTable += " " + join;
 
-		Log.v(TAG, "query(columns=" + Arrays.toString(columns) + ") " + this);
-		return db.query(compositeTable, columns, getSelection(), getSelectionArgs(), groupBy, having,
-				orderBy, limit);
+		return compositeTable;
 	}
 
 	/**
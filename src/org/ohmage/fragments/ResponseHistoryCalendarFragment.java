@@ -6,8 +6,8 @@ import android.content.Intent;
 import android.database.Cursor;
 import android.graphics.Color;
 import android.graphics.Typeface;
-import android.net.Uri;
 import android.os.Bundle;
+import android.support.v4.content.CursorLoader;
 import android.support.v4.content.Loader;
 import android.util.TypedValue;
 import android.view.Gravity;
@@ -24,15 +24,17 @@ import android.widget.ViewSwitcher;
 
 import org.ohmage.R;
 import org.ohmage.activity.ResponseListActivity;
-import org.ohmage.db.DbContract.Campaigns;
-import org.ohmage.db.DbContract.Responses;
+import org.ohmage.db.DbContract.DailyAggregates;
+import org.ohmage.db.utils.SelectionBuilder;
 import org.ohmage.logprobe.Analytics;
 import org.ohmage.ui.OhmageFilterable.CampaignFilter;
 import org.ohmage.ui.OhmageFilterable.CampaignSurveyFilter;
 import org.ohmage.ui.OhmageFilterable.TimeFilter;
 
+import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Calendar;
+import java.util.Date;
 import java.util.HashMap;
 
 /**
@@ -94,17 +96,43 @@ public class ResponseHistoryCalendarFragment extends FilterableFragment {
 
 	protected static class ResponseCalendarQuery {
 		public static final String[] PROJECTION = new String[] {
-			Responses._ID,
-			Responses.RESPONSE_TIME
+			DailyAggregates.AGGREGATE_DAY,
+			DailyAggregates.AGGREGATE_COUNT
 		};
 
-		public static final int ID = 0;
-		public static final int TIME = 1;
+		public static final int DAY = 0;
+		public static final int COUNT = 1;
+	}
+
+	/**
+	 * Builds the selection for the daily response counts which match the current filter. The counts
+	 * are read from the {@link DailyAggregates} so a month only reads one row per survey per day.
+	 * 
+	 * @param bounded if true, only the days of the current time filter are selected
+	 * @return the selection
+	 */
+	private SelectionBuilder buildDailyCountSelection(boolean bounded) {
+		SelectionBuilder selection = new SelectionBuilder();
+		selection.where(DailyAggregates.PROMPT_ID + "=?", DailyAggregates.RESPONSES_PROMPT_ID);
+
+		if(getCampaignUrn() != null)
+			selection.where(DailyAggregates.CAMPAIGN_URN + "=?", getCampaignUrn());
+		if(getSurveyId() != null)
+			selection.where(DailyAggregates.SURVEY_ID + "=?", getSurveyId());
+
+		if(bounded) {
+			SimpleDateFormat format = new SimpleDateFormat(DailyAggregates.DAY_FORMAT);
+			selection.where(DailyAggregates.AGGREGATE_DAY + " BETWEEN ? AND ?",
+					format.format(new Date(getStartBounds())), format.format(new Date(getEndBounds())));
+		}
+		return selection;
 	}
 
 	@Override
 	public Loader<Cursor> onCreateLoader(int id, Bundle args) {
-		return new ResponseLoader(this, ResponseCalendarQuery.PROJECTION).onCreateLoader(id, args);
+		SelectionBuilder selection = buildDailyCountSelection(true);
+		return new CursorLoader(getActivity(), DailyAggregates.CONTENT_URI, ResponseCalendarQuery.PROJECTION,
+				selection.getSelection(), selection.getSelectionArgs(), null);
 	}
 
 	@Override
@@ -229,37 +257,27 @@ public class ResponseHistoryCalendarFragment extends FilterableFragment {
 		{
 			ContentResolver cr = getActivity().getContentResolver();
 
-			//Create Uri
-			Uri uri;
-			if(getCampaignUrn() == null){
-				uri = Responses.CONTENT_URI;
-			} else {
-				if(getSurveyId() == null)
-					uri = Campaigns.buildResponsesUri(getCampaignUrn());				    		
-				else
-					uri = Campaigns.buildResponsesUri(getCampaignUrn(), getSurveyId());
-			}
-
 			HashMap<String, Integer> map = new HashMap<String, Integer>();
-			Calendar cal = Calendar.getInstance();
 
 			int numOfResponse = 0;
 			for(cursor.moveToFirst();!cursor.isAfterLast();cursor.moveToNext()){
-				Long time = cursor.getLong(ResponseCalendarQuery.TIME);
-				cal.setTimeInMillis(time);
-				Integer responseDay = new Integer(cal.get(Calendar.DAY_OF_MONTH));
-				if(map.containsKey(responseDay.toString())){
-					Integer value = map.get(responseDay.toString()) + 1;
-					map.put(responseDay.toString(), value);
+				// there is a row for each survey, so add up the counts for the day
+				String responseDay = String.valueOf(Integer.parseInt(cursor.getString(ResponseCalendarQuery.DAY).substring(8)));
+				int count = cursor.getInt(ResponseCalendarQuery.COUNT);
+				if(map.containsKey(responseDay)){
+					map.put(responseDay, map.get(responseDay) + count);
 				}
 				else{
-					map.put(responseDay.toString(),1);
+					map.put(responseDay, count);
 				}
-				numOfResponse ++;
+				numOfResponse += count;
 			}
 
-			Cursor responseCursorTotal = cr.query(uri, new String[] { "_id" }, null, null, null);
-			mTextSwitcher.setText(getMonthAsString(mMonth) + ": " + numOfResponse + " / Total: " + responseCursorTotal.getCount());
+			SelectionBuilder selection = buildDailyCountSelection(false);
+			Cursor responseCursorTotal = cr.query(DailyAggregates.CONTENT_URI, new String[] { "total(" + DailyAggregates.AGGREGATE_COUNT + ")" },
+					selection.getSelection(), selection.getSelectionArgs(), null);
+			int total = responseCursorTotal.moveToFirst() ? responseCursorTotal.getInt(0) : 0;
+			mTextSwitcher.setText(getMonthAsString(mMonth) + ": " + numOfResponse + " / Total: " + total);
 			responseCursorTotal.close();
 
 			return map;
@@ -4,10 +4,11 @@ import android.app.Activity;
 import android.database.Cursor;
 import android.net.Uri;
 import android.os.Bundle;
-import android.support.v4.content.CursorLoader;
 import android.support.v4.content.Loader;
 import android.view.Gravity;
 import android.view.View;
+import android.widget.AbsListView;
+import android.widget.AbsListView.OnScrollListener;
 import android.widget.ListView;
 import android.widget.TextView;
 
@@ -23,6 +24,7 @@ import org.ohmage.db.DbHelper.Tables;
 import org.ohmage.db.DbProvider;
 import org.ohmage.db.Models.Response;
 import org.ohmage.db.utils.SelectionBuilder;
+import org.ohmage.loader.ResponsePageLoader;
 import org.ohmage.logprobe.Analytics;
 import org.ohmage.logprobe.Log;
 
@@ -30,6 +32,9 @@ public class ResponseListFragment extends FilterableListFragment implements SubA
 	
 	private static final String TAG = "ResponseListFragment";
 
+	/** The next page is loaded once the user scrolls to within this many rows of the end */
+	private static final int PREFETCH_ROWS = ResponsePageLoader.PAGE_SIZE / 2;
+
 	private ResponseListCursorAdapter mAdapter;
 	private OnResponseActionListener mListener;
 
@@ -61,6 +66,21 @@ public class ResponseListFragment extends FilterableListFragment implements SubA
 
 		// Start out with a progress indicator.
 		setListShown(false);
+
+		getListView().setOnScrollListener(new OnScrollListener() {
+
+			@Override
+			public void onScrollStateChanged(AbsListView view, int scrollState) {
+			}
+
+			@Override
+			public void onScroll(AbsListView view, int firstVisibleItem, int visibleItemCount, int totalItemCount) {
+				Loader<Cursor> loader = getLoaderManager().getLoader(0);
+				if (totalItemCount > 0 && firstVisibleItem + visibleItemCount >= totalItemCount - PREFETCH_ROWS
+						&& loader instanceof ResponsePageLoader)
+					((ResponsePageLoader) loader).loadNextPage();
+			}
+		});
 		
 		getLoaderManager().initLoader(0, null, this);
 	}
@@ -162,7 +182,7 @@ public class ResponseListFragment extends FilterableListFragment implements SubA
 			selection.where(Responses.RESPONSE_TIME + " <= " + getEndBounds());
 		}
 
-		return new CursorLoader(getActivity(), Responses.CONTENT_URI, ResponseQuery.PROJECTION, selection.getSelection(), selection.getSelectionArgs(), Responses.RESPONSE_TIME + " DESC");
+		return new ResponsePageLoader(getActivity(), ResponseQuery.PROJECTION, selection.getSelection(), selection.getSelectionArgs());
 	}
 
 	@Override
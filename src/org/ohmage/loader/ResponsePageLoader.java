@@ -0,0 +1,198 @@
+package org.ohmage.loader;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.MergeCursor;
+import android.net.Uri;
+import android.support.v4.content.AsyncTaskLoader;
+
+import org.ohmage.db.DbContract.Responses;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Loads responses a page at a time, newest first. The first page is loaded like a normal
+ * {@link android.support.v4.content.CursorLoader} and {@link #loadNextPage()} adds the next page
+ * to the end of the cursor. Pages start after the last row of the previous page rather than at an
+ * offset, so each page costs the same however long the history is and the rows already shown don't
+ * move. When responses change every row which was shown is loaded again as one page.
+ * <p>
+ * The projection must include {@link Responses#_ID} and {@link Responses#RESPONSE_TIME}.
+ */
+public class ResponsePageLoader extends AsyncTaskLoader<Cursor> {
+
+	public static final int PAGE_SIZE = 50;
+
+	private final ForceLoadContentObserver mObserver;
+
+	private final String[] mProjection;
+	private String mSelection;
+	private final String[] mSelectionArgs;
+
+	private boolean mObserving;
+
+	private volatile PagedCursor mCursor;
+	private volatile boolean mReload = true;
+	private volatile boolean mLoadingNext;
+
+	public ResponsePageLoader(Context context, String[] projection, String selection, String[] selectionArgs) {
+		super(context);
+		mObserver = new ForceLoadContentObserver();
+		mProjection = projection;
+		mSelection = selection;
+		mSelectionArgs = selectionArgs;
+	}
+
+	/**
+	 * Loads the page after the rows which have been loaded. Does nothing if a page is already
+	 * loading or there are no more rows.
+	 */
+	public void loadNextPage() {
+		if (mCursor == null || !mCursor.mHasMore || mLoadingNext || mReload)
+			return;
+		mLoadingNext = true;
+		forceLoad();
+	}
+
+	@Override
+	public Cursor loadInBackground() {
+		PagedCursor last = mCursor;
+		ArrayList<Cursor> pages = new ArrayList<Cursor>();
+
+		Cursor page;
+		int pageSize;
+		if (mReload || last == null) {
+			mReload = false;
+			// reload everything which was shown so the list doesn't jump back to the first page
+			pageSize = Math.max(PAGE_SIZE, (last != null) ? last.getCount() : 0);
+			page = query(Responses.buildPageUri(pageSize));
+		} else {
+			pages.addAll(last.mPages);
+			pageSize = PAGE_SIZE;
+			page = query(Responses.buildPageUri(pageSize, last.mLastTime, last.mLastId));
+		}
+
+		if (page == null)
+			return null;
+
+		pages.add(page);
+		return new PagedCursor(pages, page, pageSize);
+	}
+
+	private Cursor query(Uri uri) {
+		Cursor cursor = getContext().getContentResolver().query(uri, mProjection, mSelection, mSelectionArgs, null);
+		if (cursor != null) {
+			// fill the window in the background
+			cursor.getCount();
+		}
+		return cursor;
+	}
+
+	@Override
+	public void deliverResult(Cursor data) {
+		if (isReset()) {
+			close((PagedCursor) data, null);
+			return;
+		}
+
+		PagedCursor old = mCursor;
+		mCursor = (PagedCursor) data;
+		mLoadingNext = false;
+
+		if (isStarted())
+			super.deliverResult(data);
+
+		close(old, mCursor);
+	}
+
+	@Override
+	public void onCanceled(Cursor data) {
+		mLoadingNext = false;
+		close((PagedCursor) data, mCursor);
+	}
+
+	@Override
+	public void onContentChanged() {
+		mReload = true;
+		super.onContentChanged();
+	}
+
+	@Override
+	protected void onStartLoading() {
+		// the responses are observed by the loader rather than by each page
+		if (!mObserving) {
+			getContext().getContentResolver().registerContentObserver(Responses.CONTENT_URI, true, mObserver);
+			mObserving = true;
+		}
+
+		if (mCursor != null)
+			deliverResult(mCursor);
+		if (takeContentChanged() || mCursor == null)
+			forceLoad();
+	}
+
+	@Override
+	protected void onStopLoading() {
+		cancelLoad();
+	}
+
+	@Override
+	protected void onReset() {
+		super.onReset();
+		onStopLoading();
+
+		if (mObserving) {
+			getContext().getContentResolver().unregisterContentObserver(mObserver);
+			mObserving = false;
+		}
+
+		close(mCursor, null);
+		mCursor = null;
+		mReload = true;
+		mLoadingNext = false;
+	}
+
+	/**
+	 * Closes the pages of a cursor which are not also pages of the cursor being kept
+	 */
+	private static void close(PagedCursor cursor, PagedCursor keep) {
+		if (cursor == null || cursor == keep)
+			return;
+		for (Cursor page : cursor.mPages) {
+			if (keep == null || !keep.mPages.contains(page))
+				page.close();
+		}
+	}
+
+	public String getSelection() {
+		return mSelection;
+	}
+
+	public void setSelection(String selection) {
+		mSelection = selection;
+	}
+
+	/**
+	 * The pages loaded so far joined into one cursor, along with the key of its last row
+	 */
+	private static class PagedCursor extends MergeCursor {
+
+		private final List<Cursor> mPages;
+		private final boolean mHasMore;
+		private long mLastTime;
+		private long mLastId;
+
+		public PagedCursor(List<Cursor> pages, Cursor lastPage, int pageSize) {
+			super(pages.toArray(new Cursor[pages.size()]));
+			mPages = pages;
+			mHasMore = lastPage.getCount() >= pageSize;
+
+			if (lastPage.moveToLast()) {
+				mLastTime = lastPage.getLong(lastPage.getColumnIndexOrThrow(Responses.RESPONSE_TIME));
+				mLastId = lastPage.getLong(lastPage.getColumnIndexOrThrow(Responses._ID));
+			}
+			lastPage.moveToPosition(-1);
+		}
+	}
+}
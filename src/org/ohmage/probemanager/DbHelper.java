@@ -27,7 +27,7 @@ import org.ohmage.probemanager.DbContract.Responses;
 public class DbHelper extends SQLiteOpenHelper {
 
     private static final String DB_NAME = "probes.db";
-    private static final int DB_VERSION = 5;
+    private static final int DB_VERSION = 6;
 
     public interface Tables {
         static final String Probes = "probes";
@@ -58,12 +58,24 @@ public class DbHelper extends SQLiteOpenHelper {
                 + Responses.UPLOAD_PRIORITY + " INTEGER DEFAULT 0, "
                 + Responses.USERNAME + " TEXT NOT NULL, "
                 + Responses.RESPONSE_DATA + " TEXT);");
+
+        // points are uploaded in batches for each user and observer or campaign
+        db.execSQL("CREATE INDEX IF NOT EXISTS " + Tables.Probes + "_upload_idx ON "
+                + Tables.Probes + " (" + Probes.USERNAME + ", " + Probes.OBSERVER_ID + ", "
+                + Probes.OBSERVER_VERSION + ");");
+
+        db.execSQL("CREATE INDEX IF NOT EXISTS " + Tables.Responses + "_upload_idx ON "
+                + Tables.Responses + " (" + Responses.USERNAME + ", " + Responses.CAMPAIGN_URN
+                + ", " + Responses.CAMPAIGN_CREATED + ");");
     }
 
     @Override
     public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
-        db.execSQL("DROP TABLE IF EXISTS " + Tables.Probes);
-        db.execSQL("DROP TABLE IF EXISTS " + Tables.Responses);
+        // version 6 only added indexes, so points waiting to be uploaded can be kept
+        if (oldVersion < 5) {
+            db.execSQL("DROP TABLE IF EXISTS " + Tables.Probes);
+            db.execSQL("DROP TABLE IF EXISTS " + Tables.Responses);
+        }
         onCreate(db);
     }
 
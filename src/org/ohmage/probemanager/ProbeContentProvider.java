@@ -8,9 +8,11 @@ import android.content.ContentValues;
 import android.content.UriMatcher;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteQueryBuilder;
 import android.net.Uri;
 import android.provider.BaseColumns;
 
+import org.ohmage.db.PayloadCompressor;
 import org.ohmage.probemanager.DbContract.Probes;
 import org.ohmage.probemanager.DbContract.Responses;
 import org.ohmage.probemanager.DbHelper.Tables;
@@ -73,12 +75,13 @@ public class ProbeContentProvider extends ContentProvider {
 
         switch (sUriMatcher.match(uri)) {
             case MatcherTypes.PROBES:
-                id = dbHelper.getWritableDatabase().insert(Tables.Probes, BaseColumns._ID, values);
+                id = dbHelper.getWritableDatabase().insert(Tables.Probes, BaseColumns._ID,
+                        PayloadCompressor.compress(values, Probes.PROBE_DATA));
                 cr.notifyChange(Probes.CONTENT_URI, null, false);
                 break;
             case MatcherTypes.RESPONSES:
                 id = dbHelper.getWritableDatabase().insert(Tables.Responses, BaseColumns._ID,
-                        values);
+                        PayloadCompressor.compress(values, Responses.RESPONSE_DATA));
                 cr.notifyChange(Responses.CONTENT_URI, null, false);
                 break;
             default:
@@ -98,23 +101,34 @@ public class ProbeContentProvider extends ContentProvider {
     @Override
     public Cursor query(Uri uri, String[] projection, String selection, String[] selectionArgs,
             String sortOrder) {
-        Cursor cursor;
-        switch (sUriMatcher.match(uri)) {
+        Cursor cursor = dbHelper.getReadableDatabase().query(getQueryTable(uri), projection,
+                selection, selectionArgs, null, null, sortOrder);
+
+        cursor.setNotificationUri(getContext().getContentResolver(), uri);
+        return cursor;
+    }
+
+    /**
+     * Returns the plan sqlite would use for the query a call to
+     * {@link #query(Uri, String[], String, String[], String)} with the same arguments would
+     * run. Each row is a step of the plan, with its description in the detail column.
+     */
+    public Cursor explainQueryPlan(Uri uri, String[] projection, String selection,
+            String[] selectionArgs, String sortOrder) {
+        String sql = SQLiteQueryBuilder.buildQueryString(false, getQueryTable(uri), projection,
+                selection, null, null, sortOrder, null);
+        return dbHelper.getReadableDatabase().rawQuery("EXPLAIN QUERY PLAN " + sql, selectionArgs);
+    }
 
+    private String getQueryTable(Uri uri) {
+        switch (sUriMatcher.match(uri)) {
             case MatcherTypes.PROBES:
-                cursor = dbHelper.getReadableDatabase().query(Tables.Probes, projection, selection,
-                        selectionArgs, null, null, sortOrder);
-                break;
+                return Tables.Probes;
             case MatcherTypes.RESPONSES:
-                cursor = dbHelper.getReadableDatabase().query(Tables.Responses, projection,
-                        selection, selectionArgs, null, null, sortOrder);
-                break;
+                return Tables.Responses;
             default:
                 throw new UnsupportedOperationException("query(): Unknown URI: " + uri);
         }
-
-        cursor.setNotificationUri(getContext().getContentResolver(), uri);
-        return cursor;
     }
 
     @Override
@@ -133,19 +147,22 @@ public class ProbeContentProvider extends ContentProvider {
             db.beginTransaction();
 
             String table;
+            String payload;
             switch (sUriMatcher.match(uri)) {
                 case MatcherTypes.PROBES:
                     table = Tables.Probes;
+                    payload = Probes.PROBE_DATA;
                     break;
                 case MatcherTypes.RESPONSES:
                     table = Tables.Responses;
+                    payload = Responses.RESPONSE_DATA;
                     break;
                 default:
                     throw new UnsupportedOperationException("bulkInsert(): Unknown URI: " + uri);
             }
 
             for (ContentValues v : values) {
-                if (db.insert(table, BaseColumns._ID, v) != -1)
+                if (db.insert(table, BaseColumns._ID, PayloadCompressor.compress(v, payload)) != -1)
                     count++;
             }
 
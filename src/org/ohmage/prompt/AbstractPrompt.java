@@ -296,4 +296,17 @@ public abstract class AbstractPrompt implements Prompt {
 	protected View getView(Context context) {
 		return null;
 	}
+
+	/**
+	 * Loads whatever the view of the prompt reads which is slow to get, so the view can be shown
+	 * quickly. This is called on a background thread, possibly while the prompt is being shown,
+	 * so it must not touch any views. By default there is nothing to load. It may still be running
+	 * after the survey is closed, so it is given the application context instead of the survey.
+	 *
+	 * @param context the application context
+	 * @param campaignUrn the campaign of the survey the prompt is in
+	 * @param surveyId the survey the prompt is in
+	 */
+	public void prepare(Context context, String campaignUrn, String surveyId) {
+	}
 }
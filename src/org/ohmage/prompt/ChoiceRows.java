@@ -0,0 +1,37 @@
+package org.ohmage.prompt;
+
+import org.ohmage.OhmageMarkdown;
+import org.ohmage.Utilities.KVLTriplet;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Builds the rows the choice prompts give to their list adapters. Parsing the markdown of every
+ * label is the slow part of showing a long list, so the prompts build their rows when they are
+ * prepared and keep them for each time they are shown.
+ */
+public class ChoiceRows {
+
+	public static final String KEY = "key";
+	public static final String VALUE = "value";
+
+	/**
+	 * Parses the labels of the choices. This doesn't touch any views so it can be called from any
+	 * thread.
+	 *
+	 * @param choices
+	 * @return a row for each choice, with its key and parsed label
+	 */
+	public static List<HashMap<String, CharSequence>> build(List<KVLTriplet> choices) {
+		List<HashMap<String, CharSequence>> rows = new ArrayList<HashMap<String, CharSequence>>(choices.size());
+		for (KVLTriplet choice : choices) {
+			HashMap<String, CharSequence> row = new HashMap<String, CharSequence>();
+			row.put(KEY, choice.key);
+			row.put(VALUE, OhmageMarkdown.parse(choice.label));
+			rows.add(row);
+		}
+		return rows;
+	}
+}
@@ -16,10 +16,10 @@
 package org.ohmage.prompt.multichoice;
 
 import org.json.JSONArray;
-import org.ohmage.OhmageMarkdown;
 import org.ohmage.R;
 import org.ohmage.Utilities.KVLTriplet;
 import org.ohmage.prompt.AbstractPrompt;
+import org.ohmage.prompt.ChoiceRows;
 
 import android.content.Context;
 import android.text.SpannableStringBuilder;
@@ -41,6 +41,8 @@ public class MultiChoicePrompt extends AbstractPrompt {
 	private static final String TAG = "MultiChoicePrompt";
 	
 	private List<KVLTriplet> mChoices;
+	/** Rows of the list, kept between each time the prompt is shown */
+	private List<HashMap<String, CharSequence>> mRows;
 	private ArrayList<Integer> mSelectedIndexes;
 	
 	public MultiChoicePrompt() {
@@ -48,8 +50,9 @@ public class MultiChoicePrompt extends AbstractPrompt {
 		mSelectedIndexes = new ArrayList<Integer>();
 	}
 	
-	public void setChoices(List<KVLTriplet> choices) {
+	public synchronized void setChoices(List<KVLTriplet> choices) {
 		mChoices = choices;
+		mRows = null;
 	}
 	
 	public List<KVLTriplet> getChoices(){
@@ -97,6 +100,20 @@ public class MultiChoicePrompt extends AbstractPrompt {
 		return null;
 	}
 
+	@Override
+	public void prepare(Context context, String campaignUrn, String surveyId) {
+		getRows();
+	}
+
+	/**
+	 * @return the rows of the list, which are built the first time they are needed
+	 */
+	private synchronized List<HashMap<String, CharSequence>> getRows() {
+		if (mRows == null)
+			mRows = ChoiceRows.build(mChoices);
+		return mRows;
+	}
+
 	@Override
 	public View getView(Context context) {
 		LayoutInflater inflater = (LayoutInflater) context.getSystemService(Context.LAYOUT_INFLATER_SERVICE);
@@ -104,16 +121,10 @@ public class MultiChoicePrompt extends AbstractPrompt {
 		
 		listView.setChoiceMode(ListView.CHOICE_MODE_MULTIPLE);
 		
-		String [] from = new String [] {"value"};
+		String [] from = new String [] {ChoiceRows.VALUE};
 		int [] to = new int [] {android.R.id.text1};
 		
-		List<HashMap<String, CharSequence>> data = new ArrayList<HashMap<String, CharSequence>>();
-		for (int i = 0; i < mChoices.size(); i++) {
-			HashMap<String, CharSequence> map = new HashMap<String, CharSequence>();
-			map.put("key", mChoices.get(i).key);
-			map.put("value", OhmageMarkdown.parse(mChoices.get(i).label));
-			data.add(map);
-		}
+		List<HashMap<String, CharSequence>> data = getRows();
 		
 		SimpleAdapter adapter = new SimpleAdapter(context, data, R.layout.multi_choice_list_item, from, to);
 		
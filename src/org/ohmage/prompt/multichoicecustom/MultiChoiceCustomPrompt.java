@@ -17,12 +17,12 @@ package org.ohmage.prompt.multichoicecustom;
 
 import org.json.JSONArray;
 import org.ohmage.AccountHelper;
-import org.ohmage.OhmageMarkdown;
 import org.ohmage.R;
 import org.ohmage.UserPreferencesHelper;
 import org.ohmage.Utilities.KVLTriplet;
 import org.ohmage.activity.SurveyActivity;
 import org.ohmage.prompt.AbstractPrompt;
+import org.ohmage.prompt.ChoiceRows;
 import org.ohmage.prompt.CustomChoiceListView;
 
 import android.content.Context;
@@ -70,10 +70,13 @@ private static final String TAG = "MultiChoiceCustomPrompt";
 	}
 	
 	public void setChoices(List<KVLTriplet> choices) {
-		if (choices != null) {
-			mChoices = choices;
-		} else {
-			mChoices = new ArrayList<KVLTriplet>();
+		synchronized (MultiChoiceCustomDbAdapter.class) {
+			if (choices != null) {
+				mChoices = choices;
+			} else {
+				mChoices = new ArrayList<KVLTriplet>();
+			}
+			mRows = null;
 		}
 	}
 	
@@ -132,27 +135,104 @@ private static final String TAG = "MultiChoiceCustomPrompt";
 	private int mLastIndex;
 	private int mLastTop;
 
+	/** Rows of the preset choices */
+	private List<HashMap<String, CharSequence>> mRows;
+	/** Custom choices read from the db and their rows, kept until a choice is added */
+	private List<KVLTriplet> mStoredChoices;
+	private List<HashMap<String, CharSequence>> mStoredRows;
+
 	@Override
-	public View getView(final Context context) {
-		
-		mCustomChoices.clear();
+	public void prepare(Context context, String campaignUrn, String surveyId) {
+		getStoredChoices(context, new AccountHelper(context).getUsername(), campaignUrn, surveyId);
+	}
+
+	/**
+	 * Returns the custom choices read from the db. They are kept until a choice is added with
+	 * {@link #addStoredChoice}, so the db is only read again then.
+	 * 
+	 * @param context
+	 * @param username
+	 * @param campaignUrn
+	 * @param surveyId
+	 * @return the custom choices, or null if the db couldn't be opened
+	 */
+	public List<KVLTriplet> getStoredChoices(Context context, String username, String campaignUrn, String surveyId) {
+		synchronized (MultiChoiceCustomDbAdapter.class) {
+			loadChoices(context, username, campaignUrn, surveyId);
+			return mStoredChoices;
+		}
+	}
+
+	/**
+	 * Adds a custom choice to the db. The choices which were read before are dropped so the new
+	 * one is read with them.
+	 * 
+	 * @param context
+	 * @param username
+	 * @param campaignUrn
+	 * @param surveyId
+	 * @param choiceId
+	 * @param label
+	 * @return false if the db couldn't be opened
+	 */
+	public boolean addStoredChoice(Context context, String username, String campaignUrn, String surveyId, int choiceId, String label) {
+		MultiChoiceCustomDbAdapter dbAdapter = new MultiChoiceCustomDbAdapter(context);
+		synchronized (MultiChoiceCustomDbAdapter.class) {
+			if (!dbAdapter.open())
+				return false;
+			dbAdapter.addCustomChoice(choiceId, label, username, campaignUrn, surveyId, getId());
+			dbAdapter.close();
+			// read the choices again so the new one is shown
+			mStoredChoices = null;
+			return true;
+		}
+	}
+
+	/**
+	 * Builds the rows of the preset choices and reads the custom choices from the db, unless they
+	 * are already loaded. Callers must hold the lock on {@link MultiChoiceCustomDbAdapter} so
+	 * choices aren't read while one is being added.
+	 */
+	private void loadChoices(Context context, String username, String campaignUrn, String surveyId) {
+		if (mRows == null)
+			mRows = ChoiceRows.build(mChoices);
+		if (mStoredChoices != null)
+			return;
+
 		MultiChoiceCustomDbAdapter dbAdapter = new MultiChoiceCustomDbAdapter(context);
-		String surveyId = ((SurveyActivity)context).getSurveyId();
-        AccountHelper prefs = new AccountHelper(context);
-		String campaignUrn = ((SurveyActivity)context).getCampaignUrn();
-		String username = prefs.getUsername();
 		if (dbAdapter.open()) {
-			Cursor c = dbAdapter.getCustomChoices(username, campaignUrn, surveyId, MultiChoiceCustomPrompt.this.getId());
+			List<KVLTriplet> choices = new ArrayList<KVLTriplet>();
+			Cursor c = dbAdapter.getCustomChoices(username, campaignUrn, surveyId, getId());
 			c.moveToFirst();
 			for (int i = 0; i < c.getCount(); i++) {
-				//c.getLong(c.getColumnIndex(MultiChoiceCustomDbAdapter.KEY_ID));
 				int key = c.getInt(c.getColumnIndex(MultiChoiceCustomDbAdapter.KEY_CHOICE_ID));
 				String label = c.getString(c.getColumnIndex(MultiChoiceCustomDbAdapter.KEY_CHOICE_VALUE));
-				mCustomChoices.add(new KVLTriplet(String.valueOf(key), null, label));
+				choices.add(new KVLTriplet(String.valueOf(key), null, label));
 				c.moveToNext();
 			}
 			c.close();
 			dbAdapter.close();
+			mStoredRows = ChoiceRows.build(choices);
+			mStoredChoices = choices;
+		}
+	}
+
+	@Override
+	public View getView(final Context context) {
+		
+		final String surveyId = ((SurveyActivity)context).getSurveyId();
+		final String campaignUrn = ((SurveyActivity)context).getCampaignUrn();
+		final String username = new AccountHelper(context).getUsername();
+
+		List<HashMap<String, CharSequence>> data;
+		synchronized (MultiChoiceCustomDbAdapter.class) {
+			loadChoices(context, username, campaignUrn, surveyId);
+			data = new ArrayList<HashMap<String, CharSequence>>(mRows);
+			mCustomChoices.clear();
+			if (mStoredChoices != null) {
+				mCustomChoices.addAll(mStoredChoices);
+				data.addAll(mStoredRows);
+			}
 		}
 		
 		LayoutInflater inflater = (LayoutInflater) context.getSystemService(Context.LAYOUT_INFLATER_SERVICE);
@@ -178,12 +258,6 @@ private static final String TAG = "MultiChoiceCustomPrompt";
 			public void onClick(View v) {
 				mEnteredText = mEnteredText.trim();
 				if (!TextUtils.isEmpty(mEnteredText)) {
-					MultiChoiceCustomDbAdapter dbAdapter = new MultiChoiceCustomDbAdapter(context);
-					String surveyId = ((SurveyActivity)context).getSurveyId();
-					AccountHelper prefs = new AccountHelper(context);
-					String campaignUrn = ((SurveyActivity)context).getCampaignUrn();
-					String username = prefs.getUsername();
-					
 					boolean duplicate = false;
 					int choiceId = 100;
 					ArrayList<String> keys = new ArrayList<String>(); 
@@ -203,11 +277,10 @@ private static final String TAG = "MultiChoiceCustomPrompt";
 					
 					if(duplicate) {
 						Toast.makeText(v.getContext(), v.getContext().getString(R.string.prompt_custom_choice_duplicate), Toast.LENGTH_SHORT).show();
-					} else if(!dbAdapter.open()) {
-						Toast.makeText(v.getContext(), v.getContext().getString(R.string.prompt_custom_choice_db_open_error), Toast.LENGTH_SHORT).show();
 					} else {
-						dbAdapter.addCustomChoice(choiceId, mEnteredText, username, campaignUrn, surveyId, MultiChoiceCustomPrompt.this.getId());
-						dbAdapter.close();
+						if (!addStoredChoice(context, username, campaignUrn, surveyId, choiceId, mEnteredText)) {
+							Toast.makeText(v.getContext(), v.getContext().getString(R.string.prompt_custom_choice_db_open_error), Toast.LENGTH_SHORT).show();
+						}
 					}
 					
 					showAddItemControls(context, false);
@@ -257,23 +330,9 @@ private static final String TAG = "MultiChoiceCustomPrompt";
         
 		mListView.addFooterView(mFooterView);
 		
-		String [] from = new String [] {"value"};
+		String [] from = new String [] {ChoiceRows.VALUE};
 		int [] to = new int [] {android.R.id.text1};
 		
-		List<HashMap<String, CharSequence>> data = new ArrayList<HashMap<String, CharSequence>>();
-		for (int i = 0; i < mChoices.size(); i++) {
-			HashMap<String, CharSequence> map = new HashMap<String, CharSequence>();
-			map.put("key", mChoices.get(i).key);
-			map.put("value", OhmageMarkdown.parse(mChoices.get(i).label));
-			data.add(map);
-		}
-		for (int i = 0; i < mCustomChoices.size(); i++) {
-			HashMap<String, CharSequence> map = new HashMap<String, CharSequence>();
-			map.put("key", mCustomChoices.get(i).key);
-			map.put("value", OhmageMarkdown.parse(mCustomChoices.get(i).label));
-			data.add(map);
-		}
-		
 		SimpleAdapter adapter = new SimpleAdapter(context, data, R.layout.multi_choice_list_item, from, to);
 		
 		adapter.setViewBinder(new ViewBinder() {
@@ -15,10 +15,10 @@
  ******************************************************************************/
 package org.ohmage.prompt.singlechoice;
 
-import org.ohmage.OhmageMarkdown;
 import org.ohmage.R;
 import org.ohmage.Utilities.KVLTriplet;
 import org.ohmage.prompt.AbstractPrompt;
+import org.ohmage.prompt.ChoiceRows;
 
 import android.content.Context;
 import android.text.SpannableStringBuilder;
@@ -31,7 +31,6 @@ import android.widget.ListView;
 import android.widget.SimpleAdapter;
 import android.widget.SimpleAdapter.ViewBinder;
 
-import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 
@@ -40,6 +39,8 @@ public class SingleChoicePrompt extends AbstractPrompt {
 	private static final String TAG = "SingleChoicePrompt";
 	
 	private List<KVLTriplet> mChoices;
+	/** Rows of the list, kept between each time the prompt is shown */
+	private List<HashMap<String, CharSequence>> mRows;
 	//private String mSelectedKey;
 	private int mSelectedIndex;
 	
@@ -52,8 +53,9 @@ public class SingleChoicePrompt extends AbstractPrompt {
 		mSelectedIndex = -1;
 	}
 	
-	public void setChoices(List<KVLTriplet> choices) {
+	public synchronized void setChoices(List<KVLTriplet> choices) {
 		mChoices = choices;
+		mRows = null;
 	}
 	
 	/*public SingleChoicePrompt( 	String id, String displayType, String displayLabel,
@@ -129,6 +131,20 @@ public class SingleChoicePrompt extends AbstractPrompt {
 		}
 	}*/
 
+	@Override
+	public void prepare(Context context, String campaignUrn, String surveyId) {
+		getRows();
+	}
+
+	/**
+	 * @return the rows of the list, which are built the first time they are needed
+	 */
+	private synchronized List<HashMap<String, CharSequence>> getRows() {
+		if (mRows == null)
+			mRows = ChoiceRows.build(mChoices);
+		return mRows;
+	}
+
 	@Override
 	public View getView(Context context) {
 		
@@ -137,16 +153,10 @@ public class SingleChoicePrompt extends AbstractPrompt {
 		
 		listView.setChoiceMode(ListView.CHOICE_MODE_SINGLE);
 		
-		String [] from = new String [] {"value"};
+		String [] from = new String [] {ChoiceRows.VALUE};
 		int [] to = new int [] {android.R.id.text1};
 		
-		List<HashMap<String, CharSequence>> data = new ArrayList<HashMap<String, CharSequence>>();
-		for (int i = 0; i < mChoices.size(); i++) {
-			HashMap<String, CharSequence> map = new HashMap<String, CharSequence>();
-			map.put("key", mChoices.get(i).key);
-			map.put("value", OhmageMarkdown.parse(mChoices.get(i).label));
-			data.add(map);
-		}
+		List<HashMap<String, CharSequence>> data = getRows();
 		
 		SimpleAdapter adapter = new SimpleAdapter(context, data, R.layout.single_choice_list_item, from, to);
 		
@@ -0,0 +1,37 @@
+package org.ohmage.service;
+
+import android.app.AlarmManager;
+import android.app.PendingIntent;
+import android.content.Context;
+import android.os.SystemClock;
+
+import com.commonsware.cwac.wakeful.WakefulIntentService;
+import com.commonsware.cwac.wakeful.WakefulIntentService.AlarmListener;
+
+/**
+ * Wakes the {@link CompactionService} every hour to check for an idle charging window. The
+ * alarm goes to the CWAC AlarmReceiver, which takes the wake lock before the service is
+ * started, and the receiver sets the alarm again after a reboot.
+ */
+public class CompactionAlarmListener implements AlarmListener {
+
+    @Override
+    public void scheduleAlarms(AlarmManager alarms, PendingIntent check, Context context) {
+        alarms.setInexactRepeating(AlarmManager.ELAPSED_REALTIME_WAKEUP,
+                SystemClock.elapsedRealtime() + AlarmManager.INTERVAL_HOUR,
+                AlarmManager.INTERVAL_HOUR, check);
+    }
+
+    @Override
+    public void sendWakefulWork(Context context) {
+        WakefulIntentService.sendWakefulWork(context, CompactionService.class);
+    }
+
+    /**
+     * If no alarm has fired for this long it was lost, so it is scheduled again
+     */
+    @Override
+    public long getMaxAge() {
+        return 2 * AlarmManager.INTERVAL_HOUR;
+    }
+}
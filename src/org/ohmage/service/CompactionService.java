@@ -0,0 +1,100 @@
+package org.ohmage.service;
+
+import android.app.AlarmManager;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.os.BatteryManager;
+import android.os.PowerManager;
+import android.os.SystemClock;
+import android.text.format.DateUtils;
+
+import com.commonsware.cwac.wakeful.WakefulIntentService;
+
+import org.ohmage.ConfigHelper;
+import org.ohmage.db.DbCompactor;
+import org.ohmage.db.DbCompactor.Window;
+import org.ohmage.logprobe.Analytics;
+import org.ohmage.logprobe.Log;
+import org.ohmage.logprobe.LogProbe.Status;
+import org.ohmage.syncadapter.SyncOrchestrator.Phase;
+
+/**
+ * Runs the {@link DbCompactor} once a day while the phone is charging with its screen off. The
+ * service is woken every hour by the {@link CompactionAlarmListener} to check, and a run stops as
+ * soon as the phone is unplugged or picked up so the next window continues the work.
+ */
+public class CompactionService extends WakefulIntentService {
+
+    private static final String TAG = "CompactionService";
+
+    /** Time between finished runs */
+    private static final long COMPACTION_INTERVAL = AlarmManager.INTERVAL_DAY;
+
+    /** Longest a run may take, so a large backlog is spread over several windows */
+    private static final long MAX_RUN_TIME = 5 * DateUtils.MINUTE_IN_MILLIS;
+
+    public CompactionService() {
+        super(TAG);
+    }
+
+    /**
+     * Schedules the hourly check for an idle charging window
+     *
+     * @param context
+     */
+    public static void schedule(Context context) {
+        WakefulIntentService.scheduleAlarms(new CompactionAlarmListener(), context);
+    }
+
+    @Override
+    public void onCreate() {
+        super.onCreate();
+        Analytics.service(this, Status.ON);
+    }
+
+    @Override
+    public void onDestroy() {
+        super.onDestroy();
+        Analytics.service(this, Status.OFF);
+    }
+
+    @Override
+    protected void doWakefulWork(Intent intent) {
+        ConfigHelper config = new ConfigHelper(this);
+        if (System.currentTimeMillis() - config.getLastCompaction() < COMPACTION_INTERVAL
+                || !isIdleAndCharging())
+            return;
+
+        // the times of downloaded responses decide what is downloaded next, so they aren't
+        // removed while a download is running
+        if (!Phase.DOWNLOAD_RESPONSES.tryAcquire()) {
+            Log.v(TAG, "responses are being downloaded, waiting for the next window");
+            return;
+        }
+
+        try {
+            final long deadline = SystemClock.elapsedRealtime() + MAX_RUN_TIME;
+            DbCompactor.Result result = new DbCompactor(this, config.getRetentionDays(),
+                    config.getRetentionMaxDbSize()).compact(new Window() {
+
+                @Override
+                public boolean isOpen() {
+                    return SystemClock.elapsedRealtime() < deadline && isIdleAndCharging();
+                }
+            });
+
+            Log.v(TAG, result.toString());
+            if (result.finished)
+                config.setLastCompaction(System.currentTimeMillis());
+        } finally {
+            Phase.DOWNLOAD_RESPONSES.release();
+        }
+    }
+
+    private boolean isIdleAndCharging() {
+        Intent battery = registerReceiver(null, new IntentFilter(Intent.ACTION_BATTERY_CHANGED));
+        boolean charging = battery != null && battery.getIntExtra(BatteryManager.EXTRA_PLUGGED, 0) != 0;
+        return charging && !((PowerManager) getSystemService(POWER_SERVICE)).isScreenOn();
+    }
+}
@@ -0,0 +1,53 @@
+package org.ohmage.service;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+
+import com.commonsware.cwac.wakeful.WakefulIntentService;
+
+import org.ohmage.db.DbContract.DailyAggregates;
+import org.ohmage.logprobe.Analytics;
+import org.ohmage.logprobe.Log;
+import org.ohmage.logprobe.LogProbe.Status;
+
+/**
+ * Rebuilds the {@link DailyAggregates} when the timezone changes. The aggregates are keyed by the
+ * local day of each response, so the days of the old timezone would be wrong in the new one.
+ */
+public class DailyAggregatesService extends WakefulIntentService {
+
+    private static final String TAG = "DailyAggregatesService";
+
+    public DailyAggregatesService() {
+        super(TAG);
+    }
+
+    @Override
+    public void onCreate() {
+        super.onCreate();
+        Analytics.service(this, Status.ON);
+    }
+
+    @Override
+    public void onDestroy() {
+        super.onDestroy();
+        Analytics.service(this, Status.OFF);
+    }
+
+    @Override
+    protected void doWakefulWork(Intent intent) {
+        int rows = getContentResolver().update(DailyAggregates.buildRebuildUri(), null, null, null);
+        Log.v(TAG, "rebuilt " + rows + " daily aggregates for the new timezone");
+    }
+
+    /** Receiver for timezone changes */
+    public static class TimezoneReceiver extends BroadcastReceiver {
+
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            if (Intent.ACTION_TIMEZONE_CHANGED.equals(intent.getAction()))
+                WakefulIntentService.sendWakefulWork(context, DailyAggregatesService.class);
+        }
+    }
+}
@@ -0,0 +1,425 @@
+package org.ohmage.service;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.content.Intent;
+import android.database.Cursor;
+import android.net.Uri;
+
+import com.commonsware.cwac.wakeful.WakefulIntentService;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.ohmage.Utilities;
+import org.ohmage.db.DbContract.Responses;
+import org.ohmage.db.Models.Response;
+import org.ohmage.logprobe.Analytics;
+import org.ohmage.logprobe.Log;
+import org.ohmage.logprobe.LogProbe.Status;
+import org.ohmage.triggers.glue.TriggerFramework;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * Writes submitted survey responses to the database off the main thread. A snapshot of each
+ * response is first written to a journal file, which is only deleted once the response is in the
+ * database. Journal files left behind by a process which died before writing them are written
+ * the next time the application starts.
+ */
+public class ResponseWriterService extends WakefulIntentService {
+
+    private static final String TAG = "ResponseWriterService";
+
+    private static final String PENDING_DIR = "pending_responses";
+
+    /** Name of the journal file to write. Without it every pending response is written. */
+    private static final String EXTRA_FILE = "file";
+
+    /** A submitted survey whose launch context hasn't been taken yet */
+    private static final String EXTRA_SUBMITTED = "submitted";
+    private static final String EXTRA_SURVEY_TITLE = "survey_title";
+    private static final String EXTRA_LAUNCH_TIME = "launch_time";
+
+    public ResponseWriterService() {
+        super(TAG);
+    }
+
+    /**
+     * Everything needed to store a response, taken when the survey is submitted. It doesn't
+     * reference the survey elements so it can be written from any thread.
+     */
+    public static final class Snapshot {
+        public final String uuid;
+        public final String campaignUrn;
+        public final String username;
+        public final String date;
+        public final long time;
+        public final String timezone;
+        public final String surveyId;
+        /**
+         * Taken when the survey is submitted, see {@link ResponseWriterService#getLaunchContext}.
+         * Null if the service should take it, see {@link ResponseWriterService#submitSurvey}.
+         */
+        public final String surveyLaunchContext;
+        public final String response;
+
+        public Snapshot(String uuid, String campaignUrn, String username, String date, long time, String timezone,
+                String surveyId, String surveyLaunchContext, String response) {
+            this.uuid = uuid;
+            this.campaignUrn = campaignUrn;
+            this.username = username;
+            this.date = date;
+            this.time = time;
+            this.timezone = timezone;
+            this.surveyId = surveyId;
+            this.surveyLaunchContext = surveyLaunchContext;
+            this.response = response;
+        }
+
+        JSONObject toJson() throws JSONException {
+            JSONObject json = new JSONObject();
+            json.put("uuid", uuid);
+            json.put("campaign_urn", campaignUrn);
+            json.put("username", username);
+            json.put("date", date);
+            json.put("time", time);
+            json.put("timezone", timezone);
+            json.put("survey_id", surveyId);
+            json.put("survey_launch_context", surveyLaunchContext);
+            json.put("response", response);
+            return json;
+        }
+
+        Snapshot withLaunchContext(String surveyLaunchContext) {
+            return new Snapshot(uuid, campaignUrn, username, date, time, timezone, surveyId, surveyLaunchContext,
+                    response);
+        }
+
+        static Snapshot fromJson(JSONObject json) throws JSONException {
+            return new Snapshot(json.getString("uuid"), json.getString("campaign_urn"), json.optString("username", null),
+                    json.getString("date"), json.getLong("time"), json.getString("timezone"),
+                    json.getString("survey_id"), json.optString("survey_launch_context", null), json.getString("response"));
+        }
+    }
+
+    /**
+     * Journals the response and queues it to be written. If the journal can't be written the
+     * response is written before returning so it isn't lost. The journal is synced to disk, so
+     * this shouldn't be called on the main thread.
+     *
+     * @param context
+     * @param snapshot
+     */
+    public static void submit(Context context, Snapshot snapshot) {
+        File file = journal(context, snapshot);
+        if (file == null)
+            return;
+
+        Intent intent = new Intent(context, ResponseWriterService.class);
+        intent.putExtra(EXTRA_FILE, file.getName());
+        WakefulIntentService.sendWakefulWork(context, intent);
+    }
+
+    /**
+     * Hands a survey which was just submitted to the service, which takes its launch context,
+     * marks the survey as taken and then journals and writes the response. Nothing is read or
+     * written on the calling thread, so it can be called from the main thread.
+     *
+     * @param context
+     * @param snapshot the response without its launch context
+     * @param surveyTitle
+     * @param launchTime
+     */
+    public static void submitSurvey(Context context, Snapshot snapshot, String surveyTitle, long launchTime) {
+        Intent intent = new Intent(context, ResponseWriterService.class);
+        try {
+            intent.putExtra(EXTRA_SUBMITTED, snapshot.toJson().toString());
+        } catch (JSONException e) {
+            Log.e(TAG, "JSONException when trying to generate response json", e);
+            throw new RuntimeException(e);
+        }
+        intent.putExtra(EXTRA_SURVEY_TITLE, surveyTitle);
+        intent.putExtra(EXTRA_LAUNCH_TIME, launchTime);
+        WakefulIntentService.sendWakefulWork(context, intent);
+    }
+
+    /**
+     * Queues any responses which were journaled but not written. Should be called when the
+     * application starts.
+     *
+     * @param context
+     */
+    public static void recover(Context context) {
+        String[] pending = getPendingDir(context).list();
+        if (pending != null && pending.length > 0)
+            WakefulIntentService.sendWakefulWork(context, ResponseWriterService.class);
+    }
+
+    /**
+     * Drops the responses which were journaled but not written
+     *
+     * @param context
+     */
+    public static void clear(Context context) {
+        try {
+            Utilities.delete(getPendingDir(context));
+        } catch (IOException e) {
+            Log.e(TAG, "Error deleting pending responses", e);
+        }
+    }
+
+    @Override
+    public void onCreate() {
+        super.onCreate();
+        Analytics.service(this, Status.ON);
+    }
+
+    @Override
+    public void onDestroy() {
+        super.onDestroy();
+        Analytics.service(this, Status.OFF);
+    }
+
+    @Override
+    protected void doWakefulWork(Intent intent) {
+        String submitted = intent.getStringExtra(EXTRA_SUBMITTED);
+        if (submitted != null) {
+            writeSubmitted(submitted, intent.getStringExtra(EXTRA_SURVEY_TITLE),
+                    intent.getLongExtra(EXTRA_LAUNCH_TIME, 0));
+            return;
+        }
+
+        File dir = getPendingDir(this);
+        String name = intent.getStringExtra(EXTRA_FILE);
+        if (name != null) {
+            writeResponse(new File(dir, name));
+            return;
+        }
+
+        File[] files = dir.listFiles();
+        if (files == null)
+            return;
+        for (File file : files) {
+            // a journal which was never renamed into place belongs to a response which was stored
+            // before submit returned
+            if (file.getName().endsWith(".tmp"))
+                file.delete();
+            else
+                writeResponse(file);
+        }
+    }
+
+    /**
+     * Takes the launch context of a survey handed over by {@link #submitSurvey}, marks the survey
+     * as taken, and journals and stores its response
+     */
+    private void writeSubmitted(String submitted, String surveyTitle, long launchTime) {
+        Snapshot snapshot;
+        try {
+            snapshot = Snapshot.fromJson(new JSONObject(submitted));
+        } catch (JSONException e) {
+            Log.e(TAG, "Invalid submitted response", e);
+            return;
+        }
+
+        // the launch context is taken before the survey is marked as taken, since the triggers
+        // which launched it are no longer active afterwards
+        snapshot = snapshot.withLaunchContext(getLaunchContext(this, snapshot.campaignUrn, surveyTitle, launchTime,
+                snapshot.timezone));
+        TriggerFramework.notifySurveyTaken(this, snapshot.campaignUrn, surveyTitle);
+
+        File file = journal(this, snapshot);
+        if (file != null)
+            writeResponse(file);
+    }
+
+    /**
+     * Stores the response in the journal file and deletes the file. The file may already have
+     * been written by an earlier request.
+     */
+    private void writeResponse(File file) {
+        if (!file.exists())
+            return;
+
+        Snapshot snapshot;
+        try {
+            snapshot = readJournal(file);
+        } catch (IOException e) {
+            Log.e(TAG, "Unable to read " + file + ", trying again later", e);
+            return;
+        } catch (JSONException e) {
+            // the journal is renamed into place once it is complete, so it can't be fixed
+            Log.e(TAG, "Invalid journal " + file, e);
+            file.delete();
+            return;
+        }
+
+        // the process may have died after the response was inserted but before the journal
+        // was deleted
+        if (!exists(this, snapshot.uuid))
+            store(this, snapshot);
+        file.delete();
+    }
+
+    /**
+     * Builds the launch context of a response from the triggers which are active for the survey.
+     * It must be taken when the survey is submitted, before the survey is marked as taken, since
+     * a survey which was taken no longer counts as active for its triggers.
+     *
+     * @param context
+     * @param campaignUrn
+     * @param surveyTitle
+     * @param launchTime
+     * @param timezone
+     * @return the launch context json
+     */
+    public static String getLaunchContext(Context context, String campaignUrn, String surveyTitle, long launchTime,
+            String timezone) {
+        // get launch context from trigger glue
+        JSONObject surveyLaunchContextJson = new JSONObject();
+        try {
+            surveyLaunchContextJson.put("launch_time", launchTime);
+            surveyLaunchContextJson.put("launch_timezone", timezone);
+            surveyLaunchContextJson.put("active_triggers",
+                    TriggerFramework.getActiveTriggerInfo(context, campaignUrn, surveyTitle));
+        } catch (JSONException e) {
+            Log.e(TAG, "JSONException when trying to generate survey launch context json", e);
+            throw new RuntimeException(e);
+        }
+        return surveyLaunchContextJson.toString();
+    }
+
+    /**
+     * Inserts the response, which indirectly populates the prompt response tables, starts
+     * looking for its location and tells any interested receivers about it
+     *
+     * @param context
+     * @param snapshot
+     * @return the uri of the response
+     */
+    static Uri store(Context context, Snapshot snapshot) {
+        Response candidate = new Response();
+
+        candidate.uuid = snapshot.uuid;
+        candidate.campaignUrn = snapshot.campaignUrn;
+        candidate.username = snapshot.username;
+        candidate.date = snapshot.date;
+        candidate.time = snapshot.time;
+        candidate.timezone = snapshot.timezone;
+        candidate.surveyId = snapshot.surveyId;
+        candidate.surveyLaunchContext = snapshot.surveyLaunchContext;
+        candidate.response = snapshot.response;
+        candidate.locationStatus = SurveyGeotagService.LOCATION_UNAVAILABLE;
+        candidate.locationLatitude = -1;
+        candidate.locationLongitude = -1;
+        candidate.locationProvider = null;
+        candidate.locationAccuracy = -1;
+        candidate.locationTime = -1;
+        candidate.status = Response.STATUS_WAITING_FOR_LOCATION;
+
+        ContentResolver cr = context.getContentResolver();
+        Uri responseUri = cr.insert(Responses.CONTENT_URI, candidate.toCV());
+
+        Intent intent = new Intent(context, SurveyGeotagService.class);
+        intent.setData(responseUri);
+        WakefulService.sendWakefulWork(context, intent);
+
+        // create an intent and broadcast it to any interested receivers
+        Intent i = new Intent("org.ohmage.SURVEY_COMPLETE");
+
+        i.putExtra(Responses.CAMPAIGN_URN, snapshot.campaignUrn);
+        i.putExtra(Responses.RESPONSE_USERNAME, snapshot.username);
+        i.putExtra(Responses.RESPONSE_DATE, snapshot.date);
+        i.putExtra(Responses.RESPONSE_TIME, snapshot.time);
+        i.putExtra(Responses.RESPONSE_TIMEZONE, snapshot.timezone);
+        i.putExtra(Responses.RESPONSE_LOCATION_STATUS, SurveyGeotagService.LOCATION_UNAVAILABLE);
+        i.putExtra(Responses.RESPONSE_STATUS, Response.STATUS_WAITING_FOR_LOCATION);
+        i.putExtra(Responses.SURVEY_ID, snapshot.surveyId);
+        i.putExtra(Responses.RESPONSE_SURVEY_LAUNCH_CONTEXT, snapshot.surveyLaunchContext);
+        i.putExtra(Responses.RESPONSE_JSON, snapshot.response);
+
+        context.sendBroadcast(i);
+
+        return responseUri;
+    }
+
+    private static boolean exists(Context context, String uuid) {
+        Cursor c = context.getContentResolver().query(Responses.CONTENT_URI, new String[] { Responses._ID },
+                Responses.RESPONSE_UUID + "=?", new String[] { uuid }, null);
+        try {
+            return c != null && c.moveToFirst();
+        } finally {
+            if (c != null)
+                c.close();
+        }
+    }
+
+    static File getPendingDir(Context context) {
+        return new File(context.getFilesDir(), PENDING_DIR);
+    }
+
+    /**
+     * Journals the response, or stores it right away if the journal can't be written
+     *
+     * @return the journal file, or null if the response was stored instead
+     */
+    private static File journal(Context context, Snapshot snapshot) {
+        File file = new File(getPendingDir(context), snapshot.uuid);
+        try {
+            writeJournal(file, snapshot);
+        } catch (IOException e) {
+            Log.e(TAG, "Unable to journal response " + snapshot.uuid + ", storing it now", e);
+            store(context, snapshot);
+            return null;
+        } catch (JSONException e) {
+            Log.e(TAG, "Unable to journal response " + snapshot.uuid + ", storing it now", e);
+            store(context, snapshot);
+            return null;
+        }
+        return file;
+    }
+
+    /**
+     * Writes the journal to a temporary file which is synced and renamed into place, so a journal
+     * is either complete or missing
+     */
+    private static void writeJournal(File file, Snapshot snapshot) throws IOException, JSONException {
+        File dir = file.getParentFile();
+        if (!dir.isDirectory() && !dir.mkdirs())
+            throw new IOException("Unable to create " + dir);
+
+        File tmp = new File(dir, file.getName() + ".tmp");
+        FileOutputStream out = new FileOutputStream(tmp);
+        try {
+            out.write(snapshot.toJson().toString().getBytes("UTF-8"));
+            out.getFD().sync();
+        } finally {
+            out.close();
+        }
+
+        if (!tmp.renameTo(file)) {
+            tmp.delete();
+            throw new IOException("Unable to rename " + tmp);
+        }
+    }
+
+    private static Snapshot readJournal(File file) throws IOException, JSONException {
+        byte[] bytes = new byte[(int) file.length()];
+        FileInputStream in = new FileInputStream(file);
+        try {
+            int read = 0;
+            while (read < bytes.length) {
+                int count = in.read(bytes, read, bytes.length - read);
+                if (count == -1)
+                    throw new IOException("Unexpected end of " + file);
+                read += count;
+            }
+        } finally {
+            in.close();
+        }
+        return Snapshot.fromJson(new JSONObject(new String(bytes, "UTF-8")));
+    }
+}
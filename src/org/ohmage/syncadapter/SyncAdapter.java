@@ -29,13 +29,8 @@ import android.os.BatteryManager;
 import android.os.Bundle;
 import android.util.Log;
 
-import com.commonsware.cwac.wakeful.WakefulIntentService;
-
 import org.ohmage.UserPreferencesHelper;
-import org.ohmage.db.DbContract.Responses;
-import org.ohmage.responsesync.ResponseSyncService;
-import org.ohmage.service.ProbeUploadService;
-import org.ohmage.service.UploadService;
+import org.ohmage.syncadapter.SyncOrchestrator.Phase;
 
 public class SyncAdapter extends AbstractThreadedSyncAdapter {
 
@@ -75,24 +70,21 @@ public class SyncAdapter extends AbstractThreadedSyncAdapter {
                 .getSystemService(Context.CONNECTIVITY_SERVICE);
         NetworkInfo wifiInfo = connManager.getNetworkInfo(ConnectivityManager.TYPE_WIFI);
 
-        if (!user.getUploadResponsesWifiOnly() || (wifiInfo != null && wifiInfo.isConnected())) {
-            // Start the normal upload service
-            Intent i = new Intent(mContext, UploadService.class);
-            i.setData(Responses.CONTENT_URI);
-            i.putExtra(UploadService.EXTRA_BACKGROUND, true);
-            WakefulIntentService.sendWakefulWork(mContext, i);
+        SyncOrchestrator sync = new SyncOrchestrator(mContext);
 
-            // Download responses
-            WakefulIntentService.sendWakefulWork(mContext, ResponseSyncService.class);
+        if (!user.getUploadResponsesWifiOnly() || (wifiInfo != null && wifiInfo.isConnected())) {
+            // Upload responses before downloading them so the download sees them
+            sync.add(Phase.UPLOAD_RESPONSES);
+            sync.add(Phase.DOWNLOAD_RESPONSES);
         }
 
         if (!user.getUploadProbesWifiOnly() || (wifiInfo != null && wifiInfo.isConnected())) {
-            // And start the probe upload service
-            Intent i = new Intent(mContext, ProbeUploadService.class);
-            i.setData(Responses.CONTENT_URI);
-            i.putExtra(UploadService.EXTRA_BACKGROUND, true);
-            WakefulIntentService.sendWakefulWork(mContext, i);
+            // And upload the probes
+            sync.add(Phase.UPLOAD_PROBES);
         }
+
+        // Run the phases here so they share the wake lock held for this sync
+        sync.run(syncResult);
     }
 
     public boolean isOnline(Context context) {
@@ -0,0 +1,135 @@
+package org.ohmage.syncadapter;
+
+import android.content.Context;
+import android.content.Intent;
+import android.content.SyncResult;
+import android.os.SystemClock;
+import android.util.Log;
+
+import org.ohmage.OhmageApi;
+import org.ohmage.db.DbContract.Responses;
+import org.ohmage.responsesync.ResponseSyncService;
+import org.ohmage.responsesync.ResponseSyncer;
+import org.ohmage.service.ProbeUploadService;
+import org.ohmage.service.ProbeUploader;
+import org.ohmage.service.ResponseUploader;
+import org.ohmage.service.UploadService;
+
+import java.util.EnumSet;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Runs the phases of a sync one after another on the sync thread. Phases are deduped and
+ * always run in the order they are declared in {@link Phase} so responses are uploaded before
+ * new ones are downloaded. All phases run under the wake lock the sync manager holds for
+ * {@link SyncAdapter#onPerformSync} and share one {@link OhmageApi}. A phase which is already
+ * being run by its service is skipped. Failures are reported to the {@link SyncResult} and the
+ * time each phase took is logged.
+ */
+public class SyncOrchestrator {
+
+    private static final String TAG = "SyncOrchestrator";
+
+    public enum Phase {
+        UPLOAD_RESPONSES {
+            @Override
+            boolean run(Context context, OhmageApi api) {
+                Intent i = new Intent(context, UploadService.class);
+                i.setData(Responses.CONTENT_URI);
+                i.putExtra(UploadService.EXTRA_BACKGROUND, true);
+                return new ResponseUploader(context, api).upload(i);
+            }
+        },
+        DOWNLOAD_RESPONSES {
+            @Override
+            boolean run(Context context, OhmageApi api) {
+                return new ResponseSyncer(context, api).sync(
+                        new Intent(context, ResponseSyncService.class));
+            }
+        },
+        UPLOAD_PROBES {
+            @Override
+            boolean run(Context context, OhmageApi api) {
+                Intent i = new Intent(context, ProbeUploadService.class);
+                i.putExtra(ProbeUploadService.EXTRA_BACKGROUND, true);
+                return new ProbeUploader(context, api).upload(i);
+            }
+        };
+
+        private final ReentrantLock mLock = new ReentrantLock();
+
+        /**
+         * Does the work for this phase on the calling thread
+         *
+         * @return true if the work completed without errors
+         */
+        abstract boolean run(Context context, OhmageApi api);
+
+        /**
+         * Blocks until no other thread is running this phase. Used by the services so work
+         * started from the UI waits for a sync instead of running alongside it.
+         */
+        public void acquire() {
+            mLock.lock();
+        }
+
+        /**
+         * @return true if the phase was not already running and is now held by the caller
+         */
+        public boolean tryAcquire() {
+            return mLock.tryLock();
+        }
+
+        public void release() {
+            mLock.unlock();
+        }
+    }
+
+    private final Context mContext;
+    private final OhmageApi mApi;
+
+    private final EnumSet<Phase> mPending = EnumSet.noneOf(Phase.class);
+
+    public SyncOrchestrator(Context context) {
+        this(context, new OhmageApi(context));
+    }
+
+    public SyncOrchestrator(Context context, OhmageApi api) {
+        mContext = context.getApplicationContext();
+        mApi = api;
+    }
+
+    /**
+     * Queues a phase to be run. Adding a phase which is already queued does nothing.
+     *
+     * @param phase
+     */
+    public void add(Phase phase) {
+        mPending.add(phase);
+    }
+
+    /**
+     * Runs all queued phases in order, adding any failures to the stats of the syncResult
+     *
+     * @param syncResult
+     */
+    public void run(SyncResult syncResult) {
+        for (Phase phase : mPending) {
+            if (!phase.tryAcquire()) {
+                Log.v(TAG, phase + " is already running, skipping it for this sync");
+                continue;
+            }
+
+            long start = SystemClock.elapsedRealtime();
+            try {
+                if (!phase.run(mContext, mApi))
+                    syncResult.stats.numIoExceptions++;
+            } finally {
+                phase.release();
+                long elapsed = SystemClock.elapsedRealtime() - start;
+                Log.v(TAG, phase + " took " + elapsed + "ms");
+            }
+        }
+        mPending.clear();
+    }
+}
@@ -1,9 +1,7 @@
 package org.ohmage.activity.async;
 
-import org.json.JSONArray;
-import org.json.JSONException;
-import org.json.JSONObject;
 import org.ohmage.OhmageApi;
+import org.ohmage.OhmageApi.CampaignInfo;
 import org.ohmage.OhmageApi.CampaignReadResponse;
 import org.ohmage.OhmageApi.Result;
 import org.ohmage.async.CampaignReadTask;
@@ -47,40 +45,21 @@ public class CampaignReadTaskTest extends TestCase {
 		super.tearDown();
 	}
 
-	private CampaignReadResponse generateCampaignJSON(Campaign... campaigns) {
+	private CampaignReadResponse generateCampaignResponse(Campaign... campaigns) {
 		CampaignReadResponse response = new CampaignReadResponse();
 		response.setResult(Result.SUCCESS);
-		generateCampaignJSON(response, campaigns);
-		return response;
-	}
-
-	private void generateCampaignJSON(CampaignReadResponse response, Campaign... campaigns) {
-		try {
-			JSONArray items = new JSONArray();
-			JSONObject data = new JSONObject();
-			for(Campaign c : campaigns) {
-				items.put(c.mUrn);
-
-				JSONObject campaign = new JSONObject();
-				campaign.put("name", c.mName);
-				campaign.put("creation_timestamp", c.mCreationTimestamp);
-				campaign.put("description", "");
-				if(c.mStatus == Campaign.STATUS_READY || c.mStatus == Campaign.STATUS_REMOTE)
-					campaign.put("running_state","running");
-				else
-					campaign.put("running_state","not running");
-
-				data.put(c.mUrn, campaign);
-			}
-
-			JSONObject metadata = new JSONObject();
-			metadata.put("items", items);
-			response.setMetadata(metadata);
-			response.setData(data);
-		} catch (JSONException e) {
-			// TODO Auto-generated catch block
-			e.printStackTrace();
+		for(Campaign c : campaigns) {
+			CampaignInfo campaign = new CampaignInfo();
+			campaign.mUrn = c.mUrn;
+			campaign.mName = c.mName;
+			campaign.mCreationTimestamp = c.mCreationTimestamp;
+			campaign.mDescription = "";
+			campaign.mPrivacy = c.mPrivacy;
+			campaign.mRunning = c.mStatus == Campaign.STATUS_READY || c.mStatus == Campaign.STATUS_REMOTE;
+			campaign.mParticipant = true;
+			response.addCampaign(campaign);
 		}
+		return response;
 	}
 
 	public abstract static class CampaignReadTaskContext extends MockContext {
@@ -156,11 +135,16 @@ public class CampaignReadTaskTest extends TestCase {
 	}
 
 	private void helperTestStateChange(int localState, final int remoteState, final TestOperations tests) {
+		helperTestStateChange(localState, remoteState, null, tests);
+	}
+
+	private void helperTestStateChange(int localState, final int remoteState, final String remoteName, final TestOperations tests) {
+		final ArrayList<ContentProviderOperation> applied = new ArrayList<ContentProviderOperation>();
 		final CampaignReadTaskContext context = new CampaignReadTaskContext(localState) {
 
 			@Override
 			public void applyBatch(ArrayList<ContentProviderOperation> operations) {
-				tests.test(operations);
+				applied.addAll(operations);
 			} 
 		};
 		mReadTask = new CampaignReadTask(context);
@@ -170,16 +154,20 @@ public class CampaignReadTaskTest extends TestCase {
 			public CampaignReadResponse campaignRead(String serverUrl, String username, String hashedPassword, String client, String outputFormat, String campaignUrnList) {
 				Campaign c = CampaignCursor.cloneCampaign(context.getCampaigns()[0]);
 
+				if(remoteName != null)
+					c.mName = remoteName;
+
 				if(remoteState == Campaign.STATUS_NO_EXIST)
-					return generateCampaignJSON();
+					return generateCampaignResponse();
 				else if(remoteState == Campaign.STATUS_OUT_OF_DATE)
 					c.mCreationTimestamp = String.valueOf(Long.valueOf(c.mCreationTimestamp) + 1);
 				else
 					c.mStatus = remoteState;
-				return generateCampaignJSON(c);
+				return generateCampaignResponse(c);
 			}
 		});
 		mReadTask.loadInBackground();
+		tests.test(applied);
 	}
 
 	public void testRunningCampaignOutOfDate() {
@@ -226,10 +214,8 @@ public class CampaignReadTaskTest extends TestCase {
 
 			@Override
 			public void test(ArrayList<ContentProviderOperation> operations) {
-				// Check that we are doing an update to set the campaign to deleted
-				assertEquals(1, operations.size());
-				assertTrue(operations.get(0).toString().startsWith("mType: 2"));
-				assertTrue(operations.get(0).toString().matches(".*mValues: .*campaign_status=" + Campaign.STATUS_READY + ".*" ));
+				// Nothing changed on the server so nothing should be written
+				assertEquals(0, operations.size());
 			} 
 		});
 	}
@@ -239,7 +225,18 @@ public class CampaignReadTaskTest extends TestCase {
 
 			@Override
 			public void test(ArrayList<ContentProviderOperation> operations) {
-				// Check that we are doing an update to set the campaign to deleted
+				// Nothing changed on the server so nothing should be written
+				assertEquals(0, operations.size());
+			} 
+		});
+	}
+
+	public void testRemoteCampaignRenamed() {
+		helperTestStateChange(Campaign.STATUS_REMOTE, Campaign.STATUS_READY, "Renamed Campaign", new TestOperations() {
+
+			@Override
+			public void test(ArrayList<ContentProviderOperation> operations) {
+				// Check that we are inserting the new version of the remote campaign
 				assertEquals(1, operations.size());
 				assertTrue(operations.get(0).toString().startsWith("mType: 1"));
 				assertTrue(operations.get(0).toString().matches(".*mValues: .*campaign_status=" + Campaign.STATUS_REMOTE + ".*" ));
@@ -0,0 +1,193 @@
+package org.ohmage.conditionevaluator.test;
+
+import android.os.SystemClock;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import org.andwellness.config.grammar.parser.ConditionParser;
+import org.andwellness.config.grammar.syntaxtree.start;
+import org.ohmage.conditionevaluator.CompiledCondition;
+import org.ohmage.conditionevaluator.ConditionDepthFirst;
+import org.ohmage.conditionevaluator.DataPoint;
+import org.ohmage.conditionevaluator.DataPointConditionEvaluator;
+
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Checks that compiled conditions give the same answers as walking the parsed condition with
+ * {@link ConditionDepthFirst}, that they can be evaluated from several threads at once, and logs
+ * how long evaluating the corpus takes when every condition is parsed again compared to compiled
+ * once.
+ */
+public class CompiledConditionTest extends AndroidTestCase {
+
+	private static final String TAG = "CompiledConditionTest";
+
+	/** Conditions of the kinds campaigns use, over the responses from {@link #responses(int)} */
+	private static final String[] CORPUS = {
+			"mood == 1",
+			"mood != 1",
+			"mood > 2",
+			"mood <= 2",
+			"mood == SKIPPED",
+			"mood != SKIPPED",
+			"sleep == NOT_DISPLAYED",
+			"sleep != NOT_DISPLAYED",
+			"hours >= 8",
+			"hours < 4",
+			"food == 0",
+			"food != 3",
+			"missing == 1",
+			"mood == 1 and hours > 5",
+			"mood == 1 or hours > 5",
+			"mood == 1 or mood == 2 or mood == 3",
+			"mood == 1 and hours > 5 or food == 2",
+			"(mood == 1 or mood == 2) and hours <= 8",
+			"(mood == 0 and (hours >= 3 or food == 1)) or sleep == NOT_DISPLAYED",
+			"missing == 1 or (mood != SKIPPED and (food == 2 or (hours < 10 and mood > 0)))",
+			"((mood == 1) or (hours == 8)) and (food != 0 or missing == 2)",
+	};
+
+	private static final int ITERATIONS = 200;
+
+	private static final int THREADS = 4;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		// the parser has to be created once before it can be reused
+		CompiledCondition.compile(CORPUS[0]);
+	}
+
+	/**
+	 * Makes a set of responses which varies with the seed so each condition is true for some
+	 * and false for others
+	 */
+	private static List<DataPoint> responses(int seed) {
+		ArrayList<DataPoint> responses = new ArrayList<DataPoint>();
+
+		DataPoint mood = new DataPoint("mood");
+		mood.setPromptType("single_choice");
+		// the comparators only look at the value of a skipped prompt when comparing it to a
+		// number, so it keeps one
+		mood.setValue(seed % 4);
+		if (seed % 7 == 0)
+			mood.setSkipped();
+		responses.add(mood);
+
+		DataPoint sleep = new DataPoint("sleep");
+		sleep.setPromptType("single_choice");
+		sleep.setValue(1);
+		if (seed % 3 == 0)
+			sleep.setNotDisplayed();
+		responses.add(sleep);
+
+		DataPoint hours = new DataPoint("hours");
+		hours.setPromptType("number");
+		hours.setValue(seed % 12);
+		responses.add(hours);
+
+		DataPoint food = new DataPoint("food");
+		food.setPromptType("multi_choice");
+		food.setValue(Arrays.asList(seed % 3, (seed + 1) % 4));
+		responses.add(food);
+
+		return responses;
+	}
+
+	/**
+	 * Parses and walks the condition the way it was evaluated before it could be compiled
+	 */
+	private static boolean evaluateByParsing(String condition, List<DataPoint> responses) throws Exception {
+		start s;
+		synchronized (ConditionParser.class) {
+			ConditionParser.ReInit(new StringReader(condition));
+			s = ConditionParser.start();
+		}
+		return new ConditionDepthFirst<Boolean, Boolean>(responses).visit(s, null).booleanValue();
+	}
+
+	public void testMatchesVisitor() throws Exception {
+		for (int seed = 0; seed < 24; seed++) {
+			List<DataPoint> responses = responses(seed);
+			for (String condition : CORPUS) {
+				assertEquals(condition + " with seed " + seed, evaluateByParsing(condition, responses),
+						DataPointConditionEvaluator.evaluateCondition(condition, responses));
+			}
+		}
+	}
+
+	public void testBlankAndInvalid() {
+		assertTrue(DataPointConditionEvaluator.evaluateCondition("", responses(1)));
+		try {
+			DataPointConditionEvaluator.compile("mood ==");
+			fail("an invalid condition should not compile");
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+	}
+
+	public void testCompiledOnce() {
+		assertSame(DataPointConditionEvaluator.compile(CORPUS[10]), DataPointConditionEvaluator.compile(CORPUS[10]));
+	}
+
+	/**
+	 * Threads evaluating the same compiled conditions should all get the answers a single thread
+	 * gets
+	 */
+	public void testConcurrentEvaluation() throws Exception {
+		final boolean[][] expected = new boolean[24][CORPUS.length];
+		for (int seed = 0; seed < expected.length; seed++)
+			for (int i = 0; i < CORPUS.length; i++)
+				expected[seed][i] = DataPointConditionEvaluator.evaluateCondition(CORPUS[i], responses(seed));
+
+		final AtomicInteger mismatches = new AtomicInteger();
+		Thread[] threads = new Thread[THREADS];
+		for (int t = 0; t < threads.length; t++) {
+			threads[t] = new Thread() {
+				@Override
+				public void run() {
+					for (int n = 0; n < ITERATIONS; n++) {
+						int seed = n % expected.length;
+						List<DataPoint> responses = responses(seed);
+						for (int i = 0; i < CORPUS.length; i++) {
+							if (DataPointConditionEvaluator.evaluateCondition(CORPUS[i], responses) != expected[seed][i])
+								mismatches.incrementAndGet();
+						}
+					}
+				}
+			};
+			threads[t].start();
+		}
+		for (Thread thread : threads)
+			thread.join();
+
+		assertEquals(0, mismatches.get());
+	}
+
+	public void testBenchmark() throws Exception {
+		List<List<DataPoint>> responses = new ArrayList<List<DataPoint>>();
+		for (int seed = 0; seed < ITERATIONS; seed++)
+			responses.add(responses(seed));
+
+		long start = SystemClock.elapsedRealtime();
+		for (List<DataPoint> r : responses)
+			for (String condition : CORPUS)
+				evaluateByParsing(condition, r);
+		long parsing = SystemClock.elapsedRealtime() - start;
+
+		start = SystemClock.elapsedRealtime();
+		for (List<DataPoint> r : responses)
+			for (String condition : CORPUS)
+				DataPointConditionEvaluator.compile(condition).evaluate(r);
+		long compiled = SystemClock.elapsedRealtime() - start;
+
+		int evaluations = ITERATIONS * CORPUS.length;
+		Log.i(TAG, evaluations + " evaluations: parsed each time in " + parsing + "ms, compiled once in " + compiled + "ms");
+		assertTrue(compiled <= parsing);
+	}
+}
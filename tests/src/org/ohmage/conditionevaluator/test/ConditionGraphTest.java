@@ -0,0 +1,174 @@
+package org.ohmage.conditionevaluator.test;
+
+import android.test.AndroidTestCase;
+
+import org.ohmage.conditionevaluator.ConditionGraph;
+import org.ohmage.conditionevaluator.DataPoint;
+import org.ohmage.conditionevaluator.DataPointConditionEvaluator;
+import org.ohmage.conditionevaluator.DataPointIndex;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Walks surveys which branch deeply and checks that going back and changing an answer only
+ * evaluates the conditions below it again, while every prompt is shown or hidden exactly as if
+ * all conditions had been evaluated from scratch.
+ */
+public class ConditionGraphTest extends AndroidTestCase {
+
+	/** Prompts in the survey, a complete binary tree eight levels deep */
+	private static final int PROMPTS = 255;
+
+	private String[] mConditions;
+	private int[] mAnswers;
+	private boolean[] mDisplayed;
+	private boolean mFirstSkipped;
+
+	private ConditionGraph mGraph;
+	private ConditionGraph.Evaluator mEvaluator;
+	private DataPointIndex mIndex;
+
+	private static String id(int prompt) {
+		return "q" + prompt;
+	}
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+
+		// each prompt is shown when its parent was shown and answered with its side of the tree,
+		// and every other right branch also needs the first prompt not to have been skipped
+		mConditions = new String[PROMPTS];
+		mConditions[0] = "";
+		for (int i = 1; i < PROMPTS; i++) {
+			String parent = id((i - 1) / 2);
+			String side = "(" + parent + " != NOT_DISPLAYED and " + parent + " == " + ((i % 2 == 1) ? 1 : 0) + ")";
+			mConditions[i] = (i % 4 == 2) ? side + " and " + id(0) + " != SKIPPED" : side;
+		}
+
+		mAnswers = new int[PROMPTS];
+		Arrays.fill(mAnswers, 1);
+		mDisplayed = new boolean[PROMPTS];
+
+		mGraph = ConditionGraph.build(Arrays.asList(mConditions));
+		mEvaluator = new ConditionGraph.Evaluator(mGraph);
+		mIndex = new DataPointIndex();
+		mIndex.setOnChangeListener(mEvaluator);
+	}
+
+	private DataPoint dataPoint(int prompt, boolean displayed) {
+		DataPoint dataPoint = new DataPoint(id(prompt));
+		dataPoint.setPromptType("single_choice");
+		dataPoint.setValue(mAnswers[prompt]);
+		if (prompt == 0 && mFirstSkipped)
+			dataPoint.setSkipped();
+		else if (!displayed)
+			dataPoint.setNotDisplayed();
+		return dataPoint;
+	}
+
+	/**
+	 * Moves forward from the prompt to the end of the survey, as the survey does when next is
+	 * pressed on each prompt which is shown
+	 */
+	private void walkFrom(int prompt) {
+		for (int position = prompt; position < PROMPTS; position++) {
+			mIndex.truncate(position);
+			for (int i = mIndex.getPosition(); i < position; i++)
+				mIndex.append(i, dataPoint(i, mDisplayed[i]));
+			mIndex.setPosition(position);
+
+			mDisplayed[position] = mEvaluator.evaluate(mConditions[position], mIndex);
+		}
+	}
+
+	/**
+	 * @return which prompts are shown when every condition is evaluated against a new list
+	 */
+	private boolean[] evaluateFromScratch() {
+		boolean[] displayed = new boolean[PROMPTS];
+		List<DataPoint> responses = new ArrayList<DataPoint>();
+		for (int position = 0; position < PROMPTS; position++) {
+			displayed[position] = DataPointConditionEvaluator.evaluateCondition(mConditions[position], responses);
+			responses.add(dataPoint(position, displayed[position]));
+		}
+		return displayed;
+	}
+
+	/**
+	 * @return the number of prompts below the prompt in the tree
+	 */
+	private static int descendants(int prompt) {
+		int count = 0;
+		for (int first = 2 * prompt + 1, width = 2; first < PROMPTS; first = 2 * first + 1, width *= 2)
+			count += Math.min(width, PROMPTS - first);
+		return count;
+	}
+
+	public void testDependents() {
+		assertEquals(2 + PROMPTS / 4, mGraph.getDependents(id(0)).size());
+		assertTrue(mGraph.getDependents(id(5)).contains(mConditions[11]));
+		assertTrue(mGraph.getDependents(id(5)).contains(mConditions[12]));
+		assertTrue(mGraph.getDependents(id(PROMPTS - 1)).isEmpty());
+		assertEquals(2, mGraph.getIds(mConditions[6]).size());
+		assertNull(mGraph.getIds("unknown == 1"));
+	}
+
+	public void testFirstWalk() {
+		walkFrom(0);
+		assertTrue(Arrays.equals(evaluateFromScratch(), mDisplayed));
+		// the first prompt has no condition to evaluate
+		assertEquals(PROMPTS - 1, mEvaluator.getEvaluations());
+	}
+
+	/**
+	 * Going back over answers without changing them shouldn't evaluate anything again
+	 */
+	public void testUnchangedAnswers() {
+		walkFrom(0);
+		int evaluations = mEvaluator.getEvaluations();
+
+		walkFrom(3);
+		walkFrom(0);
+		assertEquals(evaluations, mEvaluator.getEvaluations());
+		assertTrue(Arrays.equals(evaluateFromScratch(), mDisplayed));
+	}
+
+	/**
+	 * Changing an answer deep in the tree should only evaluate the prompts below it
+	 */
+	public void testChangedAnswer() {
+		walkFrom(0);
+
+		for (int prompt : new int[] { 13, 2, 60, 1 }) {
+			int evaluations = mEvaluator.getEvaluations();
+
+			mAnswers[prompt] = 1 - mAnswers[prompt];
+			walkFrom(prompt);
+
+			assertTrue("changing " + prompt, Arrays.equals(evaluateFromScratch(), mDisplayed));
+			int evaluated = mEvaluator.getEvaluations() - evaluations;
+			assertTrue("changing " + prompt + " evaluated " + evaluated, evaluated <= descendants(prompt));
+			assertTrue(evaluated > 0);
+		}
+	}
+
+	/**
+	 * Skipping the first prompt reaches every condition which reads it directly, and through
+	 * them the branches below
+	 */
+	public void testChangedFirstPrompt() {
+		walkFrom(0);
+		int evaluations = mEvaluator.getEvaluations();
+
+		mFirstSkipped = true;
+		walkFrom(0);
+
+		assertTrue(Arrays.equals(evaluateFromScratch(), mDisplayed));
+		for (int i = 2; i < PROMPTS; i += 4)
+			assertFalse("prompt " + i, mDisplayed[i]);
+		assertTrue(mEvaluator.getEvaluations() - evaluations < PROMPTS - 1);
+	}
+}
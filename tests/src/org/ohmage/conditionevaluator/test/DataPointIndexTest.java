@@ -0,0 +1,135 @@
+package org.ohmage.conditionevaluator.test;
+
+import android.os.SystemClock;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import org.ohmage.conditionevaluator.DataPoint;
+import org.ohmage.conditionevaluator.DataPointConditionEvaluator;
+import org.ohmage.conditionevaluator.DataPointIndex;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Checks that a {@link DataPointIndex} finds the same responses as a list of them while the
+ * position moves back and forth, and logs how long walking through a long survey takes when the
+ * responses are rebuilt for every condition compared to kept in the index.
+ */
+public class DataPointIndexTest extends AndroidTestCase {
+
+	private static final String TAG = "DataPointIndexTest";
+
+	/** Elements in the long survey, every fifth of which is a message */
+	private static final int SURVEY_LENGTH = 400;
+
+	private static boolean isPrompt(int position) {
+		return position % 5 != 4;
+	}
+
+	/**
+	 * Prompts in a repeated set share their ids, so ids wrap around
+	 */
+	private static DataPoint dataPoint(int position, int value) {
+		DataPoint dataPoint = new DataPoint("p" + (position % 100));
+		dataPoint.setPromptType("number");
+		dataPoint.setValue(value);
+		return dataPoint;
+	}
+
+	/**
+	 * Builds the responses before the position the way the survey did before they were indexed
+	 */
+	private static List<DataPoint> rebuild(int position) {
+		ArrayList<DataPoint> responses = new ArrayList<DataPoint>();
+		for (int i = 0; i < position; i++)
+			if (isPrompt(i))
+				responses.add(dataPoint(i, i));
+		return responses;
+	}
+
+	private static void moveTo(DataPointIndex index, int position) {
+		index.truncate(position);
+		for (int i = index.getPosition(); i < position; i++)
+			if (isPrompt(i))
+				index.append(i, dataPoint(i, i));
+		index.setPosition(position);
+	}
+
+	private static String condition(int position) {
+		return "p" + (position / 2 % 100) + " == " + (position / 2) + " or p99 > 10";
+	}
+
+	public void testMatchesList() {
+		DataPointIndex index = new DataPointIndex();
+		int[] positions = { 10, 3, 3, 250, 0, 120, 119, 400, 98 };
+		for (int position : positions) {
+			moveTo(index, position);
+			List<DataPoint> expected = rebuild(position);
+
+			assertEquals(position, index.getPosition());
+			assertEquals(expected.size(), index.size());
+			for (int id = 0; id < 100; id++) {
+				DataPoint probe = new DataPoint("p" + id);
+				int location = expected.indexOf(probe);
+				assertEquals(location, index.indexOf(probe));
+				if (location != -1)
+					assertSame(index.get(location), index.get("p" + id));
+				else
+					assertNull(index.get("p" + id));
+			}
+			for (int i = 0; i < SURVEY_LENGTH; i += 7)
+				assertEquals(DataPointConditionEvaluator.evaluateCondition(condition(i), expected),
+						DataPointConditionEvaluator.evaluateCondition(condition(i), index));
+		}
+	}
+
+	/**
+	 * A response read again after moving back should replace the old one
+	 */
+	public void testTruncateRereads() {
+		DataPointIndex index = new DataPointIndex();
+		moveTo(index, 10);
+		assertEquals(3, index.get("p3").getValue());
+
+		index.truncate(3);
+		assertNull(index.get("p3"));
+		index.append(3, dataPoint(3, 42));
+		index.setPosition(10);
+		assertEquals(42, index.get("p3").getValue());
+		assertEquals(4, index.size());
+		assertTrue(DataPointConditionEvaluator.evaluateCondition("p3 == 42", index));
+	}
+
+	public void testAppendBeforePosition() {
+		DataPointIndex index = new DataPointIndex();
+		moveTo(index, 10);
+		try {
+			index.append(5, dataPoint(5, 5));
+			fail("a position which was already read can't be appended");
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+	}
+
+	/**
+	 * Walks forward through the survey checking a condition at each position
+	 */
+	public void testBenchmark() {
+		long start = SystemClock.elapsedRealtime();
+		for (int position = 0; position < SURVEY_LENGTH; position++)
+			DataPointConditionEvaluator.evaluateCondition(condition(position), rebuild(position));
+		long rebuilt = SystemClock.elapsedRealtime() - start;
+
+		DataPointIndex index = new DataPointIndex();
+		start = SystemClock.elapsedRealtime();
+		for (int position = 0; position < SURVEY_LENGTH; position++) {
+			moveTo(index, position);
+			DataPointConditionEvaluator.evaluateCondition(condition(position), index);
+		}
+		long indexed = SystemClock.elapsedRealtime() - start;
+
+		Log.i(TAG, SURVEY_LENGTH + " elements: rebuilt each time in " + rebuilt + "ms, indexed in " + indexed + "ms");
+		assertTrue(indexed <= rebuilt);
+	}
+}
@@ -0,0 +1,172 @@
+package org.ohmage.db.test;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.os.SystemClock;
+import android.test.AndroidTestCase;
+import android.test.RenamingDelegatingContext;
+import android.util.Log;
+
+import org.ohmage.PromptXmlParser;
+import org.ohmage.PromptXmlParser.ParsedElement;
+import org.ohmage.db.CampaignXmlIndex;
+import org.ohmage.db.DbContract.Campaigns;
+import org.ohmage.db.DbContract.Surveys;
+import org.ohmage.db.DbHelper;
+import org.ohmage.db.DbProvider;
+import org.ohmage.db.Models.Campaign;
+
+import java.io.ByteArrayInputStream;
+import java.util.List;
+
+/**
+ * Tests that the {@link CampaignXmlIndex} finds each survey so it can be parsed on its own, and
+ * compares parsing one survey of a 2 MB campaign from its region against parsing the whole xml
+ */
+public class CampaignXmlIndexTest extends AndroidTestCase {
+
+	private static final String TAG = "CampaignXmlIndexTest";
+
+	private static final String CAMPAIGN_URN = "urn:campaign:index";
+
+	/** Size of the campaign used for the benchmark */
+	private static final int LARGE_CAMPAIGN_SIZE = 2 * 1024 * 1024;
+
+	private static final int LARGE_CAMPAIGN_SURVEYS = 40;
+
+	private DbHelper mDbHelper;
+	private DbProvider mProvider;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		RenamingDelegatingContext context = new RenamingDelegatingContext(getContext(), "test.");
+		mProvider = new DbProvider();
+		mProvider.attachInfo(context, null);
+		mDbHelper = new DbHelper(context);
+		mDbHelper.clearAll(mDbHelper.getWritableDatabase());
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		mDbHelper.clearAll(mDbHelper.getWritableDatabase());
+		mDbHelper.close();
+		super.tearDown();
+	}
+
+	private static String survey(String id, int prompts) {
+		StringBuilder xml = new StringBuilder("<survey><id>" + id + "</id><title>Survey " + id + "</title><contentList>");
+		for (int i = 0; i < prompts; i++) {
+			xml.append("<prompt><id>" + id + "_p" + i + "</id><promptType>single_choice</promptType>"
+					+ "<displayLabel>Mood</displayLabel><promptText>How do you feel \u00e9 \ud83d\ude00?</promptText>"
+					+ "<skippable>true</skippable><skipLabel>Skip</skipLabel><properties>"
+					+ "<property><key>0</key><label>Sad</label></property>"
+					+ "<property><key>1</key><label>Happy</label></property>"
+					+ "</properties></prompt>");
+		}
+		return xml.append("</contentList></survey>").toString();
+	}
+
+	private void addCampaign(String xml) {
+		ContentValues values = new ContentValues();
+		values.put(Campaigns.CAMPAIGN_URN, CAMPAIGN_URN);
+		values.put(Campaigns.CAMPAIGN_NAME, "Index");
+		values.put(Campaigns.CAMPAIGN_STATUS, Campaign.STATUS_READY);
+		values.put(Campaigns.CAMPAIGN_CONFIGURATION_XML, xml);
+		assertTrue(mDbHelper.addCampaign(mDbHelper.getWritableDatabase(), values) != -1);
+	}
+
+	/**
+	 * @return the survey and instructions xml the provider cuts out of the campaign
+	 */
+	private String[] querySurveyXml(String surveyId) {
+		Cursor c = mProvider.query(Campaigns.buildSurveyXmlUri(CAMPAIGN_URN, surveyId), new String[] { Surveys.SURVEY_XML,
+				Surveys.INSTRUCTIONS_XML }, null, null, null);
+		try {
+			assertTrue(c.moveToFirst());
+			return new String[] { c.getString(0), c.getString(1) };
+		} finally {
+			c.close();
+		}
+	}
+
+	private static List<ParsedElement> parse(String xml, String surveyId) throws Exception {
+		return PromptXmlParser.parseSurvey(new ByteArrayInputStream(xml.getBytes("UTF-8")), surveyId);
+	}
+
+	/**
+	 * Tags in comments and cdata aren't surveys, and offsets count characters outside the basic
+	 * plane once
+	 */
+	public void testFindsRegions() {
+		String first = "<survey><id>a</id><![CDATA[</survey>]]></survey>";
+		String second = "<Survey kind=\"a>b\"><id>b\ud83d\ude00</id></Survey>";
+		String xml = "<?xml version=\"1.0\"?><!-- <survey> --><campaign><instructions>Be \ud83d\ude00</instructions>"
+				+ "<surveys>" + first + second + "</surveys></campaign>";
+
+		CampaignXmlIndex index = CampaignXmlIndex.build(xml);
+		assertNotNull(index);
+		assertEquals(2, index.surveys.size());
+		assertEquals(first, CampaignXmlIndex.substring(xml, index.surveys.get(0)));
+		assertEquals(second, CampaignXmlIndex.substring(xml, index.surveys.get(1)));
+		assertEquals("<instructions>Be \ud83d\ude00</instructions>", CampaignXmlIndex.substring(xml, index.instructions));
+	}
+
+	public void testUnbalancedXml() {
+		assertNull(CampaignXmlIndex.build("<campaign><survey><survey></survey></campaign>"));
+		assertNull(CampaignXmlIndex.build("<campaign><survey></campaign>"));
+	}
+
+	/**
+	 * The provider should give back exactly the xml of the survey which was asked for
+	 */
+	public void testProviderCutsSurvey() throws Exception {
+		String xml = "<campaign><instructions>Answer \ud83d\ude00</instructions><surveys>" + survey("a", 2)
+				+ survey("b", 3) + "</surveys></campaign>";
+		addCampaign(xml);
+
+		String[] b = querySurveyXml("b");
+		assertEquals(survey("b", 3), b[0]);
+		assertEquals("<instructions>Answer \ud83d\ude00</instructions>", b[1]);
+		assertEquals("Answer \ud83d\ude00", PromptXmlParser.parseCampaignInstructions(new ByteArrayInputStream(b[1].getBytes("UTF-8"))));
+
+		List<ParsedElement> region = parse(b[0], "b");
+		assertEquals(3, region.size());
+		assertEquals(parse(xml, "b").size(), region.size());
+	}
+
+	/**
+	 * Parses the last survey of a 2 MB campaign from the whole xml and from its region
+	 */
+	public void testLargeCampaign() throws Exception {
+		int prompts = LARGE_CAMPAIGN_SIZE / LARGE_CAMPAIGN_SURVEYS / survey("s", 1).length();
+		StringBuilder builder = new StringBuilder("<campaign><campaignUrn>" + CAMPAIGN_URN + "</campaignUrn><surveys>");
+		for (int i = 0; i < LARGE_CAMPAIGN_SURVEYS; i++)
+			builder.append(survey("s" + i, prompts));
+		String xml = builder.append("</surveys></campaign>").toString();
+		String surveyId = "s" + (LARGE_CAMPAIGN_SURVEYS - 1);
+
+		long start = SystemClock.elapsedRealtime();
+		CampaignXmlIndex.build(xml);
+		long indexTime = SystemClock.elapsedRealtime() - start;
+
+		start = SystemClock.elapsedRealtime();
+		addCampaign(xml);
+		long insertTime = SystemClock.elapsedRealtime() - start;
+
+		start = SystemClock.elapsedRealtime();
+		List<ParsedElement> whole = parse(xml, surveyId);
+		long wholeTime = SystemClock.elapsedRealtime() - start;
+
+		start = SystemClock.elapsedRealtime();
+		List<ParsedElement> region = parse(querySurveyXml(surveyId)[0], surveyId);
+		long regionTime = SystemClock.elapsedRealtime() - start;
+
+		Log.i(TAG, xml.length() + " chars, " + LARGE_CAMPAIGN_SURVEYS + " surveys: indexed in " + indexTime + "ms (insert "
+				+ insertTime + "ms), whole xml parsed in " + wholeTime + "ms, one survey read and parsed in " + regionTime + "ms");
+
+		assertEquals(prompts, whole.size());
+		assertEquals(whole.size(), region.size());
+		assertTrue(regionTime < wholeTime);
+	}
+}
@@ -0,0 +1,150 @@
+package org.ohmage.db.test;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.SystemClock;
+import android.test.AndroidTestCase;
+import android.test.RenamingDelegatingContext;
+import android.util.Log;
+
+import org.ohmage.db.DbContract.Campaigns;
+import org.ohmage.db.DbHelper;
+import org.ohmage.db.DbProvider;
+import org.ohmage.db.Models.Campaign;
+
+/**
+ * Tests that campaign xml is stored out of the campaign rows and times opening the campaign list
+ * with many large campaigns against the xml being stored in the rows
+ */
+public class CampaignXmlStorageTest extends AndroidTestCase {
+
+	private static final String TAG = "CampaignXmlStorageTest";
+
+	private static final int CAMPAIGN_COUNT = 50;
+	private static final int PROMPT_COUNT = 1000;
+
+	private static final String INLINE_TABLE = "campaigns_inline";
+
+	private DbProvider mProvider;
+	private DbHelper mDbHelper;
+	private SQLiteDatabase mDb;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		RenamingDelegatingContext context = new RenamingDelegatingContext(getContext(), "test.");
+		mProvider = new DbProvider();
+		mProvider.attachInfo(context, null);
+
+		mDbHelper = new DbHelper(context);
+		mDb = mDbHelper.getWritableDatabase();
+		mDbHelper.clearAll(mDb);
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		mDb.execSQL("DROP TABLE IF EXISTS " + INLINE_TABLE);
+		mDbHelper.clearAll(mDb);
+		mDbHelper.close();
+		super.tearDown();
+	}
+
+	private static String campaignXml(int prompts) {
+		StringBuilder xml = new StringBuilder("<campaign><surveys><survey><id>survey</id><contentList>");
+		for (int i = 0; i < prompts; i++)
+			xml.append("<prompt><id>prompt" + i + "</id><promptType>text</promptType><promptText>Prompt number " + i
+					+ " of a large campaign</promptText></prompt>");
+		xml.append("</contentList></survey></surveys></campaign>");
+		return xml.toString();
+	}
+
+	private void addCampaign(String urn, String xml) {
+		ContentValues values = new ContentValues();
+		values.put(Campaigns.CAMPAIGN_URN, urn);
+		values.put(Campaigns.CAMPAIGN_NAME, urn);
+		values.put(Campaigns.CAMPAIGN_STATUS, Campaign.STATUS_READY);
+		values.put(Campaigns.CAMPAIGN_CONFIGURATION_XML, xml);
+		assertTrue(mDbHelper.addCampaign(mDb, values) != -1);
+	}
+
+	private String readXml(String urn) {
+		Cursor c = mProvider.query(Campaigns.buildCampaignXmlUri(urn), new String[] { Campaigns.CAMPAIGN_CONFIGURATION_XML }, null, null, null);
+		try {
+			return c.moveToFirst() ? c.getString(0) : null;
+		} finally {
+			c.close();
+		}
+	}
+
+	private long timeList(String table) {
+		long start = SystemClock.elapsedRealtime();
+		Cursor c = mDb.query(table, null, null, null, null, null, Campaigns.DEFAULT_SORT);
+		while (c.moveToNext())
+			c.getString(c.getColumnIndex(Campaigns.CAMPAIGN_NAME));
+		c.close();
+		return SystemClock.elapsedRealtime() - start;
+	}
+
+	/**
+	 * The campaign list shouldn't carry the xml but it should still be readable by uri and by name
+	 */
+	public void testXmlIsLoadedLazily() {
+		String xml = campaignXml(2);
+		addCampaign("urn:campaign:lazy", xml);
+
+		Cursor list = mProvider.query(Campaigns.CONTENT_URI, null, null, null, null);
+		assertEquals(-1, list.getColumnIndex(Campaigns.CAMPAIGN_CONFIGURATION_XML));
+		list.close();
+
+		assertEquals(xml, readXml("urn:campaign:lazy"));
+
+		Cursor named = mProvider.query(Campaigns.buildCampaignUri("urn:campaign:lazy"),
+				new String[] { Campaigns.CAMPAIGN_CONFIGURATION_XML }, null, null, null);
+		assertTrue(named.moveToFirst());
+		assertEquals(xml, named.getString(0));
+		named.close();
+	}
+
+	/**
+	 * Changing the xml through the campaign should replace it, and deleting the campaign should
+	 * remove it
+	 */
+	public void testXmlFollowsCampaign() {
+		addCampaign("urn:campaign:lazy", campaignXml(2));
+
+		String xml = campaignXml(3);
+		ContentValues values = new ContentValues();
+		values.put(Campaigns.CAMPAIGN_CONFIGURATION_XML, xml);
+		assertEquals(1, mProvider.update(Campaigns.buildCampaignUri("urn:campaign:lazy"), values, null, null));
+		assertEquals(xml, readXml("urn:campaign:lazy"));
+
+		mProvider.delete(Campaigns.buildCampaignUri("urn:campaign:lazy"), null, null);
+		assertNull(readXml("urn:campaign:lazy"));
+	}
+
+	/**
+	 * Times reading the campaign list with the xml out of the rows and with it in the rows
+	 */
+	public void testCampaignListTimings() {
+		String xml = campaignXml(PROMPT_COUNT);
+		mDb.beginTransaction();
+		try {
+			for (int i = 0; i < CAMPAIGN_COUNT; i++)
+				addCampaign("urn:campaign:large:" + i, xml);
+			mDb.setTransactionSuccessful();
+		} finally {
+			mDb.endTransaction();
+		}
+
+		// the old layout, where the xml was part of each campaign row
+		mDb.execSQL("CREATE TABLE " + INLINE_TABLE + " AS SELECT * FROM " + DbHelper.Tables.CAMPAIGNS
+				+ " NATURAL JOIN " + DbHelper.Tables.CAMPAIGN_XML);
+
+		long inline = timeList(INLINE_TABLE);
+		long lazy = timeList(DbHelper.Tables.CAMPAIGNS);
+
+		Log.i(TAG, "campaign list with " + CAMPAIGN_COUNT + " campaigns of " + xml.length() + " chars: xml in row "
+				+ inline + "ms, xml out of row " + lazy + "ms");
+	}
+}
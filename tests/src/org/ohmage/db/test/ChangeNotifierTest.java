@@ -0,0 +1,153 @@
+package org.ohmage.db.test;
+
+import android.content.ContentProviderOperation;
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.ContentObserver;
+import android.net.Uri;
+import android.test.AndroidTestCase;
+import android.test.RenamingDelegatingContext;
+import android.test.mock.MockContentResolver;
+import android.util.Log;
+
+import org.ohmage.db.ChangeNotifier;
+import org.ohmage.db.DbContract;
+import org.ohmage.db.DbContract.Responses;
+import org.ohmage.db.DbHelper;
+import org.ohmage.db.DbProvider;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * Counts the requeries a sync of a thousand responses causes observers of the {@link DbProvider}
+ * to make now that its notifications go through the {@link ChangeNotifier}
+ */
+public class ChangeNotifierTest extends AndroidTestCase {
+
+	private static final String TAG = "ChangeNotifierTest";
+
+	private static final int RESPONSE_COUNT = 1000;
+
+	private static final String CAMPAIGN_URN = "urn:campaign:notify";
+
+	/**
+	 * Counts the notifications sent for each uri. Every notification would cause an observing
+	 * loader to requery.
+	 */
+	private static class CountingContentResolver extends MockContentResolver {
+		private final HashMap<Uri, Integer> mCounts = new HashMap<Uri, Integer>();
+
+		@Override
+		public synchronized void notifyChange(Uri uri, ContentObserver observer, boolean syncToNetwork) {
+			Integer count = mCounts.get(uri);
+			mCounts.put(uri, (count == null) ? 1 : count + 1);
+		}
+
+		public synchronized int getCount(Uri uri) {
+			Integer count = mCounts.get(uri);
+			return (count == null) ? 0 : count;
+		}
+
+		public synchronized int getTotal() {
+			int total = 0;
+			for (Integer count : mCounts.values())
+				total += count;
+			return total;
+		}
+	}
+
+	private CountingContentResolver mResolver;
+	private DbProvider mProvider;
+	private DbHelper mDbHelper;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		mResolver = new CountingContentResolver();
+		Context context = new RenamingDelegatingContext(getContext(), "test.") {
+			@Override
+			public ContentResolver getContentResolver() {
+				return mResolver;
+			}
+		};
+
+		mProvider = new DbProvider();
+		mProvider.attachInfo(context, null);
+		mResolver.addProvider(DbContract.CONTENT_AUTHORITY, mProvider);
+
+		mDbHelper = new DbHelper(context);
+		mDbHelper.clearAll(mDbHelper.getWritableDatabase());
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		mDbHelper.clearAll(mDbHelper.getWritableDatabase());
+		mDbHelper.close();
+		super.tearDown();
+	}
+
+	private ContentValues response(int i) {
+		ContentValues values = new ContentValues();
+		values.put(Responses.RESPONSE_UUID, CAMPAIGN_URN + ":" + i);
+		values.put(Responses.CAMPAIGN_URN, CAMPAIGN_URN);
+		values.put(Responses.SURVEY_ID, "survey");
+		values.put(Responses.RESPONSE_TIME, System.currentTimeMillis());
+		values.put(Responses.RESPONSE_JSON, "[]");
+		return values;
+	}
+
+	private void waitForNotifications() throws InterruptedException {
+		Thread.sleep(ChangeNotifier.DEBOUNCE_MS * 4);
+	}
+
+	/**
+	 * Syncing responses in one batch should only notify each uri once
+	 */
+	public void testBatchNotifiesOnce() throws Exception {
+		ArrayList<ContentProviderOperation> operations = new ArrayList<ContentProviderOperation>();
+		for (int i = 0; i < RESPONSE_COUNT; i++)
+			operations.add(ContentProviderOperation.newInsert(Responses.CONTENT_URI).withValues(response(i)).build());
+
+		assertNotNull(mProvider.applyBatch(operations));
+		waitForNotifications();
+
+		Log.i(TAG, RESPONSE_COUNT + " responses in one batch caused " + mResolver.getTotal() + " requeries");
+		assertEquals(1, mResolver.getCount(Responses.CONTENT_URI));
+	}
+
+	/**
+	 * Inserting responses one at a time should be debounced into a few notifications
+	 */
+	public void testInsertsAreDebounced() throws Exception {
+		long start = System.currentTimeMillis();
+		for (int i = 0; i < RESPONSE_COUNT; i++)
+			mProvider.insert(Responses.CONTENT_URI, response(i));
+		long elapsed = System.currentTimeMillis() - start;
+		waitForNotifications();
+
+		Log.i(TAG, RESPONSE_COUNT + " separate inserts caused " + mResolver.getTotal() + " requeries");
+
+		// at most one notification can be sent per debounce window
+		int windows = (int) (elapsed / ChangeNotifier.DEBOUNCE_MS) + 1;
+		assertTrue(mResolver.getCount(Responses.CONTENT_URI) <= windows);
+	}
+
+	/**
+	 * A batch that fails shouldn't notify anyone since nothing changed
+	 */
+	public void testFailedBatchDoesNotNotify() throws Exception {
+		ArrayList<ContentProviderOperation> operations = new ArrayList<ContentProviderOperation>();
+		operations.add(ContentProviderOperation.newInsert(Responses.CONTENT_URI).withValues(response(0)).build());
+		// an update which is expected to change a row that doesn't exist fails the batch. The id
+		// must be positive or the uri doesn't match and the provider throws instead.
+		operations.add(ContentProviderOperation.newUpdate(Responses.buildResponseUri(Long.MAX_VALUE))
+				.withValue(Responses.RESPONSE_STATUS, 0).withExpectedCount(1).build());
+
+		assertNull(mProvider.applyBatch(operations));
+		waitForNotifications();
+
+		assertEquals(0, mResolver.getTotal());
+	}
+}
@@ -0,0 +1,133 @@
+package org.ohmage.db.test;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.test.AndroidTestCase;
+import android.test.RenamingDelegatingContext;
+
+import org.ohmage.db.DbContract.DailyAggregates;
+import org.ohmage.db.DbContract.PromptResponses;
+import org.ohmage.db.DbContract.Responses;
+import org.ohmage.db.DbHelper;
+import org.ohmage.db.DbHelper.Tables;
+
+import java.util.ArrayList;
+import java.util.Random;
+
+/**
+ * Tests that the {@link DailyAggregates} kept up to date by the database triggers match the
+ * aggregates rebuilt from scratch by {@link DbHelper#rebuildDailyAggregates(SQLiteDatabase)}
+ */
+public class DailyAggregatesTest extends AndroidTestCase {
+
+	private static final String CAMPAIGN_URN = "urn:campaign:daily";
+	private static final String SURVEY_ID = "daily";
+
+	private static final long HOUR = 60 * 60 * 1000;
+
+	private DbHelper mDbHelper;
+	private SQLiteDatabase mDb;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		mDbHelper = new DbHelper(new RenamingDelegatingContext(getContext(), "test."));
+		mDb = mDbHelper.getWritableDatabase();
+		mDbHelper.clearAll(mDb);
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		mDbHelper.clearAll(mDb);
+		mDbHelper.close();
+		super.tearDown();
+	}
+
+	private void insertResponse(long time, Double... values) {
+		ContentValues response = new ContentValues();
+		response.put(Responses.CAMPAIGN_URN, CAMPAIGN_URN);
+		response.put(Responses.SURVEY_ID, SURVEY_ID);
+		response.put(Responses.RESPONSE_TIME, time);
+		long id = mDb.insert(Tables.RESPONSES, null, response);
+
+		for (int i = 0; i < values.length; i++) {
+			ContentValues prompt = new ContentValues();
+			prompt.put(PromptResponses.RESPONSE_ID, id);
+			prompt.put(PromptResponses.COMPOSITE_ID, CAMPAIGN_URN + ":" + SURVEY_ID);
+			prompt.put(PromptResponses.PROMPT_ID, "prompt" + i);
+			prompt.put(PromptResponses.PROMPT_RESPONSE_NUMERIC_VALUE, values[i]);
+			mDb.insert(Tables.PROMPT_RESPONSES, null, prompt);
+		}
+	}
+
+	private ArrayList<String> readAggregates() {
+		Cursor c = mDb.query(Tables.DAILY_AGGREGATES, null, null, null, null, null,
+				DailyAggregates.PROMPT_ID + "," + DailyAggregates.AGGREGATE_DAY);
+		ArrayList<String> rows = new ArrayList<String>();
+		while (c.moveToNext()) {
+			StringBuilder row = new StringBuilder();
+			for (int i = 0; i < c.getColumnCount(); i++)
+				row.append(c.getString(i)).append('|');
+			rows.add(row.toString());
+		}
+		c.close();
+		return rows;
+	}
+
+	/**
+	 * Inserting and deleting responses should leave the same aggregates as a rebuild
+	 */
+	public void testTriggersMatchRebuild() {
+		Random random = new Random(0);
+		long start = System.currentTimeMillis() - 30 * 24 * HOUR;
+
+		for (int i = 0; i < 200; i++) {
+			Double value = (random.nextInt(5) == 0) ? null : Double.valueOf(random.nextInt(10));
+			insertResponse(start + i * 5 * HOUR, value, Double.valueOf(i));
+		}
+
+		mDb.delete(Tables.RESPONSES, Responses._ID + " % 3 = 0", null);
+
+		ArrayList<String> maintained = readAggregates();
+		assertFalse(maintained.isEmpty());
+
+		mDbHelper.rebuildDailyAggregates(mDb);
+		assertEquals(maintained, readAggregates());
+	}
+
+	/**
+	 * Deleting the responses with the smallest and largest values of a day should recompute the
+	 * min and max from the responses which are left
+	 */
+	public void testDeleteMinAndMax() {
+		long time = System.currentTimeMillis();
+		insertResponse(time, 1.0);
+		insertResponse(time, 5.0);
+		insertResponse(time, 9.0);
+
+		mDb.delete(Tables.RESPONSES, Responses._ID + "!=(SELECT r." + Responses._ID + " FROM " + Tables.RESPONSES
+				+ " r JOIN " + Tables.PROMPT_RESPONSES + " p ON p." + PromptResponses.RESPONSE_ID + "=r." + Responses._ID
+				+ " WHERE " + PromptResponses.PROMPT_RESPONSE_NUMERIC_VALUE + "=5)", null);
+
+		Cursor c = mDb.query(Tables.DAILY_AGGREGATES, new String[] { DailyAggregates.AGGREGATE_COUNT, DailyAggregates.AGGREGATE_SUM,
+				DailyAggregates.AGGREGATE_MIN, DailyAggregates.AGGREGATE_MAX }, DailyAggregates.PROMPT_ID + "='prompt0'", null, null, null, null);
+		assertTrue(c.moveToFirst());
+		assertEquals(1, c.getInt(0));
+		assertEquals(5.0, c.getDouble(1));
+		assertEquals(5.0, c.getDouble(2));
+		assertEquals(5.0, c.getDouble(3));
+		c.close();
+	}
+
+	/**
+	 * Deleting the last response of a day should remove its rows
+	 */
+	public void testDeleteLastResponseOfDay() {
+		insertResponse(System.currentTimeMillis(), 3.0);
+		assertEquals(2, readAggregates().size());
+
+		mDb.delete(Tables.RESPONSES, null, null);
+		assertEquals(0, readAggregates().size());
+	}
+}
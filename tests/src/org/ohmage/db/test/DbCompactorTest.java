@@ -0,0 +1,228 @@
+package org.ohmage.db.test;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.test.AndroidTestCase;
+import android.test.RenamingDelegatingContext;
+import android.test.mock.MockContentResolver;
+import android.text.format.DateUtils;
+import android.util.Log;
+
+import org.ohmage.db.DbCompactor;
+import org.ohmage.db.DbCompactor.Window;
+import org.ohmage.db.DbContract;
+import org.ohmage.db.DbContract.Campaigns;
+import org.ohmage.db.DbContract.Responses;
+import org.ohmage.db.DbHelper;
+import org.ohmage.db.DbHelper.Tables;
+import org.ohmage.db.DbProvider;
+import org.ohmage.db.Models.Campaign;
+import org.ohmage.db.Models.Response;
+
+import java.util.ArrayList;
+import java.util.Random;
+
+/**
+ * Tests that the compactor only removes uploaded responses which are past the retention policy
+ * and gives their space back
+ */
+public class DbCompactorTest extends AndroidTestCase {
+
+	private static final String TAG = "DbCompactorTest";
+
+	private static final Window ALWAYS = new Window() {
+		@Override
+		public boolean isOpen() {
+			return true;
+		}
+	};
+
+	private Context mContext;
+	private DbHelper mDbHelper;
+	private DbProvider mProvider;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		final MockContentResolver resolver = new MockContentResolver();
+		mContext = new RenamingDelegatingContext(getContext(), "test.") {
+			@Override
+			public ContentResolver getContentResolver() {
+				return resolver;
+			}
+		};
+
+		mProvider = new DbProvider();
+		mProvider.attachInfo(mContext, null);
+		resolver.addProvider(DbContract.CONTENT_AUTHORITY, mProvider);
+
+		mDbHelper = new DbHelper(mContext);
+		mDbHelper.clearAll(mDbHelper.getWritableDatabase());
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		mDbHelper.clearAll(mDbHelper.getWritableDatabase());
+		mDbHelper.close();
+		super.tearDown();
+	}
+
+	private static ContentValues response(String uuid, long age, int status, String json) {
+		return response("urn:campaign:compact", uuid, age, status, json);
+	}
+
+	private static ContentValues response(String campaignUrn, String uuid, long age, int status, String json) {
+		ContentValues values = new ContentValues();
+		values.put(Responses.RESPONSE_UUID, uuid);
+		values.put(Responses.CAMPAIGN_URN, campaignUrn);
+		values.put(Responses.SURVEY_ID, "survey");
+		values.put(Responses.RESPONSE_TIME, System.currentTimeMillis() - age);
+		values.put(Responses.RESPONSE_STATUS, status);
+		values.put(Responses.RESPONSE_JSON, json);
+		return values;
+	}
+
+	/**
+	 * Json which won't compress, so the database grows by about its size
+	 */
+	private static String randomJson(Random random) {
+		StringBuilder json = new StringBuilder("[{\"prompt_id\":\"notes\",\"value\":\"");
+		for (int i = 0; i < 1000; i++)
+			json.append(Integer.toHexString(random.nextInt(16)));
+		return json.append("\"}]").toString();
+	}
+
+	/**
+	 * Adds a campaign with the survey the responses are to, which responses are joined to when
+	 * they are read through the provider
+	 */
+	private void addCampaign(String campaignUrn) {
+		ContentValues values = new ContentValues();
+		values.put(Campaigns.CAMPAIGN_URN, campaignUrn);
+		values.put(Campaigns.CAMPAIGN_NAME, campaignUrn);
+		values.put(Campaigns.CAMPAIGN_STATUS, Campaign.STATUS_READY);
+		values.put(Campaigns.CAMPAIGN_CONFIGURATION_XML, "<campaign><surveys><survey><id>survey</id>"
+				+ "<title>Survey</title><contentList></contentList></survey></surveys></campaign>");
+		assertTrue(mDbHelper.addCampaign(mDbHelper.getWritableDatabase(), values) != -1);
+	}
+
+	private ArrayList<String> remaining() {
+		Cursor c = mDbHelper.getReadableDatabase().query(Tables.RESPONSES, new String[] { Responses.RESPONSE_UUID },
+				null, null, null, null, Responses.RESPONSE_UUID);
+		ArrayList<String> uuids = new ArrayList<String>();
+		while (c.moveToNext())
+			uuids.add(c.getString(0));
+		c.close();
+		return uuids;
+	}
+
+	/**
+	 * Only responses which are on the server and older than the retention period are removed
+	 */
+	public void testEvictsExpiredResponses() {
+		long old = 100 * DateUtils.DAY_IN_MILLIS;
+		mProvider.insert(Responses.CONTENT_URI, response("old_uploaded", old, Response.STATUS_UPLOADED, "[]"));
+		mProvider.insert(Responses.CONTENT_URI, response("old_downloaded", old, Response.STATUS_DOWNLOADED, "[]"));
+		mProvider.insert(Responses.CONTENT_URI, response("old_local", old, Response.STATUS_STANDBY, "[]"));
+		mProvider.insert(Responses.CONTENT_URI, response("new_uploaded", DateUtils.DAY_IN_MILLIS, Response.STATUS_UPLOADED, "[]"));
+		// expired too, but the newest downloaded response is kept
+		mProvider.insert(Responses.CONTENT_URI, response("newest_downloaded", old / 2, Response.STATUS_DOWNLOADED, "[]"));
+
+		DbCompactor.Result result = new DbCompactor(mContext, 30, 0).compact(ALWAYS);
+
+		assertTrue(result.finished);
+		assertEquals(2, result.evicted);
+		assertEquals("[new_uploaded, newest_downloaded, old_local]", remaining().toString());
+	}
+
+	/**
+	 * Removing downloaded responses doesn't move back where the next download of each campaign
+	 * starts
+	 */
+	public void testKeepsLastDownloadedResponseTime() {
+		Campaign first = new Campaign();
+		first.mUrn = "urn:campaign:first";
+		Campaign second = new Campaign();
+		second.mUrn = "urn:campaign:second";
+		addCampaign(first.mUrn);
+		addCampaign(second.mUrn);
+
+		long old = 100 * DateUtils.DAY_IN_MILLIS;
+		for (int i = 0; i < 3; i++) {
+			mProvider.insert(Responses.CONTENT_URI, response(first.mUrn, "first" + i, old + i * DateUtils.DAY_IN_MILLIS,
+					Response.STATUS_DOWNLOADED, "[]"));
+			mProvider.insert(Responses.CONTENT_URI, response(second.mUrn, "second" + i, old - i * DateUtils.DAY_IN_MILLIS,
+					Response.STATUS_DOWNLOADED, "[]"));
+		}
+		long firstTime = first.getLastDownloadedResponseTime(mContext);
+		long secondTime = second.getLastDownloadedResponseTime(mContext);
+		assertTrue(firstTime != 0 && secondTime != 0);
+
+		DbCompactor.Result result = new DbCompactor(mContext, 30, 0).compact(ALWAYS);
+
+		assertTrue(result.finished);
+		assertEquals(4, result.evicted);
+		assertEquals("[first0, second2]", remaining().toString());
+		assertEquals(firstTime, first.getLastDownloadedResponseTime(mContext));
+		assertEquals(secondTime, second.getLastDownloadedResponseTime(mContext));
+
+		// the size cap keeps them too
+		result = new DbCompactor(mContext, 0, 1).compact(ALWAYS);
+		assertEquals(0, result.evicted);
+		assertEquals(firstTime, first.getLastDownloadedResponseTime(mContext));
+		assertEquals(secondTime, second.getLastDownloadedResponseTime(mContext));
+	}
+
+	/**
+	 * The oldest uploaded responses are removed until the data fits under the cap
+	 */
+	public void testEvictsOldestOverSizeCap() {
+		Random random = new Random(0);
+		ContentValues[] responses = new ContentValues[1000];
+		for (int i = 0; i < responses.length; i++) {
+			// every tenth response hasn't been uploaded
+			int status = (i % 10 == 0) ? Response.STATUS_STANDBY : Response.STATUS_UPLOADED;
+			responses[i] = response(String.format("r%04d", i), (responses.length - i) * DateUtils.MINUTE_IN_MILLIS, status, randomJson(random));
+		}
+		mProvider.bulkInsert(Responses.CONTENT_URI, responses);
+
+		SQLiteDatabase db = mDbHelper.getWritableDatabase();
+		long cap = DbHelper.getUsedSize(db) / 2;
+
+		DbCompactor.Result result = new DbCompactor(mContext, 0, cap).compact(ALWAYS);
+		Log.i(TAG, result.toString());
+
+		assertTrue(result.finished);
+		assertTrue(DbHelper.getUsedSize(db) <= cap);
+		assertTrue(result.reclaimedBytes > 0);
+		assertEquals(0, DbHelper.getFreeSize(db));
+
+		ArrayList<String> remaining = remaining();
+		// the newest responses are kept
+		assertTrue(remaining.contains("r0999"));
+		// none of the responses which weren't uploaded are removed
+		for (int i = 0; i < responses.length; i += 10)
+			assertTrue(remaining.contains(String.format("r%04d", i)));
+	}
+
+	/**
+	 * Nothing is done once the window has closed
+	 */
+	public void testStopsWhenWindowCloses() {
+		mProvider.insert(Responses.CONTENT_URI, response("old_uploaded", 100 * DateUtils.DAY_IN_MILLIS, Response.STATUS_UPLOADED, "[]"));
+
+		DbCompactor.Result result = new DbCompactor(mContext, 30, 0).compact(new Window() {
+			@Override
+			public boolean isOpen() {
+				return false;
+			}
+		});
+
+		assertFalse(result.finished);
+		assertEquals(0, result.evicted);
+		assertEquals(1, remaining().size());
+	}
+}
@@ -140,6 +140,15 @@ public abstract class MockArrayCursor<T> extends EmptyMockCursor {
 
 	protected abstract String getStringValid(int columnIndex);
 
+	/**
+	 * Returns the string of the column as bytes, which is what a real cursor does for text
+	 */
+	@Override
+	public byte[] getBlob(int columnIndex) {
+		String value = getString(columnIndex);
+		return (value != null) ? value.getBytes() : null;
+	}
+
 	protected String getStringDefault(int columnIndex) {
 		return "";
 	}
@@ -0,0 +1,153 @@
+package org.ohmage.db.test;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.SystemClock;
+import android.test.AndroidTestCase;
+import android.test.RenamingDelegatingContext;
+import android.util.Log;
+
+import org.ohmage.db.DbContract.Responses;
+import org.ohmage.db.DbHelper;
+import org.ohmage.db.DbHelper.Tables;
+import org.ohmage.db.PayloadCompressor;
+
+/**
+ * Tests that payloads are compressed and read back transparently, and compares the size and speed
+ * of storing survey json compressed and as text
+ */
+public class PayloadCompressorTest extends AndroidTestCase {
+
+	private static final String TAG = "PayloadCompressorTest";
+
+	private static final int PAYLOAD_COUNT = 2000;
+
+	private static final String PLAIN_DB = "test.payload_plain.db";
+	private static final String COMPRESSED_DB = "test.payload_compressed.db";
+
+	@Override
+	protected void tearDown() throws Exception {
+		getContext().deleteDatabase(PLAIN_DB);
+		getContext().deleteDatabase(COMPRESSED_DB);
+		super.tearDown();
+	}
+
+	/**
+	 * A survey response like the ones stored by the survey activity
+	 */
+	private static String responseJson(int i) {
+		StringBuilder json = new StringBuilder("[");
+		for (int p = 0; p < 20; p++) {
+			if (p > 0)
+				json.append(',');
+			json.append("{\"prompt_id\":\"prompt").append(p).append("\",\"value\":");
+			if (p % 5 == 0)
+				json.append("\"SKIPPED\"");
+			else if (p % 5 == 1)
+				json.append("\"I slept well and had ").append(i % 7).append(" cups of coffee\"");
+			else
+				json.append((i * p) % 10);
+			json.append('}');
+		}
+		return json.append(']').toString();
+	}
+
+	public void testRoundTrip() {
+		assertEquals("[]", PayloadCompressor.compress("[]"));
+
+		String json = responseJson(3);
+		Object compressed = PayloadCompressor.compress(json);
+		assertTrue(compressed instanceof byte[]);
+		assertTrue(((byte[]) compressed).length < json.length() / 2);
+		assertEquals(json, PayloadCompressor.decompress((byte[]) compressed));
+
+		String unicode = "[{\"prompt_id\":\"notes\",\"value\":\"caf\u00e9 \u65e5\u672c\u8a9e \u00fcber alles, repeated: caf\u00e9 \u65e5\u672c\u8a9e\"}]";
+		assertEquals(unicode, PayloadCompressor.decompress((byte[]) PayloadCompressor.compress(unicode)));
+	}
+
+	/**
+	 * Payloads stored as text before compression existed should still be readable
+	 */
+	public void testReadsOldAndNewRows() {
+		DbHelper dbHelper = new DbHelper(new RenamingDelegatingContext(getContext(), "test."));
+		SQLiteDatabase db = dbHelper.getWritableDatabase();
+		dbHelper.clearAll(db);
+		try {
+			String json = responseJson(1);
+
+			ContentValues values = new ContentValues();
+			values.put(Responses.RESPONSE_UUID, "old");
+			values.put(Responses.RESPONSE_JSON, json);
+			db.insert(Tables.RESPONSES, null, values);
+
+			values.put(Responses.RESPONSE_UUID, "new");
+			db.insert(Tables.RESPONSES, null, PayloadCompressor.compress(values, Responses.RESPONSE_JSON));
+
+			Cursor c = db.query(Tables.RESPONSES, new String[] { Responses.RESPONSE_JSON }, null, null, null, null, null);
+			assertEquals(2, c.getCount());
+			while (c.moveToNext())
+				assertEquals(json, PayloadCompressor.getString(c, 0));
+			c.close();
+		} finally {
+			dbHelper.clearAll(db);
+			dbHelper.close();
+		}
+	}
+
+	/**
+	 * Writes the same payloads as text and compressed and reports the size of each database and
+	 * how fast they were written and read
+	 */
+	public void testSizeAndThroughput() {
+		String[] payloads = new String[PAYLOAD_COUNT];
+		for (int i = 0; i < PAYLOAD_COUNT; i++)
+			payloads[i] = responseJson(i);
+
+		long plain = benchmark(PLAIN_DB, payloads, false);
+		long compressed = benchmark(COMPRESSED_DB, payloads, true);
+
+		assertTrue(compressed < plain);
+	}
+
+	/**
+	 * @return the size of the database file
+	 */
+	private long benchmark(String name, String[] payloads, boolean compress) {
+		getContext().deleteDatabase(name);
+		SQLiteDatabase db = getContext().openOrCreateDatabase(name, Context.MODE_PRIVATE, null);
+		try {
+			db.execSQL("CREATE TABLE payloads (_id INTEGER PRIMARY KEY, data TEXT)");
+
+			long start = SystemClock.elapsedRealtime();
+			db.beginTransaction();
+			try {
+				ContentValues values = new ContentValues();
+				for (String payload : payloads) {
+					values.put("data", payload);
+					db.insert("payloads", null, compress ? PayloadCompressor.compress(values, "data") : values);
+				}
+				db.setTransactionSuccessful();
+			} finally {
+				db.endTransaction();
+			}
+			long write = SystemClock.elapsedRealtime() - start;
+
+			start = SystemClock.elapsedRealtime();
+			Cursor c = db.query("payloads", new String[] { "data" }, null, null, null, null, null);
+			int i = 0;
+			while (c.moveToNext())
+				assertEquals(payloads[i++], compress ? PayloadCompressor.getString(c, 0) : c.getString(0));
+			c.close();
+			long read = SystemClock.elapsedRealtime() - start;
+
+			long size = getContext().getDatabasePath(name).length();
+			Log.i(TAG, (compress ? "compressed" : "plain") + ": " + size / 1024 + "KB, wrote " + payloads.length * 1000L / Math.max(1, write)
+					+ " payloads/s, read " + payloads.length * 1000L / Math.max(1, read) + " payloads/s");
+			return size;
+		} finally {
+			db.close();
+		}
+	}
+}
@@ -0,0 +1,137 @@
+package org.ohmage.db.test;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.test.AndroidTestCase;
+import android.test.RenamingDelegatingContext;
+import android.util.Log;
+
+import org.ohmage.db.DbContract.PromptResponses;
+import org.ohmage.db.DbHelper;
+import org.ohmage.db.DbHelper.Tables;
+import org.ohmage.db.Models.PromptResponse;
+
+/**
+ * Benchmarks prompt aggregates over the typed
+ * {@link PromptResponses#PROMPT_RESPONSE_NUMERIC_VALUE} column against the old text column on a
+ * database seeded with a million prompt responses.
+ */
+public class PromptResponseAggregateTest extends AndroidTestCase {
+
+	private static final String TAG = "PromptResponseAggregateTest";
+
+	private static final int ROW_COUNT = 1000000;
+	private static final int PROMPT_COUNT = 50;
+
+	private static final String COMPOSITE_ID = "urn:campaign:aggregate:survey";
+
+	private DbHelper mDbHelper;
+	private SQLiteDatabase mDb;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		mDbHelper = new DbHelper(new RenamingDelegatingContext(getContext(), "test."));
+		mDb = mDbHelper.getWritableDatabase();
+		mDbHelper.clearAll(mDb);
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		mDbHelper.clearAll(mDb);
+		mDbHelper.close();
+		super.tearDown();
+	}
+
+	private void seed() {
+		SQLiteStatement insert = mDb.compileStatement("INSERT INTO " + Tables.PROMPT_RESPONSES + " ("
+				+ PromptResponses.RESPONSE_ID + "," + PromptResponses.COMPOSITE_ID + "," + PromptResponses.PROMPT_ID + ","
+				+ PromptResponses.PROMPT_RESPONSE_VALUE + "," + PromptResponses.PROMPT_RESPONSE_NUMERIC_VALUE
+				+ ") VALUES (?,?,?,?,?)");
+		mDb.beginTransaction();
+		try {
+			for (int i = 0; i < ROW_COUNT; i++) {
+				// every tenth response was skipped so it has no numeric value
+				String value = (i % 10 == 0) ? "SKIPPED" : String.valueOf(i % 7);
+				insert.bindLong(1, i / PROMPT_COUNT);
+				insert.bindString(2, COMPOSITE_ID);
+				insert.bindString(3, "prompt" + (i % PROMPT_COUNT));
+				insert.bindString(4, value);
+				Double numeric = PromptResponse.parseNumericValue(value);
+				if (numeric == null)
+					insert.bindNull(5);
+				else
+					insert.bindDouble(5, numeric);
+				insert.execute();
+			}
+			mDb.setTransactionSuccessful();
+		} finally {
+			mDb.endTransaction();
+			insert.close();
+		}
+	}
+
+	private double aggregate(String clause, String table, String promptId) {
+		Cursor c = mDb.rawQuery("SELECT " + clause + " FROM " + table + " WHERE "
+				+ PromptResponses.PROMPT_ID + "=? AND " + PromptResponses.COMPOSITE_ID + "=?",
+				new String[] { promptId, COMPOSITE_ID });
+		try {
+			c.moveToFirst();
+			return c.getDouble(0);
+		} finally {
+			c.close();
+		}
+	}
+
+	/**
+	 * Numeric values should be parsed and anything else should be left null
+	 */
+	public void testParseNumericValue() {
+		assertEquals(3.0, PromptResponse.parseNumericValue("3"));
+		assertEquals(-2.5, PromptResponse.parseNumericValue("-2.5"));
+		assertNull(PromptResponse.parseNumericValue(null));
+		assertNull(PromptResponse.parseNumericValue(""));
+		assertNull(PromptResponse.parseNumericValue("SKIPPED"));
+		assertNull(PromptResponse.parseNumericValue("NaN"));
+		assertNull(PromptResponse.parseNumericValue("1d"));
+		assertNull(PromptResponse.parseNumericValue("[1,2]"));
+	}
+
+	/**
+	 * The aggregate should be answered from the covering index alone
+	 */
+	public void testAggregateUsesCoveringIndex() {
+		Cursor c = mDb.rawQuery("EXPLAIN QUERY PLAN SELECT avg(" + PromptResponses.PROMPT_RESPONSE_NUMERIC_VALUE + ") FROM "
+				+ Tables.PROMPT_RESPONSES + " WHERE " + PromptResponses.PROMPT_ID + "=? AND " + PromptResponses.COMPOSITE_ID + "=?",
+				new String[] { "prompt0", COMPOSITE_ID });
+		StringBuilder plan = new StringBuilder();
+		while (c.moveToNext())
+			plan.append(c.getString(c.getColumnCount() - 1)).append('\n');
+		c.close();
+
+		assertTrue(plan.toString(), plan.toString().contains("COVERING INDEX " + PromptResponses.PROMPT_ID + "_numeric_idx"));
+	}
+
+	/**
+	 * Times the average of a prompt over the numeric column and over the text column the way it
+	 * was computed before the numeric column and its index existed
+	 */
+	public void testAggregateTimings() {
+		seed();
+		String promptId = "prompt" + (PROMPT_COUNT - 1);
+
+		long start = System.currentTimeMillis();
+		double text = aggregate("avg(" + PromptResponses.PROMPT_RESPONSE_VALUE + ")", Tables.PROMPT_RESPONSES + " NOT INDEXED", promptId);
+		long textTime = System.currentTimeMillis() - start;
+
+		start = System.currentTimeMillis();
+		double numeric = aggregate("avg(" + PromptResponses.PROMPT_RESPONSE_NUMERIC_VALUE + ")", Tables.PROMPT_RESPONSES, promptId);
+		long numericTime = System.currentTimeMillis() - start;
+
+		Log.i(TAG, "avg over " + ROW_COUNT + " rows: text column " + textTime + "ms, numeric column " + numericTime + "ms");
+
+		assertTrue(numeric > 0);
+		assertTrue(text > 0);
+	}
+}
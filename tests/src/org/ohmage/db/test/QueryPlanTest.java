@@ -0,0 +1,219 @@
+package org.ohmage.db.test;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.net.Uri;
+import android.test.AndroidTestCase;
+import android.test.RenamingDelegatingContext;
+import android.util.Log;
+
+import org.ohmage.db.DbContract.Campaigns;
+import org.ohmage.db.DbContract.PromptResponses;
+import org.ohmage.db.DbContract.PromptResponses.AggregateTypes;
+import org.ohmage.db.DbContract.Responses;
+import org.ohmage.db.DbContract.Surveys;
+import org.ohmage.db.DbHelper;
+import org.ohmage.db.DbHelper.Tables;
+import org.ohmage.db.DbProvider;
+import org.ohmage.db.Models.Campaign;
+import org.ohmage.probemanager.DbContract;
+import org.ohmage.probemanager.DbContract.BaseProbeColumns;
+import org.ohmage.probemanager.DbContract.Probes;
+import org.ohmage.probemanager.ProbeContentProvider;
+
+import java.util.ArrayList;
+
+/**
+ * Runs the queries behind the most used uris of {@link DbProvider} and
+ * {@link ProbeContentProvider} against a seeded database and checks that sqlite plans to find
+ * their rows with an index rather than by scanning the tables which grow with use.
+ * <p>
+ * The database isn't analyzed, since the app never runs ANALYZE, so these are the plans a device
+ * would use.
+ */
+public class QueryPlanTest extends AndroidTestCase {
+
+	private static final String TAG = "QueryPlanTest";
+
+	private static final String CAMPAIGN_URN = "urn:campaign:plan";
+	private static final String SURVEY_ID = "sleep";
+	private static final String PROMPT_ID = "hours";
+
+	private static final int RESPONSE_COUNT = 500;
+
+	/** The tables which grow as the app is used or are joined to every response */
+	private static final String[] GROWING_TABLES = { Tables.RESPONSES, Tables.PROMPT_RESPONSES, Tables.SURVEYS };
+
+	private static final String[] RESPONSE_PROJECTION = { Responses._ID, Responses.RESPONSE_TIME, Responses.SURVEY_ID };
+
+	private DbProvider mProvider;
+	private ProbeContentProvider mProbeProvider;
+	private DbHelper mDbHelper;
+	private org.ohmage.probemanager.DbHelper mProbeDbHelper;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		RenamingDelegatingContext context = new RenamingDelegatingContext(getContext(), "test.");
+		mProvider = new DbProvider();
+		mProvider.attachInfo(context, null);
+		mProbeProvider = new ProbeContentProvider();
+		mProbeProvider.attachInfo(context, null);
+
+		mDbHelper = new DbHelper(context);
+		mDbHelper.clearAll(mDbHelper.getWritableDatabase());
+		mProbeDbHelper = new org.ohmage.probemanager.DbHelper(context);
+		mProbeDbHelper.clearAll();
+
+		ContentValues values = new ContentValues();
+		values.put(Campaigns.CAMPAIGN_URN, CAMPAIGN_URN);
+		values.put(Campaigns.CAMPAIGN_NAME, "Plan");
+		values.put(Campaigns.CAMPAIGN_STATUS, Campaign.STATUS_READY);
+		values.put(Campaigns.CAMPAIGN_CONFIGURATION_XML, "<campaign><surveys><survey><id>" + SURVEY_ID + "</id>"
+				+ "<title>Sleep</title><contentList>"
+				+ "<prompt><id>" + PROMPT_ID + "</id><promptType>number</promptType></prompt>"
+				+ "<prompt><id>notes</id><promptType>text</promptType></prompt>"
+				+ "</contentList></survey></surveys></campaign>");
+		assertTrue(mDbHelper.addCampaign(mDbHelper.getWritableDatabase(), values) != -1);
+
+		ContentValues[] responses = new ContentValues[RESPONSE_COUNT];
+		for (int i = 0; i < RESPONSE_COUNT; i++) {
+			responses[i] = new ContentValues();
+			responses[i].put(Responses.RESPONSE_UUID, "r" + i);
+			responses[i].put(Responses.CAMPAIGN_URN, CAMPAIGN_URN);
+			responses[i].put(Responses.SURVEY_ID, SURVEY_ID);
+			responses[i].put(Responses.RESPONSE_TIME, i * 60000L);
+			responses[i].put(Responses.RESPONSE_JSON, "[{\"prompt_id\":\"" + PROMPT_ID + "\",\"value\":" + (i % 12) + "},"
+					+ "{\"prompt_id\":\"notes\",\"value\":\"slept\"}]");
+		}
+		mProvider.bulkInsert(Responses.CONTENT_URI, responses);
+
+		ContentValues[] probes = new ContentValues[RESPONSE_COUNT];
+		for (int i = 0; i < RESPONSE_COUNT; i++) {
+			probes[i] = new ContentValues();
+			probes[i].put(Probes.OBSERVER_ID, "observer" + (i % 3));
+			probes[i].put(Probes.OBSERVER_VERSION, 1);
+			probes[i].put(Probes.STREAM_ID, "stream");
+			probes[i].put(Probes.STREAM_VERSION, 1);
+			probes[i].put(Probes.USERNAME, "user");
+			probes[i].put(Probes.PROBE_DATA, "{\"time\":" + i + "}");
+		}
+		mProbeProvider.bulkInsert(Probes.CONTENT_URI, probes);
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		mDbHelper.clearAll(mDbHelper.getWritableDatabase());
+		mDbHelper.close();
+		mProbeDbHelper.clearAll();
+		mProbeDbHelper.close();
+		super.tearDown();
+	}
+
+	/**
+	 * Reads the detail of each step of a plan
+	 */
+	private static ArrayList<String> readPlan(Uri uri, Cursor c) {
+		ArrayList<String> plan = new ArrayList<String>();
+		int detail = c.getColumnIndexOrThrow("detail");
+		while (c.moveToNext())
+			plan.add(c.getString(detail));
+		c.close();
+		Log.i(TAG, uri + ": " + plan);
+		return plan;
+	}
+
+	/**
+	 * Checks that none of the steps scan one of the tables without an index or build a temporary
+	 * index. Handles the plan formats of the sqlite versions shipped with android, from
+	 * "TABLE t WITH INDEX i" to "SEARCH TABLE t USING INDEX i" and "SEARCH t USING INDEX i".
+	 */
+	private static void assertIndexed(Uri uri, ArrayList<String> plan, String... tables) {
+		for (String step : plan) {
+			assertFalse(uri + " builds a temporary index: " + step, step.contains("AUTOMATIC"));
+
+			for (String table : tables) {
+				if (!step.matches("(SCAN |SEARCH )?(TABLE )?" + table + "\\b.*"))
+					continue;
+
+				boolean indexed = step.contains("USING") || step.contains("WITH INDEX");
+				assertTrue(uri + " scans " + table + ": " + step, indexed);
+			}
+		}
+	}
+
+	private void assertIndexed(Uri uri, String[] projection, String selection, String[] selectionArgs, String sortOrder) {
+		ArrayList<String> plan = readPlan(uri, mProvider.explainQueryPlan(uri, projection, selection, selectionArgs, sortOrder));
+		assertIndexed(uri, plan, GROWING_TABLES);
+	}
+
+	public void testCampaignResponses() {
+		assertIndexed(Campaigns.buildResponsesUri(CAMPAIGN_URN), RESPONSE_PROJECTION, null, null, Responses.RESPONSE_TIME + " DESC");
+		assertIndexed(Campaigns.buildResponsesUri(CAMPAIGN_URN, SURVEY_ID), RESPONSE_PROJECTION, null, null, Responses.RESPONSE_TIME + " DESC");
+	}
+
+	public void testResponseById() {
+		assertIndexed(Responses.buildResponseUri(1), null, null, null, null);
+		assertIndexed(Responses.buildPromptResponsesUri(1), null, null, null, null);
+	}
+
+	/**
+	 * Pages have to come straight off the time index or every page would sort the whole history
+	 */
+	public void testResponsePages() {
+		Uri[] uris = { Responses.buildPageUri(50), Responses.buildPageUri(50, 100 * 60000L, 100) };
+		for (Uri uri : uris) {
+			ArrayList<String> plan = readPlan(uri, mProvider.explainQueryPlan(uri, RESPONSE_PROJECTION, null, null, null));
+			assertIndexed(uri, plan, Tables.PROMPT_RESPONSES, Tables.SURVEYS);
+			for (String step : plan)
+				assertFalse(uri + " sorts the responses: " + step, step.contains("TEMP B-TREE"));
+		}
+	}
+
+	public void testPromptAggregates() {
+		for (AggregateTypes aggregate : AggregateTypes.values()) {
+			Uri uri = PromptResponses.getPromptAggregateByCampaignAndSurvey(CAMPAIGN_URN, SURVEY_ID, PROMPT_ID, aggregate);
+			assertIndexed(uri, new String[] { PromptResponses.AGGREGATE }, null, null, null);
+		}
+	}
+
+	public void testPromptValues() {
+		String[] projection = { PromptResponses.PROMPT_RESPONSE_VALUE, Responses.RESPONSE_TIME };
+		assertIndexed(PromptResponses.getPromptsByCampaignAndSurvey(CAMPAIGN_URN, SURVEY_ID, PROMPT_ID), projection, null, null, null);
+		assertIndexed(PromptResponses.getPromptsByCampaign(CAMPAIGN_URN, PROMPT_ID), projection, null, null, null);
+	}
+
+	public void testSurveyXml() {
+		assertIndexed(Campaigns.buildSurveyXmlUri(CAMPAIGN_URN, SURVEY_ID), new String[] { Surveys.SURVEY_XML, Surveys.INSTRUCTIONS_XML }, null, null, null);
+	}
+
+	public void testResponseSearch() {
+		assertIndexed(Responses.buildSearchUri("slept"), RESPONSE_PROJECTION, null, null, null);
+	}
+
+	/**
+	 * The queries the probe uploader makes to find the observers with points and then each batch
+	 */
+	public void testProbeUploadBatches() {
+		Uri uri = Probes.CONTENT_URI;
+		ArrayList<String> plan = readPlan(uri, mProbeProvider.explainQueryPlan(uri,
+				new String[] { "distinct " + Probes.OBSERVER_ID, Probes.OBSERVER_VERSION },
+				BaseProbeColumns.USERNAME + "=?", new String[] { "user" }, null));
+		assertIndexed(uri, plan, org.ohmage.probemanager.DbHelper.Tables.Probes);
+
+		plan = readPlan(uri, mProbeProvider.explainQueryPlan(uri,
+				new String[] { Probes._ID, Probes.PROBE_DATA },
+				BaseProbeColumns.USERNAME + "=? AND " + Probes.OBSERVER_ID + "=? AND " + Probes.OBSERVER_VERSION + "=?",
+				new String[] { "user", "observer0", "1" }, null));
+		assertIndexed(uri, plan, org.ohmage.probemanager.DbHelper.Tables.Probes);
+	}
+
+	public void testProbeResponseUploadBatches() {
+		Uri uri = DbContract.Responses.CONTENT_URI;
+		ArrayList<String> plan = readPlan(uri, mProbeProvider.explainQueryPlan(uri,
+				new String[] { DbContract.Responses._ID, DbContract.Responses.RESPONSE_DATA },
+				BaseProbeColumns.USERNAME + "=? AND " + DbContract.Responses.CAMPAIGN_URN + "=? AND " + DbContract.Responses.CAMPAIGN_CREATED + "=?",
+				new String[] { "user", CAMPAIGN_URN, "2012" }, null));
+		assertIndexed(uri, plan, org.ohmage.probemanager.DbHelper.Tables.Responses);
+	}
+}
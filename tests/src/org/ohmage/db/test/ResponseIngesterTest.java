@@ -0,0 +1,164 @@
+package org.ohmage.db.test;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.SystemClock;
+import android.test.AndroidTestCase;
+import android.test.RenamingDelegatingContext;
+import android.util.Log;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.ohmage.db.DbContract.PromptResponses;
+import org.ohmage.db.DbContract.Responses;
+import org.ohmage.db.DbHelper;
+import org.ohmage.db.DbHelper.Tables;
+import org.ohmage.db.ResponseIngester;
+
+import java.util.ArrayList;
+
+/**
+ * Tests that the {@link ResponseIngester} stores the same rows as
+ * {@link DbHelper#addResponseRow(SQLiteDatabase, ContentValues)} and compares how fast each
+ * inserts a large sync
+ */
+public class ResponseIngesterTest extends AndroidTestCase {
+
+	private static final String TAG = "ResponseIngesterTest";
+
+	private static final int RESPONSE_COUNT = 2000;
+	private static final int PROMPT_COUNT = 5;
+
+	private static final String CAMPAIGN_URN = "urn:campaign:ingest";
+	private static final String SURVEY_ID = "ingest";
+
+	private DbHelper mDbHelper;
+	private SQLiteDatabase mDb;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		mDbHelper = new DbHelper(new RenamingDelegatingContext(getContext(), "test."));
+		mDb = mDbHelper.getWritableDatabase();
+		mDbHelper.clearAll(mDb);
+
+		StringBuilder xml = new StringBuilder("<campaign><surveys><survey><id>" + SURVEY_ID + "</id><contentList>");
+		for (int i = 0; i < PROMPT_COUNT; i++)
+			xml.append("<prompt><id>prompt" + i + "</id><promptType>number</promptType></prompt>");
+		xml.append("</contentList></survey></surveys></campaign>");
+		assertTrue(mDbHelper.populateSurveysFromCampaignXML(mDb, CAMPAIGN_URN, xml.toString()));
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		mDbHelper.clearAll(mDb);
+		mDbHelper.close();
+		super.tearDown();
+	}
+
+	private ContentValues response(int i) throws Exception {
+		JSONArray json = new JSONArray();
+		for (int p = 0; p < PROMPT_COUNT; p++) {
+			JSONObject item = new JSONObject();
+			item.put("prompt_id", "prompt" + p);
+			item.put("value", String.valueOf(i * p));
+			json.put(item);
+		}
+
+		ContentValues values = new ContentValues();
+		values.put(Responses.RESPONSE_UUID, CAMPAIGN_URN + ":" + i);
+		values.put(Responses.CAMPAIGN_URN, CAMPAIGN_URN);
+		values.put(Responses.SURVEY_ID, SURVEY_ID);
+		values.put(Responses.RESPONSE_TIME, 1000L * i);
+		values.put(Responses.RESPONSE_JSON, json.toString());
+		return values;
+	}
+
+	private ArrayList<String> readPromptResponses() {
+		Cursor c = mDb.rawQuery("SELECT " + Responses.RESPONSE_UUID + "," + PromptResponses.PROMPT_ID + ","
+				+ PromptResponses.PROMPT_RESPONSE_VALUE + "," + PromptResponses.PROMPT_RESPONSE_NUMERIC_VALUE
+				+ " FROM " + Tables.PROMPT_RESPONSES + " JOIN " + Tables.RESPONSES + " ON "
+				+ Tables.RESPONSES + "." + Responses._ID + "=" + PromptResponses.RESPONSE_ID
+				+ " ORDER BY 1,2", null);
+		ArrayList<String> rows = new ArrayList<String>();
+		while (c.moveToNext())
+			rows.add(c.getString(0) + "|" + c.getString(1) + "|" + c.getString(2) + "|" + c.getString(3));
+		c.close();
+		return rows;
+	}
+
+	private long ingest(int count) throws Exception {
+		long start = SystemClock.elapsedRealtime();
+		ResponseIngester ingester = new ResponseIngester(mDb);
+		mDb.beginTransaction();
+		try {
+			for (int i = 0; i < count; i++)
+				assertTrue(ingester.insert(response(i)) > 0);
+			mDb.setTransactionSuccessful();
+		} finally {
+			mDb.endTransaction();
+			ingester.close();
+		}
+		Log.i(TAG, "ingester: " + ingester.getRowsPerSecond() + " rows/s");
+		return SystemClock.elapsedRealtime() - start;
+	}
+
+	private long addResponseRows(int count) throws Exception {
+		long start = SystemClock.elapsedRealtime();
+		mDb.beginTransaction();
+		try {
+			for (int i = 0; i < count; i++)
+				assertTrue(mDbHelper.addResponseRow(mDb, response(i)) > 0);
+			mDb.setTransactionSuccessful();
+		} finally {
+			mDb.endTransaction();
+		}
+		return SystemClock.elapsedRealtime() - start;
+	}
+
+	/**
+	 * The ingester should write the same rows as addResponseRow
+	 */
+	public void testMatchesAddResponseRow() throws Exception {
+		addResponseRows(RESPONSE_COUNT);
+		ArrayList<String> expected = readPromptResponses();
+		assertEquals(RESPONSE_COUNT * PROMPT_COUNT, expected.size());
+
+		mDb.delete(Tables.RESPONSES, null, null);
+		assertEquals(0, DatabaseUtils.queryNumEntries(mDb, Tables.PROMPT_RESPONSES));
+
+		ingest(RESPONSE_COUNT);
+		assertEquals(expected, readPromptResponses());
+	}
+
+	/**
+	 * A response which already exists should be updated rather than duplicated
+	 */
+	public void testExistingResponseIsUpdated() throws Exception {
+		ResponseIngester ingester = new ResponseIngester(mDb);
+		try {
+			long id = ingester.insert(response(0));
+			ContentValues values = response(0);
+			values.put(Responses.RESPONSE_TIME, 5L);
+			assertEquals(id, ingester.insert(values));
+		} finally {
+			ingester.close();
+		}
+
+		assertEquals(1, DatabaseUtils.queryNumEntries(mDb, Tables.RESPONSES));
+		assertEquals(PROMPT_COUNT, DatabaseUtils.queryNumEntries(mDb, Tables.PROMPT_RESPONSES));
+	}
+
+	/**
+	 * Compares the time it takes to insert a sync worth of responses each way
+	 */
+	public void testIngestTimings() throws Exception {
+		long helper = addResponseRows(RESPONSE_COUNT);
+		mDb.delete(Tables.RESPONSES, null, null);
+		long ingester = ingest(RESPONSE_COUNT);
+
+		Log.i(TAG, RESPONSE_COUNT + " responses: addResponseRow " + helper + "ms, ingester " + ingester + "ms");
+	}
+}
@@ -0,0 +1,156 @@
+package org.ohmage.db.test;
+
+import android.content.ContentProviderOperation;
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.DatabaseUtils;
+import android.test.AndroidTestCase;
+import android.test.RenamingDelegatingContext;
+import android.test.mock.MockContentResolver;
+
+import org.ohmage.db.DbContract;
+import org.ohmage.db.DbContract.Campaigns;
+import org.ohmage.db.DbContract.Responses;
+import org.ohmage.db.DbHelper;
+import org.ohmage.db.DbProvider;
+import org.ohmage.db.Models.Campaign;
+import org.ohmage.db.Models.Response;
+import org.ohmage.db.ResponseMediaCleaner;
+
+import java.io.File;
+import java.util.ArrayList;
+
+/**
+ * Tests that deleting responses through the {@link DbProvider} removes their media files in the
+ * background with the {@link ResponseMediaCleaner}
+ */
+public class ResponseMediaCleanerTest extends AndroidTestCase {
+
+	private static final String CAMPAIGN_URN = "urn:campaign:media";
+	private static final String OTHER_CAMPAIGN_URN = "urn:campaign:media:other";
+	private static final String SURVEY_ID = "media";
+
+	private static final int RESPONSE_COUNT = 120;
+
+	private static final String XML = "<campaign><surveys><survey><id>" + SURVEY_ID + "</id><contentList>"
+			+ "<prompt><id>photo</id><promptType>photo</promptType></prompt>"
+			+ "<prompt><id>number</id><promptType>number</promptType></prompt>"
+			+ "</contentList></survey></surveys></campaign>";
+
+	private Context mContext;
+	private DbProvider mProvider;
+	private DbHelper mDbHelper;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		final MockContentResolver resolver = new MockContentResolver();
+		mContext = new RenamingDelegatingContext(getContext(), "test.") {
+			@Override
+			public ContentResolver getContentResolver() {
+				return resolver;
+			}
+		};
+		mProvider = new DbProvider();
+		mProvider.attachInfo(mContext, null);
+		resolver.addProvider(DbContract.CONTENT_AUTHORITY, mProvider);
+
+		mDbHelper = new DbHelper(mContext);
+		mDbHelper.clearAll(mDbHelper.getWritableDatabase());
+
+		assertTrue(mDbHelper.populateSurveysFromCampaignXML(mDbHelper.getWritableDatabase(), CAMPAIGN_URN, XML));
+		assertTrue(mDbHelper.populateSurveysFromCampaignXML(mDbHelper.getWritableDatabase(), OTHER_CAMPAIGN_URN, XML));
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		mDbHelper.clearAll(mDbHelper.getWritableDatabase());
+		mDbHelper.close();
+		super.tearDown();
+	}
+
+	/**
+	 * Adds a response with a photo and creates the photo file
+	 */
+	private File addResponse(String campaignUrn, int i) throws Exception {
+		String uuid = campaignUrn + ":" + i;
+		String photo = "photo-" + uuid.replace(':', '-');
+
+		ContentValues values = new ContentValues();
+		values.put(Responses.RESPONSE_UUID, uuid);
+		values.put(Responses.CAMPAIGN_URN, campaignUrn);
+		values.put(Responses.SURVEY_ID, SURVEY_ID);
+		values.put(Responses.RESPONSE_JSON, "[{\"prompt_id\":\"photo\",\"value\":\"" + photo + "\"},"
+				+ "{\"prompt_id\":\"number\",\"value\":\"" + i + "\"}]");
+		assertNotNull(mProvider.insert(Responses.CONTENT_URI, values));
+
+		File file = Response.getTemporaryResponsesMedia(photo);
+		assertTrue(file.exists() || file.createNewFile());
+		return file;
+	}
+
+	/**
+	 * Deleting a campaign's responses should remove only their photos
+	 */
+	public void testDeleteRemovesMedia() throws Exception {
+		ArrayList<File> deleted = new ArrayList<File>();
+		for (int i = 0; i < RESPONSE_COUNT; i++)
+			deleted.add(addResponse(CAMPAIGN_URN, i));
+		File kept = addResponse(OTHER_CAMPAIGN_URN, 0);
+
+		assertEquals(RESPONSE_COUNT, mProvider.delete(Responses.CONTENT_URI, Responses.CAMPAIGN_URN + "=?",
+				new String[] { CAMPAIGN_URN }));
+		ResponseMediaCleaner.waitForPending();
+
+		for (File file : deleted)
+			assertFalse(file.getName(), file.exists());
+		assertTrue(kept.exists());
+		kept.delete();
+	}
+
+	/**
+	 * Making a campaign remote removes its surveys before its responses, the photos of the
+	 * responses should still be removed
+	 */
+	public void testSetRemoteRemovesMedia() throws Exception {
+		ContentValues campaign = new ContentValues();
+		campaign.put(Campaigns.CAMPAIGN_URN, CAMPAIGN_URN);
+		campaign.put(Campaigns.CAMPAIGN_NAME, "Media");
+		campaign.put(Campaigns.CAMPAIGN_STATUS, Campaign.STATUS_READY);
+		campaign.put(Campaigns.CAMPAIGN_CONFIGURATION_XML, XML);
+		assertTrue(mDbHelper.addCampaign(mDbHelper.getWritableDatabase(), campaign) != -1);
+
+		ArrayList<File> deleted = new ArrayList<File>();
+		for (int i = 0; i < 3; i++)
+			deleted.add(addResponse(CAMPAIGN_URN, i));
+		File kept = addResponse(OTHER_CAMPAIGN_URN, 0);
+
+		Campaign.setRemote(mContext, CAMPAIGN_URN);
+		assertEquals(0, DatabaseUtils.queryNumEntries(mDbHelper.getReadableDatabase(), DbHelper.Tables.SURVEY_PROMPTS,
+				DbContract.SurveyPrompts.COMPOSITE_ID + "='" + CAMPAIGN_URN + ":" + SURVEY_ID + "'"));
+		ResponseMediaCleaner.waitForPending();
+
+		for (File file : deleted)
+			assertFalse(file.getName(), file.exists());
+		assertTrue(kept.exists());
+		kept.delete();
+	}
+
+	/**
+	 * Media shouldn't be removed if the batch deleting its response fails
+	 */
+	public void testFailedBatchKeepsMedia() throws Exception {
+		File photo = addResponse(CAMPAIGN_URN, 0);
+
+		ArrayList<ContentProviderOperation> operations = new ArrayList<ContentProviderOperation>();
+		// the delete removes the only response, then fails the batch since it expected two
+		operations.add(ContentProviderOperation.newDelete(Responses.CONTENT_URI).withExpectedCount(2).build());
+		assertNull(mProvider.applyBatch(operations));
+		assertEquals(1, DatabaseUtils.queryNumEntries(mDbHelper.getReadableDatabase(), DbHelper.Tables.RESPONSES));
+		ResponseMediaCleaner.waitForPending();
+
+		assertTrue(photo.exists());
+		photo.delete();
+	}
+}
@@ -0,0 +1,164 @@
+package org.ohmage.db.test;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.SystemClock;
+import android.test.AndroidTestCase;
+import android.test.RenamingDelegatingContext;
+import android.util.Log;
+
+import org.ohmage.db.DbContract.Campaigns;
+import org.ohmage.db.DbContract.Responses;
+import org.ohmage.db.DbHelper;
+import org.ohmage.db.DbHelper.Tables;
+import org.ohmage.db.DbProvider;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+
+/**
+ * Tests paging through responses with the page uri and times the first page against loading the
+ * whole list
+ */
+public class ResponsePageTest extends AndroidTestCase {
+
+	private static final String TAG = "ResponsePageTest";
+
+	private static final String CAMPAIGN_URN = "urn:campaign:page";
+	private static final String SURVEY_ID = "page";
+
+	private static final int PAGE_SIZE = 20;
+	private static final int RESPONSE_COUNT = 5000;
+
+	private static final String[] PROJECTION = { Tables.RESPONSES + "." + Responses._ID, Responses.RESPONSE_TIME };
+
+	private DbProvider mProvider;
+	private DbHelper mDbHelper;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		RenamingDelegatingContext context = new RenamingDelegatingContext(getContext(), "test.");
+		mProvider = new DbProvider();
+		mProvider.attachInfo(context, null);
+
+		mDbHelper = new DbHelper(context);
+		mDbHelper.clearAll(mDbHelper.getWritableDatabase());
+
+		String xml = "<campaign><surveys><survey><id>" + SURVEY_ID + "</id><title>Page</title><contentList>"
+				+ "</contentList></survey></surveys></campaign>";
+		ContentValues values = new ContentValues();
+		values.put(Campaigns.CAMPAIGN_URN, CAMPAIGN_URN);
+		values.put(Campaigns.CAMPAIGN_NAME, "Page");
+		values.put(Campaigns.CAMPAIGN_CONFIGURATION_XML, xml);
+		assertTrue(mDbHelper.addCampaign(mDbHelper.getWritableDatabase(), values) != -1);
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		mDbHelper.clearAll(mDbHelper.getWritableDatabase());
+		mDbHelper.close();
+		super.tearDown();
+	}
+
+	private static ContentValues response(String uuid, long time) {
+		ContentValues values = new ContentValues();
+		values.put(Responses.RESPONSE_UUID, uuid);
+		values.put(Responses.CAMPAIGN_URN, CAMPAIGN_URN);
+		values.put(Responses.SURVEY_ID, SURVEY_ID);
+		values.put(Responses.RESPONSE_TIME, time);
+		values.put(Responses.RESPONSE_JSON, "[]");
+		return values;
+	}
+
+	private void addResponses(int count) {
+		ContentValues[] responses = new ContentValues[count];
+		// several responses share each time so the id has to break the ties
+		for (int i = 0; i < count; i++)
+			responses[i] = response("r" + i, i / 3);
+		mProvider.bulkInsert(Responses.CONTENT_URI, responses);
+	}
+
+	/**
+	 * Reads every page and returns the ids in the order they were read
+	 */
+	private ArrayList<Long> readPages(Runnable betweenPages) {
+		ArrayList<Long> ids = new ArrayList<Long>();
+		Uri uri = Responses.buildPageUri(PAGE_SIZE);
+		while (true) {
+			Cursor c = mProvider.query(uri, PROJECTION, null, null, null);
+			int count = c.getCount();
+			long time = 0, id = 0;
+			while (c.moveToNext()) {
+				id = c.getLong(0);
+				time = c.getLong(1);
+				ids.add(id);
+			}
+			c.close();
+
+			if (count < PAGE_SIZE)
+				return ids;
+			uri = Responses.buildPageUri(PAGE_SIZE, time, id);
+			if (betweenPages != null)
+				betweenPages.run();
+		}
+	}
+
+	/**
+	 * Paging should return every response once, newest first
+	 */
+	public void testPagesAreOrdered() {
+		addResponses(PAGE_SIZE * 5 + 7);
+
+		ArrayList<Long> ids = readPages(null);
+		assertEquals(PAGE_SIZE * 5 + 7, ids.size());
+		assertEquals(ids.size(), new HashSet<Long>(ids).size());
+
+		Cursor all = mProvider.query(Responses.CONTENT_URI, PROJECTION, null, null,
+				Responses.RESPONSE_TIME + " DESC, " + Tables.RESPONSES + "." + Responses._ID + " DESC");
+		for (int i = 0; all.moveToNext(); i++)
+			assertEquals(all.getLong(0), (long) ids.get(i));
+		all.close();
+	}
+
+	/**
+	 * Responses added while paging shouldn't shift the pages which follow
+	 */
+	public void testPagesAreStable() {
+		addResponses(PAGE_SIZE * 3);
+
+		final int[] added = { 0 };
+		ArrayList<Long> ids = readPages(new Runnable() {
+			@Override
+			public void run() {
+				// a newer response, which belongs before the rows already read
+				mProvider.insert(Responses.CONTENT_URI, response("new" + added[0]++, Long.MAX_VALUE / 2));
+			}
+		});
+
+		assertEquals(PAGE_SIZE * 3, ids.size());
+		assertEquals(ids.size(), new HashSet<Long>(ids).size());
+	}
+
+	/**
+	 * Times loading the first page against loading the whole list
+	 */
+	public void testFirstPageTimings() {
+		addResponses(RESPONSE_COUNT);
+
+		long start = SystemClock.elapsedRealtime();
+		Cursor all = mProvider.query(Responses.CONTENT_URI, PROJECTION, null, null, Responses.RESPONSE_TIME + " DESC");
+		all.getCount();
+		all.close();
+		long whole = SystemClock.elapsedRealtime() - start;
+
+		start = SystemClock.elapsedRealtime();
+		Cursor page = mProvider.query(Responses.buildPageUri(PAGE_SIZE), PROJECTION, null, null, null);
+		assertEquals(PAGE_SIZE, page.getCount());
+		page.close();
+		long first = SystemClock.elapsedRealtime() - start;
+
+		Log.i(TAG, "loading " + RESPONSE_COUNT + " responses: whole list " + whole + "ms, first page " + first + "ms");
+	}
+}
@@ -0,0 +1,107 @@
+package org.ohmage.db.test;
+
+import android.content.ContentValues;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.test.AndroidTestCase;
+import android.test.RenamingDelegatingContext;
+import android.util.Log;
+
+import org.ohmage.db.DbContract.Responses;
+import org.ohmage.db.DbHelper;
+import org.ohmage.db.DbHelper.Tables;
+import org.ohmage.db.Models.Response;
+
+/**
+ * Tests and benchmarks {@link DbHelper#reconcileResponses(SQLiteDatabase, String, ContentValues[])}
+ * against a database seeded with a large number of downloaded responses.
+ */
+public class ResponseReconcileTest extends AndroidTestCase {
+
+	private static final String TAG = "ResponseReconcileTest";
+
+	private static final int RESPONSE_COUNT = 100000;
+
+	private static final String CAMPAIGN_URN = "urn:campaign:reconcile";
+	private static final String OTHER_CAMPAIGN_URN = "urn:campaign:other";
+
+	private DbHelper mDbHelper;
+	private SQLiteDatabase mDb;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		mDbHelper = new DbHelper(new RenamingDelegatingContext(getContext(), "test."));
+		mDb = mDbHelper.getWritableDatabase();
+		mDbHelper.clearAll(mDb);
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		mDbHelper.clearAll(mDb);
+		mDbHelper.close();
+		super.tearDown();
+	}
+
+	private void seed(String campaignUrn, int count, int status) {
+		SQLiteStatement insert = mDb.compileStatement("INSERT INTO " + Tables.RESPONSES + " ("
+				+ Responses.RESPONSE_UUID + "," + Responses.CAMPAIGN_URN + "," + Responses.RESPONSE_STATUS
+				+ ") VALUES (?,?,?)");
+		mDb.beginTransaction();
+		try {
+			for (int i = 0; i < count; i++) {
+				insert.bindString(1, campaignUrn + ":" + i);
+				insert.bindString(2, campaignUrn);
+				insert.bindLong(3, status);
+				insert.execute();
+			}
+			mDb.setTransactionSuccessful();
+		} finally {
+			mDb.endTransaction();
+			insert.close();
+		}
+	}
+
+	private ContentValues[] serverUuids(String campaignUrn, int count) {
+		ContentValues[] values = new ContentValues[count];
+		for (int i = 0; i < count; i++) {
+			values[i] = new ContentValues();
+			values[i].put(Responses.RESPONSE_UUID, campaignUrn + ":" + i);
+		}
+		return values;
+	}
+
+	private long count(String campaignUrn) {
+		return DatabaseUtils.longForQuery(mDb, "SELECT count(*) FROM " + Tables.RESPONSES
+				+ " WHERE " + Responses.CAMPAIGN_URN + "=?", new String[] { campaignUrn });
+	}
+
+	/**
+	 * Responses the server no longer has should be removed while the rest stay
+	 */
+	public void testReconcileRemovesMissingResponses() {
+		seed(CAMPAIGN_URN, RESPONSE_COUNT, Response.STATUS_DOWNLOADED);
+
+		long start = System.currentTimeMillis();
+		int removed = mDbHelper.reconcileResponses(mDb, CAMPAIGN_URN, serverUuids(CAMPAIGN_URN, RESPONSE_COUNT / 2));
+		Log.i(TAG, "Reconciled " + RESPONSE_COUNT + " responses in " + (System.currentTimeMillis() - start) + "ms");
+
+		assertEquals(RESPONSE_COUNT / 2, removed);
+		assertEquals(RESPONSE_COUNT / 2, count(CAMPAIGN_URN));
+	}
+
+	/**
+	 * Only synced responses for the campaign being reconciled should be removed
+	 */
+	public void testReconcileKeepsLocalAndOtherCampaignResponses() {
+		seed(CAMPAIGN_URN, 100, Response.STATUS_STANDBY);
+		seed(OTHER_CAMPAIGN_URN, 100, Response.STATUS_UPLOADED);
+
+		int removed = mDbHelper.reconcileResponses(mDb, CAMPAIGN_URN, new ContentValues[0]);
+
+		assertEquals(0, removed);
+		assertEquals(100, count(CAMPAIGN_URN));
+		assertEquals(100, count(OTHER_CAMPAIGN_URN));
+	}
+}
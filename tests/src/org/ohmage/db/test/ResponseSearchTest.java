@@ -0,0 +1,204 @@
+package org.ohmage.db.test;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.net.Uri;
+import android.os.SystemClock;
+import android.test.AndroidTestCase;
+import android.test.RenamingDelegatingContext;
+import android.util.Log;
+
+import org.ohmage.db.DbContract.Campaigns;
+import org.ohmage.db.DbContract.PromptResponses;
+import org.ohmage.db.DbContract.Responses;
+import org.ohmage.db.DbHelper;
+import org.ohmage.db.DbHelper.Tables;
+import org.ohmage.db.DbProvider;
+import org.ohmage.db.Models.Campaign;
+
+import java.util.ArrayList;
+
+/**
+ * Tests that the full text index of responses is kept up to date as responses are added and
+ * removed, and times searching through a long history
+ */
+public class ResponseSearchTest extends AndroidTestCase {
+
+	private static final String TAG = "ResponseSearchTest";
+
+	private static final String CAMPAIGN_URN = "urn:campaign:search";
+	private static final String SURVEY_ID = "mood";
+
+	private static final int RESPONSE_COUNT = 5000;
+
+	private static final String[] WORDS = { "walked", "slept", "coffee", "meeting", "tired", "happy", "rain",
+			"lunch", "gym", "reading" };
+
+	private DbProvider mProvider;
+	private DbHelper mDbHelper;
+	private SQLiteDatabase mDb;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		RenamingDelegatingContext context = new RenamingDelegatingContext(getContext(), "test.");
+		mProvider = new DbProvider();
+		mProvider.attachInfo(context, null);
+
+		mDbHelper = new DbHelper(context);
+		mDb = mDbHelper.getWritableDatabase();
+		mDbHelper.clearAll(mDb);
+
+		assertTrue(mDbHelper.addCampaign(mDb, campaign("Sleep Study")) != -1);
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		mDbHelper.clearAll(mDb);
+		mDbHelper.close();
+		super.tearDown();
+	}
+
+	private static ContentValues campaign(String name) {
+		ContentValues values = new ContentValues();
+		values.put(Campaigns.CAMPAIGN_URN, CAMPAIGN_URN);
+		values.put(Campaigns.CAMPAIGN_NAME, name);
+		values.put(Campaigns.CAMPAIGN_STATUS, Campaign.STATUS_READY);
+		values.put(Campaigns.CAMPAIGN_CONFIGURATION_XML, "<campaign><surveys><survey><id>" + SURVEY_ID + "</id>"
+				+ "<title>Evening Mood</title><contentList>"
+				+ "<prompt><id>notes</id><promptType>text</promptType></prompt>"
+				+ "<prompt><id>feeling</id><promptType>single_choice</promptType><properties>"
+				+ "<property><key>0</key><label>Grumpy</label></property>"
+				+ "<property><key>1</key><label>Cheerful</label></property>"
+				+ "</properties></prompt>"
+				+ "<prompt><id>hours</id><promptType>number</promptType></prompt>"
+				+ "</contentList></survey></surveys></campaign>");
+		return values;
+	}
+
+	private static ContentValues response(String uuid, String notes, int feeling, int hours) {
+		ContentValues values = new ContentValues();
+		values.put(Responses.RESPONSE_UUID, uuid);
+		values.put(Responses.CAMPAIGN_URN, CAMPAIGN_URN);
+		values.put(Responses.SURVEY_ID, SURVEY_ID);
+		values.put(Responses.RESPONSE_TIME, System.currentTimeMillis());
+		values.put(Responses.RESPONSE_JSON, "[{\"prompt_id\":\"notes\",\"value\":\"" + notes + "\"},"
+				+ "{\"prompt_id\":\"feeling\",\"value\":\"" + feeling + "\"},"
+				+ "{\"prompt_id\":\"hours\",\"value\":\"" + hours + "\"}]");
+		return values;
+	}
+
+	private ArrayList<String> search(String query) {
+		Cursor c = mProvider.query(Responses.buildSearchUri(query), new String[] { Responses.RESPONSE_UUID }, null, null, null);
+		ArrayList<String> uuids = new ArrayList<String>();
+		while (c.moveToNext())
+			uuids.add(c.getString(0));
+		c.close();
+		return uuids;
+	}
+
+	/**
+	 * Text answers, choice labels, survey titles and campaign names should all be searchable, but
+	 * numbers shouldn't be
+	 */
+	public void testSearchesAnswersAndNames() {
+		mProvider.insert(Responses.CONTENT_URI, response("a", "Walked the dog", 1, 7));
+		mProvider.insert(Responses.CONTENT_URI, response("b", "Too much coffee", 0, 5));
+
+		assertEquals("[a]", search("dog").toString());
+		assertEquals("[a]", search("walk").toString());
+		assertEquals("[b]", search("grumpy").toString());
+		assertEquals("[a]", search("cheerful dog").toString());
+		assertEquals(2, search("evening").size());
+		assertEquals(2, search("sleep study").size());
+		assertEquals(0, search("7").size());
+		assertEquals(0, search("\"-*").size());
+	}
+
+	/**
+	 * Removed responses shouldn't be found and renamed campaigns should be found by their new name
+	 */
+	public void testFollowsChanges() {
+		Uri uri = mProvider.insert(Responses.CONTENT_URI, response("a", "Walked the dog", 1, 7));
+		mProvider.insert(Responses.CONTENT_URI, response("b", "Walked to work", 1, 7));
+
+		mProvider.delete(uri, null, null);
+		assertEquals("[b]", search("walked").toString());
+
+		ContentValues values = new ContentValues();
+		values.put(Campaigns.CAMPAIGN_NAME, "Rest Study");
+		mProvider.update(Campaigns.buildCampaignUri(CAMPAIGN_URN), values, null, null);
+		assertEquals("[b]", search("rest").toString());
+		assertEquals(0, search("sleep").size());
+	}
+
+	/**
+	 * Campaigns are renamed by the campaign sync storing them again, which replaces the row
+	 * instead of updating it
+	 */
+	public void testFollowsRenameByInsert() {
+		mProvider.insert(Responses.CONTENT_URI, response("a", "Walked the dog", 1, 7));
+
+		mProvider.insert(Campaigns.CONTENT_URI, campaign("Rest Study"));
+		assertEquals("[a]", search("rest").toString());
+		assertEquals(0, search("sleep").size());
+	}
+
+	/**
+	 * Responses which contain the search terms more often should come first
+	 */
+	public void testRanksByMatches() {
+		mProvider.insert(Responses.CONTENT_URI, response("once", "rain", 1, 7));
+		mProvider.insert(Responses.CONTENT_URI, response("thrice", "rain rain rain", 1, 7));
+
+		assertEquals("[thrice, once]", search("rain").toString());
+	}
+
+	/**
+	 * Responses with as many matches rank the same wherever the matches are, so the newest comes
+	 * first
+	 */
+	public void testRankIgnoresOffsets() {
+		StringBuilder filler = new StringBuilder();
+		for (int i = 0; i < 2000; i++)
+			filler.append("lunch ");
+
+		ContentValues deep = response("deep", filler + "rain rain", 1, 7);
+		deep.put(Responses.RESPONSE_TIME, 1000);
+		mProvider.insert(Responses.CONTENT_URI, deep);
+		ContentValues near = response("near", "rain rain " + filler, 1, 7);
+		near.put(Responses.RESPONSE_TIME, 2000);
+		mProvider.insert(Responses.CONTENT_URI, near);
+		ContentValues once = response("once", "rain", 1, 7);
+		once.put(Responses.RESPONSE_TIME, 3000);
+		mProvider.insert(Responses.CONTENT_URI, once);
+
+		assertEquals("[near, deep, once]", search("rain").toString());
+	}
+
+	/**
+	 * Times searching a long history
+	 */
+	public void testSearchTimings() {
+		ContentValues[] responses = new ContentValues[RESPONSE_COUNT];
+		for (int i = 0; i < RESPONSE_COUNT; i++)
+			responses[i] = response("r" + i, WORDS[i % WORDS.length] + " and " + WORDS[(i * 7) % WORDS.length] + " " + i, i % 2, i % 12);
+		mProvider.bulkInsert(Responses.CONTENT_URI, responses);
+
+		long start = SystemClock.elapsedRealtime();
+		int found = search("coffee").size();
+		long elapsed = SystemClock.elapsedRealtime() - start;
+
+		start = SystemClock.elapsedRealtime();
+		// what finding responses by text took before, scanning the prompt responses
+		Cursor c = mDb.rawQuery("SELECT DISTINCT " + PromptResponses.RESPONSE_ID + " FROM " + Tables.PROMPT_RESPONSES
+				+ " WHERE " + PromptResponses.PROMPT_RESPONSE_VALUE + " LIKE ?", new String[] { "%coffee%" });
+		int scanned = c.getCount();
+		c.close();
+		long scan = SystemClock.elapsedRealtime() - start;
+
+		assertEquals(scanned, found);
+		Log.i(TAG, "searching " + RESPONSE_COUNT + " responses found " + found + " in " + elapsed + "ms, LIKE scan took " + scan + "ms");
+	}
+}
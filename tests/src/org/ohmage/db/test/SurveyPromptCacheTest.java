@@ -0,0 +1,104 @@
+package org.ohmage.db.test;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.test.AndroidTestCase;
+import android.test.RenamingDelegatingContext;
+
+import org.ohmage.db.DbContract.PromptResponses;
+import org.ohmage.db.DbContract.Responses;
+import org.ohmage.db.DbHelper;
+import org.ohmage.db.DbHelper.Tables;
+import org.ohmage.db.SurveyPromptCache;
+
+/**
+ * Tests that responses are expanded from the {@link SurveyPromptCache} and that the cache follows
+ * changes to the campaign xml
+ */
+public class SurveyPromptCacheTest extends AndroidTestCase {
+
+	private static final String CAMPAIGN_URN = "urn:campaign:cache";
+	private static final String SURVEY_ID = "cache";
+
+	private DbHelper mDbHelper;
+	private SQLiteDatabase mDb;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		mDbHelper = new DbHelper(new RenamingDelegatingContext(getContext(), "test."));
+		mDb = mDbHelper.getWritableDatabase();
+		mDbHelper.clearAll(mDb);
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		mDbHelper.clearAll(mDb);
+		mDbHelper.close();
+		super.tearDown();
+	}
+
+	private static String campaignXml(String yesLabel) {
+		String properties = "<properties>"
+				+ "<property><key>0</key><label>No</label></property>"
+				+ "<property><key>1</key><label>" + yesLabel + "</label></property>"
+				+ "</properties>";
+		return "<campaign><surveys><survey><id>" + SURVEY_ID + "</id><contentList>"
+				+ "<prompt><id>single</id><promptType>single_choice</promptType>" + properties + "</prompt>"
+				+ "<prompt><id>multi</id><promptType>multi_choice</promptType>" + properties + "</prompt>"
+				+ "</contentList></survey></surveys></campaign>";
+	}
+
+	private void addResponse(String uuid) {
+		ContentValues values = new ContentValues();
+		values.put(Responses.RESPONSE_UUID, uuid);
+		values.put(Responses.CAMPAIGN_URN, CAMPAIGN_URN);
+		values.put(Responses.SURVEY_ID, SURVEY_ID);
+		values.put(Responses.RESPONSE_JSON, "[{\"prompt_id\":\"single\",\"value\":\"1\"},"
+				+ "{\"prompt_id\":\"multi\",\"value\":\"[0,1]\"}]");
+		assertTrue(mDbHelper.addResponseRow(mDb, values) > 0);
+	}
+
+	private String promptValue(String uuid, String promptId) {
+		Cursor c = mDb.rawQuery("SELECT " + PromptResponses.PROMPT_RESPONSE_VALUE + " FROM " + Tables.PROMPT_RESPONSES
+				+ " JOIN " + Tables.RESPONSES + " ON " + Tables.RESPONSES + "." + Responses._ID + "=" + PromptResponses.RESPONSE_ID
+				+ " WHERE " + Responses.RESPONSE_UUID + "=? AND " + PromptResponses.PROMPT_ID + "=?",
+				new String[] { uuid, promptId });
+		try {
+			assertTrue(c.moveToFirst());
+			return c.getString(0);
+		} finally {
+			c.close();
+		}
+	}
+
+	/**
+	 * Choice keys should be replaced by their labels and the prompts should only be read once
+	 */
+	public void testChoicesAreMapped() {
+		assertTrue(mDbHelper.populateSurveysFromCampaignXML(mDb, CAMPAIGN_URN, campaignXml("Yes")));
+
+		int hits = SurveyPromptCache.getHits();
+		addResponse("a");
+		addResponse("b");
+		assertEquals(hits + 1, SurveyPromptCache.getHits());
+
+		assertEquals("Yes", promptValue("a", "single"));
+		assertEquals("[\"No\",\"Yes\"]", promptValue("b", "multi"));
+	}
+
+	/**
+	 * Responses added after the campaign xml changes should use the new labels
+	 */
+	public void testXmlChangeInvalidates() {
+		assertTrue(mDbHelper.populateSurveysFromCampaignXML(mDb, CAMPAIGN_URN, campaignXml("Yes")));
+		addResponse("a");
+
+		assertTrue(mDbHelper.populateSurveysFromCampaignXML(mDb, CAMPAIGN_URN, campaignXml("Sure")));
+		addResponse("b");
+
+		assertEquals("Yes", promptValue("a", "single"));
+		assertEquals("Sure", promptValue("b", "single"));
+	}
+}
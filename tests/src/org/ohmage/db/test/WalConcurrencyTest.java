@@ -0,0 +1,120 @@
+package org.ohmage.db.test;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.os.Build;
+import android.os.SystemClock;
+import android.test.AndroidTestCase;
+import android.test.RenamingDelegatingContext;
+import android.util.Log;
+
+import org.ohmage.db.DbContract.Responses;
+import org.ohmage.db.DbHelper;
+import org.ohmage.db.DbHelper.Tables;
+
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Measures how long reads take while another thread holds a long write transaction, the way the
+ * response lists read while a sync is writing
+ */
+public class WalConcurrencyTest extends AndroidTestCase {
+
+	private static final String TAG = "WalConcurrencyTest";
+
+	private static final int WRITE_COUNT = 20000;
+	private static final int READ_COUNT = 50;
+
+	private static final String CAMPAIGN_URN = "urn:campaign:wal";
+
+	private DbHelper mDbHelper;
+	private SQLiteDatabase mDb;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		mDbHelper = new DbHelper(new RenamingDelegatingContext(getContext(), "test."));
+		mDb = mDbHelper.getWritableDatabase();
+		mDbHelper.clearAll(mDb);
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		mDbHelper.clearAll(mDb);
+		mDbHelper.close();
+		super.tearDown();
+	}
+
+	private long countResponses() {
+		Cursor c = mDb.rawQuery("SELECT count(*) FROM " + Tables.RESPONSES, null);
+		try {
+			c.moveToFirst();
+			return c.getLong(0);
+		} finally {
+			c.close();
+		}
+	}
+
+	/**
+	 * Reads made while a write transaction is open should neither wait for it to finish nor see
+	 * its uncommitted rows
+	 */
+	public void testReadsDuringLongWrite() throws Exception {
+		if (Build.VERSION.SDK_INT < 11) {
+			Log.i(TAG, "Write ahead logging isn't available, skipping");
+			return;
+		}
+
+		final CountDownLatch writing = new CountDownLatch(1);
+		final CountDownLatch readsDone = new CountDownLatch(1);
+
+		Thread writer = new Thread() {
+			@Override
+			public void run() {
+				SQLiteStatement insert = mDb.compileStatement("INSERT INTO " + Tables.RESPONSES + " ("
+						+ Responses.RESPONSE_UUID + "," + Responses.CAMPAIGN_URN + ") VALUES (?,?)");
+				mDb.beginTransaction();
+				try {
+					for (int i = 0; i < WRITE_COUNT; i++) {
+						insert.bindString(1, CAMPAIGN_URN + ":" + i);
+						insert.bindString(2, CAMPAIGN_URN);
+						insert.execute();
+						if (i == 0)
+							writing.countDown();
+					}
+					// hold the transaction open until the reads finish
+					readsDone.await();
+					mDb.setTransactionSuccessful();
+				} catch (InterruptedException e) {
+					Log.e(TAG, "Interrupted while writing", e);
+				} finally {
+					mDb.endTransaction();
+					insert.close();
+				}
+			}
+		};
+		writer.start();
+		writing.await();
+
+		long worst = 0;
+		long total = 0;
+		try {
+			for (int i = 0; i < READ_COUNT; i++) {
+				long start = SystemClock.elapsedRealtime();
+				assertEquals(0, countResponses());
+				long elapsed = SystemClock.elapsedRealtime() - start;
+				worst = Math.max(worst, elapsed);
+				total += elapsed;
+			}
+		} finally {
+			readsDone.countDown();
+		}
+		writer.join();
+
+		Log.i(TAG, "read latency during write: avg " + (total / READ_COUNT) + "ms, worst " + worst + "ms");
+		assertEquals(WRITE_COUNT, countResponses());
+
+		DbHelper.checkpoint(mDb);
+	}
+}
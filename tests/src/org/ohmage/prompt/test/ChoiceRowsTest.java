@@ -0,0 +1,150 @@
+package org.ohmage.prompt.test;
+
+import android.content.Context;
+import android.test.AndroidTestCase;
+import android.test.RenamingDelegatingContext;
+import android.text.Spanned;
+import android.text.style.StyleSpan;
+import android.widget.ListView;
+
+import org.ohmage.Utilities.KVLTriplet;
+import org.ohmage.prompt.ChoiceRows;
+import org.ohmage.prompt.multichoicecustom.MultiChoiceCustomDbAdapter;
+import org.ohmage.prompt.multichoicecustom.MultiChoiceCustomPrompt;
+import org.ohmage.prompt.singlechoice.SingleChoicePrompt;
+import org.ohmage.prompt.singlechoicecustom.SingleChoiceCustomDbAdapter;
+import org.ohmage.prompt.singlechoicecustom.SingleChoiceCustomPrompt;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Tests that the rows of the choice prompts are parsed ahead of time, that a prompt prepared on
+ * another thread shows the same list, and that the custom choices read from the db are kept until
+ * a choice is added
+ */
+public class ChoiceRowsTest extends AndroidTestCase {
+
+	private static final String CAMPAIGN_URN = "urn:campaign:choices";
+	private static final String SURVEY_ID = "survey";
+	private static final String PROMPT_ID = "prompt";
+	private static final String USERNAME = "user";
+
+	private Context mContext;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		mContext = new RenamingDelegatingContext(getContext(), "test.");
+		clearCustomChoices();
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		clearCustomChoices();
+		super.tearDown();
+	}
+
+	private void clearCustomChoices() {
+		SingleChoiceCustomDbAdapter single = new SingleChoiceCustomDbAdapter(mContext);
+		assertTrue(single.open());
+		single.clearCampaign(CAMPAIGN_URN);
+		single.close();
+
+		MultiChoiceCustomDbAdapter multi = new MultiChoiceCustomDbAdapter(mContext);
+		assertTrue(multi.open());
+		multi.clearCampaign(CAMPAIGN_URN);
+		multi.close();
+	}
+
+	private static List<KVLTriplet> choices() {
+		List<KVLTriplet> choices = new ArrayList<KVLTriplet>();
+		choices.add(new KVLTriplet("0", null, "**never**"));
+		choices.add(new KVLTriplet("1", null, "sometimes"));
+		choices.add(new KVLTriplet("2", null, "*often*"));
+		return choices;
+	}
+
+	public void testBuild() {
+		List<HashMap<String, CharSequence>> rows = ChoiceRows.build(choices());
+
+		assertEquals(3, rows.size());
+		assertEquals("0", rows.get(0).get(ChoiceRows.KEY));
+		assertEquals("never", rows.get(0).get(ChoiceRows.VALUE).toString());
+		assertEquals("sometimes", rows.get(1).get(ChoiceRows.VALUE).toString());
+
+		Spanned bold = (Spanned) rows.get(0).get(ChoiceRows.VALUE);
+		assertEquals(1, bold.getSpans(0, bold.length(), StyleSpan.class).length);
+	}
+
+	public void testPreparedOnAnotherThread() throws InterruptedException {
+		final SingleChoicePrompt prompt = new SingleChoicePrompt();
+		prompt.setChoices(choices());
+
+		Thread thread = new Thread() {
+			@Override
+			public void run() {
+				prompt.prepare(getContext(), CAMPAIGN_URN, SURVEY_ID);
+			}
+		};
+		thread.start();
+		thread.join();
+
+		ListView list = (ListView) prompt.getView(getContext());
+		assertEquals(3, list.getCount());
+		assertEquals("often", ((HashMap<?, ?>) list.getItemAtPosition(2)).get(ChoiceRows.VALUE).toString());
+
+		// a prompt shown again uses the same rows
+		ListView again = (ListView) prompt.getView(getContext());
+		assertSame(list.getItemAtPosition(0), again.getItemAtPosition(0));
+	}
+
+	public void testSingleChoiceCustomRowsKeptUntilAdded() {
+		SingleChoiceCustomPrompt prompt = new SingleChoiceCustomPrompt();
+		prompt.setId(PROMPT_ID);
+		prompt.setChoices(choices());
+
+		SingleChoiceCustomDbAdapter dbAdapter = new SingleChoiceCustomDbAdapter(mContext);
+		assertTrue(dbAdapter.open());
+		dbAdapter.addCustomChoice(100, "walk", USERNAME, CAMPAIGN_URN, SURVEY_ID, PROMPT_ID);
+
+		List<KVLTriplet> stored = prompt.getStoredChoices(mContext, USERNAME, CAMPAIGN_URN, SURVEY_ID);
+		assertEquals(1, stored.size());
+		assertEquals("walk", stored.get(0).label);
+
+		// a choice written behind the prompt's back isn't read, the rows read before are used
+		dbAdapter.addCustomChoice(101, "run", USERNAME, CAMPAIGN_URN, SURVEY_ID, PROMPT_ID);
+		dbAdapter.close();
+		assertSame(stored, prompt.getStoredChoices(mContext, USERNAME, CAMPAIGN_URN, SURVEY_ID));
+
+		// adding a choice drops the rows so all of them are read again
+		assertTrue(prompt.addStoredChoice(mContext, USERNAME, CAMPAIGN_URN, SURVEY_ID, 102, "swim"));
+		List<KVLTriplet> added = prompt.getStoredChoices(mContext, USERNAME, CAMPAIGN_URN, SURVEY_ID);
+		assertNotSame(stored, added);
+		assertEquals(3, added.size());
+		assertEquals("swim", added.get(2).label);
+	}
+
+	public void testMultiChoiceCustomRowsKeptUntilAdded() {
+		MultiChoiceCustomPrompt prompt = new MultiChoiceCustomPrompt();
+		prompt.setId(PROMPT_ID);
+		prompt.setChoices(choices());
+
+		MultiChoiceCustomDbAdapter dbAdapter = new MultiChoiceCustomDbAdapter(mContext);
+		assertTrue(dbAdapter.open());
+		dbAdapter.addCustomChoice(100, "walk", USERNAME, CAMPAIGN_URN, SURVEY_ID, PROMPT_ID);
+
+		List<KVLTriplet> stored = prompt.getStoredChoices(mContext, USERNAME, CAMPAIGN_URN, SURVEY_ID);
+		assertEquals(1, stored.size());
+
+		dbAdapter.addCustomChoice(101, "run", USERNAME, CAMPAIGN_URN, SURVEY_ID, PROMPT_ID);
+		dbAdapter.close();
+		assertSame(stored, prompt.getStoredChoices(mContext, USERNAME, CAMPAIGN_URN, SURVEY_ID));
+
+		assertTrue(prompt.addStoredChoice(mContext, USERNAME, CAMPAIGN_URN, SURVEY_ID, 102, "swim"));
+		List<KVLTriplet> added = prompt.getStoredChoices(mContext, USERNAME, CAMPAIGN_URN, SURVEY_ID);
+		assertEquals(3, added.size());
+		assertEquals("swim", added.get(2).label);
+	}
+}
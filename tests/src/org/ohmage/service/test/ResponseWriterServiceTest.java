@@ -0,0 +1,297 @@
+package org.ohmage.service.test;
+
+import android.content.ComponentName;
+import android.content.ContentResolver;
+import android.content.Context;
+import android.content.Intent;
+import android.database.Cursor;
+import android.test.AndroidTestCase;
+import android.test.RenamingDelegatingContext;
+import android.test.mock.MockContentResolver;
+import android.text.format.DateUtils;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.ohmage.db.DbContract;
+import org.ohmage.db.DbContract.Responses;
+import org.ohmage.db.DbHelper;
+import org.ohmage.db.DbProvider;
+import org.ohmage.service.ResponseWriterService;
+import org.ohmage.service.ResponseWriterService.Snapshot;
+import org.ohmage.service.SurveyGeotagService;
+import org.ohmage.triggers.base.TriggerActionDesc;
+import org.ohmage.triggers.base.TriggerDB;
+import org.ohmage.triggers.base.TriggerRunTimeDesc;
+import org.ohmage.triggers.notif.NotifDesc;
+import org.ohmage.triggers.notif.NotifSurveyAdaptor;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.UUID;
+
+/**
+ * Tests that submitted responses are journaled before they are written, that the writer stores
+ * each response once, and that journals left by a process which died are written on recovery
+ */
+public class ResponseWriterServiceTest extends AndroidTestCase {
+
+	private static final String CAMPAIGN_URN = "urn:campaign:writer";
+	private static final String SURVEY_TITLE = "Mood";
+
+	private Context mContext;
+	private DbHelper mDbHelper;
+
+	private final ArrayList<Intent> mStarted = new ArrayList<Intent>();
+	private final ArrayList<Intent> mBroadcasts = new ArrayList<Intent>();
+
+	/**
+	 * Runs the work of the service on the test thread with the test context
+	 */
+	private static class Writer extends ResponseWriterService {
+		Writer(Context base) {
+			attachBaseContext(base);
+		}
+
+		void write(Intent intent) {
+			doWakefulWork(intent);
+		}
+	}
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		final MockContentResolver resolver = new MockContentResolver();
+		mContext = new RenamingDelegatingContext(getContext(), "test.") {
+			@Override
+			public ContentResolver getContentResolver() {
+				return resolver;
+			}
+
+			@Override
+			public Context getApplicationContext() {
+				return this;
+			}
+
+			@Override
+			public ComponentName startService(Intent service) {
+				mStarted.add(service);
+				return service.getComponent();
+			}
+
+			@Override
+			public void sendBroadcast(Intent intent) {
+				mBroadcasts.add(intent);
+			}
+		};
+
+		DbProvider provider = new DbProvider();
+		provider.attachInfo(mContext, null);
+		resolver.addProvider(DbContract.CONTENT_AUTHORITY, provider);
+
+		mDbHelper = new DbHelper(mContext);
+		mDbHelper.clearAll(mDbHelper.getWritableDatabase());
+		ResponseWriterService.clear(mContext);
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		mContext.getSharedPreferences(NotifSurveyAdaptor.class.getName() + "_" + CAMPAIGN_URN, Context.MODE_PRIVATE)
+				.edit().clear().commit();
+		ResponseWriterService.clear(mContext);
+		mDbHelper.clearAll(mDbHelper.getWritableDatabase());
+		mDbHelper.close();
+		super.tearDown();
+	}
+
+	private static Snapshot snapshot() {
+		return snapshot("{\"launch_time\":1325419100000,\"active_triggers\":[]}");
+	}
+
+	private static Snapshot snapshot(String surveyLaunchContext) {
+		return new Snapshot(UUID.randomUUID().toString(), CAMPAIGN_URN, "user", "2012-01-01 12:00:00", 1325419200000L,
+				"America/Los_Angeles", "mood", surveyLaunchContext, "[{\"prompt_id\":\"p0\",\"value\":1}]");
+	}
+
+	private File getPendingDir() {
+		return new File(mContext.getFilesDir(), "pending_responses");
+	}
+
+	private String getLaunchContext(String uuid) {
+		Cursor c = mContext.getContentResolver().query(Responses.CONTENT_URI,
+				new String[] { Responses.RESPONSE_SURVEY_LAUNCH_CONTEXT }, Responses.RESPONSE_UUID + "=?",
+				new String[] { uuid }, null);
+		try {
+			return c.moveToFirst() ? c.getString(0) : null;
+		} finally {
+			c.close();
+		}
+	}
+
+	private int countResponses(String uuid) {
+		Cursor c = mContext.getContentResolver().query(Responses.CONTENT_URI, new String[] { Responses._ID },
+				Responses.RESPONSE_UUID + "=?", new String[] { uuid }, null);
+		try {
+			return c.getCount();
+		} finally {
+			c.close();
+		}
+	}
+
+	/**
+	 * @return the intents which were sent to the service
+	 */
+	private ArrayList<Intent> writerIntents() {
+		ArrayList<Intent> intents = new ArrayList<Intent>();
+		for (Intent intent : mStarted) {
+			if (ResponseWriterService.class.getName().equals(intent.getComponent().getClassName()))
+				intents.add(intent);
+		}
+		return intents;
+	}
+
+	public void testSubmitJournals() {
+		Snapshot snapshot = snapshot();
+		ResponseWriterService.submit(mContext, snapshot);
+
+		assertTrue(new File(getPendingDir(), snapshot.uuid).exists());
+		assertEquals(1, writerIntents().size());
+		// nothing is written until the service runs
+		assertEquals(0, countResponses(snapshot.uuid));
+	}
+
+	public void testWritesResponse() {
+		Snapshot snapshot = snapshot();
+		ResponseWriterService.submit(mContext, snapshot);
+		new Writer(mContext).write(writerIntents().get(0));
+
+		assertEquals(1, countResponses(snapshot.uuid));
+		assertFalse(new File(getPendingDir(), snapshot.uuid).exists());
+		assertEquals(1, mBroadcasts.size());
+		assertEquals(snapshot.response, mBroadcasts.get(0).getStringExtra(Responses.RESPONSE_JSON));
+
+		boolean geotagged = false;
+		for (Intent intent : mStarted)
+			geotagged |= SurveyGeotagService.class.getName().equals(intent.getComponent().getClassName());
+		assertTrue(geotagged);
+	}
+
+	/**
+	 * Journals which were never written are written when the service recovers, and a journal
+	 * whose response was already inserted isn't inserted again
+	 */
+	public void testRecovers() throws IOException {
+		Snapshot written = snapshot();
+		ResponseWriterService.submit(mContext, written);
+		Writer writer = new Writer(mContext);
+		writer.write(writerIntents().get(0));
+
+		// the process died after inserting this one but before deleting its journal, and before
+		// writing the other
+		ResponseWriterService.submit(mContext, written);
+		Snapshot pending = snapshot();
+		ResponseWriterService.submit(mContext, pending);
+		File partial = new File(getPendingDir(), "partial.tmp");
+		assertTrue(partial.createNewFile());
+		mStarted.clear();
+		mBroadcasts.clear();
+
+		ResponseWriterService.recover(mContext);
+		ArrayList<Intent> intents = writerIntents();
+		assertEquals(1, intents.size());
+		writer.write(intents.get(0));
+
+		assertEquals(1, countResponses(written.uuid));
+		assertEquals(1, countResponses(pending.uuid));
+		assertEquals(1, mBroadcasts.size());
+		assertEquals(0, getPendingDir().list().length);
+	}
+
+	/**
+	 * The survey is marked as taken right after it is submitted, which makes its triggers
+	 * inactive, so the triggers must be in the launch context before the service writes it
+	 */
+	public void testLaunchContextKeepsActiveTriggers() throws JSONException {
+		TriggerRunTimeDesc runTime = new TriggerRunTimeDesc();
+		runTime.setTriggerTimeStamp(System.currentTimeMillis() - DateUtils.MINUTE_IN_MILLIS);
+		NotifDesc notif = new NotifDesc();
+		notif.setDuration(60);
+		notif.setSuppression(30);
+		TriggerActionDesc action = new TriggerActionDesc();
+		action.addSurvey(SURVEY_TITLE);
+
+		TriggerDB triggers = new TriggerDB(mContext);
+		assertTrue(triggers.open());
+		long trigger = triggers.addTrigger(CAMPAIGN_URN, "TimeTrigger", "{}", action.toString(), notif.toString(),
+				runTime.toString());
+		triggers.close();
+
+		try {
+			Snapshot snapshot = snapshot(ResponseWriterService.getLaunchContext(mContext, CAMPAIGN_URN, SURVEY_TITLE,
+					1325419100000L, "America/Los_Angeles"));
+			ResponseWriterService.submit(mContext, snapshot);
+			NotifSurveyAdaptor.recordSurveyTaken(mContext, CAMPAIGN_URN, SURVEY_TITLE);
+			new Writer(mContext).write(writerIntents().get(0));
+
+			JSONObject launchContext = new JSONObject(getLaunchContext(snapshot.uuid));
+			assertEquals(1325419100000L, launchContext.getLong("launch_time"));
+			JSONArray active = launchContext.getJSONArray("active_triggers");
+			assertEquals(1, active.length());
+			assertEquals("TimeTrigger", active.getJSONObject(0).getString("trigger_type"));
+		} finally {
+			assertTrue(triggers.open());
+			triggers.deleteTrigger((int) trigger);
+			triggers.close();
+		}
+	}
+
+	/**
+	 * A survey submitted from the activity is only handed to the service, which takes the launch
+	 * context before it marks the survey as taken
+	 */
+	public void testSubmitSurveyTakesLaunchContextInService() throws JSONException {
+		TriggerRunTimeDesc runTime = new TriggerRunTimeDesc();
+		runTime.setTriggerTimeStamp(System.currentTimeMillis() - DateUtils.MINUTE_IN_MILLIS);
+		NotifDesc notif = new NotifDesc();
+		notif.setDuration(60);
+		notif.setSuppression(30);
+		TriggerActionDesc action = new TriggerActionDesc();
+		action.addSurvey(SURVEY_TITLE);
+
+		TriggerDB triggers = new TriggerDB(mContext);
+		assertTrue(triggers.open());
+		long trigger = triggers.addTrigger(CAMPAIGN_URN, "TimeTrigger", "{}", action.toString(), notif.toString(),
+				runTime.toString());
+		triggers.close();
+
+		try {
+			Snapshot snapshot = snapshot(null);
+			ResponseWriterService.submitSurvey(mContext, snapshot, SURVEY_TITLE, 1325419100000L);
+
+			// nothing is journaled until the service runs
+			assertFalse(getPendingDir().exists() && getPendingDir().list().length > 0);
+			assertEquals(1, writerIntents().size());
+
+			new Writer(mContext).write(writerIntents().get(0));
+
+			assertEquals(1, countResponses(snapshot.uuid));
+			assertEquals(0, getPendingDir().list().length);
+			JSONObject launchContext = new JSONObject(getLaunchContext(snapshot.uuid));
+			assertEquals(1325419100000L, launchContext.getLong("launch_time"));
+			assertEquals(1, launchContext.getJSONArray("active_triggers").length());
+
+			// the survey was marked as taken after its launch context was taken
+			assertEquals(0, NotifSurveyAdaptor.getActiveTriggerInfo(mContext, CAMPAIGN_URN, SURVEY_TITLE).length());
+		} finally {
+			assertTrue(triggers.open());
+			triggers.deleteTrigger((int) trigger);
+			triggers.close();
+		}
+	}
+
+	public void testNothingToRecover() {
+		ResponseWriterService.recover(mContext);
+		assertTrue(writerIntents().isEmpty());
+	}
+}
@@ -0,0 +1,185 @@
+package org.ohmage.test;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.content.Context;
+import android.os.SystemClock;
+import android.test.AndroidTestCase;
+import android.test.RenamingDelegatingContext;
+import android.test.mock.MockContentResolver;
+import android.util.Log;
+
+import org.ohmage.SurveyElementCache;
+import org.ohmage.db.DbContract;
+import org.ohmage.db.DbContract.Campaigns;
+import org.ohmage.db.DbHelper;
+import org.ohmage.db.DbProvider;
+import org.ohmage.db.Models.Campaign;
+import org.ohmage.prompt.AbstractPrompt;
+import org.ohmage.prompt.Message;
+import org.ohmage.prompt.SurveyElement;
+
+import java.util.List;
+
+/**
+ * Tests that surveys come from the {@link SurveyElementCache} once they have been parsed, that
+ * each survey gets its own elements, and that a changed campaign is parsed again
+ */
+public class SurveyElementCacheTest extends AndroidTestCase {
+
+	private static final String TAG = "SurveyElementCacheTest";
+
+	private static final String CAMPAIGN_URN = "urn:campaign:elements";
+	private static final String SURVEY_ID = "mood";
+
+	/** Prompts in the large survey used for timing */
+	private static final int PROMPT_COUNT = 200;
+
+	private Context mContext;
+	private DbHelper mDbHelper;
+	private DbProvider mProvider;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		final MockContentResolver resolver = new MockContentResolver();
+		mContext = new RenamingDelegatingContext(getContext(), "test.") {
+			@Override
+			public ContentResolver getContentResolver() {
+				return resolver;
+			}
+		};
+
+		mProvider = new DbProvider();
+		mProvider.attachInfo(mContext, null);
+		resolver.addProvider(DbContract.CONTENT_AUTHORITY, mProvider);
+
+		mDbHelper = new DbHelper(mContext);
+		mDbHelper.clearAll(mDbHelper.getWritableDatabase());
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		mDbHelper.clearAll(mDbHelper.getWritableDatabase());
+		mDbHelper.close();
+		super.tearDown();
+	}
+
+	private static String campaignXml(String promptText, int prompts) {
+		StringBuilder xml = new StringBuilder("<campaign><campaignUrn>" + CAMPAIGN_URN + "</campaignUrn>"
+				+ "<instructions>Answer honestly</instructions><surveys><survey><id>" + SURVEY_ID + "</id><contentList>"
+				+ "<message><id>intro</id><messageText>Hello</messageText></message>");
+		for (int i = 0; i < prompts; i++) {
+			xml.append("<prompt><id>p" + i + "</id><promptType>single_choice</promptType>"
+					+ "<displayLabel>Mood</displayLabel><promptText>" + promptText + "</promptText>"
+					+ "<skippable>false</skippable><properties>"
+					+ "<property><key>0</key><label>Sad</label></property>"
+					+ "<property><key>1</key><label>Happy</label></property>"
+					+ "</properties>" + (i > 0 ? "<condition>p" + (i - 1) + " == 1</condition>" : "") + "</prompt>");
+		}
+		return xml.append("</contentList></survey></surveys></campaign>").toString();
+	}
+
+	private void addCampaign(String created, String xml) {
+		ContentValues values = new ContentValues();
+		values.put(Campaigns.CAMPAIGN_URN, CAMPAIGN_URN);
+		values.put(Campaigns.CAMPAIGN_NAME, "Elements");
+		values.put(Campaigns.CAMPAIGN_CREATED, created);
+		values.put(Campaigns.CAMPAIGN_STATUS, Campaign.STATUS_READY);
+		values.put(Campaigns.CAMPAIGN_CONFIGURATION_XML, xml);
+		assertTrue(mDbHelper.addCampaign(mDbHelper.getWritableDatabase(), values) != -1);
+	}
+
+	private SurveyElementCache.Survey getSurvey() throws Exception {
+		SurveyElementCache.Survey survey = SurveyElementCache.get(mContext, CAMPAIGN_URN, SURVEY_ID);
+		assertNotNull(survey);
+		return survey;
+	}
+
+	private static String firstPromptText(List<SurveyElement> elements) {
+		return ((AbstractPrompt) elements.get(1)).getPromptText();
+	}
+
+	/**
+	 * The second lookup should come from memory but still build new elements
+	 */
+	public void testHitBuildsNewElements() throws Exception {
+		addCampaign("2012-01-01 00:00:00", campaignXml("How are you?", 2));
+
+		SurveyElementCache.Survey survey = getSurvey();
+		int hits = SurveyElementCache.getHits();
+		assertSame(survey, getSurvey());
+		assertEquals(hits + 1, SurveyElementCache.getHits());
+
+		assertEquals("Answer honestly", survey.instructions);
+		List<SurveyElement> first = survey.buildElements();
+		List<SurveyElement> second = survey.buildElements();
+		assertEquals(3, first.size());
+		assertEquals("Hello", ((Message) first.get(0)).getMessageText());
+		assertEquals("How are you?", firstPromptText(first));
+		for (int i = 0; i < first.size(); i++)
+			assertNotSame(first.get(i), second.get(i));
+	}
+
+	/**
+	 * A survey which was written to disk should read back the same after memory is dropped
+	 */
+	public void testReadsFromDisk() throws Exception {
+		addCampaign("2012-01-01 00:00:00", campaignXml("How are you?", 3));
+		List<SurveyElement> parsed = getSurvey().buildElements();
+
+		// without the xml the survey can only come from disk
+		SurveyElementCache.trimMemory();
+		mDbHelper.getWritableDatabase().execSQL("DELETE FROM campaign_xml");
+
+		SurveyElementCache.Survey survey = getSurvey();
+		List<SurveyElement> read = survey.buildElements();
+		assertEquals("Answer honestly", survey.instructions);
+		assertEquals(parsed.size(), read.size());
+		for (int i = 1; i < parsed.size(); i++) {
+			AbstractPrompt a = (AbstractPrompt) parsed.get(i);
+			AbstractPrompt b = (AbstractPrompt) read.get(i);
+			assertEquals(a.getId(), b.getId());
+			assertEquals(a.getPromptText(), b.getPromptText());
+			assertEquals(a.getDisplayLabel(), b.getDisplayLabel());
+		}
+	}
+
+	/**
+	 * New xml for the campaign should be parsed again even if its creation time didn't change
+	 */
+	public void testInvalidatedOnUpdate() throws Exception {
+		addCampaign("2012-01-01 00:00:00", campaignXml("How are you?", 1));
+		assertEquals("How are you?", firstPromptText(getSurvey().buildElements()));
+
+		ContentValues values = new ContentValues();
+		values.put(Campaigns.CAMPAIGN_CONFIGURATION_XML, campaignXml("How do you feel?", 1));
+		assertEquals(1, mProvider.update(Campaigns.buildCampaignUri(CAMPAIGN_URN), values, null, null));
+
+		assertEquals("How do you feel?", firstPromptText(getSurvey().buildElements()));
+	}
+
+	public void testMissingCampaign() throws Exception {
+		assertNull(SurveyElementCache.get(mContext, CAMPAIGN_URN, SURVEY_ID));
+	}
+
+	/**
+	 * Logs how long a survey takes to start when the xml is parsed compared to a hit
+	 */
+	public void testTiming() throws Exception {
+		addCampaign("2012-01-01 00:00:00", campaignXml("How are you?", PROMPT_COUNT));
+
+		long start = SystemClock.elapsedRealtime();
+		List<SurveyElement> elements = getSurvey().buildElements();
+		long cold = SystemClock.elapsedRealtime() - start;
+		assertEquals(PROMPT_COUNT + 1, elements.size());
+
+		start = SystemClock.elapsedRealtime();
+		for (int i = 0; i < 10; i++)
+			getSurvey().buildElements();
+		long hit = (SystemClock.elapsedRealtime() - start) / 10;
+
+		Log.i(TAG, PROMPT_COUNT + " prompts: parsed in " + cold + "ms, built from the cache in " + hit + "ms");
+		assertTrue(hit <= cold);
+	}
+}